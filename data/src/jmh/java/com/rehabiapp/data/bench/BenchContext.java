@@ -0,0 +1,100 @@
+package com.rehabiapp.data.bench;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.rehabiapp.data.DataApplication;
+import com.rehabiapp.data.application.service.SessionStorage;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+
+/**
+ * La aplicacion completa (sin servidor web) contra una base de datos MongoDB de benchmark.
+ *
+ * Por defecto mongodb://localhost:27017/rehabiapp_bench (-Dbench.mongo.uri para cambiarla),
+ * p. ej. un contenedor mongo:7.0 desechable. La base de datos se borra al arrancar: nunca
+ * apuntar a la de la aplicacion.
+ */
+final class BenchContext implements AutoCloseable {
+
+    static final String MONGO_URI = System.getProperty("bench.mongo.uri",
+            "mongodb://localhost:27017/rehabiapp_bench");
+
+    private static final long INDEX_WAIT_MS = 60_000;
+
+    private final ConfigurableApplicationContext context;
+
+    private BenchContext(ConfigurableApplicationContext context) {
+        this.context = context;
+    }
+
+    /**
+     * Borra la base de datos de bench.mongo.uri, arranca la aplicacion con properties (claves
+     * rehabiapp.*) y espera a que MongoIndexInitializer cree el indice de sessionId: el
+     * mantenimiento de los indices forma parte del coste de cada insercion.
+     */
+    static BenchContext start(Map<String, Object> properties) {
+        String database = new ConnectionString(MONGO_URI).getDatabase();
+        if (database == null) throw new IllegalArgumentException("bench.mongo.uri debe incluir la base de datos");
+        try (MongoClient client = MongoClients.create(MONGO_URI)) {
+            client.getDatabase(database).drop();
+        }
+        return open(MONGO_URI, properties);
+    }
+
+    /** La aplicacion sobre una base de datos existente (p. ej. la de SessionSeeder), sin borrarla. */
+    static BenchContext open(String uri, Map<String, Object> properties) {
+        // Argumentos de linea de comandos: prevalecen sobre application-local.yml, que solo
+        // aporta el appender de consola.
+        Map<String, Object> props = new LinkedHashMap<>();
+        props.put("spring.mongodb.uri", uri);
+        props.put("spring.main.banner-mode", "off");
+        props.put("logging.level.root", "WARN");
+        props.put("logging.level.com.rehabiapp", "WARN");
+        props.put("logging.level.org.springframework.data.mongodb", "WARN");
+        // Sin jobs programados que compitan con la carga medida.
+        props.put("rehabiapp.analytics.cron", "-");
+        props.putAll(properties);
+        String[] args = props.entrySet().stream()
+                .map(e -> "--" + e.getKey() + "=" + e.getValue())
+                .toArray(String[]::new);
+        BenchContext bench = new BenchContext(new SpringApplicationBuilder(DataApplication.class)
+                .web(WebApplicationType.NONE)
+                .profiles("local")
+                .run(args));
+        bench.awaitSessionIdIndex();
+        return bench;
+    }
+
+    <T> T bean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    private void awaitSessionIdIndex() {
+        MongoTemplate mongoTemplate = bean(MongoTemplate.class);
+        long deadline = System.currentTimeMillis() + INDEX_WAIT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            for (IndexInfo index : mongoTemplate.indexOps(SessionStorage.HOT).getIndexInfo()) {
+                if (index.isIndexForFields(List.of("sessionId"))) return;
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrumpido esperando los indices", e);
+            }
+        }
+        throw new IllegalStateException("game_sessions sin indice de sessionId tras " + INDEX_WAIT_MS + " ms");
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
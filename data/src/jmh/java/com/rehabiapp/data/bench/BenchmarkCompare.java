@@ -0,0 +1,84 @@
+package com.rehabiapp.data.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compara dos resultados JSON de JMH (p. ej. de BenchmarkSuite en dos ramas):
+ *   BenchmarkCompare base.json candidata.json
+ * Por benchmark y parametros imprime la metrica principal y las secundarias de memoria y
+ * MongoDB con su variacion. Sale con codigo 1 si alguna metrica principal empeora mas de
+ * -Dbench.threshold por ciento (10 por defecto) y mas que la suma de los errores.
+ */
+public final class BenchmarkCompare {
+
+    private static final List<String> SECONDARY = List.of(
+            "mongo.docsExamined", "mongo.keysExamined", "mongo.spills", "gc.alloc.rate.norm", "mongo.residentMB");
+
+    private BenchmarkCompare() { }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) throw new IllegalArgumentException("uso: BenchmarkCompare base.json candidata.json");
+        double threshold = Double.parseDouble(System.getProperty("bench.threshold", "10"));
+        Map<String, JsonNode> base = read(args[0]);
+        Map<String, JsonNode> candidate = read(args[1]);
+
+        int regressions = 0;
+        for (Map.Entry<String, JsonNode> e : candidate.entrySet()) {
+            JsonNode b = base.get(e.getKey());
+            if (b == null) {
+                System.out.println(e.getKey() + "  (sin resultado base)");
+                continue;
+            }
+            JsonNode c = e.getValue();
+            System.out.println(e.getKey());
+            JsonNode bp = b.path("primaryMetric");
+            JsonNode cp = c.path("primaryMetric");
+            double delta = line("score", bp, cp);
+            boolean higherIsBetter = "thrpt".equals(c.path("mode").asText());
+            double worse = higherIsBetter ? -delta : delta;
+            double noise = bp.path("scoreError").asDouble(0) + cp.path("scoreError").asDouble(0);
+            if (worse > threshold && Math.abs(cp.path("score").asDouble() - bp.path("score").asDouble()) > noise) {
+                System.out.println("    ^ regresion");
+                regressions++;
+            }
+            for (String metric : SECONDARY) {
+                JsonNode bs = b.path("secondaryMetrics").path(metric);
+                JsonNode cs = c.path("secondaryMetrics").path(metric);
+                if (!bs.isMissingNode() && !cs.isMissingNode()) line(metric, bs, cs);
+            }
+        }
+        if (regressions > 0) {
+            System.out.printf("%d regresiones de mas del %.0f %%%n", regressions, threshold);
+            System.exit(1);
+        }
+    }
+
+    /** Imprime base, candidata y variacion en porcentaje; devuelve la variacion. */
+    private static double line(String name, JsonNode base, JsonNode candidate) {
+        double b = base.path("score").asDouble();
+        double c = candidate.path("score").asDouble();
+        double delta = b == 0 ? 0 : (c - b) / b * 100;
+        System.out.printf("  %-22s %14.3f -> %14.3f %-10s %+7.1f %%%n",
+                name, b, c, candidate.path("scoreUnit").asText(), delta);
+        return delta;
+    }
+
+    /** Resultados por benchmark y parametros (ordenados) para emparejar ambos ficheros. */
+    private static Map<String, JsonNode> read(String path) throws IOException {
+        Map<String, JsonNode> out = new LinkedHashMap<>();
+        for (JsonNode r : new ObjectMapper().readTree(new File(path))) {
+            Map<String, String> params = new TreeMap<>();
+            r.path("params").properties().forEach(p -> params.put(p.getKey(), p.getValue().asText()));
+            String name = r.path("benchmark").asText().replace("com.rehabiapp.data.bench.", "");
+            out.put(name + " [" + r.path("mode").asText() + "] " + params, r);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,62 @@
+package com.rehabiapp.data.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Ejecuta benchmarks JMH con MongoProfiler y el profiler gc y guarda el resultado en JSON en
+ * target/bench/{rama}-{commit}.json (o -Dbench.label), para compararlo con BenchmarkCompare.
+ * Acepta las opciones de linea de comandos de JMH; sin patron ejecuta PipelineBenchmark.
+ */
+public final class BenchmarkSuite {
+
+    private BenchmarkSuite() { }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cli)
+                .addProfiler(MongoProfiler.class)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON);
+        if (cli.getIncludes().isEmpty()) options.include(PipelineBenchmark.class.getSimpleName());
+        if (!cli.getResult().hasValue()) {
+            String label = System.getProperty("bench.label", "");
+            Path out = Path.of("target", "bench", (label.isBlank() ? gitLabel() : label) + ".json");
+            Files.createDirectories(out.getParent());
+            options.result(out.toString());
+        }
+        new Runner(options.build()).run();
+    }
+
+    /** rama-commit del checkout actual, o "local" fuera de git. */
+    private static String gitLabel() {
+        String branch = git("rev-parse", "--abbrev-ref", "HEAD");
+        String commit = git("rev-parse", "--short", "HEAD");
+        if (branch == null || commit == null) return "local";
+        return branch.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + commit;
+    }
+
+    private static String git(String... args) {
+        String[] command = new String[args.length + 1];
+        command[0] = "git";
+        System.arraycopy(args, 0, command, 1, args.length);
+        try {
+            Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+            String out = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+            return p.waitFor() == 0 && !out.isEmpty() ? out : null;
+        } catch (IOException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
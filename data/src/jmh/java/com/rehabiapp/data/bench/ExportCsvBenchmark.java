@@ -0,0 +1,106 @@
+package com.rehabiapp.data.bench;
+
+import com.rehabiapp.data.application.service.ExportService;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CSV de un paciente (GET /analytics/export/{dni}?format=csv) con los dos lectores de
+ * rehabiapp.export.csv-reader: RawBsonDocument proyectado frente a mapeo a GameSession. El
+ * paciente es el mas activo de la siembra (del orden de 10^5 sesiones con 1M); el contador
+ * rows da filas/s, comparables entre lectores aunque cambie el numero de filas.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.nio=ALL-UNNAMED")
+public class ExportCsvBenchmark {
+
+    @Param({"1000000"})
+    public int sessions;
+
+    @Param({"0"})
+    public int patients;
+
+    @Param({"raw", "mapped"})
+    public String csvReader;
+
+    private BenchContext context;
+    private ExportService export;
+    private String dni;
+
+    @Setup(Level.Trial)
+    public void start() {
+        SessionSeeder.Seeded seeded = SessionSeeder.ensure(sessions, SessionSeeder.patients(sessions, patients));
+        context = BenchContext.open(seeded.uri(), Map.of("rehabiapp.export.csv-reader", csvReader));
+        export = context.bean(ExportService.class);
+        dni = SessionRequestGenerator.dni(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Rows {
+
+        public long rows;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rows = 0;
+        }
+    }
+
+    @Benchmark
+    public void csv(Rows rows) throws IOException {
+        LineCounter lines = new LineCounter();
+        try (PrintWriter out = new PrintWriter(lines)) {
+            export.streamCsv(dni, null, null, out);
+        }
+        rows.rows += lines.count - 1;
+    }
+
+    /** Descarta la salida y cuenta los fines de linea (la cabecera es la primera). */
+    private static final class LineCounter extends Writer {
+
+        long count;
+
+        @Override
+        public void write(char[] buf, int off, int len) {
+            for (int i = off; i < off + len; i++) if (buf[i] == '\n') count++;
+        }
+
+        @Override
+        public void write(String s, int off, int len) {
+            for (int i = off; i < off + len; i++) if (s.charAt(i) == '\n') count++;
+        }
+
+        @Override
+        public void flush() { }
+
+        @Override
+        public void close() { }
+    }
+}
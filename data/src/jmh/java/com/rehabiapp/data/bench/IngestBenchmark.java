@@ -0,0 +1,112 @@
+package com.rehabiapp.data.bench;
+
+import com.rehabiapp.data.application.service.dto.BatchIngestResponse;
+import com.rehabiapp.data.application.service.dto.GameSessionIngestResponse;
+import com.rehabiapp.data.presentation.IngestController;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * Ingesta de extremo a extremo (IngestController, servicio, MongoDB) con sesiones de
+ * SessionRequestGenerator. Throughput en sesiones/s (el lote cuenta BATCH_SIZE operaciones)
+ * y, en los metodos *Latency, percentiles p50/p99 por peticion.
+ *
+ * Cada combinacion de parametros arranca la aplicacion sobre una base de datos vacia en
+ * bench.mongo.uri (ver BenchContext); la coleccion crece durante la medida como en produccion.
+ * Los parametros son las opciones de ingesta a comparar, p. ej. -p storage=timeseries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.nio=ALL-UNNAMED")
+@Threads(8)
+public class IngestBenchmark {
+
+    static final int BATCH_SIZE = 100;
+
+    @Param({"insert-only", "precheck"})
+    public String idempotencyMode;
+
+    @Param({"standard"})
+    public String storage;
+
+    @Param({"full"})
+    public String levelStatsMode;
+
+    private BenchContext context;
+    private IngestController controller;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = BenchContext.start(Map.of(
+                "rehabiapp.ingest.idempotency-mode", idempotencyMode,
+                "rehabiapp.sessions.storage", storage,
+                "rehabiapp.analytics.level-stats-mode", levelStatsMode,
+                "rehabiapp.ingest.batch.max-size", BATCH_SIZE));
+        controller = context.bean(IngestController.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    /** Un generador por hilo: 5000 pacientes, Zipf 1.1, sin duplicados, ultimos 90 dias. */
+    @State(Scope.Thread)
+    public static class Feed {
+
+        SessionRequestGenerator generator;
+
+        @Setup(Level.Trial)
+        public void create(ThreadParams thread) {
+            generator = new SessionRequestGenerator(42L + thread.getThreadIndex(),
+                    "jmh-" + System.nanoTime() + "-" + thread.getThreadIndex(),
+                    5000, 1.1, 0, Duration.ofDays(90));
+        }
+    }
+
+    @Benchmark
+    public ResponseEntity<GameSessionIngestResponse> single(Feed feed) {
+        return controller.ingestGameSession(feed.generator.next());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public ResponseEntity<BatchIngestResponse> batch(Feed feed) {
+        return controller.ingestGameSessionBatch(feed.generator.next(BATCH_SIZE));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ResponseEntity<GameSessionIngestResponse> singleLatency(Feed feed) {
+        return single(feed);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ResponseEntity<BatchIngestResponse> batchLatency(Feed feed) {
+        return controller.ingestGameSessionBatch(feed.generator.next(BATCH_SIZE));
+    }
+}
@@ -0,0 +1,236 @@
+package com.rehabiapp.data.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.rehabiapp.data.application.service.dto.GameSessionIngestRequest;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generador de carga de ingesta: reproduce un flujo de SessionRequestGenerator contra
+ * IngestController durante un tiempo fijo e informa de sesiones/s sostenidas y latencia
+ * p50/p99 por peticion.
+ *
+ * Destinos: --target=in-process arranca la aplicacion contra bench.mongo.uri (BenchContext) y
+ * llama al controller; --target=http://host:8081 ataca un servicio desplegado (--key = clave
+ * interna). Con --rate=N (sesiones/s) la carga es de bucle abierto: cada peticion tiene una
+ * hora de envio planificada y la latencia se mide desde ella, asi que un servidor atascado no
+ * frena al generador ni oculta la cola (coordinated omission). Sin --rate cada hilo envia en
+ * cuanto recibe la respuesta anterior y se mide el maximo sostenible.
+ *
+ * Opciones (--clave=valor): target, key, concurrency (16), rate (0), batch (1), duration (60 s),
+ * warmup (10 s), patients (5000), skew (1.1), duplicates (0.01), seed (42), json (fichero de
+ * resultados para comparar versiones). En in-process, las opciones rehabiapp.* se pasan a la
+ * aplicacion, p. ej. --rehabiapp.ingest.async.enabled=true.
+ */
+public final class IngestLoadGenerator {
+
+    private final IngestTarget target;
+    private final Map<String, String> options;
+    private final int concurrency;
+    private final double rate;
+    private final int batch;
+    private final Duration duration;
+    private final Duration warmup;
+
+    private IngestLoadGenerator(IngestTarget target, Map<String, String> options) {
+        this.target = target;
+        this.options = options;
+        this.concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        this.batch = Integer.parseInt(options.getOrDefault("batch", "1"));
+        this.duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "60")));
+        this.warmup = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "10")));
+        if (concurrency < 1 || batch < 1) throw new IllegalArgumentException("concurrency y batch deben ser >= 1");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        String where = options.getOrDefault("target", "in-process");
+        try (IngestTarget target = where.equals("in-process")
+                ? new IngestTarget.InProcess(BenchContext.start(applicationProperties(options)))
+                : new IngestTarget.Http(where, options.getOrDefault("key", ""))) {
+            Result result = new IngestLoadGenerator(target, options).run();
+            System.out.println(result.report());
+            String json = options.get("json");
+            if (json != null) {
+                new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT)
+                        .writeValue(new File(json), result.toMap(where, options));
+                System.out.println("Resultados en " + json);
+            }
+        }
+    }
+
+    private Result run() throws InterruptedException {
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        // Bucle abierto: cada hilo envia una peticion cada interval, desfasado offset del resto.
+        long interval = rate > 0 ? (long) (1e9 * batch * concurrency / rate) : 0;
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency,
+                Thread.ofPlatform().name("load-", 0).daemon(true).factory());
+        List<Future<Worker>> futures = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            Worker w = new Worker(new SessionRequestGenerator(seed + i, "load-" + runId + "-" + i,
+                    Integer.parseInt(options.getOrDefault("patients", "5000")),
+                    Double.parseDouble(options.getOrDefault("skew", "1.1")),
+                    Double.parseDouble(options.getOrDefault("duplicates", "0.01")),
+                    Duration.ofDays(90)));
+            long offset = interval * i / concurrency;
+            futures.add(pool.submit(() -> w.run(start + offset, interval, measureFrom, end)));
+        }
+
+        Result result = new Result(duration, batch);
+        try {
+            for (Future<Worker> f : futures) result.add(f.get());
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("fallo en un hilo de carga", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        Arrays.sort(result.latencies);
+        return result;
+    }
+
+    private final class Worker {
+
+        private final SessionRequestGenerator generator;
+        private long[] latencies = new long[1024];
+        private int samples;
+        private long sessions;
+        private final Map<Integer, Long> statuses = new TreeMap<>();
+
+        Worker(SessionRequestGenerator generator) {
+            this.generator = generator;
+        }
+
+        Worker run(long first, long interval, long measureFrom, long end) throws InterruptedException {
+            long planned = first;
+            while (true) {
+                long now = System.nanoTime();
+                if (interval > 0) {
+                    if (planned >= end) break;
+                    if (planned > now) LockSupport.parkNanos(planned - now);
+                } else {
+                    if (now >= end) break;
+                    planned = now;
+                }
+                List<GameSessionIngestRequest> sessionsOut = generator.next(batch);
+                int status;
+                try {
+                    status = target.send(sessionsOut);
+                } catch (IOException e) {
+                    status = -1;
+                }
+                long latency = System.nanoTime() - planned;
+                if (planned >= measureFrom) record(status, latency);
+                if (interval > 0) planned += interval;
+            }
+            return this;
+        }
+
+        private void record(int status, long latencyNanos) {
+            if (samples == latencies.length) latencies = Arrays.copyOf(latencies, samples * 2);
+            latencies[samples++] = latencyNanos;
+            statuses.merge(status, 1L, Long::sum);
+            if (status >= 200 && status < 300) sessions += batch;
+        }
+    }
+
+    /** Agregado de todos los hilos. Los codigos -1 son errores de red o timeouts. */
+    private static final class Result {
+
+        private final Duration duration;
+        private final int batch;
+        private long[] latencies = new long[0];
+        private long sessions;
+        private final Map<Integer, Long> statuses = new TreeMap<>();
+
+        Result(Duration duration, int batch) {
+            this.duration = duration;
+            this.batch = batch;
+        }
+
+        void add(Worker w) {
+            int n = latencies.length;
+            latencies = Arrays.copyOf(latencies, n + w.samples);
+            System.arraycopy(w.latencies, 0, latencies, n, w.samples);
+            sessions += w.sessions;
+            w.statuses.forEach((k, v) -> statuses.merge(k, v, Long::sum));
+        }
+
+        double sessionsPerSecond() {
+            return sessions / (double) duration.toSeconds();
+        }
+
+        /** Percentil por rango mas cercano, en milisegundos (latencias ya ordenadas). */
+        double percentileMs(double p) {
+            if (latencies.length == 0) return Double.NaN;
+            if (p >= 100) return latencies[latencies.length - 1] / 1e6;
+            int rank = (int) Math.ceil(p / 100 * latencies.length);
+            return latencies[Math.max(0, rank - 1)] / 1e6;
+        }
+
+        String report() {
+            return String.format("peticiones=%d (lote %d) sesiones aceptadas=%d en %d s%n"
+                            + "sesiones/s sostenidas=%.1f%n"
+                            + "latencia ms p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n"
+                            + "codigos=%s",
+                    latencies.length, batch, sessions, duration.toSeconds(), sessionsPerSecond(),
+                    percentileMs(50), percentileMs(90), percentileMs(99), percentileMs(99.9), percentileMs(100),
+                    statuses);
+        }
+
+        Map<String, Object> toMap(String target, Map<String, String> options) {
+            Map<String, Object> latency = new LinkedHashMap<>();
+            latency.put("p50", percentileMs(50));
+            latency.put("p90", percentileMs(90));
+            latency.put("p99", percentileMs(99));
+            latency.put("p999", percentileMs(99.9));
+            latency.put("max", percentileMs(100));
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("target", target);
+            out.put("options", options);
+            out.put("requests", latencies.length);
+            out.put("sessions", sessions);
+            out.put("sessionsPerSecond", sessionsPerSecond());
+            out.put("latencyMs", latency);
+            out.put("statuses", statuses);
+            return out;
+        }
+    }
+
+    private static Map<String, Object> applicationProperties(Map<String, String> options) {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        options.forEach((k, v) -> {
+            if (k.startsWith("rehabiapp.")) properties.put(k, v);
+        });
+        return properties;
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (!a.startsWith("--") || eq < 0) throw new IllegalArgumentException("opcion no valida: " + a);
+            options.put(a.substring(2, eq), a.substring(eq + 1));
+        }
+        return options;
+    }
+}
@@ -0,0 +1,111 @@
+package com.rehabiapp.data.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.rehabiapp.data.application.service.DuplicateSessionException;
+import com.rehabiapp.data.application.service.IngestBackpressureException;
+import com.rehabiapp.data.application.service.dto.GameSessionIngestRequest;
+import com.rehabiapp.data.presentation.IngestController;
+import jakarta.validation.Validator;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Destino de la carga: una peticion de ingesta (una sesion o un lote) y su codigo HTTP.
+ * Las implementaciones deben poder usarse desde varios hilos a la vez.
+ */
+interface IngestTarget extends AutoCloseable {
+
+    /** Lote de una sesion: POST /ingest/game-session; mas: POST /ingest/game-sessions:batch. */
+    int send(List<GameSessionIngestRequest> sessions) throws IOException, InterruptedException;
+
+    @Override
+    default void close() { }
+
+    /** Servicio desplegado (p. ej. localhost:8081) con la clave interna compartida. */
+    final class Http implements IngestTarget {
+
+        private static final ObjectMapper MAPPER = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+        private final HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        private final URI single;
+        private final URI batch;
+        private final String key;
+
+        Http(String baseUrl, String key) {
+            String base = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+            this.single = URI.create(base + "/ingest/game-session");
+            this.batch = URI.create(base + "/ingest/game-sessions:batch");
+            this.key = key;
+        }
+
+        @Override
+        public int send(List<GameSessionIngestRequest> sessions) throws IOException, InterruptedException {
+            boolean one = sessions.size() == 1;
+            byte[] body = MAPPER.writeValueAsBytes(one ? sessions.get(0) : sessions);
+            HttpRequest request = HttpRequest.newBuilder(one ? single : batch)
+                    .timeout(Duration.ofSeconds(30))
+                    .header("Content-Type", "application/json")
+                    .header("X-Internal-Key", key)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                    .build();
+            return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        }
+
+        @Override
+        public void close() {
+            client.close();
+        }
+    }
+
+    /**
+     * IngestController de un BenchContext, sin HTTP: mide controller, servicio y MongoDB. La
+     * validacion de @Valid se hace aqui con el Validator de la aplicacion, y las excepciones se
+     * traducen al codigo que daria GlobalExceptionHandler.
+     */
+    final class InProcess implements IngestTarget {
+
+        private final BenchContext context;
+        private final IngestController controller;
+        private final Validator validator;
+
+        InProcess(BenchContext context) {
+            this.context = context;
+            this.controller = context.bean(IngestController.class);
+            this.validator = context.bean(Validator.class);
+        }
+
+        @Override
+        public int send(List<GameSessionIngestRequest> sessions) {
+            try {
+                if (sessions.size() > 1) {
+                    return controller.ingestGameSessionBatch(sessions).getStatusCode().value();
+                }
+                if (!validator.validate(sessions.get(0)).isEmpty()) return 400;
+                return controller.ingestGameSession(sessions.get(0)).getStatusCode().value();
+            } catch (DuplicateSessionException e) {
+                return 409;
+            } catch (IngestBackpressureException e) {
+                return 429;
+            } catch (RuntimeException e) {
+                return 500;
+            }
+        }
+
+        @Override
+        public void close() {
+            context.close();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.rehabiapp.data.bench;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.CreateCollectionOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+import org.openjdk.jmh.results.TextResult;
+
+/**
+ * Profiler de JMH (-prof com.rehabiapp.data.bench.MongoProfiler) con lo que MongoDB hizo en
+ * cada iteracion, leido del profiler de la base de datos del benchmark (nivel 2, todas las
+ * operaciones) y dividido entre las invocaciones:
+ * mongo.docsExamined, mongo.keysExamined y mongo.nReturned por invocacion, mongo.spills
+ * (etapas que escribieron a disco por invocacion), mongo.serverMillis, mongo.residentMB
+ * (memoria residente de mongod al acabar la iteracion) y los planSummary vistos.
+ *
+ * La base de datos es la de SessionSeeder si el benchmark tiene los parametros sessions y
+ * patients, y si no la de bench.mongo.uri. El profiling se queda activo al terminar: son bases
+ * de datos solo de benchmark.
+ */
+public class MongoProfiler implements InternalProfiler {
+
+    /** system.profile por defecto es de 1 MB y rotaria en iteraciones con muchas consultas. */
+    private static final long PROFILE_BYTES = 64L * 1024 * 1024;
+
+    private MongoClient client;
+    private MongoDatabase db;
+    private BsonTimestamp mark;
+
+    @Override
+    public String getDescription() {
+        return "MongoDB por invocacion: documentos y claves examinados, spills a disco, memoria residente";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        if (db == null) open(benchmarkParams);
+        // Se comprueba en cada iteracion: la siembra del @Setup borra la base de datos.
+        if (number(db.runCommand(new Document("profile", -1)), "was") != 2) enableProfiling();
+        // Marca con el ts del ultimo registro, no con el reloj local: vale con un mongod remoto.
+        Document last = db.getCollection("system.profile").find()
+                .sort(Sorts.descending("ts")).limit(1).first();
+        mark = last != null ? last.get("ts", BsonTimestamp.class) : null;
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams,
+                                                       IterationParams iterationParams,
+                                                       IterationResult result) {
+        long ops = Math.max(1, result.getMetadata().getAllOps());
+        long docs = 0, keys = 0, returned = 0, spills = 0, millis = 0;
+        TreeSet<String> plans = new TreeSet<>();
+
+        List<Bson> filters = new ArrayList<>(List.of(
+                Filters.regex("ns", "^" + db.getName() + "\\.(?!system\\.)"),
+                Filters.in("op", "command", "query", "getmore")));
+        if (mark != null) filters.add(Filters.gt("ts", mark));
+        for (Document p : db.getCollection("system.profile").find(Filters.and(filters))) {
+            docs += number(p, "docsExamined");
+            keys += number(p, "keysExamined");
+            returned += number(p, "nreturned");
+            millis += number(p, "millis");
+            if (Boolean.TRUE.equals(p.getBoolean("usedDisk"))) spills++;
+            String plan = p.getString("planSummary");
+            if (plan != null) plans.add(plan);
+        }
+
+        Document mem = db.runCommand(new Document("serverStatus", 1)).get("mem", Document.class);
+        double resident = mem != null ? number(mem, "resident") : Double.NaN;
+
+        return List.of(
+                new ScalarResult("mongo.docsExamined", (double) docs / ops, "docs/op", AggregationPolicy.AVG),
+                new ScalarResult("mongo.keysExamined", (double) keys / ops, "keys/op", AggregationPolicy.AVG),
+                new ScalarResult("mongo.nReturned", (double) returned / ops, "docs/op", AggregationPolicy.AVG),
+                new ScalarResult("mongo.spills", (double) spills / ops, "#/op", AggregationPolicy.AVG),
+                new ScalarResult("mongo.serverMillis", (double) millis / ops, "ms/op", AggregationPolicy.AVG),
+                new ScalarResult("mongo.residentMB", resident, "MB", AggregationPolicy.MAX),
+                new TextResult(String.join("\n", plans), "mongo.plans"));
+    }
+
+    private void open(BenchmarkParams params) {
+        String sessions = params.getParam("sessions");
+        String patients = params.getParam("patients");
+        String uri = BenchContext.MONGO_URI;
+        if (sessions != null && patients != null) {
+            int n = Integer.parseInt(sessions);
+            uri = SessionSeeder.uri(SessionSeeder.database(n, SessionSeeder.patients(n, Integer.parseInt(patients))));
+        }
+        client = MongoClients.create(uri);
+        db = client.getDatabase(new ConnectionString(uri).getDatabase());
+        Runtime.getRuntime().addShutdownHook(new Thread(client::close));
+    }
+
+    private void enableProfiling() {
+        db.runCommand(new Document("profile", 0));
+        db.getCollection("system.profile").drop();
+        db.createCollection("system.profile",
+                new CreateCollectionOptions().capped(true).sizeInBytes(PROFILE_BYTES));
+        db.runCommand(new Document("profile", 2));
+    }
+
+    private static long number(Document d, String key) {
+        Object v = d.get(key);
+        return v instanceof Number n ? n.longValue() : 0;
+    }
+}
@@ -0,0 +1,108 @@
+package com.rehabiapp.data.bench;
+
+import com.rehabiapp.data.application.pipeline.CohortComparisonPipeline;
+import com.rehabiapp.data.application.pipeline.MonthlyDisabilityPipeline;
+import com.rehabiapp.data.application.pipeline.RomTimeSeriesPipeline;
+import com.rehabiapp.data.application.pipeline.WeeklyGamePipeline;
+import com.rehabiapp.data.application.service.dto.RomTimeSeriesPoint;
+import com.rehabiapp.data.domain.model.PatientProgress;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pipelines de analitica sobre game_sessions sembrada por SessionSeeder (1M, 10M y 50M de
+ * sesiones, 500 sesiones por paciente salvo -p patients=N), con los mismos argumentos que en
+ * produccion: semanal y mensual sobre la ventana de refresco de 90 dias, y serie de ROM y
+ * comparacion de cohorte de los ultimos 180 dias para el paciente mas activo (el peor caso).
+ *
+ * Tiempo medio por ejecucion; BenchmarkSuite anade MongoProfiler (documentos examinados) y el
+ * profiler gc de JMH (memoria asignada en la JVM por ejecucion).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 20)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.nio=ALL-UNNAMED")
+public class PipelineBenchmark {
+
+    private static final Duration REFRESH_WINDOW = Duration.ofDays(90);
+    private static final Duration READ_WINDOW = Duration.ofDays(180);
+
+    @Param({"1000000", "10000000", "50000000"})
+    public int sessions;
+
+    /** 0: una media de 500 sesiones por paciente. */
+    @Param({"0"})
+    public int patients;
+
+    private BenchContext context;
+    private WeeklyGamePipeline weekly;
+    private MonthlyDisabilityPipeline monthly;
+    private RomTimeSeriesPipeline romTimeSeries;
+    private CohortComparisonPipeline cohortComparison;
+    private Instant since;
+    private Instant from;
+    private Instant to;
+    private String dni;
+    private String disability;
+    private int level;
+
+    @Setup(Level.Trial)
+    public void start() {
+        SessionSeeder.Seeded seeded = SessionSeeder.ensure(sessions, SessionSeeder.patients(sessions, patients));
+        context = BenchContext.open(seeded.uri(), Map.of());
+        weekly = context.bean(WeeklyGamePipeline.class);
+        monthly = context.bean(MonthlyDisabilityPipeline.class);
+        romTimeSeries = context.bean(RomTimeSeriesPipeline.class);
+        cohortComparison = context.bean(CohortComparisonPipeline.class);
+        // Instantes relativos a la siembra: los resultados no cambian con la fecha de ejecucion.
+        to = seeded.seededAt();
+        since = to.minus(REFRESH_WINDOW);
+        from = to.minus(READ_WINDOW);
+        dni = SessionRequestGenerator.dni(0);
+        disability = SessionRequestGenerator.disabilityOf(0);
+        level = SessionRequestGenerator.levelOf(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<PatientProgress> weeklyGame() {
+        return weekly.run(since);
+    }
+
+    @Benchmark
+    public List<PatientProgress> monthlyDisability() {
+        return monthly.run(since);
+    }
+
+    @Benchmark
+    public List<RomTimeSeriesPoint> romTimeSeries() {
+        return romTimeSeries.run(dni, "week", from, to, null);
+    }
+
+    @Benchmark
+    public CohortComparisonPipeline.Comparison cohortComparison() {
+        return cohortComparison.run(dni, disability, level, from, to);
+    }
+}
@@ -0,0 +1,157 @@
+package com.rehabiapp.data.bench;
+
+import com.rehabiapp.data.application.service.dto.GameSessionIngestRequest;
+import com.rehabiapp.data.application.service.dto.MovementMetricsDto;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Flujo sintetico y reproducible (misma semilla, mismas peticiones) de GameSessionIngestRequest.
+ *
+ * La actividad por paciente sigue una Zipf de exponente skew sobre patients pacientes: con
+ * skew = 1.1 y 5000 pacientes, el 1 % mas activo genera alrededor del 60 % de las sesiones,
+ * como en las clinicas con pocos pacientes intensivos y una cola larga de ocasionales. Cada
+ * paciente tiene una discapacidad y un nivel fijos y juega sobre todo a dos juegos; el ROM
+ * depende de la discapacidad y del nivel. Con duplicateRatio > 0 se reenvia un sessionId ya
+ * emitido, como los reintentos del Core API.
+ *
+ * No es seguro entre hilos: una instancia por hilo con semilla y prefijo propios.
+ */
+public final class SessionRequestGenerator {
+
+    static final String DNI_LETTERS = "TRWAGMYFPDXBNJZSQVHLCKE";
+
+    private static final String[] GAMES = {
+            "reach-and-grab", "pinch-garden", "wrist-rally", "balance-boat", "finger-piano", "shoulder-climb"};
+    private static final String[] DISABILITIES = {"G80", "G81", "G82", "I63", "M25.5", "S14"};
+    /** ROM medio en grados por discapacidad (mismo orden que DISABILITIES). */
+    private static final double[] BASE_ROM = {70, 85, 60, 95, 120, 55};
+
+    private static final int RECENT_IDS = 1024;
+
+    private final SplittableRandom random;
+    private final String idPrefix;
+    private final double duplicateRatio;
+    private final Instant windowEnd;
+    private final long windowSeconds;
+    private final double[] cdf;
+    private final String[] dnis;
+    private final String[] recent = new String[RECENT_IDS];
+    private long emitted;
+
+    /**
+     * @param seed           semilla del flujo
+     * @param idPrefix       prefijo de los sessionId; distinto por hilo y por ejecucion
+     * @param patients       pacientes distintos
+     * @param skew           exponente Zipf de la actividad por paciente (0 = uniforme)
+     * @param duplicateRatio fraccion de peticiones que repiten un sessionId reciente
+     * @param window         las sesiones empiezan en [ahora - window, ahora)
+     */
+    public SessionRequestGenerator(long seed, String idPrefix, int patients, double skew,
+                                   double duplicateRatio, Duration window) {
+        this(seed, idPrefix, patients, skew, duplicateRatio, Instant.now(), window);
+    }
+
+    /** Igual, con las sesiones en [windowEnd - window, windowEnd): datos sembrados reproducibles. */
+    public SessionRequestGenerator(long seed, String idPrefix, int patients, double skew,
+                                   double duplicateRatio, Instant windowEnd, Duration window) {
+        if (patients < 1) throw new IllegalArgumentException("patients debe ser >= 1");
+        this.random = new SplittableRandom(seed);
+        this.idPrefix = idPrefix;
+        this.duplicateRatio = duplicateRatio;
+        this.windowEnd = windowEnd;
+        this.windowSeconds = Math.max(1, window.toSeconds());
+        this.cdf = zipfCdf(patients, skew);
+        this.dnis = new String[patients];
+        for (int i = 0; i < patients; i++) dnis[i] = dni(i);
+    }
+
+    public GameSessionIngestRequest next() {
+        String sessionId;
+        if (emitted > 0 && duplicateRatio > 0 && random.nextDouble() < duplicateRatio) {
+            sessionId = recent[random.nextInt((int) Math.min(emitted, RECENT_IDS))];
+        } else {
+            sessionId = idPrefix + "-" + emitted;
+            recent[(int) (emitted % RECENT_IDS)] = sessionId;
+            emitted++;
+        }
+        return session(sessionId, patient());
+    }
+
+    public List<GameSessionIngestRequest> next(int n) {
+        List<GameSessionIngestRequest> batch = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) batch.add(next());
+        return batch;
+    }
+
+    /** Indice de paciente: busqueda binaria en la CDF Zipf. */
+    int patient() {
+        double u = random.nextDouble();
+        int lo = 0, hi = cdf.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cdf[mid] < u) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private GameSessionIngestRequest session(String sessionId, int p) {
+        int disability = p % DISABILITIES.length;
+        int level = levelOf(p);
+        // Dos juegos habituales por paciente y, una de cada diez veces, cualquier otro.
+        String game = random.nextInt(10) == 0
+                ? GAMES[random.nextInt(GAMES.length)]
+                : GAMES[(p + random.nextInt(2)) % GAMES.length];
+
+        Instant start = windowEnd.minusSeconds(1 + random.nextLong(windowSeconds));
+        int duration = 60 + random.nextInt(840);
+        int target = 10 + 5 * random.nextInt(5);
+        int done = random.nextInt(10) < 7 ? target : random.nextInt(target + 1);
+        double rom = clamp(BASE_ROM[disability] + 8 * level + gaussian(12), 0, 360);
+        double avg = clamp(0.4 + 0.1 * level + gaussian(0.1), 0.05, 10);
+        double max = avg * (1.3 + random.nextDouble());
+
+        return new GameSessionIngestRequest(sessionId, dnis[p], game, level, start,
+                start.plusSeconds(duration), duration, done * (8 + random.nextInt(5)), done, target,
+                new MovementMetricsDto(rom, avg, max), done == target, DISABILITIES[disability]);
+    }
+
+    /** Discapacidad fija del paciente p (indice por actividad: 0 es el mas activo). */
+    static String disabilityOf(int p) {
+        return DISABILITIES[p % DISABILITIES.length];
+    }
+
+    static int levelOf(int p) {
+        return 1 + (p / DISABILITIES.length) % 4;
+    }
+
+    /** DNI valido (8 digitos + letra de control) derivado del indice del paciente. */
+    static String dni(int i) {
+        int number = (int) (10_000_000 + (long) i * 7919 % 89_999_999);
+        return String.format("%08d%c", number, DNI_LETTERS.charAt(number % 23));
+    }
+
+    private static double[] zipfCdf(int n, double skew) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1.0 / Math.pow(k + 1, skew);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < n; k++) cdf[k] /= sum;
+        cdf[n - 1] = 1.0;
+        return cdf;
+    }
+
+    private double gaussian(double sd) {
+        return sd * random.nextGaussian();
+    }
+
+    private static double clamp(double v, double lo, double hi) {
+        return Math.max(lo, Math.min(hi, v));
+    }
+}
@@ -0,0 +1,158 @@
+package com.rehabiapp.data.bench;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.InsertManyOptions;
+import com.rehabiapp.data.application.service.SessionStorage;
+import com.rehabiapp.data.application.service.dto.GameSessionIngestRequest;
+import com.rehabiapp.data.domain.model.GameSession;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+/**
+ * Siembra game_sessions con un volumen y una cardinalidad dados para los benchmarks de lectura.
+ *
+ * Cada combinacion (sessions, patients) vive en su propia base de datos
+ * (rehabiapp_bench_s{sessions}_p{patients} en el servidor de bench.mongo.uri) y se siembra una
+ * sola vez: la marca en bench_seed se escribe al terminar, asi que una siembra interrumpida se
+ * repite entera y una completa se reutiliza entre ejecuciones y ramas. Las sesiones cubren los
+ * WINDOW dias anteriores a seededAt (guardado en la marca) con la distribucion de
+ * SessionRequestGenerator, y los indices de GameSession se crean despues de la carga, que es
+ * mas rapido que mantenerlos insercion a insercion.
+ */
+final class SessionSeeder {
+
+    static final Duration WINDOW = Duration.ofDays(365);
+    static final double SKEW = 1.1;
+    static final long SEED = 42L;
+
+    private static final String MARKER = "bench_seed";
+    private static final int INSERT_BATCH = 5000;
+
+    private SessionSeeder() { }
+
+    /** Datos sembrados: base de datos y fin de la ventana de sesiones. */
+    record Seeded(String uri, int sessions, int patients, Instant seededAt) {}
+
+    /** patients = 0: una media de 500 sesiones por paciente. */
+    static int patients(int sessions, int patients) {
+        return patients > 0 ? patients : Math.max(100, sessions / 500);
+    }
+
+    static String database(int sessions, int patients) {
+        return "rehabiapp_bench_s" + sessions + "_p" + patients;
+    }
+
+    /** URI de bench.mongo.uri con otra base de datos. */
+    static String uri(String database) {
+        String base = BenchContext.MONGO_URI;
+        String current = new ConnectionString(base).getDatabase();
+        return base.replaceFirst("/" + Pattern.quote(current) + "(?=\\?|$)", "/" + database);
+    }
+
+    static Seeded ensure(int sessions, int patients) {
+        String database = database(sessions, patients);
+        String uri = uri(database);
+        try (MongoClient client = MongoClients.create(uri)) {
+            MongoDatabase db = client.getDatabase(database);
+            Document marker = db.getCollection(MARKER).find(new Document("_id", "seed")).first();
+            if (marker != null) {
+                return new Seeded(uri, sessions, patients, marker.getDate("seededAt").toInstant());
+            }
+            db.drop();
+            Instant seededAt = Instant.now().truncatedTo(ChronoUnit.DAYS);
+            long t0 = System.currentTimeMillis();
+            insert(db.getCollection(SessionStorage.HOT), sessions, patients, seededAt);
+            long t1 = System.currentTimeMillis();
+            ensureIndexes(client, database);
+            System.out.printf("Sembradas %d sesiones (%d pacientes) en %s: carga %d s, indices %d s%n",
+                    sessions, patients, database, (t1 - t0) / 1000, (System.currentTimeMillis() - t1) / 1000);
+            db.getCollection(MARKER).insertOne(new Document("_id", "seed")
+                    .append("sessions", sessions).append("patients", patients)
+                    .append("skew", SKEW).append("seed", SEED)
+                    .append("seededAt", Date.from(seededAt)));
+            return new Seeded(uri, sessions, patients, seededAt);
+        }
+    }
+
+    private static void insert(MongoCollection<Document> sessions, int total, int patients, Instant seededAt) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> parts = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int part = total / threads + (t < total % threads ? 1 : 0);
+                SessionRequestGenerator generator = new SessionRequestGenerator(SEED + t, "seed-" + t,
+                        patients, SKEW, 0, seededAt, WINDOW);
+                parts.add(pool.submit(() -> insertPart(sessions, generator, part)));
+            }
+            for (Future<?> f : parts) f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("siembra interrumpida", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("fallo sembrando game_sessions", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void insertPart(MongoCollection<Document> sessions, SessionRequestGenerator generator, int n) {
+        InsertManyOptions unordered = new InsertManyOptions().ordered(false);
+        List<Document> batch = new ArrayList<>(INSERT_BATCH);
+        for (int i = 0; i < n; i++) {
+            batch.add(document(generator.next()));
+            if (batch.size() == INSERT_BATCH) {
+                sessions.insertMany(batch, unordered);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) sessions.insertMany(batch, unordered);
+    }
+
+    /** Documento tal como lo guarda GameSessionIngestService (receivedAt = fin de la sesion). */
+    static Document document(GameSessionIngestRequest r) {
+        return new Document("sessionId", r.sessionId())
+                .append("patientDni", r.patientDni())
+                .append("gameId", r.gameId())
+                .append("progressionLevel", r.progressionLevel())
+                .append("sessionStart", Date.from(r.sessionStart()))
+                .append("sessionEnd", Date.from(r.sessionEnd()))
+                .append("durationSeconds", r.durationSeconds())
+                .append("score", r.score())
+                .append("repetitionsCompleted", r.repetitionsCompleted())
+                .append("repetitionsTarget", r.repetitionsTarget())
+                .append("movementMetrics", new Document("rangeOfMotionDegrees", r.movementMetrics().rangeOfMotionDegrees())
+                        .append("averageSpeed", r.movementMetrics().averageSpeed())
+                        .append("maxSpeed", r.movementMetrics().maxSpeed()))
+                .append("completed", r.completed())
+                .append("disabilityCode", r.disabilityCode())
+                .append("receivedAt", Date.from(r.sessionEnd()))
+                .append("_class", GameSession.class.getName());
+    }
+
+    /** Los indices que declara GameSession; createIndex bloquea hasta que estan construidos. */
+    private static void ensureIndexes(MongoClient client, String database) {
+        MongoTemplate mongoTemplate = new MongoTemplate(client, database);
+        IndexResolver resolver = new MongoPersistentEntityIndexResolver(new MongoMappingContext());
+        resolver.resolveIndexFor(GameSession.class)
+                .forEach(index -> mongoTemplate.indexOps(SessionStorage.HOT).ensureIndex(index));
+    }
+}
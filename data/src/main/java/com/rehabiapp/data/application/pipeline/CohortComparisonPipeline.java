@@ -6,24 +6,23 @@ import com.rehabiapp.data.domain.model.GameSession;
 import java.time.Instant;
 import java.util.List;
 import org.bson.Document;
-import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
-import org.springframework.data.mongodb.core.aggregation.AggregationResults;
 import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.GroupOperation;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.stereotype.Component;
 
 /**
  * Agrega metricas de un paciente objetivo y de su cohorte (misma discapacidad+nivel, sin el paciente).
- * Usa dos aggregations separadas para evitar sesgos por frecuencia de sesiones en el cohorte.
+ * La cohorte se agrega primero por paciente para evitar sesgos por frecuencia de sesiones.
  */
 @Component
 public class CohortComparisonPipeline {
 
-    private final MongoTemplate mongoTemplate;
+    private final PipelineAggregations aggregations;
 
-    public CohortComparisonPipeline(MongoTemplate mongoTemplate) {
-        this.mongoTemplate = mongoTemplate;
+    public CohortComparisonPipeline(PipelineAggregations aggregations) {
+        this.aggregations = aggregations;
     }
 
     public record PatientAggregate(long totalSessions, double avgScore, double avgDuration,
@@ -32,29 +31,73 @@ public class CohortComparisonPipeline {
     public record CohortAggregate(long cohortSize, long totalSessions,
                                   double avgScore, double avgDuration,
                                   double completionRate, double avgRom,
-                                  List<Double> allScores, List<Double> allCompletions,
-                                  List<Double> allRoms) {}
+                                  double[] allScores, double[] allCompletions,
+                                  double[] allRoms) {}
+
+    public record Comparison(PatientAggregate target, CohortAggregate cohort) {}
+
+    /**
+     * Paciente objetivo y filas por paciente de la cohorte en un unico round trip: un $match
+     * comun (discapacidad, nivel, rango) y un $facet con una rama por lado. La rama de cohorte
+     * devuelve una fila por paciente dentro del documento del $facet (limite de 16 MB; del
+     * orden de 10^5 pacientes por cohorte).
+     */
+    public Comparison run(String dni, String disability, int level, Instant from, Instant to) {
+        Aggregation agg = newAggregation(
+            match(Criteria.where("disabilityCode").is(disability)
+                    .and("progressionLevel").is(level)
+                    .and("sessionStart").gte(from).lte(to)),
+            facet(
+                match(Criteria.where("patientDni").is(dni)),
+                targetGroup()
+            ).as("target")
+            .and(
+                // Fase 1: agrega por paciente para evitar sesgo por volumen
+                match(Criteria.where("patientDni").ne(dni)),
+                group("patientDni")
+                    .count().as("sessions")
+                    .avg("score").as("score")
+                    .avg("durationSeconds").as("duration")
+                    .avg(ConditionalOperators.when(Criteria.where("completed").is(true))
+                            .then(1).otherwise(0)).as("completion")
+                    .avg("movementMetrics.rangeOfMotionDegrees").as("rom")
+            ).as("cohort")
+        );
 
-    public PatientAggregate runTarget(String dni, String disability, int level,
-                                      Instant from, Instant to) {
+        Document out = aggregations.aggregate("cohort-compare", agg, GameSession.class, Document.class)
+                .getUniqueMappedResult();
+        if (out == null) return new Comparison(null, null);
+        List<Document> target = out.getList("target", Document.class);
+        return new Comparison(
+                target.isEmpty() ? null : toTarget(target.get(0)),
+                toCohort(out.getList("cohort", Document.class)));
+    }
+
+    /** Solo el paciente objetivo; lo usa el modo aproximado, que no lee filas de la cohorte. */
+    public PatientAggregate runTarget(String dni, String disability, int level, Instant from, Instant to) {
         Aggregation agg = newAggregation(
             match(Criteria.where("patientDni").is(dni)
                     .and("disabilityCode").is(disability)
                     .and("progressionLevel").is(level)
                     .and("sessionStart").gte(from).lte(to)),
-            group()
+            targetGroup()
+        );
+        Document d = aggregations.aggregate("cohort-target", agg, GameSession.class, Document.class)
+                .getUniqueMappedResult();
+        return d == null ? null : toTarget(d);
+    }
+
+    private static GroupOperation targetGroup() {
+        return group()
                 .count().as("totalSessions")
                 .avg("score").as("avgScore")
                 .avg("durationSeconds").as("avgDuration")
                 .avg(ConditionalOperators.when(Criteria.where("completed").is(true))
                         .then(1).otherwise(0)).as("completionRate")
-                .avg("movementMetrics.rangeOfMotionDegrees").as("avgRom")
-        );
-
-        AggregationResults<Document> res = mongoTemplate.aggregate(agg, GameSession.class, Document.class);
-        if (res.getMappedResults().isEmpty()) return null;
+                .avg("movementMetrics.rangeOfMotionDegrees").as("avgRom");
+    }
 
-        Document d = res.getMappedResults().get(0);
+    static PatientAggregate toTarget(Document d) {
         return new PatientAggregate(
                 lng(d.get("totalSessions")),
                 dbl(d.get("avgScore")),
@@ -63,30 +106,10 @@ public class CohortComparisonPipeline {
                 dbl(d.get("avgRom")));
     }
 
-    @SuppressWarnings("unchecked")
-    public CohortAggregate runCohort(String excludeDni, String disability, int level,
-                                     Instant from, Instant to) {
-        // Fase 1: agrega por paciente para evitar sesgo por volumen
-        Aggregation perPatient = newAggregation(
-            match(Criteria.where("disabilityCode").is(disability)
-                    .and("progressionLevel").is(level)
-                    .and("sessionStart").gte(from).lte(to)
-                    .and("patientDni").ne(excludeDni)),
-            group("patientDni")
-                .count().as("sessions")
-                .avg("score").as("score")
-                .avg("durationSeconds").as("duration")
-                .avg(ConditionalOperators.when(Criteria.where("completed").is(true))
-                        .then(1).otherwise(0)).as("completion")
-                .avg("movementMetrics.rangeOfMotionDegrees").as("rom")
-        );
-
-        List<Document> perPatientRows = mongoTemplate.aggregate(
-                perPatient, GameSession.class, Document.class).getMappedResults();
-
+    /** Fase 2: reduce en Java para obtener medias de medias + arrays para percentil. */
+    static CohortAggregate toCohort(List<Document> perPatientRows) {
         if (perPatientRows.isEmpty()) return null;
 
-        // Fase 2: reduce en Java para obtener medias de medias + arrays para percentil
         long cohortSize = perPatientRows.size();
         long totalSessions = perPatientRows.stream()
                 .mapToLong(d -> lng(d.get("sessions"))).sum();
@@ -99,9 +122,9 @@ public class CohortComparisonPipeline {
         double avgRom = perPatientRows.stream()
                 .mapToDouble(d -> dbl(d.get("rom"))).average().orElse(0);
 
-        List<Double> allScores = perPatientRows.stream().map(d -> dbl(d.get("score"))).sorted().toList();
-        List<Double> allCompletions = perPatientRows.stream().map(d -> dbl(d.get("completion"))).sorted().toList();
-        List<Double> allRoms = perPatientRows.stream().map(d -> dbl(d.get("rom"))).sorted().toList();
+        double[] allScores = perPatientRows.stream().mapToDouble(d -> dbl(d.get("score"))).sorted().toArray();
+        double[] allCompletions = perPatientRows.stream().mapToDouble(d -> dbl(d.get("completion"))).sorted().toArray();
+        double[] allRoms = perPatientRows.stream().mapToDouble(d -> dbl(d.get("rom"))).sorted().toArray();
 
         return new CohortAggregate(cohortSize, totalSessions,
                 avgScore, avgDuration, avgCompletion, avgRom,
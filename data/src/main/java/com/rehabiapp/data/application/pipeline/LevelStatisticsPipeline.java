@@ -7,8 +7,8 @@ import com.rehabiapp.data.domain.model.LevelStatistics;
 import java.time.Instant;
 import java.util.List;
 import org.bson.Document;
-import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
 import org.springframework.data.mongodb.core.aggregation.AggregationResults;
 import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
 import org.springframework.data.mongodb.core.query.Criteria;
@@ -21,15 +21,29 @@ import org.springframework.stereotype.Component;
 @Component
 public class LevelStatisticsPipeline {
 
-    private final MongoTemplate mongoTemplate;
+    private final PipelineAggregations aggregations;
 
-    public LevelStatisticsPipeline(MongoTemplate mongoTemplate) {
-        this.mongoTemplate = mongoTemplate;
+    public LevelStatisticsPipeline(PipelineAggregations aggregations) {
+        this.aggregations = aggregations;
     }
 
     public List<LevelStatistics> run() {
 
-        Aggregation agg = newAggregation(
+        Aggregation agg = newAggregation(stages());
+
+        AggregationResults<Document> res = aggregations.aggregate(
+                "levels", agg, GameSession.class, Document.class);
+
+        Instant now = Instant.now();
+        return res.getMappedResults().stream().map(d -> toStatistics(d, now)).toList();
+    }
+
+    /**
+     * Group/project por nivel. {@link RefreshFacetPipeline} las reutiliza dentro de un
+     * $facet, donde operan solo sobre la ventana del refresco en vez de la coleccion entera.
+     */
+    static AggregationOperation[] stages() {
+        return new AggregationOperation[] {
             group("progressionLevel")
                 .count().as("totalSessions")
                 .addToSet("patientDni").as("patients")
@@ -42,24 +56,20 @@ public class LevelStatisticsPipeline {
                     "globalCompletionRate", "averageRangeOfMotion")
                 .and("_id").as("progressionLevel")
                 .and("patients").size().as("totalPatients")
-        );
-
-        AggregationResults<Document> res = mongoTemplate.aggregate(
-                agg, GameSession.class, Document.class);
+        };
+    }
 
-        Instant now = Instant.now();
-        return res.getMappedResults().stream().map(d -> {
-            LevelStatistics s = new LevelStatistics();
-            s.setProgressionLevel(d.getInteger("progressionLevel"));
-            s.setTotalSessions(longVal(d.get("totalSessions")));
-            s.setTotalPatients(longVal(d.get("totalPatients")));
-            s.setAverageScore(doubleVal(d.get("averageScore")));
-            s.setAverageDuration(doubleVal(d.get("averageDuration")));
-            s.setGlobalCompletionRate(doubleVal(d.get("globalCompletionRate")));
-            s.setAverageRangeOfMotion(doubleVal(d.get("averageRangeOfMotion")));
-            s.setLastUpdated(now);
-            return s;
-        }).toList();
+    static LevelStatistics toStatistics(Document d, Instant now) {
+        LevelStatistics s = new LevelStatistics();
+        s.setProgressionLevel(((Number) d.get("progressionLevel")).intValue());
+        s.setTotalSessions(longVal(d.get("totalSessions")));
+        s.setTotalPatients(longVal(d.get("totalPatients")));
+        s.setAverageScore(doubleVal(d.get("averageScore")));
+        s.setAverageDuration(doubleVal(d.get("averageDuration")));
+        s.setGlobalCompletionRate(doubleVal(d.get("globalCompletionRate")));
+        s.setAverageRangeOfMotion(doubleVal(d.get("averageRangeOfMotion")));
+        s.setLastUpdated(now);
+        return s;
     }
 
     private static Long longVal(Object o) { return o == null ? null : ((Number) o).longValue(); }
@@ -5,11 +5,13 @@ import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
 import com.rehabiapp.data.domain.model.GameSession;
 import com.rehabiapp.data.domain.model.PatientProgress;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Sort;
-import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
 import org.springframework.data.mongodb.core.aggregation.AggregationResults;
 import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
 import org.springframework.data.mongodb.core.query.Criteria;
@@ -22,17 +24,44 @@ import org.springframework.stereotype.Component;
 @Component
 public class MonthlyDisabilityPipeline {
 
-    private final MongoTemplate mongoTemplate;
+    private final PipelineAggregations aggregations;
+    private final RomRepresentation romRepresentation;
+    private final int romSummaryPoints;
 
-    public MonthlyDisabilityPipeline(MongoTemplate mongoTemplate) {
-        this.mongoTemplate = mongoTemplate;
+    public MonthlyDisabilityPipeline(PipelineAggregations aggregations,
+                  @Value("${rehabiapp.analytics.rom-representation:raw}") RomRepresentation romRepresentation,
+                  @Value("${rehabiapp.analytics.rom-summary.points:16}") int romSummaryPoints) {
+        this.aggregations = aggregations;
+        this.romRepresentation = romRepresentation;
+        this.romSummaryPoints = romSummaryPoints;
     }
 
     public List<PatientProgress> run(Instant since) {
+        return run(Criteria.where("sessionStart").gte(since).and("disabilityCode").ne(null));
+    }
+
+    /**
+     * Igual que {@link #run(Instant)} pero con un filtro arbitrario sobre game_sessions.
+     * El filtro debe excluir sesiones sin disabilityCode.
+     */
+    public List<PatientProgress> run(Criteria filter) {
+
+        List<AggregationOperation> ops = new ArrayList<>(List.of(
+            match(filter),
+            sort(Sort.Direction.ASC, "sessionStart")));
+        ops.addAll(bucketStages());
+        Aggregation agg = newAggregation(ops);
+
+        AggregationResults<Document> res = aggregations.aggregate(
+                "monthly", agg, GameSession.class, Document.class);
+
+        Instant now = Instant.now();
+        return res.getMappedResults().stream().map(d -> toProgress(d, now)).toList();
+    }
 
-        Aggregation agg = newAggregation(
-            match(Criteria.where("sessionStart").gte(since).and("disabilityCode").ne(null)),
-            sort(Sort.Direction.ASC, "sessionStart"),
+    /** Etapas posteriores al $match/$sort, compartidas con {@link RefreshFacetPipeline}. */
+    List<AggregationOperation> bucketStages() {
+        List<AggregationOperation> ops = new ArrayList<>(List.of(
             project()
                 .andInclude("patientDni", "disabilityCode", "progressionLevel",
                             "score", "durationSeconds", "completed", "sessionStart")
@@ -53,31 +82,30 @@ public class MonthlyDisabilityPipeline {
                 .and("_id.progressionLevel").as("progressionLevel")
                 .and("_id.year").as("year")
                 .and("_id.month").as("month")
-        );
-
-        AggregationResults<Document> res = mongoTemplate.aggregate(
-                agg, GameSession.class, Document.class);
+        ));
+        if (romRepresentation == RomRepresentation.SUMMARY) ops.addAll(RomSummaryStages.of(romSummaryPoints));
+        return ops;
+    }
 
-        Instant now = Instant.now();
-        return res.getMappedResults().stream().map(d -> {
-            PatientProgress p = new PatientProgress();
-            p.setPatientDni(d.getString("patientDni"));
-            p.setDisabilityCode(d.getString("disabilityCode"));
-            p.setGameId("*");
-            p.setProgressionLevel(intVal(d.get("progressionLevel")));
-            int y = intVal(d.get("year"));
-            int m = intVal(d.get("month"));
-            p.setPeriod(String.format("%04d-%02d", y, m));
-            p.setTotalSessions(intVal(d.get("totalSessions")));
-            p.setAverageScore(numberAsDouble(d.get("averageScore")));
-            p.setAverageDuration(numberAsDouble(d.get("averageDuration")));
-            p.setCompletionRate(numberAsDouble(d.get("completionRate")));
-            @SuppressWarnings("unchecked")
-            List<Double> trend = (List<Double>) d.get("rangeOfMotionTrend");
-            p.setRangeOfMotionTrend(trend);
-            p.setLastUpdated(now);
-            return p;
-        }).toList();
+    static PatientProgress toProgress(Document d, Instant now) {
+        PatientProgress p = new PatientProgress();
+        p.setPatientDni(d.getString("patientDni"));
+        p.setDisabilityCode(d.getString("disabilityCode"));
+        p.setGameId("*");
+        p.setProgressionLevel(intVal(d.get("progressionLevel")));
+        int y = intVal(d.get("year"));
+        int m = intVal(d.get("month"));
+        p.setPeriod(String.format("%04d-%02d", y, m));
+        p.setTotalSessions(intVal(d.get("totalSessions")));
+        p.setAverageScore(numberAsDouble(d.get("averageScore")));
+        p.setAverageDuration(numberAsDouble(d.get("averageDuration")));
+        p.setCompletionRate(numberAsDouble(d.get("completionRate")));
+        @SuppressWarnings("unchecked")
+        List<Double> trend = (List<Double>) d.get("rangeOfMotionTrend");
+        p.setRangeOfMotionTrend(trend);
+        p.setRomSummary(RomSummaryStages.fromDocument(d.get("romSummary", Document.class)));
+        p.setLastUpdated(now);
+        return p;
     }
 
     private static Double numberAsDouble(Object o) { return o == null ? null : ((Number) o).doubleValue(); }
@@ -0,0 +1,179 @@
+package com.rehabiapp.data.application.pipeline;
+
+import com.rehabiapp.data.domain.model.SlowQueryLog;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.stereotype.Component;
+
+/**
+ * Punto unico por el que los pipelines ejecutan sus aggregations. Cada llamada registra
+ * rehabiapp.analytics.pipeline (Timer, tags pipeline y outcome) y
+ * rehabiapp.analytics.pipeline.rows (documentos devueltos; un $facet cuenta como uno).
+ *
+ * Si una aggregation tarda mas de rehabiapp.analytics.slow-query.threshold-ms se pide su
+ * explain (verbosidad queryPlanner: planifica pero no vuelve a ejecutar la consulta) y el plan
+ * ganador se guarda en slow_query_log. Como mucho un explain por pipeline cada
+ * rehabiapp.analytics.slow-query.sample-interval-seconds; un fallo del explain solo se registra.
+ */
+@Component
+public class PipelineAggregations {
+
+    private static final Logger log = LoggerFactory.getLogger(PipelineAggregations.class);
+
+    /** Etapas del plan que leen la coleccion o un indice. */
+    private static final Set<String> ACCESS_STAGES = Set.of(
+            "COLLSCAN", "IXSCAN", "COUNT_SCAN", "DISTINCT_SCAN", "IDHACK",
+            "EXPRESS_IXSCAN", "EXPRESS_CLUSTERED_IXSCAN", "CLUSTERED_IXSCAN");
+
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry meterRegistry;
+    private final long thresholdMs;
+    private final long sampleIntervalMs;
+    private final Map<String, Long> lastExplain = new ConcurrentHashMap<>();
+
+    public PipelineAggregations(MongoTemplate mongoTemplate,
+                                MeterRegistry meterRegistry,
+                                @Value("${rehabiapp.analytics.slow-query.threshold-ms:2000}") long thresholdMs,
+                                @Value("${rehabiapp.analytics.slow-query.sample-interval-seconds:600}") long sampleIntervalSeconds) {
+        this.mongoTemplate = mongoTemplate;
+        this.meterRegistry = meterRegistry;
+        this.thresholdMs = thresholdMs;
+        this.sampleIntervalMs = TimeUnit.SECONDS.toMillis(sampleIntervalSeconds);
+    }
+
+    /** Plan ganador resumido: etapas de acceso, si hay COLLSCAN y planes descartados. */
+    record Plan(List<String> summary, boolean collectionScan, int rejectedPlans) {}
+
+    /** mongoTemplate.aggregate(agg, inputType, outputType) medido bajo el nombre pipeline. */
+    public <O> AggregationResults<O> aggregate(String pipeline, Aggregation agg,
+                                               Class<?> inputType, Class<O> outputType) {
+        long t0 = System.nanoTime();
+        AggregationResults<O> res;
+        try {
+            res = mongoTemplate.aggregate(agg, inputType, outputType);
+        } catch (RuntimeException e) {
+            timer(pipeline, "error").record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+        long elapsed = System.nanoTime() - t0;
+        int rows = res.getMappedResults().size();
+        timer(pipeline, "success").record(elapsed, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("rehabiapp.analytics.pipeline.rows")
+                .description("Documentos devueltos por cada aggregation de analiticas")
+                .baseUnit("rows")
+                .tag("pipeline", pipeline)
+                .register(meterRegistry)
+                .record(rows);
+
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(elapsed);
+        if (thresholdMs > 0 && elapsedMs > thresholdMs && sample(pipeline, System.currentTimeMillis())) {
+            recordSlow(pipeline, agg, inputType, elapsedMs, rows);
+        }
+        return res;
+    }
+
+    private Timer timer(String pipeline, String outcome) {
+        return Timer.builder("rehabiapp.analytics.pipeline")
+                .description("Duracion de cada aggregation de analiticas")
+                .tag("pipeline", pipeline)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    /** true si toca explain: el primero del pipeline o pasado el intervalo desde el anterior. */
+    private boolean sample(String pipeline, long now) {
+        Long last = lastExplain.get(pipeline);
+        if (last != null && now - last < sampleIntervalMs) return false;
+        return last == null
+                ? lastExplain.putIfAbsent(pipeline, now) == null
+                : lastExplain.replace(pipeline, last, now);
+    }
+
+    private void recordSlow(String pipeline, Aggregation agg, Class<?> inputType, long elapsedMs, int rows) {
+        String collection = mongoTemplate.getCollectionName(inputType);
+        try {
+            Aggregation explain = agg.withOptions(AggregationOptions.builder()
+                    .allowDiskUse(agg.getOptions().isAllowDiskUse())
+                    .explain(true)
+                    .build());
+            Plan plan = planOf(mongoTemplate.aggregate(explain, inputType, Document.class).getRawResults());
+
+            SlowQueryLog entry = new SlowQueryLog();
+            entry.setPipeline(pipeline);
+            entry.setCollection(collection);
+            entry.setDurationMs(elapsedMs);
+            entry.setThresholdMs(thresholdMs);
+            entry.setRows(rows);
+            entry.setPlanSummary(plan.summary());
+            entry.setCollectionScan(plan.collectionScan());
+            entry.setRejectedPlans(plan.rejectedPlans());
+            entry.setOccurredAt(Instant.now());
+            mongoTemplate.insert(entry);
+            log.warn("Aggregation lenta pipeline={} coleccion={} ms={} filas={} plan={}",
+                    pipeline, collection, elapsedMs, rows, plan.summary());
+        } catch (RuntimeException e) {
+            log.warn("No se pudo guardar el explain de la aggregation lenta pipeline={} ms={}",
+                    pipeline, elapsedMs, e);
+        }
+    }
+
+    /**
+     * Recorre la salida de explain buscando cada winningPlan: el del $cursor inicial, el de
+     * primer nivel cuando todo el pipeline se ejecuta en SBE (explainVersion 2, bajo queryPlan)
+     * y los de sub-pipelines como $unionWith.
+     */
+    static Plan planOf(Document explain) {
+        Set<String> access = new LinkedHashSet<>();
+        int[] rejected = {0};
+        collect(explain, access, rejected);
+        List<String> summary = new ArrayList<>(access);
+        boolean collScan = summary.stream().anyMatch(s -> s.startsWith("COLLSCAN"));
+        return new Plan(summary, collScan, rejected[0]);
+    }
+
+    private static void collect(Object node, Set<String> access, int[] rejected) {
+        if (node instanceof Document d) {
+            for (Map.Entry<String, Object> e : d.entrySet()) {
+                if ("winningPlan".equals(e.getKey())) {
+                    accessStages(e.getValue(), access);
+                } else if ("rejectedPlans".equals(e.getKey()) && e.getValue() instanceof List<?> plans) {
+                    rejected[0] += plans.size();
+                } else {
+                    collect(e.getValue(), access, rejected);
+                }
+            }
+        } else if (node instanceof List<?> list) {
+            for (Object o : list) collect(o, access, rejected);
+        }
+    }
+
+    private static void accessStages(Object node, Set<String> access) {
+        if (node instanceof Document d) {
+            String stage = d.getString("stage");
+            if (stage != null && ACCESS_STAGES.contains(stage)) {
+                String index = d.getString("indexName");
+                access.add(index == null ? stage : stage + " " + index);
+            }
+            for (Object child : d.values()) accessStages(child, access);
+        } else if (node instanceof List<?> list) {
+            for (Object o : list) accessStages(o, access);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.rehabiapp.data.application.pipeline;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+
+import com.rehabiapp.data.domain.model.GameSession;
+import com.rehabiapp.data.domain.model.LevelStatistics;
+import com.rehabiapp.data.domain.model.PatientProgress;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+
+/**
+ * Refresco completo en una sola pasada: lee la ventana de game_sessions una vez y usa $facet
+ * para emitir las salidas semanal, mensual y por nivel con las mismas etapas que
+ * {@link WeeklyGamePipeline}, {@link MonthlyDisabilityPipeline} y {@link LevelStatisticsPipeline}.
+ *
+ * Diferencias con los pipelines separados:
+ *  - level_statistics se calcula sobre la ventana (sessionStart >= since), no sobre toda la coleccion.
+ *  - $facet devuelve un unico documento y esta sujeto al limite de 16 MB de BSON; con muchos
+ *    pacientes en la ventana hay que volver a rehabiapp.analytics.refresh-pipeline=separate.
+ */
+@Component
+public class RefreshFacetPipeline {
+
+    private final PipelineAggregations aggregations;
+    private final WeeklyGamePipeline weekly;
+    private final MonthlyDisabilityPipeline monthly;
+
+    public RefreshFacetPipeline(PipelineAggregations aggregations,
+                                WeeklyGamePipeline weekly,
+                                MonthlyDisabilityPipeline monthly) {
+        this.aggregations = aggregations;
+        this.weekly = weekly;
+        this.monthly = monthly;
+    }
+
+    public record Result(List<PatientProgress> weekly,
+                         List<PatientProgress> monthly,
+                         List<LevelStatistics> levels) {}
+
+    public Result run(Instant since) {
+
+        Aggregation agg = newAggregation(
+            match(Criteria.where("sessionStart").gte(since)),
+            // El orden llega a cada faceta: $push del ROM trend sigue siendo cronologico.
+            sort(Sort.Direction.ASC, "sessionStart"),
+            facet(weekly.bucketStages().toArray(AggregationOperation[]::new)).as("weekly")
+                .and(withDisability(monthly.bucketStages())).as("monthly")
+                .and(LevelStatisticsPipeline.stages()).as("levels")
+        ).withOptions(Aggregation.newAggregationOptions().allowDiskUse(true).build());
+
+        Document out = aggregations.aggregate("facet", agg, GameSession.class, Document.class)
+                .getUniqueMappedResult();
+
+        Instant now = Instant.now();
+        if (out == null) return new Result(List.of(), List.of(), List.of());
+        return new Result(
+                out.getList("weekly", Document.class).stream()
+                        .map(d -> WeeklyGamePipeline.toProgress(d, now)).toList(),
+                out.getList("monthly", Document.class).stream()
+                        .map(d -> MonthlyDisabilityPipeline.toProgress(d, now)).toList(),
+                out.getList("levels", Document.class).stream()
+                        .map(d -> LevelStatisticsPipeline.toStatistics(d, now)).toList());
+    }
+
+    /** La faceta mensual descarta sesiones sin disabilityCode, igual que su pipeline. */
+    private static AggregationOperation[] withDisability(List<AggregationOperation> stages) {
+        List<AggregationOperation> ops = new ArrayList<>(stages.size() + 1);
+        ops.add(match(Criteria.where("disabilityCode").ne(null)));
+        ops.addAll(stages);
+        return ops.toArray(AggregationOperation[]::new);
+    }
+}
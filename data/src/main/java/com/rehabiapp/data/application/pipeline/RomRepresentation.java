@@ -0,0 +1,12 @@
+package com.rehabiapp.data.application.pipeline;
+
+/**
+ * Como guarda patient_progress las muestras de ROM de cada cubo
+ * (rehabiapp.analytics.rom-representation).
+ * RAW: rangeOfMotionTrend con todas las muestras ($push).
+ * SUMMARY: romSummary con estadisticos y una serie de tamano fijo.
+ */
+public enum RomRepresentation {
+    RAW,
+    SUMMARY
+}
@@ -0,0 +1,71 @@
+package com.rehabiapp.data.application.pipeline;
+
+import com.rehabiapp.data.domain.model.RomSummary;
+import java.util.Arrays;
+import java.util.List;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+
+/**
+ * Etapas que sustituyen el array rangeOfMotionTrend de un cubo por un {@link RomSummary}.
+ *
+ * El array sigue existiendo de forma transitoria tras el $group, pero no sale del servidor:
+ * patient_progress solo recibe estadisticos y una serie de, como mucho, {@code points} medias
+ * de tramos consecutivos (orden cronologico, porque la entrada se ordena por sessionStart).
+ */
+final class RomSummaryStages {
+
+    private static final String TREND = "rangeOfMotionTrend";
+
+    private RomSummaryStages() {}
+
+    static List<AggregationOperation> of(int points) {
+        Document n = new Document("$size", "$$s");
+        Document series = new Document("$cond", List.of(
+                new Document("$lte", List.of("$$n", points)),
+                "$$s",
+                new Document("$map", new Document("input", new Document("$range", List.of(0, points)))
+                        .append("as", "i")
+                        .append("in", new Document("$avg", new Document("$slice", List.of(
+                                "$$s", sliceStart("$$i", points),
+                                new Document("$subtract", List.of(
+                                        sliceStart(new Document("$add", List.of("$$i", 1)), points),
+                                        sliceStart("$$i", points))))))))));
+
+        Document summary = new Document("$let", new Document("vars", new Document("s",
+                new Document("$filter", new Document("input", "$" + TREND)
+                        .append("cond", new Document("$ne", Arrays.asList("$$this", null))))))
+                .append("in", new Document("$let", new Document("vars", new Document("n", n))
+                        .append("in", new Document("count", "$$n")
+                                .append("min", new Document("$min", "$$s"))
+                                .append("max", new Document("$max", "$$s"))
+                                .append("mean", new Document("$avg", "$$s"))
+                                .append("variance", new Document("$pow", List.of(
+                                        new Document("$stdDevPop", "$$s"), 2)))
+                                .append("series", series)))));
+
+        return List.of(
+                ctx -> new Document("$set", new Document("romSummary", summary)),
+                ctx -> new Document("$unset", TREND));
+    }
+
+    /** floor(i * n / points) como entero: inicio del tramo i. */
+    private static Document sliceStart(Object i, int points) {
+        return new Document("$toInt", new Document("$floor", new Document("$divide", List.of(
+                new Document("$multiply", List.of(i, "$$n")), points))));
+    }
+
+    @SuppressWarnings("unchecked")
+    static RomSummary fromDocument(Document d) {
+        if (d == null) return null;
+        return new RomSummary(
+                d.get("count") == null ? null : ((Number) d.get("count")).intValue(),
+                asDouble(d.get("min")),
+                asDouble(d.get("max")),
+                asDouble(d.get("mean")),
+                asDouble(d.get("variance")),
+                ((List<Number>) d.get("series")).stream().map(Number::doubleValue).toList());
+    }
+
+    private static Double asDouble(Object o) { return o == null ? null : ((Number) o).doubleValue(); }
+}
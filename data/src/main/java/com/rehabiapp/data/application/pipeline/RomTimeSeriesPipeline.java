@@ -2,41 +2,66 @@ package com.rehabiapp.data.application.pipeline;
 
 import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
 
+import com.rehabiapp.data.application.service.SessionStorage;
 import com.rehabiapp.data.application.service.dto.RomTimeSeriesPoint;
 import com.rehabiapp.data.domain.model.GameSession;
+import com.rehabiapp.data.domain.model.RomDailyRollup;
 import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
 import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Sort;
-import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
 import org.springframework.data.mongodb.core.aggregation.AggregationResults;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.stereotype.Component;
 
 /**
  * Agrega rangeOfMotionDegrees por cubo temporal (day | week | month) para un paciente.
+ *
+ * Con rehabiapp.analytics.rom-rollups.enabled = true lee rom_daily_rollups en lugar de
+ * game_sessions: el coste depende del numero de dias con actividad, no de sesiones, y las
+ * semanas y meses se componen a partir de los dias. La granularidad del rango pasa a ser el
+ * dia UTC completo.
+ *
+ * Sin rollups, si el rango empieza antes del corte del archivo las sesiones de
+ * game_sessions_archive se anaden con $unionWith. Los rollups no se archivan.
  */
 @Component
 public class RomTimeSeriesPipeline {
 
-    private final MongoTemplate mongoTemplate;
+    private final PipelineAggregations aggregations;
+    private final SessionStorage storage;
+    private final boolean fromRollups;
 
-    public RomTimeSeriesPipeline(MongoTemplate mongoTemplate) {
-        this.mongoTemplate = mongoTemplate;
+    public RomTimeSeriesPipeline(PipelineAggregations aggregations,
+                                 SessionStorage storage,
+                                 @Value("${rehabiapp.analytics.rom-rollups.enabled:false}") boolean fromRollups) {
+        this.aggregations = aggregations;
+        this.storage = storage;
+        this.fromRollups = fromRollups;
     }
 
     public List<RomTimeSeriesPoint> run(String dni, String bucket, Instant from, Instant to,
                                         String gameId) {
+        if (fromRollups) return runFromRollups(dni, bucket, from, to, gameId);
+
         Criteria c = Criteria.where("patientDni").is(dni)
                 .and("sessionStart").gte(from).lte(to);
         if (gameId != null) c = c.and("gameId").is(gameId);
 
-        Document bucketExpr = bucketKeyExpr(bucket);
+        Document bucketExpr = bucketKeyExpr(bucket, "$sessionStart");
 
-        Aggregation agg = newAggregation(
+        List<AggregationOperation> ops = new ArrayList<>(List.of(
             match(c),
-            sort(Sort.Direction.ASC, "sessionStart"),
+            sort(Sort.Direction.ASC, "sessionStart")));
+        // Sesiones ya archivadas: mismo filtro sobre game_sessions_archive antes de agrupar.
+        AggregationOperation archived = storage.archiveUnion(c, from);
+        if (archived != null) ops.add(archived);
+        ops.addAll(List.of(
             project()
                 .and("movementMetrics.rangeOfMotionDegrees").as("rom")
                 .and(ctx -> bucketExpr).as("bucketKey"),
@@ -48,11 +73,47 @@ public class RomTimeSeriesPipeline {
             project("sampleSize", "romAvg", "romMax", "romMin")
                 .and("_id").as("date"),
             sort(Sort.Direction.ASC, "date")
+        ));
+
+        AggregationResults<Document> res = aggregations.aggregate(
+                "rom-timeseries", newAggregation(ops), GameSession.class, Document.class);
+
+        return toPoints(res);
+    }
+
+    /** Misma serie compuesta desde rom_daily_rollups: un documento por (juego, dia). */
+    List<RomTimeSeriesPoint> runFromRollups(String dni, String bucket, Instant from, Instant to,
+                                            String gameId) {
+        Criteria c = Criteria.where("patientDni").is(dni)
+                .and("day").gte(utcDay(from)).lte(utcDay(to));
+        if (gameId != null) c = c.and("gameId").is(gameId);
+
+        Document bucketExpr = bucketKeyExpr(bucket,
+                new Document("$dateFromString", new Document("dateString", "$day")));
+
+        Aggregation agg = newAggregation(
+            match(c),
+            project("sessions", "romCount", "romSum", "romMin", "romMax")
+                .and(ctx -> bucketExpr).as("bucketKey"),
+            group("bucketKey")
+                .sum("sessions").as("sampleSize")
+                .sum("romSum").as("romSum")
+                .sum("romCount").as("romCount")
+                .max("romMax").as("romMax")
+                .min("romMin").as("romMin"),
+            project("sampleSize", "romMax", "romMin")
+                .and("_id").as("date")
+                .and(ctx -> new Document("$cond", List.of(
+                        new Document("$gt", List.of("$romCount", 0)),
+                        new Document("$divide", List.of("$romSum", "$romCount")),
+                        "$$REMOVE"))).as("romAvg"),
+            sort(Sort.Direction.ASC, "date")
         );
 
-        AggregationResults<Document> res = mongoTemplate.aggregate(
-                agg, GameSession.class, Document.class);
+        return toPoints(aggregations.aggregate("rom-timeseries-rollups", agg, RomDailyRollup.class, Document.class));
+    }
 
+    private static List<RomTimeSeriesPoint> toPoints(AggregationResults<Document> res) {
         return res.getMappedResults().stream().map(d -> new RomTimeSeriesPoint(
                 d.getString("date"),
                 dbl(d.get("romAvg")),
@@ -62,21 +123,25 @@ public class RomTimeSeriesPipeline {
         )).toList();
     }
 
-    private static Document bucketKeyExpr(String bucket) {
+    private static Document bucketKeyExpr(String bucket, Object date) {
         return switch (bucket) {
             case "day" -> new Document("$dateToString",
-                    new Document("format", "%Y-%m-%d").append("date", "$sessionStart"));
+                    new Document("format", "%Y-%m-%d").append("date", date));
             case "month" -> new Document("$dateToString",
-                    new Document("format", "%Y-%m").append("date", "$sessionStart"));
+                    new Document("format", "%Y-%m").append("date", date));
             default -> // week
                     new Document("$concat", List.of(
-                        new Document("$toString", new Document("$isoWeekYear", "$sessionStart")),
+                        new Document("$toString", new Document("$isoWeekYear", date)),
                         "-W",
-                        new Document("$toString", new Document("$isoWeek", "$sessionStart"))
+                        new Document("$toString", new Document("$isoWeek", date))
                     ));
         };
     }
 
+    private static String utcDay(Instant i) {
+        return i.atZone(ZoneOffset.UTC).toLocalDate().toString();
+    }
+
     private static Double dbl(Object o) { return o == null ? null : ((Number) o).doubleValue(); }
     private static Long lng(Object o) { return o == null ? null : ((Number) o).longValue(); }
 }
@@ -0,0 +1,107 @@
+package com.rehabiapp.data.application.pipeline;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+
+import com.rehabiapp.data.domain.model.GameSession;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.temporal.IsoFields;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+
+/**
+ * Localiza los cubos de patient_progress afectados por sesiones recibidas en (after, upTo].
+ * Usa idx_received_at, por lo que el coste depende del volumen nuevo, no de la ventana.
+ */
+@Component
+public class TouchedBucketsPipeline {
+
+    private final PipelineAggregations aggregations;
+
+    public TouchedBucketsPipeline(PipelineAggregations aggregations) {
+        this.aggregations = aggregations;
+    }
+
+    /** Cubo semanal (paciente, juego, nivel, semana ISO) de WeeklyGamePipeline. */
+    public record WeeklyBucket(String patientDni, String gameId, int progressionLevel,
+                               int isoYear, int isoWeek) {
+
+        /** Sesiones del cubo con sessionStart dentro de la ventana del refresco. */
+        public Criteria toCriteria(Instant since) {
+            LocalDate monday = LocalDate.of(isoYear, 1, 4)
+                    .with(IsoFields.WEEK_OF_WEEK_BASED_YEAR, isoWeek)
+                    .with(DayOfWeek.MONDAY);
+            Instant start = monday.atStartOfDay(ZoneOffset.UTC).toInstant();
+            Instant end = monday.plusWeeks(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+            return Criteria.where("patientDni").is(patientDni)
+                    .and("gameId").is(gameId)
+                    .and("progressionLevel").is(progressionLevel)
+                    .and("sessionStart").gte(max(start, since)).lt(end);
+        }
+    }
+
+    /** Cubo mensual (paciente, discapacidad, nivel, mes) de MonthlyDisabilityPipeline. */
+    public record MonthlyBucket(String patientDni, String disabilityCode, int progressionLevel,
+                                int year, int month) {
+
+        public Criteria toCriteria(Instant since) {
+            YearMonth ym = YearMonth.of(year, month);
+            Instant start = ym.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+            Instant end = ym.plusMonths(1).atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+            return Criteria.where("patientDni").is(patientDni)
+                    .and("disabilityCode").is(disabilityCode)
+                    .and("progressionLevel").is(progressionLevel)
+                    .and("sessionStart").gte(max(start, since)).lt(end);
+        }
+    }
+
+    public record TouchedBuckets(Set<WeeklyBucket> weekly, Set<MonthlyBucket> monthly) {
+        public boolean isEmpty() { return weekly.isEmpty() && monthly.isEmpty(); }
+    }
+
+    public TouchedBuckets run(Instant after, Instant upTo, Instant since) {
+
+        Aggregation agg = newAggregation(
+            match(Criteria.where("receivedAt").gt(after).lte(upTo)
+                    .and("sessionStart").gte(since)),
+            project("patientDni", "gameId", "progressionLevel", "disabilityCode")
+                .and(ctx -> new Document("$isoWeekYear", "$sessionStart")).as("isoYear")
+                .and(ctx -> new Document("$isoWeek", "$sessionStart")).as("isoWeek")
+                .and(ctx -> new Document("$year", "$sessionStart")).as("year")
+                .and(ctx -> new Document("$month", "$sessionStart")).as("month"),
+            group("patientDni", "gameId", "progressionLevel", "disabilityCode",
+                  "isoYear", "isoWeek", "year", "month")
+        ).withOptions(Aggregation.newAggregationOptions().allowDiskUse(true).build());
+
+        List<Document> rows = aggregations.aggregate("touched", agg, GameSession.class, Document.class)
+                .getMappedResults();
+
+        Set<WeeklyBucket> weekly = new LinkedHashSet<>();
+        Set<MonthlyBucket> monthly = new LinkedHashSet<>();
+        for (Document d : rows) {
+            Document id = d.get("_id", Document.class);
+            String dni = id.getString("patientDni");
+            int level = ((Number) id.get("progressionLevel")).intValue();
+            weekly.add(new WeeklyBucket(dni, id.getString("gameId"), level,
+                    intVal(id.get("isoYear")), intVal(id.get("isoWeek"))));
+            String disability = id.getString("disabilityCode");
+            // Igual que MonthlyDisabilityPipeline: sin disabilityCode no hay fila mensual.
+            if (disability != null) {
+                monthly.add(new MonthlyBucket(dni, disability, level,
+                        intVal(id.get("year")), intVal(id.get("month"))));
+            }
+        }
+        return new TouchedBuckets(weekly, monthly);
+    }
+
+    private static Instant max(Instant a, Instant b) { return a.isAfter(b) ? a : b; }
+    private static int intVal(Object o) { return ((Number) o).intValue(); }
+}
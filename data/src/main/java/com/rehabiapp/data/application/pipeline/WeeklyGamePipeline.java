@@ -5,11 +5,13 @@ import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
 import com.rehabiapp.data.domain.model.GameSession;
 import com.rehabiapp.data.domain.model.PatientProgress;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Sort;
-import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
 import org.springframework.data.mongodb.core.aggregation.AggregationResults;
 import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
 import org.springframework.data.mongodb.core.query.Criteria;
@@ -22,18 +24,48 @@ import org.springframework.stereotype.Component;
 @Component
 public class WeeklyGamePipeline {
 
-    private final MongoTemplate mongoTemplate;
+    private final PipelineAggregations aggregations;
+    private final RomRepresentation romRepresentation;
+    private final int romSummaryPoints;
 
-    public WeeklyGamePipeline(MongoTemplate mongoTemplate) {
-        this.mongoTemplate = mongoTemplate;
+    public WeeklyGamePipeline(PipelineAggregations aggregations,
+                  @Value("${rehabiapp.analytics.rom-representation:raw}") RomRepresentation romRepresentation,
+                  @Value("${rehabiapp.analytics.rom-summary.points:16}") int romSummaryPoints) {
+        this.aggregations = aggregations;
+        this.romRepresentation = romRepresentation;
+        this.romSummaryPoints = romSummaryPoints;
     }
 
     public List<PatientProgress> run(Instant since) {
+        return run(Criteria.where("sessionStart").gte(since));
+    }
+
+    /**
+     * Igual que {@link #run(Instant)} pero con un filtro arbitrario sobre game_sessions.
+     * El refresco incremental lo usa para recalcular solo los cubos tocados.
+     */
+    public List<PatientProgress> run(Criteria filter) {
 
-        Aggregation agg = newAggregation(
-            match(Criteria.where("sessionStart").gte(since)),
+        List<AggregationOperation> ops = new ArrayList<>(List.of(
+            match(filter),
             // Ordena por sessionStart para que $push preserve el orden temporal del ROM trend.
-            sort(Sort.Direction.ASC, "sessionStart"),
+            sort(Sort.Direction.ASC, "sessionStart")));
+        ops.addAll(bucketStages());
+        Aggregation agg = newAggregation(ops);
+
+        AggregationResults<Document> res = aggregations.aggregate(
+                "weekly", agg, GameSession.class, Document.class);
+
+        Instant now = Instant.now();
+        return res.getMappedResults().stream().map(d -> toProgress(d, now)).toList();
+    }
+
+    /**
+     * Etapas posteriores al $match/$sort. Compartidas con {@link RefreshFacetPipeline},
+     * que las ejecuta como sub-pipeline de un $facet.
+     */
+    List<AggregationOperation> bucketStages() {
+        List<AggregationOperation> ops = new ArrayList<>(List.of(
             project()
                 .andInclude("patientDni", "gameId", "progressionLevel",
                             "score", "durationSeconds", "completed", "sessionStart")
@@ -55,30 +87,29 @@ public class WeeklyGamePipeline {
                 .and("_id.progressionLevel").as("progressionLevel")
                 .and("_id.isoYear").as("isoYear")
                 .and("_id.isoWeek").as("isoWeek")
-        );
-
-        AggregationResults<Document> res = mongoTemplate.aggregate(
-                agg, GameSession.class, Document.class);
+        ));
+        if (romRepresentation == RomRepresentation.SUMMARY) ops.addAll(RomSummaryStages.of(romSummaryPoints));
+        return ops;
+    }
 
-        Instant now = Instant.now();
-        return res.getMappedResults().stream().map(d -> {
-            PatientProgress p = new PatientProgress();
-            p.setPatientDni(d.getString("patientDni"));
-            p.setGameId(d.getString("gameId"));
-            p.setProgressionLevel(intVal(d.get("progressionLevel")));
-            int y = intVal(d.get("isoYear"));
-            int w = intVal(d.get("isoWeek"));
-            p.setPeriod(String.format("%04d-W%02d", y, w));
-            p.setTotalSessions(intVal(d.get("totalSessions")));
-            p.setAverageScore(numberAsDouble(d.get("averageScore")));
-            p.setAverageDuration(numberAsDouble(d.get("averageDuration")));
-            p.setCompletionRate(numberAsDouble(d.get("completionRate")));
-            @SuppressWarnings("unchecked")
-            List<Double> trend = (List<Double>) d.get("rangeOfMotionTrend");
-            p.setRangeOfMotionTrend(trend);
-            p.setLastUpdated(now);
-            return p;
-        }).toList();
+    static PatientProgress toProgress(Document d, Instant now) {
+        PatientProgress p = new PatientProgress();
+        p.setPatientDni(d.getString("patientDni"));
+        p.setGameId(d.getString("gameId"));
+        p.setProgressionLevel(intVal(d.get("progressionLevel")));
+        int y = intVal(d.get("isoYear"));
+        int w = intVal(d.get("isoWeek"));
+        p.setPeriod(String.format("%04d-W%02d", y, w));
+        p.setTotalSessions(intVal(d.get("totalSessions")));
+        p.setAverageScore(numberAsDouble(d.get("averageScore")));
+        p.setAverageDuration(numberAsDouble(d.get("averageDuration")));
+        p.setCompletionRate(numberAsDouble(d.get("completionRate")));
+        @SuppressWarnings("unchecked")
+        List<Double> trend = (List<Double>) d.get("rangeOfMotionTrend");
+        p.setRangeOfMotionTrend(trend);
+        p.setRomSummary(RomSummaryStages.fromDocument(d.get("romSummary", Document.class)));
+        p.setLastUpdated(now);
+        return p;
     }
 
     private static Double numberAsDouble(Object o) { return o == null ? null : ((Number) o).doubleValue(); }
@@ -2,20 +2,44 @@ package com.rehabiapp.data.application.service;
 
 import com.rehabiapp.data.application.pipeline.LevelStatisticsPipeline;
 import com.rehabiapp.data.application.pipeline.MonthlyDisabilityPipeline;
+import com.rehabiapp.data.application.pipeline.RefreshFacetPipeline;
+import com.rehabiapp.data.application.pipeline.TouchedBucketsPipeline;
+import com.rehabiapp.data.application.pipeline.TouchedBucketsPipeline.TouchedBuckets;
 import com.rehabiapp.data.application.pipeline.WeeklyGamePipeline;
+import com.rehabiapp.data.domain.model.AnalyticsRefreshState;
 import com.rehabiapp.data.domain.model.LevelStatistics;
 import com.rehabiapp.data.domain.model.PatientProgress;
+import com.rehabiapp.data.domain.repository.AnalyticsRefreshStateRepository;
 import com.rehabiapp.data.domain.repository.LevelStatisticsRepository;
 import com.rehabiapp.data.domain.repository.PatientProgressRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.Pair;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
@@ -23,47 +47,224 @@ import org.springframework.stereotype.Service;
  * Refresca patient_progress y level_statistics a partir de game_sessions.
  * Ventana: ultimos 90 dias (cubre reingestas tardias y correcciones).
  * Frecuencia: cada hora (configurable via rehabiapp.analytics.cron).
+ *
+ * En modo INCREMENTAL solo se recalculan los cubos (paciente, juego, nivel, semana) y
+ * (paciente, discapacidad, nivel, mes) con sesiones recibidas desde la ultima marca de agua
+ * sobre receivedAt. Sin marca de agua previa se ejecuta un refresco completo.
+ *
+ * Las escrituras van por BulkOperations desordenadas en trozos de
+ * rehabiapp.analytics.upsert.chunk-size filas; un trozo fallido no aborta el resto.
+ *
+ * Las aggregations son lecturas independientes sobre game_sessions: se lanzan en paralelo
+ * en un pool acotado (rehabiapp.analytics.refresh.parallelism) y el upsert de cada una
+ * empieza en cuanto llegan sus resultados, sin esperar a las demas.
+ *
+ * Con rehabiapp.analytics.refresh-pipeline=facet el refresco completo lee la ventana una sola
+ * vez ({@link RefreshFacetPipeline}); level_statistics pasa a cubrir solo esa ventana.
+ *
+ * Con rehabiapp.analytics.level-stats-mode=incremental level_statistics se deriva de los
+ * acumuladores mantenidos en la ingesta ({@link LevelStatisticsAccumulatorService}) y deja
+ * de agrupar toda game_sessions en cada ejecucion.
  */
 @Service
 public class AnalyticsRefreshJob {
 
     private static final Logger log = LoggerFactory.getLogger(AnalyticsRefreshJob.class);
     private static final long WINDOW_DAYS = 90L;
+    /** Clausulas $or por aggregation al recalcular cubos tocados. */
+    private static final int BUCKETS_PER_QUERY = 500;
 
     private final WeeklyGamePipeline weekly;
     private final MonthlyDisabilityPipeline monthly;
     private final LevelStatisticsPipeline levels;
+    private final TouchedBucketsPipeline touched;
+    private final RefreshFacetPipeline facet;
+    private final LevelStatisticsAccumulatorService levelAccumulator;
+    private final AnalyticsResponseCache responseCache;
     private final PatientProgressRepository progressRepo;
     private final LevelStatisticsRepository levelRepo;
+    private final AnalyticsRefreshStateRepository stateRepo;
     private final MongoTemplate mongoTemplate;
+    private final MeterRegistry meterRegistry;
+    private final RefreshMode mode;
+    private final RefreshPipeline pipeline;
+    private final long settleSeconds;
+    private final int upsertChunkSize;
+    private final ExecutorService executor;
 
     public AnalyticsRefreshJob(WeeklyGamePipeline weekly,
                                MonthlyDisabilityPipeline monthly,
                                LevelStatisticsPipeline levels,
+                               TouchedBucketsPipeline touched,
+                               RefreshFacetPipeline facet,
+                               LevelStatisticsAccumulatorService levelAccumulator,
+                               AnalyticsResponseCache responseCache,
                                PatientProgressRepository progressRepo,
                                LevelStatisticsRepository levelRepo,
-                               MongoTemplate mongoTemplate) {
+                               AnalyticsRefreshStateRepository stateRepo,
+                               MongoTemplate mongoTemplate,
+                               MeterRegistry meterRegistry,
+                               @Value("${rehabiapp.analytics.refresh-mode:full}") RefreshMode mode,
+                               @Value("${rehabiapp.analytics.refresh-pipeline:separate}") RefreshPipeline pipeline,
+                               @Value("${rehabiapp.analytics.incremental.settle-seconds:120}") long settleSeconds,
+                               @Value("${rehabiapp.analytics.upsert.chunk-size:1000}") int upsertChunkSize,
+                               @Value("${rehabiapp.analytics.refresh.parallelism:3}") int parallelism) {
         this.weekly = weekly;
         this.monthly = monthly;
         this.levels = levels;
+        this.touched = touched;
+        this.facet = facet;
+        this.levelAccumulator = levelAccumulator;
+        this.responseCache = responseCache;
         this.progressRepo = progressRepo;
         this.levelRepo = levelRepo;
+        this.stateRepo = stateRepo;
         this.mongoTemplate = mongoTemplate;
+        this.meterRegistry = meterRegistry;
+        this.mode = mode;
+        this.pipeline = pipeline;
+        this.settleSeconds = settleSeconds;
+        this.upsertChunkSize = upsertChunkSize;
+        this.executor = Executors.newFixedThreadPool(parallelism,
+                Thread.ofPlatform().name("analytics-refresh-", 0).daemon(true).factory());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
     }
 
     @Scheduled(cron = "${rehabiapp.analytics.cron:0 5 * * * *}")
     public void refresh() {
-        Instant since = Instant.now().minus(WINDOW_DAYS, ChronoUnit.DAYS);
-        log.info("Iniciando refresco de analiticas desde {}", since);
+        refresh(mode);
+    }
+
+    public void refresh(RefreshMode requested) {
+        Instant now = Instant.now();
+        Instant since = now.minus(WINDOW_DAYS, ChronoUnit.DAYS);
+        // Margen para escrituras en vuelo (p.ej. cola diferida) con receivedAt anterior a "now".
+        Instant upTo = now.minusSeconds(settleSeconds);
+
+        Optional<AnalyticsRefreshState> state = stateRepo.findById(AnalyticsRefreshState.PATIENT_PROGRESS);
+        boolean incremental = requested == RefreshMode.INCREMENTAL
+                && state.map(AnalyticsRefreshState::getWatermark).isPresent();
 
         long t0 = System.currentTimeMillis();
-        upsertProgress(weekly.run(since));
-        upsertProgress(monthly.run(since));
-        upsertLevelStatistics(levels.run());
+        List<CompletableFuture<Void>> stages = new ArrayList<>();
+        if (incremental) {
+            Instant after = state.get().getWatermark();
+            log.info("Iniciando refresco incremental de analiticas recibidas en ({}, {}]", after, upTo);
+            stages.add(levelsStage());
+            TouchedBuckets buckets = timed("touched", "aggregate", () -> touched.run(after, upTo, since));
+            stages.addAll(refreshTouched(buckets, since));
+        } else if (pipeline == RefreshPipeline.FACET) {
+            log.info("Iniciando refresco de analiticas en una pasada ($facet) desde {}", since);
+            boolean accumulated = levelAccumulator.isEnabled();
+            if (accumulated) stages.add(levelsStage());
+            stages.add(stage("facet", () -> facet.run(since), r -> {
+                upsertProgress(r.weekly());
+                upsertProgress(r.monthly());
+                if (!accumulated) upsertLevelStatistics(r.levels());
+            }));
+        } else {
+            log.info("Iniciando refresco de analiticas desde {}", since);
+            stages.add(levelsStage());
+            stages.add(stage("weekly", () -> weekly.run(since), this::upsertProgress));
+            stages.add(stage("monthly", () -> monthly.run(since), this::upsertProgress));
+        }
+        try {
+            awaitAll(stages);
+        } finally {
+            // Tambien tras un fallo parcial: parte de las colecciones ya puede haber cambiado.
+            responseCache.invalidateAll();
+        }
+        saveWatermark(upTo, incremental ? RefreshMode.INCREMENTAL : RefreshMode.FULL, now);
         log.info("Refresco completado en {} ms", System.currentTimeMillis() - t0);
     }
 
+    private List<CompletableFuture<Void>> refreshTouched(TouchedBuckets buckets, Instant since) {
+        if (buckets.isEmpty()) {
+            log.info("Sin sesiones nuevas desde la ultima marca de agua");
+            return List.of();
+        }
+        log.info("Cubos tocados semanales={} mensuales={}",
+                buckets.weekly().size(), buckets.monthly().size());
+        List<CompletableFuture<Void>> stages = new ArrayList<>();
+        for (Criteria c : orChunks(buckets.weekly(), b -> b.toCriteria(since))) {
+            stages.add(stage("weekly", () -> weekly.run(c), this::upsertProgress));
+        }
+        for (Criteria c : orChunks(buckets.monthly(), b -> b.toCriteria(since))) {
+            stages.add(stage("monthly", () -> monthly.run(c), this::upsertProgress));
+        }
+        return stages;
+    }
+
+    /** level_statistics desde los acumuladores de ingesta o reagregando toda la coleccion. */
+    private CompletableFuture<Void> levelsStage() {
+        if (!levelAccumulator.isEnabled()) {
+            return stage("levels", levels::run, this::upsertLevelStatistics);
+        }
+        return stage("levels", () -> {
+            levelAccumulator.seedIfNeeded();
+            return levelAccumulator.snapshot();
+        }, this::upsertLevelStatistics);
+    }
+
+    /** Aggregation y despues su upsert, ambos en el pool y medidos por separado. */
+    private <T> CompletableFuture<Void> stage(String name, Supplier<T> aggregate,
+                                              Consumer<T> upsert) {
+        return CompletableFuture
+                .supplyAsync(() -> timed(name, "aggregate", aggregate), executor)
+                .thenAcceptAsync(rows -> timed(name, "upsert", () -> {
+                    upsert.accept(rows);
+                    return null;
+                }), executor);
+    }
+
+    private <T> T timed(String stage, String phase, Supplier<T> work) {
+        return Timer.builder("rehabiapp.analytics.refresh.stage")
+                .description("Duracion de cada etapa del refresco de analiticas")
+                .tag("stage", stage)
+                .tag("phase", phase)
+                .register(meterRegistry)
+                .record(work);
+    }
+
+    /** Espera a todas las etapas; si alguna falla la marca de agua no avanza. */
+    private static void awaitAll(List<CompletableFuture<Void>> stages) {
+        try {
+            CompletableFuture.allOf(stages.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+    }
+
+    private static <B> List<Criteria> orChunks(Iterable<B> buckets, Function<B, Criteria> toCriteria) {
+        List<Criteria> chunks = new ArrayList<>();
+        List<Criteria> current = new ArrayList<>(BUCKETS_PER_QUERY);
+        for (B b : buckets) {
+            current.add(toCriteria.apply(b));
+            if (current.size() == BUCKETS_PER_QUERY) {
+                chunks.add(new Criteria().orOperator(current));
+                current = new ArrayList<>(BUCKETS_PER_QUERY);
+            }
+        }
+        if (!current.isEmpty()) chunks.add(new Criteria().orOperator(current));
+        return chunks;
+    }
+
+    private void saveWatermark(Instant watermark, RefreshMode executed, Instant runAt) {
+        AnalyticsRefreshState s = new AnalyticsRefreshState();
+        s.setId(AnalyticsRefreshState.PATIENT_PROGRESS);
+        s.setWatermark(watermark);
+        s.setLastRunAt(runAt);
+        s.setLastMode(executed.name());
+        stateRepo.save(s);
+    }
+
     private void upsertProgress(List<PatientProgress> rows) {
+        List<Pair<Query, Update>> upserts = new ArrayList<>(rows.size());
         for (PatientProgress p : rows) {
             Query q = Query.query(Criteria.where("patientDni").is(p.getPatientDni())
                     .and("gameId").is(p.getGameId())
@@ -75,14 +276,21 @@ public class AnalyticsRefreshJob {
                     .set("averageScore", p.getAverageScore())
                     .set("averageDuration", p.getAverageDuration())
                     .set("completionRate", p.getCompletionRate())
-                    .set("rangeOfMotionTrend", p.getRangeOfMotionTrend())
                     .set("disabilityCode", p.getDisabilityCode())
                     .set("lastUpdated", p.getLastUpdated());
-            mongoTemplate.upsert(q, u, PatientProgress.class);
+            // Al cambiar rom-representation la representacion anterior se elimina del cubo.
+            if (p.getRomSummary() != null) {
+                u.set("romSummary", p.getRomSummary()).unset("rangeOfMotionTrend");
+            } else {
+                u.set("rangeOfMotionTrend", p.getRangeOfMotionTrend()).unset("romSummary");
+            }
+            upserts.add(Pair.of(q, u));
         }
+        bulkUpsert(PatientProgress.class, "patient_progress", upserts);
     }
 
     private void upsertLevelStatistics(List<LevelStatistics> rows) {
+        List<Pair<Query, Update>> upserts = new ArrayList<>(rows.size());
         for (LevelStatistics s : rows) {
             Query q = Query.query(Criteria.where("progressionLevel").is(s.getProgressionLevel()));
             Update u = new Update()
@@ -93,7 +301,54 @@ public class AnalyticsRefreshJob {
                     .set("globalCompletionRate", s.getGlobalCompletionRate())
                     .set("averageRangeOfMotion", s.getAverageRangeOfMotion())
                     .set("lastUpdated", s.getLastUpdated());
-            mongoTemplate.upsert(q, u, LevelStatistics.class);
+            upserts.add(Pair.of(q, u));
+        }
+        bulkUpsert(LevelStatistics.class, "level_statistics", upserts);
+    }
+
+    /**
+     * Ejecuta los upserts en trozos desordenados. Cada trozo se mide por separado y sus
+     * errores se cuentan y registran sin interrumpir los trozos siguientes; al terminar, si
+     * alguno fallo se lanza IllegalStateException para que la etapa falle y la marca de agua
+     * no avance (los cubos no escritos se recalculan en el siguiente refresco).
+     */
+    private void bulkUpsert(Class<?> entity, String collection, List<Pair<Query, Update>> upserts) {
+        Timer chunkTimer = Timer.builder("rehabiapp.analytics.upsert.chunk")
+                .description("Latencia de un trozo de upserts bulk del refresco")
+                .tag("collection", collection)
+                .register(meterRegistry);
+        Counter failures = Counter.builder("rehabiapp.analytics.upsert.failures")
+                .description("Filas no escritas por error en el upsert bulk")
+                .tag("collection", collection)
+                .register(meterRegistry);
+
+        int failed = 0;
+        for (int from = 0; from < upserts.size(); from += upsertChunkSize) {
+            List<Pair<Query, Update>> chunk = upserts.subList(from, Math.min(from + upsertChunkSize, upserts.size()));
+            long t0 = System.nanoTime();
+            try {
+                mongoTemplate.bulkOps(BulkMode.UNORDERED, entity).upsert(chunk).execute();
+            } catch (BulkOperationException e) {
+                failed += e.getErrors().size();
+                failures.increment(e.getErrors().size());
+                log.warn("Trozo de upserts con errores coleccion={} offset={} filas={} errores={} primero={}",
+                        collection, from, chunk.size(), e.getErrors().size(), e.getErrors().get(0).getMessage());
+            } catch (DataAccessException e) {
+                failed += chunk.size();
+                failures.increment(chunk.size());
+                log.error("Trozo de upserts fallido coleccion={} offset={} filas={}",
+                        collection, from, chunk.size(), e);
+            } finally {
+                long elapsed = System.nanoTime() - t0;
+                chunkTimer.record(elapsed, TimeUnit.NANOSECONDS);
+                log.debug("Trozo de upserts coleccion={} offset={} filas={} en {} ms",
+                        collection, from, chunk.size(), TimeUnit.NANOSECONDS.toMillis(elapsed));
+            }
+        }
+        log.info("Upserts coleccion={} filas={} fallidas={}", collection, upserts.size(), failed);
+        if (failed > 0) {
+            throw new IllegalStateException("Upserts fallidos en " + collection + ": " + failed
+                    + " de " + upserts.size() + " filas");
         }
     }
 }
@@ -0,0 +1,88 @@
+package com.rehabiapp.data.application.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rehabiapp.data.domain.model.GameSession;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cache en proceso de las respuestas de lectura de analiticas (perfil del paciente, graficas,
+ * serie de ROM), acotada por numero de entradas y por TTL (rehabiapp.analytics.cache.*).
+ *
+ * Las entradas se indexan por (DNI, consulta); las globales usan DNI null. Cada entrada guarda
+ * la version de datos con la que se calculo (la ETag de PatientDataVersionService, compartida
+ * entre replicas) y solo se sirve mientras esa version siga vigente: una ingesta o un refresco
+ * en otra replica cambia la version y la entrada se recalcula en la siguiente lectura. Las
+ * invalidaciones locales (ingesta por DNI, refresco completo) solo liberan memoria antes.
+ * Hits y misses se exportan como cache_gets_total{cache="analytics"}.
+ */
+@Component
+@Order(IngestedSessionsListener.CACHE)
+public class AnalyticsResponseCache implements IngestedSessionsListener {
+
+    private final boolean enabled;
+    private final Cache<Key, Entry> cache;
+
+    public AnalyticsResponseCache(MeterRegistry meterRegistry,
+                                  @Value("${rehabiapp.analytics.cache.enabled:true}") boolean enabled,
+                                  @Value("${rehabiapp.analytics.cache.max-entries:10000}") long maxEntries,
+                                  @Value("${rehabiapp.analytics.cache.ttl-seconds:300}") long ttlSeconds) {
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "analytics");
+    }
+
+    /**
+     * Valor cacheado o calculado con loader. Los null y las excepciones no se cachean.
+     * Sin carga atomica a proposito: un loader puede leer otras entradas de esta cache.
+     *
+     * version es la ETag de los datos del paciente (PatientDataVersionService): una entrada
+     * guardada con otra version no se devuelve y se recalcula, para que el cuerpo corresponda
+     * siempre a la ETag aunque la invalidacion haya ocurrido en otra replica.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String dni, String version, String query, Supplier<T> loader) {
+        if (!enabled) return loader.get();
+        Key key = new Key(dni, query);
+        Entry hit = cache.getIfPresent(key);
+        if (hit != null && Objects.equals(hit.version(), version)) return (T) hit.value();
+        T value = loader.get();
+        if (value != null) cache.put(key, new Entry(version, value));
+        return value;
+    }
+
+    @Override
+    public void onSessionsInserted(List<GameSession> sessions) {
+        if (!enabled || sessions.isEmpty()) return;
+        Set<String> dnis = new HashSet<>();
+        for (GameSession g : sessions) dnis.add(g.getPatientDni());
+        invalidatePatients(dnis);
+    }
+
+    /** Una sola pasada sobre las claves por lote, no una por sesion. */
+    public void invalidatePatients(Set<String> dnis) {
+        cache.asMap().keySet().removeIf(k -> k.dni() != null && dnis.contains(k.dni()));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    record Key(String dni, String query) {}
+
+    record Entry(String version, Object value) {}
+}
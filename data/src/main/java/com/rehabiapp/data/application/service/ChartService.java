@@ -1,16 +1,24 @@
 package com.rehabiapp.data.application.service;
 
+import com.rehabiapp.data.application.pipeline.RomRepresentation;
 import com.rehabiapp.data.application.service.dto.RomTimeSeriesPoint;
+import com.rehabiapp.data.application.service.dto.chart.ChartDashboard;
 import com.rehabiapp.data.application.service.dto.chart.ChartPayload;
 import com.rehabiapp.data.application.service.dto.chart.ChartSeries;
 import com.rehabiapp.data.domain.model.LevelStatistics;
-import com.rehabiapp.data.domain.model.PatientProgress;
+import com.rehabiapp.data.domain.model.RomSummary;
 import com.rehabiapp.data.domain.repository.LevelStatisticsRepository;
 import com.rehabiapp.data.domain.repository.PatientProgressRepository;
+import com.rehabiapp.data.domain.repository.PatientProgressViews.Completion;
+import com.rehabiapp.data.domain.repository.PatientProgressViews.Dashboard;
+import com.rehabiapp.data.domain.repository.PatientProgressViews.GameScore;
+import com.rehabiapp.data.domain.repository.PatientProgressViews.WeeklyRom;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -19,31 +27,85 @@ public class ChartService {
     private final RomTimeSeriesService romService;
     private final PatientProgressRepository progressRepo;
     private final LevelStatisticsRepository levelRepo;
+    private final RomRepresentation romRepresentation;
 
     public ChartService(RomTimeSeriesService romService,
                         PatientProgressRepository progressRepo,
-                        LevelStatisticsRepository levelRepo) {
+                        LevelStatisticsRepository levelRepo,
+                        @Value("${rehabiapp.analytics.rom-representation:raw}") RomRepresentation romRepresentation) {
         this.romService = romService;
         this.progressRepo = progressRepo;
         this.levelRepo = levelRepo;
+        this.romRepresentation = romRepresentation;
     }
 
     public ChartPayload romProgress(String dni) {
+        if (romRepresentation == RomRepresentation.SUMMARY) {
+            return romProgressFromSummaries(weekly(dni, WeeklyRom.class));
+        }
+        return romProgressFromSessions(dni);
+    }
+
+    /**
+     * Las cuatro graficas del panel del paciente con una sola lectura de patient_progress.
+     * Sin sesiones en la ventana la grafica de ROM va vacia; sin ningun dato, NotFoundException.
+     */
+    public ChartDashboard dashboard(String dni) {
+        List<Dashboard> rows = weekly(dni, Dashboard.class);
+        ChartPayload rom;
+        if (romRepresentation == RomRepresentation.SUMMARY) {
+            // patient_progress es la unica fuente: sin filas no hay ningun dato del paciente.
+            if (rows.isEmpty()) throw new NotFoundException("no sessions for " + dni);
+            rom = romProgressFromSummaries(rows);
+        } else {
+            try {
+                rom = romProgressFromSessions(dni);
+            } catch (NotFoundException e) {
+                if (rows.isEmpty()) throw e;
+                rom = romChart(List.of(), List.of());
+            }
+        }
+        return new ChartDashboard(dni, rom, scoreByGame(rows), completionTrend(rows), levelComparison());
+    }
+
+    private ChartPayload romProgressFromSessions(String dni) {
         List<RomTimeSeriesPoint> pts = romService.compute(dni, "week", null, null, null).points();
         List<String> x = pts.stream().map(RomTimeSeriesPoint::date).toList();
         List<Double> y = pts.stream().map(RomTimeSeriesPoint::romAvg).toList();
+        return romChart(x, y);
+    }
+
+    /**
+     * Misma grafica a partir de los romSummary semanales de patient_progress: media por semana
+     * ponderada por numero de muestras de cada juego, sin recorrer game_sessions.
+     */
+    ChartPayload romProgressFromSummaries(List<? extends WeeklyRom> progress) {
+        Map<String, double[]> byWeek = new TreeMap<>();
+        for (WeeklyRom p : progress) {
+            RomSummary r = p.getRomSummary();
+            if (r == null || r.count() == null || r.count() == 0) continue;
+            double[] acc = byWeek.computeIfAbsent(p.getPeriod(), k -> new double[2]);
+            acc[0] += r.mean() * r.count();
+            acc[1] += r.count();
+        }
+        List<String> x = new ArrayList<>(byWeek.keySet());
+        List<Double> y = x.stream().map(w -> byWeek.get(w)[0] / byWeek.get(w)[1]).toList();
+        return romChart(x, y);
+    }
+
+    private static ChartPayload romChart(List<String> x, List<Double> y) {
         return new ChartPayload("rom_progress", "Range of motion progress",
                 "Week", "Degrees", "category", "number",
                 List.of(new ChartSeries("Patient", x, y)));
     }
 
     public ChartPayload scoreByGame(String dni) {
-        List<PatientProgress> rows = progressRepo.findByPatientDni(dni).stream()
-                .filter(p -> !"*".equals(p.getGameId()))
-                .toList();
+        return scoreByGame(weekly(dni, GameScore.class));
+    }
 
+    private static ChartPayload scoreByGame(List<? extends GameScore> rows) {
         Map<String, List<Double>> byGame = new LinkedHashMap<>();
-        for (PatientProgress p : rows) {
+        for (GameScore p : rows) {
             byGame.computeIfAbsent(p.getGameId(), k -> new ArrayList<>())
                   .add(p.getAverageScore());
         }
@@ -59,11 +121,11 @@ public class ChartService {
     }
 
     public ChartPayload completionTrend(String dni) {
-        List<PatientProgress> rows = progressRepo.findByPatientDniOrderByPeriodAsc(dni).stream()
-                .filter(p -> !"*".equals(p.getGameId()))
-                .toList();
+        return completionTrend(weekly(dni, Completion.class));
+    }
 
-        List<String> x = rows.stream().map(PatientProgress::getPeriod).toList();
+    private static ChartPayload completionTrend(List<? extends Completion> rows) {
+        List<String> x = rows.stream().map(Completion::getPeriod).toList();
         List<Double> y = rows.stream().map(p -> p.getCompletionRate() != null ? p.getCompletionRate() : 0.0).toList();
 
         return new ChartPayload("completion_trend", "Weekly completion rate",
@@ -71,6 +133,11 @@ public class ChartService {
                 List.of(new ChartSeries("Patient", x, y)));
     }
 
+    /** Filas semanales (gameId != "*") por periodo ascendente, solo con los campos de la vista. */
+    private <T> List<T> weekly(String dni, Class<T> view) {
+        return progressRepo.findByPatientDniAndGameIdNotOrderByPeriodAsc(dni, "*", view);
+    }
+
     public ChartPayload levelComparison() {
         List<LevelStatistics> stats = levelRepo.findAllByOrderByProgressionLevelAsc();
 
@@ -0,0 +1,11 @@
+package com.rehabiapp.data.application.service;
+
+/**
+ * Parametro accuracy de /analytics/cohort-compare.
+ * EXACT: filas por paciente de la cohorte (snapshot en memoria o aggregation en vivo).
+ * APPROX: fusion de los sketches mensuales de cohort_sketches (CohortSketchService).
+ */
+public enum CohortAccuracy {
+    EXACT,
+    APPROX
+}
@@ -2,46 +2,95 @@ package com.rehabiapp.data.application.service;
 
 import com.rehabiapp.data.application.pipeline.CohortComparisonPipeline;
 import com.rehabiapp.data.application.pipeline.CohortComparisonPipeline.CohortAggregate;
+import com.rehabiapp.data.application.pipeline.CohortComparisonPipeline.Comparison;
 import com.rehabiapp.data.application.pipeline.CohortComparisonPipeline.PatientAggregate;
+import com.rehabiapp.data.application.service.CohortSnapshotStore.CohortSnapshot;
+import com.rehabiapp.data.application.service.CohortSnapshotStore.PatientRow;
 import com.rehabiapp.data.application.service.dto.CohortComparisonResponse;
 import com.rehabiapp.data.application.service.dto.CohortMetrics;
 import com.rehabiapp.data.application.service.dto.MetricsDelta;
 import com.rehabiapp.data.application.service.dto.MetricsPercentile;
 import com.rehabiapp.data.application.service.dto.PatientMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import java.time.Instant;
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
 import org.springframework.stereotype.Service;
 
 @Service
 public class CohortComparisonService {
 
     private final CohortComparisonPipeline pipeline;
+    private final CohortSnapshotStore snapshots;
+    private final CohortSketchService sketches;
+    private final MeterRegistry meterRegistry;
 
-    public CohortComparisonService(CohortComparisonPipeline pipeline) {
+    public CohortComparisonService(CohortComparisonPipeline pipeline,
+                                   CohortSnapshotStore snapshots,
+                                   CohortSketchService sketches,
+                                   MeterRegistry meterRegistry) {
         this.pipeline = pipeline;
+        this.snapshots = snapshots;
+        this.sketches = sketches;
+        this.meterRegistry = meterRegistry;
     }
 
     public CohortComparisonResponse compute(String dni, String disability, int level,
                                              String fromStr, String toStr) {
-        Instant now = Instant.now();
-        Instant from = fromStr != null
-                ? LocalDate.parse(fromStr).atStartOfDay(ZoneOffset.UTC).toInstant()
-                : now.minus(180, ChronoUnit.DAYS);
-        Instant to = toStr != null
-                ? LocalDate.parse(toStr).atTime(23, 59, 59).toInstant(ZoneOffset.UTC)
-                : now;
+        return compute(dni, disability, level, fromStr, toStr, CohortAccuracy.EXACT);
+    }
 
-        PatientAggregate pat = pipeline.runTarget(dni, disability, level, from, to);
+    public CohortComparisonResponse compute(String dni, String disability, int level,
+                                             String fromStr, String toStr, CohortAccuracy accuracy) {
+        long t0 = System.nanoTime();
+        if (accuracy == CohortAccuracy.APPROX) {
+            if (!sketches.isEnabled()) {
+                throw new IllegalArgumentException("accuracy=approx requires cohort sketches to be enabled");
+            }
+            try {
+                return approximate(dni, disability, level, fromStr, toStr);
+            } finally {
+                record("sketch", t0);
+            }
+        }
+        // Ventana por defecto: se responde desde el snapshot en memoria si cubre al paciente.
+        if (fromStr == null && toStr == null && snapshots.isEnabled()) {
+            CohortSnapshot snap = snapshots.get(disability, level);
+            PatientRow target = snap != null ? snap.patient(dni) : null;
+            if (target != null) {
+                try {
+                    return fromSnapshot(dni, disability, level, target, snap);
+                } finally {
+                    record("snapshot", t0);
+                }
+            }
+        }
+        try {
+            return live(dni, disability, level, fromStr, toStr);
+        } finally {
+            record("live", t0);
+        }
+    }
+
+    private CohortComparisonResponse live(String dni, String disability, int level,
+                                          String fromStr, String toStr) {
+
+        Instant from = from(fromStr);
+        Instant to = to(toStr);
+
+        Comparison cmp = pipeline.run(dni, disability, level, from, to);
+        PatientAggregate pat = cmp.target();
         if (pat == null) throw new NotFoundException("no sessions for " + dni);
 
         PatientMetrics patientMetrics = new PatientMetrics(
                 pat.totalSessions(), pat.avgScore(), pat.avgDuration(),
                 pat.completionRate(), pat.avgRom());
 
-        CohortAggregate coh = pipeline.runCohort(dni, disability, level, from, to);
+        CohortAggregate coh = cmp.cohort();
         if (coh == null) {
             return new CohortComparisonResponse(dni, disability, level,
                     patientMetrics, null, null, null, "empty_cohort");
@@ -66,10 +115,123 @@ public class CohortComparisonService {
                 patientMetrics, cohortMetrics, delta, percentile, null);
     }
 
+    /**
+     * Modo aproximado: el paciente se agrega en vivo (solo sus sesiones) y la cohorte sale de
+     * fusionar los sketches de los meses completos que cubren el rango. Diferencias con el
+     * modo exacto: el rango se redondea a meses, las medias y percentiles son sobre medias
+     * paciente-mes, la cohorte incluye al propio paciente y cohortSize es una estimacion
+     * HyperLogLog. El error de rango de los percentiles es del orden de 1/k.
+     */
+    private CohortComparisonResponse approximate(String dni, String disability, int level,
+                                                 String fromStr, String toStr) {
+        Instant from = from(fromStr);
+        Instant to = to(toStr);
+        PatientAggregate pat = pipeline.runTarget(dni, disability, level, from, to);
+        if (pat == null) throw new NotFoundException("no sessions for " + dni);
+
+        PatientMetrics patientMetrics = new PatientMetrics(
+                pat.totalSessions(), pat.avgScore(), pat.avgDuration(),
+                pat.completionRate(), pat.avgRom());
+
+        CohortSketchService.Merged coh = sketches.merge(disability, level,
+                YearMonth.from(from.atZone(ZoneOffset.UTC)), YearMonth.from(to.atZone(ZoneOffset.UTC)));
+        if (coh == null) {
+            return new CohortComparisonResponse(dni, disability, level,
+                    patientMetrics, null, null, null, "empty_cohort");
+        }
+
+        CohortMetrics cohortMetrics = new CohortMetrics(
+                coh.patients(), coh.totalSessions(), coh.avgScore(),
+                coh.avgDuration(), coh.completionRate(), coh.avgRom());
+
+        MetricsDelta delta = new MetricsDelta(
+                pat.avgScore() - coh.avgScore(),
+                pat.avgDuration() - coh.avgDuration(),
+                pat.completionRate() - coh.completionRate(),
+                pat.avgRom() - coh.avgRom());
+
+        MetricsPercentile percentile = new MetricsPercentile(
+                coh.scores().rank(pat.avgScore()),
+                coh.completions().rank(pat.completionRate()),
+                coh.roms().rank(pat.avgRom()));
+
+        return new CohortComparisonResponse(dni, disability, level,
+                patientMetrics, cohortMetrics, delta, percentile, "approximate");
+    }
+
+    private static Instant from(String fromStr) {
+        return fromStr != null
+                ? LocalDate.parse(fromStr).atStartOfDay(ZoneOffset.UTC).toInstant()
+                : Instant.now().minus(180, ChronoUnit.DAYS);
+    }
+
+    private static Instant to(String toStr) {
+        return toStr != null
+                ? LocalDate.parse(toStr).atTime(23, 59, 59).toInstant(ZoneOffset.UTC)
+                : Instant.now();
+    }
+
+    /**
+     * Misma respuesta a partir del snapshot: el paciente objetivo se resta de sumas y
+     * arrays, asi que el coste no depende del tamano de la cohorte ni de las sesiones.
+     */
+    private CohortComparisonResponse fromSnapshot(String dni, String disability, int level,
+                                                  PatientRow t, CohortSnapshot snap) {
+        PatientMetrics patientMetrics = new PatientMetrics(
+                t.sessions(), t.score(), t.duration(), t.completion(), t.rom());
+
+        int n = snap.size() - 1;
+        if (n == 0) {
+            return new CohortComparisonResponse(dni, disability, level,
+                    patientMetrics, null, null, null, "empty_cohort");
+        }
+
+        double avgScore = (snap.scoreSum() - t.score()) / n;
+        double avgDuration = (snap.durationSum() - t.duration()) / n;
+        double avgCompletion = (snap.completionSum() - t.completion()) / n;
+        double avgRom = (snap.romSum() - t.rom()) / n;
+        CohortMetrics cohortMetrics = new CohortMetrics(
+                (long) n, snap.totalSessions() - t.sessions(),
+                avgScore, avgDuration, avgCompletion, avgRom);
+
+        MetricsDelta delta = new MetricsDelta(
+                t.score() - avgScore,
+                t.duration() - avgDuration,
+                t.completion() - avgCompletion,
+                t.rom() - avgRom);
+
+        // El propio valor del paciente nunca es estrictamente menor que si mismo: basta con restar 1 al tamano.
+        MetricsPercentile percentile = new MetricsPercentile(
+                (double) countBelow(snap.scores(), t.score()) / n,
+                (double) countBelow(snap.completions(), t.completion()) / n,
+                (double) countBelow(snap.roms(), t.rom()) / n);
+
+        return new CohortComparisonResponse(dni, disability, level,
+                patientMetrics, cohortMetrics, delta, percentile, null);
+    }
+
+    private void record(String source, long t0) {
+        Timer.builder("rehabiapp.analytics.cohort.compare")
+                .description("Duracion de /analytics/cohort-compare por origen de datos")
+                .tag("source", source)
+                .register(meterRegistry)
+                .record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+    }
+
     /** Retorna fraccion de miembros del cohorte por debajo del valor del paciente. */
-    private static double computePercentile(double value, List<Double> sorted) {
-        if (sorted.isEmpty()) return 0.0;
-        long below = sorted.stream().filter(v -> v < value).count();
-        return (double) below / sorted.size();
+    private static double computePercentile(double value, double[] sorted) {
+        if (sorted.length == 0) return 0.0;
+        return (double) countBelow(sorted, value) / sorted.length;
+    }
+
+    /** Numero de elementos estrictamente menores que value (busqueda binaria, cota inferior). */
+    static int countBelow(double[] sorted, double value) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
     }
 }
@@ -0,0 +1,164 @@
+package com.rehabiapp.data.application.service;
+
+import com.rehabiapp.data.domain.model.GameSession;
+import jakarta.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+/**
+ * Exportacion de sesiones de varios pacientes (lista de DNI o toda una discapacidad) en CSV o
+ * NDJSON comprimido.
+ *
+ * Cada paciente se lee con un cursor y se comprime en su propio miembro gzip/frame zstd en un
+ * pool acotado (rehabiapp.export.parallelism); los miembros se escriben en orden ascendente de
+ * DNI con como mucho 2 x parallelism pacientes comprimidos en memoria. Un paciente se escribe
+ * entero o no se escribe: si la descarga se corta, el cliente descarta las filas del ultimo
+ * DNI recibido y repite la peticion con resumeFrom igual a ese DNI.
+ */
+@Service
+public class CohortExportService {
+
+    private static final Logger log = LoggerFactory.getLogger(CohortExportService.class);
+
+    public enum Format { CSV, NDJSON }
+
+    public record Summary(int patients, long sessions, long bytes) {}
+
+    private final SessionStorage storage;
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    public CohortExportService(SessionStorage storage,
+                               @Value("${rehabiapp.export.parallelism:4}") int parallelism) {
+        this.storage = storage;
+        this.parallelism = parallelism;
+        this.executor = Executors.newFixedThreadPool(parallelism,
+                Thread.ofPlatform().name("cohort-export-", 0).daemon(true).factory());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * DNI a exportar en orden ascendente y desde resumeFrom (incluido). Con disability se toman
+     * los pacientes con alguna sesion de esa discapacidad en el rango; si no, la lista dada.
+     */
+    public List<String> patients(List<String> dnis, String disability, String from, String to, String resumeFrom) {
+        Stream<String> all;
+        if (disability != null) {
+            Query q = ExportService.buildQuery(null, from, to)
+                    .addCriteria(Criteria.where("disabilityCode").is(disability));
+            all = storage.distinct(q, "patientDni", ExportService.fromInstant(from)).stream();
+        } else {
+            all = dnis.stream();
+        }
+        return all.distinct()
+                .filter(d -> resumeFrom == null || d.compareTo(resumeFrom) >= 0)
+                .sorted()
+                .toList();
+    }
+
+    public Summary export(List<String> patients, String disability, String from, String to,
+                          Format format, ExportEncoding encoding, OutputStream out) throws IOException {
+        long t0 = System.currentTimeMillis();
+        long sessions = 0, bytes = 0;
+
+        if (format == Format.CSV) {
+            byte[] header = compress(encoding,
+                    w -> CSVFormat.DEFAULT.printRecord(w, (Object[]) ExportService.CSV_HEADERS));
+            out.write(header);
+            bytes += header.length;
+        }
+
+        Deque<CompletableFuture<Member>> window = new ArrayDeque<>();
+        int next = 0;
+        try {
+            while (next < patients.size() || !window.isEmpty()) {
+                while (next < patients.size() && window.size() < 2 * parallelism) {
+                    String dni = patients.get(next++);
+                    window.add(CompletableFuture.supplyAsync(
+                            () -> member(dni, disability, from, to, format, encoding), executor));
+                }
+                Member m = window.removeFirst().get();
+                out.write(m.bytes());
+                sessions += m.sessions();
+                bytes += m.bytes().length;
+            }
+            out.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("export interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("export failed", e.getCause());
+        } finally {
+            window.forEach(f -> f.cancel(true));
+        }
+        log.info("Exportacion de cohorte pacientes={} sesiones={} bytes={} codificacion={} en {} ms",
+                patients.size(), sessions, bytes, encoding, System.currentTimeMillis() - t0);
+        return new Summary(patients.size(), sessions, bytes);
+    }
+
+    private record Member(byte[] bytes, long sessions) {}
+
+    /** Todas las sesiones de un paciente comprimidas como un miembro independiente. */
+    private Member member(String dni, String disability, String from, String to,
+                          Format format, ExportEncoding encoding) {
+        Query q = ExportService.buildQuery(dni, from, to);
+        if (disability != null) q.addCriteria(Criteria.where("disabilityCode").is(disability));
+        long[] count = {0};
+        try {
+            byte[] bytes = compress(encoding, w -> {
+                // Un CSVPrinter por miembro: CSVFormat.printRecord esta sincronizado sobre DEFAULT.
+                CSVPrinter csv = format == Format.CSV ? new CSVPrinter(w, CSVFormat.DEFAULT) : null;
+                try (Stream<GameSession> rows = storage.stream(q, ExportService.fromInstant(from))) {
+                    for (GameSession g : (Iterable<GameSession>) rows::iterator) {
+                        if (csv != null) {
+                            csv.printRecord(ExportService.csvRecord(g));
+                        } else {
+                            w.write(ExportService.MAPPER.writeValueAsString(g));
+                            w.write('\n');
+                        }
+                        count[0]++;
+                    }
+                }
+                if (csv != null) csv.flush();
+            });
+            return new Member(bytes, count[0]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface Body { void write(Writer w) throws IOException; }
+
+    private static byte[] compress(ExportEncoding encoding, Body body) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(8 * 1024);
+        try (Writer w = new OutputStreamWriter(encoding.wrap(buf), StandardCharsets.UTF_8)) {
+            body.write(w);
+        }
+        return buf.toByteArray();
+    }
+}
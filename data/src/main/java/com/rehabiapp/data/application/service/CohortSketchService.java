@@ -0,0 +1,205 @@
+package com.rehabiapp.data.application.service;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+
+import com.rehabiapp.data.application.sketch.HyperLogLog;
+import com.rehabiapp.data.application.sketch.KllSketch;
+import com.rehabiapp.data.domain.model.CohortSketch;
+import com.rehabiapp.data.domain.model.GameSession;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.Pair;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Mantiene cohort_sketches para el modo aproximado de /analytics/cohort-compare
+ * (rehabiapp.analytics.cohort-sketch.enabled).
+ *
+ * Cada refresco reconstruye el mes en curso y el anterior agrupando game_sessions por
+ * (discapacidad, nivel, mes, paciente); {@link #rebuild()} recalcula todos los meses y es
+ * necesario al activar la opcion. Las consultas fusionan los meses del rango pedido sin
+ * leer filas por paciente: el coste depende del numero de meses, no del tamano de la cohorte.
+ */
+@Service
+public class CohortSketchService {
+
+    private static final Logger log = LoggerFactory.getLogger(CohortSketchService.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+    private final int k;
+
+    public CohortSketchService(MongoTemplate mongoTemplate,
+                               @Value("${rehabiapp.analytics.cohort-sketch.enabled:false}") boolean enabled,
+                               @Value("${rehabiapp.analytics.cohort-sketch.k:200}") int k) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = enabled;
+        this.k = k;
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    @Scheduled(initialDelayString = "${rehabiapp.analytics.cohort-sketch.initial-delay-ms:60000}",
+               fixedDelayString = "${rehabiapp.analytics.cohort-sketch.refresh-ms:3600000}")
+    public void refresh() {
+        if (!enabled) return;
+        // El mes anterior se rehace por sesiones que llegan tarde tras el cambio de mes.
+        YearMonth previous = YearMonth.now(ZoneOffset.UTC).minusMonths(1);
+        rebuild(previous.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant());
+    }
+
+    /** Recalcula todos los meses desde game_sessions. */
+    public void rebuild() {
+        rebuild(null);
+    }
+
+    /** Recalcula los meses que empiezan en since o despues (todos si since es null). */
+    void rebuild(Instant since) {
+        long t0 = System.currentTimeMillis();
+        Criteria criteria = Criteria.where("disabilityCode").ne(null).and("progressionLevel").ne(null);
+        if (since != null) criteria = criteria.and("sessionStart").gte(since);
+
+        Aggregation agg = newAggregation(
+            match(criteria),
+            project("disabilityCode", "progressionLevel", "patientDni", "score", "durationSeconds", "completed")
+                .and("movementMetrics.rangeOfMotionDegrees").as("rom")
+                .and(ctx -> new Document("$dateToString",
+                        new Document("format", "%Y-%m").append("date", "$sessionStart"))).as("month"),
+            group("disabilityCode", "progressionLevel", "month", "patientDni")
+                .count().as("sessions")
+                .avg("score").as("score")
+                .avg("durationSeconds").as("duration")
+                .avg(ConditionalOperators.when(Criteria.where("completed").is(true))
+                        .then(1).otherwise(0)).as("completion")
+                .avg("rom").as("rom")
+        ).withOptions(Aggregation.newAggregationOptions().allowDiskUse(true).build());
+
+        Map<List<Object>, Builder> byMonth = new HashMap<>();
+        try (Stream<Document> rows = mongoTemplate.aggregateStream(agg, GameSession.class, Document.class)) {
+            rows.forEach(d -> {
+                Document id = d.get("_id", Document.class);
+                if (id.get("month") == null) return;
+                List<Object> key = List.of(id.getString("disabilityCode"),
+                        ((Number) id.get("progressionLevel")).intValue(), id.getString("month"));
+                byMonth.computeIfAbsent(key, x -> new Builder(k)).add(id.getString("patientDni"), d);
+            });
+        }
+        if (byMonth.isEmpty()) return;
+
+        Instant now = Instant.now();
+        List<Pair<Query, Update>> upserts = new ArrayList<>(byMonth.size());
+        byMonth.forEach((key, b) -> upserts.add(Pair.of(
+                Query.query(Criteria.where("disabilityCode").is(key.get(0))
+                        .and("progressionLevel").is(key.get(1))
+                        .and("month").is(key.get(2))),
+                b.toUpdate(now))));
+        mongoTemplate.bulkOps(BulkMode.UNORDERED, CohortSketch.class).upsert(upserts).execute();
+        log.info("cohort_sketches reconstruido desde={} meses={} en {} ms",
+                since, byMonth.size(), System.currentTimeMillis() - t0);
+    }
+
+    /**
+     * Fusiona los meses [from, to] de una cohorte, o null si no hay ninguno. Las medias son
+     * medias de las medias paciente-mes y los sketches incluyen al paciente objetivo.
+     */
+    public Merged merge(String disability, int level, YearMonth from, YearMonth to) {
+        List<CohortSketch> months = mongoTemplate.find(Query.query(
+                Criteria.where("disabilityCode").is(disability)
+                        .and("progressionLevel").is(level)
+                        .and("month").gte(from.toString()).lte(to.toString())), CohortSketch.class);
+        if (months.isEmpty()) return null;
+
+        HyperLogLog patients = new HyperLogLog();
+        KllSketch scores = new KllSketch(k), completions = new KllSketch(k), roms = new KllSketch(k);
+        long rows = 0, sessions = 0;
+        double score = 0, duration = 0, completion = 0, rom = 0;
+        for (CohortSketch m : months) {
+            if (m.getHll() != null) m.getHll().forEach((i, r) -> patients.update(Integer.parseInt(i), r));
+            scores.merge(KllSketch.of(m.getK(), m.getScoreSketch(), m.getPatientMonths()));
+            completions.merge(KllSketch.of(m.getK(), m.getCompletionSketch(), m.getPatientMonths()));
+            roms.merge(KllSketch.of(m.getK(), m.getRomSketch(), m.getPatientMonths()));
+            rows += m.getPatientMonths();
+            sessions += m.getTotalSessions();
+            score += m.getScoreSum();
+            duration += m.getDurationSum();
+            completion += m.getCompletionSum();
+            rom += m.getRomSum();
+        }
+        if (rows == 0) return null;
+        return new Merged(patients.estimate(), sessions,
+                score / rows, duration / rows, completion / rows, rom / rows,
+                scores, completions, roms);
+    }
+
+    public record Merged(long patients, long totalSessions,
+                         double avgScore, double avgDuration, double completionRate, double avgRom,
+                         KllSketch scores, KllSketch completions, KllSketch roms) {}
+
+    /** Un mes de una cohorte acumulado en memoria durante la reconstruccion. */
+    private static final class Builder {
+        final HyperLogLog patients = new HyperLogLog();
+        final KllSketch scores, completions, roms;
+        long rows, sessions;
+        double score, duration, completion, rom;
+
+        Builder(int k) {
+            scores = new KllSketch(k);
+            completions = new KllSketch(k);
+            roms = new KllSketch(k);
+        }
+
+        void add(String dni, Document d) {
+            if (dni != null) patients.add(dni);
+            double s = dbl(d.get("score")), c = dbl(d.get("completion")), r = dbl(d.get("rom"));
+            scores.update(s);
+            completions.update(c);
+            roms.update(r);
+            rows++;
+            sessions += d.get("sessions") == null ? 0 : ((Number) d.get("sessions")).longValue();
+            score += s;
+            duration += dbl(d.get("duration"));
+            completion += c;
+            rom += r;
+        }
+
+        Update toUpdate(Instant now) {
+            Map<String, Integer> hll = new HashMap<>();
+            for (int i = 0; i < HyperLogLog.REGISTERS; i++) {
+                if (patients.register(i) > 0) hll.put(Integer.toString(i), patients.register(i));
+            }
+            return new Update()
+                    .set("patientMonths", rows)
+                    .set("totalSessions", sessions)
+                    .set("scoreSum", score)
+                    .set("durationSum", duration)
+                    .set("completionSum", completion)
+                    .set("romSum", rom)
+                    .set("hll", hll)
+                    .set("k", scores.k())
+                    .set("scoreSketch", scores.levels())
+                    .set("completionSketch", completions.levels())
+                    .set("romSketch", roms.levels())
+                    .set("builtAt", now);
+        }
+
+        private static double dbl(Object o) { return o == null ? 0.0 : ((Number) o).doubleValue(); }
+    }
+}
@@ -0,0 +1,154 @@
+package com.rehabiapp.data.application.service;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+
+import com.rehabiapp.data.domain.model.GameSession;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Snapshots en memoria de las cohortes por (discapacidad, nivel, ventana) para
+ * /analytics/cohort-compare (rehabiapp.analytics.cohort-snapshot.enabled).
+ *
+ * Una sola aggregation programada agrupa por (discapacidad, nivel, paciente) sobre los
+ * ultimos window-days y guarda, por cohorte, las metricas de cada paciente y arrays
+ * primitivos ordenados de score, completion y ROM. Las peticiones con la ventana por
+ * defecto se responden sin consultar MongoDB: medias por sumas y percentiles por busqueda
+ * binaria, restando al paciente objetivo.
+ *
+ * Los datos tienen como mucho refresh-ms de antiguedad.
+ */
+@Component
+public class CohortSnapshotStore {
+
+    private static final Logger log = LoggerFactory.getLogger(CohortSnapshotStore.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+    private final long windowDays;
+
+    private volatile Map<Key, CohortSnapshot> snapshots = Map.of();
+
+    public CohortSnapshotStore(MongoTemplate mongoTemplate,
+                               MeterRegistry meterRegistry,
+                               @Value("${rehabiapp.analytics.cohort-snapshot.enabled:false}") boolean enabled,
+                               @Value("${rehabiapp.analytics.cohort-snapshot.window-days:180}") long windowDays) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = enabled;
+        this.windowDays = windowDays;
+        Gauge.builder("rehabiapp.analytics.cohort.snapshot.patients", this,
+                        s -> s.snapshots.values().stream().mapToInt(CohortSnapshot::size).sum())
+                .description("Filas paciente-cohorte en los snapshots en memoria")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    public long windowDays() { return windowDays; }
+
+    /** Cohorte (discapacidad, nivel) de la ventana por defecto, o null si no hay snapshot. */
+    public CohortSnapshot get(String disability, int level) {
+        return snapshots.get(new Key(disability, level, windowDays));
+    }
+
+    @Scheduled(initialDelayString = "${rehabiapp.analytics.cohort-snapshot.initial-delay-ms:30000}",
+               fixedDelayString = "${rehabiapp.analytics.cohort-snapshot.refresh-ms:600000}")
+    public void refresh() {
+        if (!enabled) return;
+        long t0 = System.currentTimeMillis();
+        Instant builtAt = Instant.now();
+
+        Aggregation agg = newAggregation(
+            match(Criteria.where("sessionStart").gte(builtAt.minus(windowDays, ChronoUnit.DAYS)).lte(builtAt)
+                    .and("disabilityCode").ne(null)),
+            group("disabilityCode", "progressionLevel", "patientDni")
+                .count().as("sessions")
+                .avg("score").as("score")
+                .avg("durationSeconds").as("duration")
+                .avg(ConditionalOperators.when(Criteria.where("completed").is(true))
+                        .then(1).otherwise(0)).as("completion")
+                .avg("movementMetrics.rangeOfMotionDegrees").as("rom")
+        ).withOptions(Aggregation.newAggregationOptions().allowDiskUse(true).build());
+
+        Map<Key, Map<String, PatientRow>> rows = new HashMap<>();
+        try (Stream<Document> stream = mongoTemplate.aggregateStream(agg, GameSession.class, Document.class)) {
+            stream.forEach(d -> {
+                Document id = d.get("_id", Document.class);
+                Object level = id.get("progressionLevel");
+                if (level == null) return;
+                Key key = new Key(id.getString("disabilityCode"), ((Number) level).intValue(), windowDays);
+                rows.computeIfAbsent(key, k -> new HashMap<>()).put(id.getString("patientDni"), new PatientRow(
+                        lng(d.get("sessions")), dbl(d.get("score")), dbl(d.get("duration")),
+                        dbl(d.get("completion")), dbl(d.get("rom"))));
+            });
+        }
+
+        Map<Key, CohortSnapshot> next = new HashMap<>(rows.size());
+        rows.forEach((k, patients) -> next.put(k, CohortSnapshot.of(patients, builtAt)));
+        snapshots = Map.copyOf(next);
+        log.info("Snapshots de cohorte refrescados cohortes={} en {} ms",
+                next.size(), System.currentTimeMillis() - t0);
+    }
+
+    record Key(String disability, int level, long windowDays) {}
+
+    /** Metricas de un paciente en la ventana (mismos campos que CohortComparisonPipeline). */
+    public record PatientRow(long sessions, double score, double duration, double completion, double rom) {}
+
+    /**
+     * Cohorte completa, sin excluir a nadie. Cada array se ordena por separado para
+     * responder percentiles de su metrica; las sumas permiten restar al paciente objetivo.
+     */
+    public record CohortSnapshot(Map<String, PatientRow> patients,
+                                 double[] scores, double[] completions, double[] roms,
+                                 long totalSessions, double scoreSum, double durationSum,
+                                 double completionSum, double romSum, Instant builtAt) {
+
+        static CohortSnapshot of(Map<String, PatientRow> patients, Instant builtAt) {
+            int n = patients.size();
+            double[] scores = new double[n], completions = new double[n], roms = new double[n];
+            long sessions = 0;
+            double score = 0, duration = 0, completion = 0, rom = 0;
+            int i = 0;
+            for (PatientRow r : patients.values()) {
+                scores[i] = r.score();
+                completions[i] = r.completion();
+                roms[i] = r.rom();
+                i++;
+                sessions += r.sessions();
+                score += r.score();
+                duration += r.duration();
+                completion += r.completion();
+                rom += r.rom();
+            }
+            Arrays.sort(scores);
+            Arrays.sort(completions);
+            Arrays.sort(roms);
+            return new CohortSnapshot(patients, scores, completions, roms,
+                    sessions, score, duration, completion, rom, builtAt);
+        }
+
+        public int size() { return patients.size(); }
+
+        public PatientRow patient(String dni) { return patients.get(dni); }
+    }
+
+    private static double dbl(Object o) { return o == null ? 0.0 : ((Number) o).doubleValue(); }
+    private static long lng(Object o) { return o == null ? 0L : ((Number) o).longValue(); }
+}
@@ -0,0 +1,14 @@
+package com.rehabiapp.data.application.service;
+
+/**
+ * Lectura de game_sessions en la exportacion CSV de un paciente.
+ * Configurable via rehabiapp.export.csv-reader.
+ */
+public enum ExportCsvReader {
+
+    /** Documentos BSON crudos proyectados a las columnas del CSV, sin mapear a GameSession. */
+    RAW,
+
+    /** Cada documento se mapea a GameSession y se imprime con ExportService.csvRecord. */
+    MAPPED
+}
@@ -0,0 +1,81 @@
+package com.rehabiapp.data.application.service;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-Encoding de la exportacion de cohortes. Tanto gzip como zstd admiten concatenar
+ * miembros/frames completos, asi que cada paciente se comprime por separado (en paralelo) y
+ * el resultado sigue siendo un unico flujo valido para el cliente.
+ */
+public enum ExportEncoding {
+    ZSTD("zstd"),
+    GZIP("gzip"),
+    IDENTITY(null);
+
+    /** Nivel por defecto de zstd: buena relacion velocidad/tamano para texto. */
+    private static final int ZSTD_LEVEL = 3;
+
+    private final String token;
+
+    ExportEncoding(String token) { this.token = token; }
+
+    /** Valor de la cabecera Content-Encoding, o null sin compresion. */
+    public String contentEncoding() { return token; }
+
+    /** Envuelve out en un compresor; cerrar el resultado termina el miembro/frame. */
+    public OutputStream wrap(OutputStream out) throws IOException {
+        return switch (this) {
+            case ZSTD -> new ZstdOutputStream(out, ZSTD_LEVEL);
+            case GZIP -> new GZIPOutputStream(out, 64 * 1024);
+            case IDENTITY -> out;
+        };
+    }
+
+    /**
+     * Elige segun Accept-Encoding: zstd, luego gzip, luego sin compresion. Los q-values solo
+     * se usan para excluir (q=0); entre los aceptados manda la preferencia del servidor.
+     * "*" solo cubre las codificaciones que la cabecera no nombra (RFC 9110, 12.5.3): con
+     * "gzip;q=0, *" gzip sigue rechazado.
+     */
+    public static ExportEncoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) return IDENTITY;
+        // null = no nombrada; TRUE/FALSE = nombrada y aceptada/rechazada
+        Boolean zstd = null, gzip = null, any = null;
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.trim().split(";");
+            String coding = tokens[0].trim().toLowerCase(Locale.ROOT);
+            boolean accepted = !rejected(tokens);
+            switch (coding) {
+                case "zstd" -> zstd = accepted;
+                case "gzip", "x-gzip" -> gzip = accepted;
+                case "*" -> any = accepted;
+                default -> { }
+            }
+        }
+        if (accepted(zstd, any)) return ZSTD;
+        if (accepted(gzip, any)) return GZIP;
+        return IDENTITY;
+    }
+
+    private static boolean accepted(Boolean named, Boolean any) {
+        return named != null ? named : Boolean.TRUE.equals(any);
+    }
+
+    private static boolean rejected(String[] tokens) {
+        for (int i = 1; i < tokens.length; i++) {
+            String p = tokens[i].trim();
+            if (p.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(p.substring(2)) <= 0;
+                } catch (NumberFormatException e) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -5,14 +5,21 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.rehabiapp.data.domain.model.GameSession;
+import jakarta.annotation.PreDestroy;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.stream.Stream;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Sort;
-import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
@@ -20,7 +27,7 @@ import org.springframework.stereotype.Service;
 @Service
 public class ExportService {
 
-    private static final String[] CSV_HEADERS = {
+    static final String[] CSV_HEADERS = {
         "sessionId", "patientDni", "gameId", "disabilityCode", "progressionLevel",
         "sessionStart", "sessionEnd", "durationSeconds", "score",
         "repetitionsCompleted", "repetitionsTarget",
@@ -28,14 +35,28 @@ public class ExportService {
         "completed", "receivedAt"
     };
 
-    private static final ObjectMapper MAPPER = new ObjectMapper()
+    static final ObjectMapper MAPPER = new ObjectMapper()
             .registerModule(new JavaTimeModule())
             .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
 
-    private final MongoTemplate mongoTemplate;
+    /** Formato Arrow IPC stream (format=arrow). */
+    public static final String ARROW_MEDIA_TYPE = SessionArrowWriter.MEDIA_TYPE;
 
-    public ExportService(MongoTemplate mongoTemplate) {
-        this.mongoTemplate = mongoTemplate;
+    /** Memoria fuera del heap de los lotes Arrow; cada exportacion usa un hijo propio. */
+    private final BufferAllocator allocator = new RootAllocator();
+
+    private final SessionStorage storage;
+    private final ExportCsvReader csvReader;
+
+    public ExportService(SessionStorage storage,
+                         @Value("${rehabiapp.export.csv-reader:raw}") ExportCsvReader csvReader) {
+        this.storage = storage;
+        this.csvReader = csvReader;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        allocator.close();
     }
 
     public void streamCsv(String dni, String from, String to, PrintWriter out) throws IOException {
@@ -43,23 +64,20 @@ public class ExportService {
         final boolean[] any = {false};
         try (CSVPrinter printer = new CSVPrinter(out,
                 CSVFormat.DEFAULT.builder().setHeader(CSV_HEADERS).build())) {
-            mongoTemplate.stream(q, GameSession.class).forEach(g -> {
-                any[0] = true;
-                try {
-                    printer.printRecord(
-                            g.getSessionId(), g.getPatientDni(), g.getGameId(),
-                            g.getDisabilityCode(), g.getProgressionLevel(),
-                            g.getSessionStart(), g.getSessionEnd(),
-                            g.getDurationSeconds(), g.getScore(),
-                            g.getRepetitionsCompleted(), g.getRepetitionsTarget(),
-                            g.getMovementMetrics() != null ? g.getMovementMetrics().rangeOfMotionDegrees() : null,
-                            g.getMovementMetrics() != null ? g.getMovementMetrics().averageSpeed() : null,
-                            g.getMovementMetrics() != null ? g.getMovementMetrics().maxSpeed() : null,
-                            g.getCompleted(), g.getReceivedAt());
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+            if (csvReader == ExportCsvReader.RAW) {
+                any[0] = streamRawCsv(q, fromInstant(from), printer) > 0;
+            } else {
+                try (Stream<GameSession> rows = storage.stream(q, fromInstant(from))) {
+                    rows.forEach(g -> {
+                        any[0] = true;
+                        try {
+                            printer.printRecord(csvRecord(g));
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    });
                 }
-            });
+            }
         }
         if (!any[0]) throw new NotFoundException("no sessions for " + dni);
     }
@@ -67,9 +85,10 @@ public class ExportService {
     public void streamJson(String dni, String from, String to, PrintWriter out) throws IOException {
         Query q = buildQuery(dni, from, to);
         final boolean[] any = {false};
-        try (JsonGenerator gen = MAPPER.getFactory().createGenerator(out)) {
+        try (JsonGenerator gen = MAPPER.getFactory().createGenerator(out);
+             Stream<GameSession> rows = storage.stream(q, fromInstant(from))) {
             gen.writeStartArray();
-            mongoTemplate.stream(q, GameSession.class).forEach(g -> {
+            rows.forEach(g -> {
                 any[0] = true;
                 try { gen.writeObject(g); } catch (IOException e) { throw new RuntimeException(e); }
             });
@@ -79,11 +98,77 @@ public class ExportService {
         if (!any[0]) throw new NotFoundException("no sessions for " + dni);
     }
 
-    private Query buildQuery(String dni, String from, String to) {
-        Instant fromI = from != null ? Instant.parse(from) : Instant.now().minus(365, ChronoUnit.DAYS);
-        Criteria c = Criteria.where("patientDni").is(dni)
-                .and("sessionStart").gte(fromI);
-        if (to != null) c = c.and("sessionStart").lte(Instant.parse(to));
-        return new Query(c).with(Sort.by(Sort.Direction.ASC, "sessionStart"));
+    /**
+     * Cursor del driver sobre RawBsonDocument con la proyeccion de las columnas del CSV; cada
+     * documento se imprime desde sus bytes (RawSessionCsv) reutilizando el mismo array de fila.
+     */
+    private long streamRawCsv(Query q, Instant from, CSVPrinter printer) {
+        return storage.raw(q, from, RawSessionCsv.PROJECTION, cursor -> {
+            Object[] row = new Object[CSV_HEADERS.length];
+            long rows = 0;
+            try {
+                while (cursor.hasNext()) {
+                    printer.printRecord(RawSessionCsv.record(cursor.next(), row));
+                    rows++;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return rows;
+        });
+    }
+
+    /**
+     * Arrow IPC stream con las columnas del CSV tipadas y gameId/disabilityCode como
+     * diccionario. Los diccionarios se leen antes con distinct sobre la misma consulta
+     * (indices de game_sessions), luego las sesiones se escriben en lotes desde el cursor.
+     * Diccionarios y cursor se acotan a receivedAt <= un instante tomado antes de los distinct,
+     * asi una sesion ingerida entre medias queda fuera de la exportacion; si aun asi aparece un
+     * valor fuera del diccionario la exportacion falla en lugar de escribir null.
+     */
+    public void streamArrow(String dni, String from, String to, OutputStream out) throws IOException {
+        Query q = buildQuery(dni, from, to);
+        // $not/$gt incluye sesiones antiguas sin receivedAt.
+        q.addCriteria(Criteria.where("receivedAt").not().gt(Instant.now()));
+        Instant fromI = fromInstant(from);
+        List<String> gameIds = storage.distinct(q, "gameId", fromI);
+        if (gameIds.isEmpty()) throw new NotFoundException("no sessions for " + dni);
+        List<String> disabilityCodes = storage.distinct(q, "disabilityCode", fromI);
+
+        try (BufferAllocator child = allocator.newChildAllocator("export-" + dni, 0, Long.MAX_VALUE);
+             Stream<GameSession> rows = storage.stream(q, fromI)) {
+            SessionArrowWriter.write(rows.iterator(), gameIds, disabilityCodes, child, out);
+        }
+        out.flush();
+    }
+
+    /** Columnas de CSV_HEADERS para una sesion. */
+    static Object[] csvRecord(GameSession g) {
+        return new Object[] {
+                g.getSessionId(), g.getPatientDni(), g.getGameId(),
+                g.getDisabilityCode(), g.getProgressionLevel(),
+                g.getSessionStart(), g.getSessionEnd(),
+                g.getDurationSeconds(), g.getScore(),
+                g.getRepetitionsCompleted(), g.getRepetitionsTarget(),
+                g.getMovementMetrics() != null ? g.getMovementMetrics().rangeOfMotionDegrees() : null,
+                g.getMovementMetrics() != null ? g.getMovementMetrics().averageSpeed() : null,
+                g.getMovementMetrics() != null ? g.getMovementMetrics().maxSpeed() : null,
+                g.getCompleted(), g.getReceivedAt()};
+    }
+
+    /** Sesiones en [from, to] por sessionStart ascendente; dni null no filtra por paciente. */
+    static Query buildQuery(String dni, String from, String to) {
+        Instant fromI = fromInstant(from);
+        // Un solo criterio sobre sessionStart: dos and("sessionStart") no se pueden combinar en BSON.
+        Criteria range = Criteria.where("sessionStart").gte(fromI);
+        if (to != null) range = range.lte(Instant.parse(to));
+        Query q = new Query(range).with(Sort.by(Sort.Direction.ASC, "sessionStart"));
+        if (dni != null) q.addCriteria(Criteria.where("patientDni").is(dni));
+        return q;
+    }
+
+    /** Inicio del rango: from o, sin el, hace 365 dias. */
+    static Instant fromInstant(String from) {
+        return from != null ? Instant.parse(from) : Instant.now().minus(365, ChronoUnit.DAYS);
     }
 }
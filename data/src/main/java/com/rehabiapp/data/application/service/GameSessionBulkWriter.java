@@ -0,0 +1,166 @@
+package com.rehabiapp.data.application.service;
+
+import com.mongodb.bulk.BulkWriteError;
+import com.rehabiapp.data.domain.model.GameSession;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+/**
+ * Inserta lotes de GameSession en una unica operacion bulk desordenada.
+ * Las colisiones en uk_session_id (o en game_session_ids en modo time-series) no abortan el lote: se devuelven como indices duplicados
+ * para que el llamante las traduzca a un estado por elemento.
+ * Las sesiones efectivamente insertadas se notifican a los {@link IngestedSessionsListener},
+ * tambien cuando el lote acaba en error: en modo desordenado el resto de filas se ha escrito.
+ */
+@Component
+public class GameSessionBulkWriter {
+
+    /** Codigo de error de MongoDB para violacion de indice unico. */
+    static final int DUPLICATE_KEY_CODE = 11000;
+
+    private final MongoTemplate mongoTemplate;
+    private final SessionStorage storage;
+    private final List<IngestedSessionsListener> listeners;
+
+    public GameSessionBulkWriter(MongoTemplate mongoTemplate, SessionStorage storage,
+                                 List<IngestedSessionsListener> listeners) {
+        this.mongoTemplate = mongoTemplate;
+        this.storage = storage;
+        this.listeners = listeners;
+    }
+
+    /**
+     * Inserta todas las sesiones en un solo round trip.
+     *
+     * @return indices (posicion en {@code sessions}) rechazados por sessionId duplicado
+     * @throws BulkOperationException si algun error no es de clave duplicada
+     */
+    public Set<Integer> insertAll(List<GameSession> sessions) {
+        return insertAll(sessions, UUID.randomUUID().toString());
+    }
+
+    /**
+     * Igual que {@link #insertAll(List)} pero a nombre de owner, para reintentar el mismo lote
+     * tras un error ambiguo. Las filas que el intento anterior si escribio vuelven como
+     * duplicadas; si son del mismo lote (mismo _id en STANDARD, reserva pending del mismo owner
+     * en time-series) cuentan como insertadas y se notifican, porque nadie lo hizo antes.
+     */
+    public Set<Integer> insertAll(List<GameSession> sessions, String owner) {
+        if (sessions.isEmpty()) return Set.of();
+        if (storage.mode() == SessionStorageMode.TIMESERIES) return insertClaimed(sessions, owner);
+
+        BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, GameSession.class);
+        ops.insert(sessions);
+        try {
+            ops.execute();
+            notifyInserted(sessions);
+            return Set.of();
+        } catch (BulkOperationException e) {
+            // En modo desordenado el resto del lote ya se ha escrito; solo mapeamos los fallos.
+            Set<Integer> failed = new HashSet<>();
+            Set<Integer> duplicates = new HashSet<>();
+            for (BulkWriteError error : e.getErrors()) {
+                failed.add(error.getIndex());
+                if (error.getCode() == DUPLICATE_KEY_CODE) duplicates.add(error.getIndex());
+            }
+            boolean otherErrors = duplicates.size() < failed.size();
+            Set<Integer> ownWrites = ownWrites(sessions, duplicates);
+            duplicates.removeAll(ownWrites);
+            List<GameSession> inserted = excluding(sessions, failed);
+            for (int i : ownWrites) inserted.add(sessions.get(i));
+            notifyInserted(inserted);
+            // Las filas escritas ya se han notificado: un error que no es de duplicado se propaga igual.
+            if (otherErrors) throw e;
+            return duplicates;
+        }
+    }
+
+    /**
+     * Modo time-series: los duplicados se detectan al reservar los sessionId en
+     * game_session_ids y solo se insertan las sesiones reservadas. Las que el servidor rechaza
+     * liberan su reserva para que el cliente pueda reintentarlas y las escritas se confirman;
+     * ante un error ambiguo (red, timeout) las reservas quedan pending.
+     */
+    private Set<Integer> insertClaimed(List<GameSession> sessions, String owner) {
+        SessionStorage.Claims claims = storage.claimAll(sessions, owner);
+        Set<Integer> duplicates = claims.duplicates();
+        List<GameSession> claimed = new ArrayList<>(sessions.size() - duplicates.size());
+        List<GameSession> ownWrites = new ArrayList<>(claims.ownWrites().size());
+        for (int i = 0; i < sessions.size(); i++) {
+            if (claims.ownWrites().contains(i)) ownWrites.add(sessions.get(i));
+            else if (!duplicates.contains(i)) claimed.add(sessions.get(i));
+        }
+        notifyInserted(ownWrites);
+        if (claimed.isEmpty()) return duplicates;
+
+        try {
+            mongoTemplate.bulkOps(BulkMode.UNORDERED, GameSession.class).insert(claimed).execute();
+        } catch (BulkOperationException e) {
+            // Desordenado: todo lo que no tiene error de escritura se inserto.
+            Set<Integer> failed = new HashSet<>();
+            for (BulkWriteError error : e.getErrors()) failed.add(error.getIndex());
+            List<String> rejected = new ArrayList<>(failed.size());
+            List<String> written = new ArrayList<>(claimed.size() - failed.size());
+            for (int i = 0; i < claimed.size(); i++) {
+                (failed.contains(i) ? rejected : written).add(claimed.get(i).getSessionId());
+            }
+            storage.release(rejected, owner);
+            storage.commit(written);
+            notifyInserted(excluding(claimed, failed));
+            throw e;
+        } catch (RuntimeException e) {
+            if (SessionStorage.notWritten(e)) {
+                storage.release(claimed.stream().map(GameSession::getSessionId).toList(), owner);
+            }
+            throw e;
+        }
+        storage.commit(claimed.stream().map(GameSession::getSessionId).toList());
+        notifyInserted(claimed);
+        return duplicates;
+    }
+
+    /**
+     * Duplicados cuyo _id ya esta en game_sessions: los escribio un intento anterior de este
+     * mismo lote (los _id se asignan antes de encolar). Solo consulta si hay duplicados.
+     */
+    private Set<Integer> ownWrites(List<GameSession> sessions, Set<Integer> duplicates) {
+        List<String> ids = new ArrayList<>(duplicates.size());
+        for (int i : duplicates) {
+            if (sessions.get(i).getId() != null) ids.add(sessions.get(i).getId());
+        }
+        if (ids.isEmpty()) return Set.of();
+        Query q = Query.query(Criteria.where("_id").in(ids));
+        q.fields().include("_id");
+        Set<String> found = new HashSet<>();
+        for (GameSession g : mongoTemplate.find(q, GameSession.class)) found.add(g.getId());
+        Set<Integer> out = new HashSet<>();
+        for (int i : duplicates) {
+            if (found.contains(sessions.get(i).getId())) out.add(i);
+        }
+        return out;
+    }
+
+    /** Sesiones de {@code sessions} cuya posicion no esta en {@code indices}. */
+    private static List<GameSession> excluding(List<GameSession> sessions, Set<Integer> indices) {
+        List<GameSession> out = new ArrayList<>(sessions.size() - indices.size());
+        for (int i = 0; i < sessions.size(); i++) {
+            if (!indices.contains(i)) out.add(sessions.get(i));
+        }
+        return out;
+    }
+
+    private void notifyInserted(List<GameSession> inserted) {
+        if (inserted.isEmpty()) return;
+        for (IngestedSessionsListener l : listeners) l.onSessionsInserted(inserted);
+    }
+}
@@ -1,14 +1,26 @@
 package com.rehabiapp.data.application.service;
 
+import com.rehabiapp.data.application.service.dto.BatchIngestItemResult;
+import com.rehabiapp.data.application.service.dto.BatchIngestResponse;
 import com.rehabiapp.data.application.service.dto.GameSessionIngestRequest;
 import com.rehabiapp.data.application.service.dto.GameSessionIngestResponse;
 import com.rehabiapp.data.application.service.dto.MovementMetricsDto;
 import com.rehabiapp.data.domain.model.GameSession;
 import com.rehabiapp.data.domain.model.MovementMetrics;
 import com.rehabiapp.data.domain.repository.GameSessionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 
@@ -22,40 +34,189 @@ public class GameSessionIngestService {
     private static final Logger log = LoggerFactory.getLogger(GameSessionIngestService.class);
 
     private final GameSessionRepository repository;
+    private final GameSessionBulkWriter bulkWriter;
+    private final SessionStorage storage;
+    private final IngestWriteBehindQueue writeBehind;
+    private final Validator validator;
+    private final List<IngestedSessionsListener> listeners;
+    private final IngestIdempotencyMode idempotencyMode;
+    private final int maxBatchSize;
 
-    public GameSessionIngestService(GameSessionRepository repository) {
+    private final Counter duplicatesByPrecheck;
+    private final Counter duplicatesByIndexSingle;
+    private final Counter duplicatesByIndexBatch;
+    private final Counter createdSingle;
+    private final Counter createdBatch;
+
+    public GameSessionIngestService(GameSessionRepository repository,
+                                    GameSessionBulkWriter bulkWriter,
+                                    SessionStorage storage,
+                                    IngestWriteBehindQueue writeBehind,
+                                    Validator validator,
+                                    List<IngestedSessionsListener> listeners,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${rehabiapp.ingest.idempotency-mode:insert-only}")
+                                    IngestIdempotencyMode idempotencyMode,
+                                    @Value("${rehabiapp.ingest.batch.max-size:500}") int maxBatchSize) {
         this.repository = repository;
+        this.bulkWriter = bulkWriter;
+        this.storage = storage;
+        this.writeBehind = writeBehind;
+        this.validator = validator;
+        this.listeners = listeners;
+        this.idempotencyMode = idempotencyMode;
+        this.maxBatchSize = maxBatchSize;
+        this.duplicatesByPrecheck = duplicateCounter(meterRegistry, "precheck", "single");
+        this.duplicatesByIndexSingle = duplicateCounter(meterRegistry, "unique_index", "single");
+        this.duplicatesByIndexBatch = duplicateCounter(meterRegistry, "unique_index", "batch");
+        this.createdSingle = createdCounter(meterRegistry, "single");
+        this.createdBatch = createdCounter(meterRegistry, "batch");
     }
 
     /**
      * Persiste una sesion recien ingerida. Si el sessionId ya existe, lanza
      * {@link DuplicateSessionException} para que el controller responda 409.
+     * En modo INSERT_ONLY no hay pre-check: el indice unico es el unico detector.
+     *
+     * Con la ingesta asincrona activa la sesion se encola y se devuelve QUEUED; los
+     * duplicados que no detecte el pre-check solo se reflejan en metricas.
      */
     public GameSessionIngestResponse ingest(GameSessionIngestRequest request) {
 
-        // Pre-check barato antes de tirar excepcion de la BBDD. El indice unico
+        // Pre-check opcional antes de tirar excepcion de la BBDD. El indice unico
         // sigue siendo la red de seguridad definitiva contra condiciones de carrera.
-        if (repository.existsBySessionId(request.sessionId())) {
+        if (idempotencyMode == IngestIdempotencyMode.PRECHECK
+                && repository.existsBySessionId(request.sessionId())) {
             log.info("Sesion duplicada descartada sessionId={}", request.sessionId());
+            duplicatesByPrecheck.increment();
             throw new DuplicateSessionException(request.sessionId());
         }
 
         GameSession entity = toEntity(request);
 
+        if (writeBehind.isEnabled()) {
+            entity.setId(new ObjectId().toHexString());
+            writeBehind.enqueue(entity);
+            return new GameSessionIngestResponse(
+                    entity.getId(), entity.getSessionId(), entity.getReceivedAt(), "QUEUED");
+        }
+
         try {
-            GameSession saved = repository.save(entity);
+            // En time-series no hay indice unico: el sessionId se reserva en game_session_ids.
+            String owner = UUID.randomUUID().toString();
+            storage.claim(entity, owner);
+            GameSession saved = insertClaimed(entity, owner);
+            createdSingle.increment();
+            for (IngestedSessionsListener l : listeners) l.onSessionsInserted(List.of(saved));
             log.info("Sesion ingerida sessionId={} dni={} gameId={} nivel={}",
                     saved.getSessionId(), saved.getPatientDni(),
                     saved.getGameId(), saved.getProgressionLevel());
             return new GameSessionIngestResponse(
                     saved.getId(), saved.getSessionId(), saved.getReceivedAt(), "CREATED");
         } catch (DuplicateKeyException e) {
-            // Condicion de carrera: dos peticiones concurrentes con el mismo sessionId.
-            log.warn("Colision en indice unico sessionId={}", request.sessionId());
+            // Reintento del cliente (INSERT_ONLY) o carrera entre peticiones concurrentes (PRECHECK).
+            log.info("Colision en indice unico sessionId={}", request.sessionId());
+            duplicatesByIndexSingle.increment();
             throw new DuplicateSessionException(request.sessionId());
         }
     }
 
+    /**
+     * Inserta la sesion y confirma su sessionId. Si falla sin llegar a escribirse libera la
+     * reserva; si el error es ambiguo la deja pending hasta que caduque.
+     */
+    private GameSession insertClaimed(GameSession entity, String owner) {
+        GameSession saved;
+        try {
+            saved = repository.insert(entity);
+        } catch (RuntimeException e) {
+            if (!(e instanceof DuplicateKeyException) && SessionStorage.notWritten(e)) {
+                storage.release(List.of(entity.getSessionId()), owner);
+            }
+            throw e;
+        }
+        storage.commit(List.of(saved.getSessionId()));
+        return saved;
+    }
+
+    /**
+     * Ingesta un lote de sesiones con una unica insercion bulk desordenada.
+     * Cada elemento se valida por separado: los invalidos no bloquean al resto y
+     * los duplicados se detectan por el indice unico, sin pre-check por elemento.
+     */
+    public BatchIngestResponse ingestBatch(List<GameSessionIngestRequest> requests) {
+        if (requests.size() > maxBatchSize) {
+            throw new IllegalArgumentException(
+                    "batch size " + requests.size() + " exceeds maximum " + maxBatchSize);
+        }
+
+        BatchIngestItemResult[] results = new BatchIngestItemResult[requests.size()];
+        List<GameSession> toInsert = new ArrayList<>();
+        List<Integer> insertPositions = new ArrayList<>();
+
+        for (int i = 0; i < requests.size(); i++) {
+            GameSessionIngestRequest r = requests.get(i);
+            List<String> errors = validate(r);
+            if (!errors.isEmpty()) {
+                results[i] = new BatchIngestItemResult(
+                        i, r != null ? r.sessionId() : null, null, "INVALID", errors);
+                continue;
+            }
+            GameSession entity = toEntity(r);
+            // El id se asigna aqui para poder devolverlo sin releer los documentos insertados.
+            entity.setId(new ObjectId().toHexString());
+            toInsert.add(entity);
+            insertPositions.add(i);
+        }
+
+        Set<Integer> duplicates = bulkWriter.insertAll(toInsert);
+        duplicatesByIndexBatch.increment(duplicates.size());
+
+        int created = 0;
+        for (int j = 0; j < toInsert.size(); j++) {
+            GameSession g = toInsert.get(j);
+            int i = insertPositions.get(j);
+            if (duplicates.contains(j)) {
+                results[i] = new BatchIngestItemResult(i, g.getSessionId(), null, "DUPLICATE", List.of());
+            } else {
+                results[i] = new BatchIngestItemResult(i, g.getSessionId(), g.getId(), "CREATED", List.of());
+                created++;
+            }
+        }
+
+        createdBatch.increment(created);
+
+        int invalid = requests.size() - toInsert.size();
+        log.info("Lote ingerido recibidas={} creadas={} duplicadas={} invalidas={}",
+                requests.size(), created, duplicates.size(), invalid);
+        return new BatchIngestResponse(requests.size(), created, duplicates.size(), invalid,
+                List.of(results));
+    }
+
+    private static Counter duplicateCounter(MeterRegistry registry, String detectedBy, String path) {
+        return Counter.builder("rehabiapp.ingest.duplicates")
+                .description("Sesiones descartadas por sessionId ya ingerido")
+                .tag("detected_by", detectedBy)
+                .tag("path", path)
+                .register(registry);
+    }
+
+    private static Counter createdCounter(MeterRegistry registry, String path) {
+        return Counter.builder("rehabiapp.ingest.created")
+                .description("Sesiones nuevas persistidas (denominador del ratio de duplicados)")
+                .tag("path", path)
+                .register(registry);
+    }
+
+    private List<String> validate(GameSessionIngestRequest r) {
+        if (r == null) return List.of("elemento nulo");
+        Set<ConstraintViolation<GameSessionIngestRequest>> violations = validator.validate(r);
+        return violations.stream()
+                .map(v -> v.getPropertyPath() + ": " + v.getMessage())
+                .sorted()
+                .toList();
+    }
+
     private GameSession toEntity(GameSessionIngestRequest r) {
         GameSession g = new GameSession();
         g.setSessionId(r.sessionId());
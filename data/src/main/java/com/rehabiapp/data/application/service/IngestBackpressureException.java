@@ -0,0 +1,15 @@
+package com.rehabiapp.data.application.service;
+
+/**
+ * La cola de escritura diferida esta llena. El controller responde 429 con Retry-After.
+ */
+public class IngestBackpressureException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    public IngestBackpressureException(long retryAfterSeconds) {
+        super("Cola de ingesta llena, reintentar en " + retryAfterSeconds + " s");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() { return retryAfterSeconds; }
+}
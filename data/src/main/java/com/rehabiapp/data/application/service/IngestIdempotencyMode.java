@@ -0,0 +1,14 @@
+package com.rehabiapp.data.application.service;
+
+/**
+ * Estrategia de deteccion de sesiones duplicadas en la ingesta individual.
+ * Configurable via rehabiapp.ingest.idempotency-mode.
+ */
+public enum IngestIdempotencyMode {
+
+    /** existsBySessionId antes de insertar: dos round trips por sesion nueva. */
+    PRECHECK,
+
+    /** Solo insert; el indice unico uk_session_id detecta el duplicado. Un round trip. */
+    INSERT_ONLY
+}
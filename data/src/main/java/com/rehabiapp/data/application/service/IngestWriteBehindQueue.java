@@ -0,0 +1,261 @@
+package com.rehabiapp.data.application.service;
+
+import com.mongodb.MongoException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import com.rehabiapp.data.domain.model.GameSession;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cola acotada de escritura diferida para la ingesta asincrona (rehabiapp.ingest.async.enabled).
+ *
+ * El hilo de Tomcat solo encola la sesion ya validada; un pool de workers la drena en
+ * micro-lotes con {@link GameSessionBulkWriter}. Si la cola esta llena se lanza
+ * {@link IngestBackpressureException} (429) en lugar de bloquear.
+ *
+ * Fase de ciclo de vida inferior a la del servidor web: arranca antes de aceptar trafico
+ * y se detiene despues de que Tomcat deje de aceptarlo, vaciando la cola antes de cerrar.
+ * enqueue y stop comparten un cerrojo: tras stop ninguna sesion entra en la cola, asi que
+ * todo lo aceptado con 202 llega a los workers.
+ *
+ * El cliente ya recibio 202 y no va a reintentar: un micro-lote que falla por un error
+ * transitorio (red, timeout, cambio de primario) se reintenta con espera exponencial desde
+ * rehabiapp.ingest.async.retry.backoff-ms hasta retry.max-attempts intentos. Mientras
+ * tanto el worker no drena y la cola aplica back-pressure. Todos los intentos usan el mismo
+ * owner: las sesiones que el intento fallido si llego a escribir vuelven como duplicadas y el
+ * writer las reconoce como propias, las notifica a los listeners y no las cuenta como
+ * duplicadas. Solo los errores permanentes (o
+ * agotar los intentos) descartan el lote y cuentan en rehabiapp.ingest.queue.failed.
+ */
+@Component
+public class IngestWriteBehindQueue implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestWriteBehindQueue.class);
+    private static final long POLL_TIMEOUT_MS = 200L;
+    private static final long MAX_BACKOFF_MS = 5000L;
+
+    private final GameSessionBulkWriter bulkWriter;
+    private final boolean enabled;
+    private final int workers;
+    private final int batchSize;
+    private final long retryAfterSeconds;
+    private final long shutdownTimeoutMs;
+    private final int maxAttempts;
+    private final long backoffMs;
+    private final BlockingQueue<GameSession> queue;
+    private final ReadWriteLock acceptLock = new ReentrantReadWriteLock();
+
+    private final DistributionSummary batchSizeSummary;
+    private final Timer flushTimer;
+    private final Counter duplicates;
+    private final Counter failed;
+    private final Counter retries;
+
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean accepting;
+    private volatile boolean running;
+
+    public IngestWriteBehindQueue(GameSessionBulkWriter bulkWriter,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${rehabiapp.ingest.async.enabled:false}") boolean enabled,
+                                  @Value("${rehabiapp.ingest.async.capacity:10000}") int capacity,
+                                  @Value("${rehabiapp.ingest.async.workers:2}") int workers,
+                                  @Value("${rehabiapp.ingest.async.batch-size:200}") int batchSize,
+                                  @Value("${rehabiapp.ingest.async.retry-after-seconds:1}") long retryAfterSeconds,
+                                  @Value("${rehabiapp.ingest.async.shutdown-timeout-ms:30000}") long shutdownTimeoutMs,
+                                  @Value("${rehabiapp.ingest.async.retry.max-attempts:8}") int maxAttempts,
+                                  @Value("${rehabiapp.ingest.async.retry.backoff-ms:200}") long backoffMs) {
+        this.bulkWriter = bulkWriter;
+        this.enabled = enabled;
+        this.workers = workers;
+        this.batchSize = batchSize;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMs = backoffMs;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+
+        Gauge.builder("rehabiapp.ingest.queue.depth", queue, BlockingQueue::size)
+                .description("Sesiones pendientes de escritura en la cola diferida")
+                .register(meterRegistry);
+        this.batchSizeSummary = DistributionSummary.builder("rehabiapp.ingest.queue.batch.size")
+                .description("Sesiones por micro-lote escrito")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("rehabiapp.ingest.queue.flush")
+                .description("Latencia de la insercion bulk de un micro-lote")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.duplicates = Counter.builder("rehabiapp.ingest.duplicates")
+                .description("Sesiones descartadas por sessionId ya ingerido")
+                .tag("detected_by", "unique_index")
+                .tag("path", "async")
+                .register(meterRegistry);
+        this.failed = Counter.builder("rehabiapp.ingest.queue.failed")
+                .description("Sesiones perdidas por error no recuperable al escribir el micro-lote")
+                .register(meterRegistry);
+        this.retries = Counter.builder("rehabiapp.ingest.queue.retries")
+                .description("Reintentos de micro-lotes tras un error transitorio")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    /**
+     * Encola una sesion validada. No bloquea: si no hay hueco aplica back-pressure.
+     */
+    public void enqueue(GameSession session) {
+        acceptLock.readLock().lock();
+        try {
+            if (!accepting || !queue.offer(session)) {
+                throw new IngestBackpressureException(retryAfterSeconds);
+            }
+        } finally {
+            acceptLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void start() {
+        if (!enabled || running) return;
+        running = true;
+        accepting = true;
+        for (int i = 0; i < workers; i++) {
+            Thread t = new Thread(this::drainLoop, "ingest-writer-" + i);
+            t.setDaemon(false);
+            t.start();
+            threads.add(t);
+        }
+        log.info("Cola de ingesta diferida activa capacidad={} workers={} lote={}",
+                queue.remainingCapacity(), workers, batchSize);
+    }
+
+    @Override
+    public void stop() {
+        if (!running) return;
+        // Primero se deja de aceptar (esperando a los enqueue en curso); los workers salen
+        // cuando la cola queda vacia.
+        acceptLock.writeLock().lock();
+        try {
+            accepting = false;
+        } finally {
+            acceptLock.writeLock().unlock();
+        }
+        running = false;
+        long deadline = System.currentTimeMillis() + shutdownTimeoutMs;
+        for (Thread t : threads) {
+            try {
+                t.join(Math.max(1L, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        threads.clear();
+        if (!queue.isEmpty()) {
+            log.error("Cola de ingesta cerrada con {} sesiones sin escribir", queue.size());
+        } else {
+            log.info("Cola de ingesta vaciada al cerrar");
+        }
+    }
+
+    @Override
+    public boolean isRunning() { return running; }
+
+    /** Por debajo del servidor web (DEFAULT_PHASE - 2048) para parar despues de el. */
+    @Override
+    public int getPhase() { return SmartLifecycle.DEFAULT_PHASE - 4096; }
+
+    private void drainLoop() {
+        List<GameSession> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                GameSession first = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<GameSession> batch) throws InterruptedException {
+        batchSizeSummary.record(batch.size());
+        long t0 = System.nanoTime();
+        try {
+            Set<Integer> dup = insertWithRetry(batch);
+            duplicates.increment(dup.size());
+        } catch (RuntimeException e) {
+            failed.increment(batch.size());
+            log.error("Fallo escribiendo micro-lote de {} sesiones primera={}",
+                    batch.size(), batch.get(0).getSessionId(), e);
+        } finally {
+            flushTimer.record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Set<Integer> insertWithRetry(List<GameSession> batch) throws InterruptedException {
+        // Mismo owner en todos los intentos: recupera las reservas time-series que un intento
+        // ambiguo dejo pending.
+        String owner = UUID.randomUUID().toString();
+        long wait = backoffMs;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return bulkWriter.insertAll(batch, owner);
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts || !isTransient(e)) throw e;
+                retries.increment();
+                log.warn("Error transitorio escribiendo micro-lote de {} sesiones, intento {}/{}; reintento en {} ms: {}",
+                        batch.size(), attempt, maxAttempts, wait, e.toString());
+                Thread.sleep(wait);
+                wait = Math.min(wait * 2, MAX_BACKOFF_MS);
+            }
+        }
+    }
+
+    /**
+     * Red, seleccion de servidor, timeouts y errores que el propio servidor marca como
+     * reintentables (p. ej. cambio de primario). Los errores de escritura por documento
+     * (BulkOperationException) son permanentes: el writer ya notifico las filas escritas y un
+     * reintento solo repetiria el rechazo.
+     */
+    static boolean isTransient(Throwable e) {
+        if (e instanceof BulkOperationException) return false;
+        if (e instanceof TransientDataAccessException || e instanceof DataAccessResourceFailureException) return true;
+        for (Throwable c = e; c != null; c = c.getCause()) {
+            if (c instanceof MongoSocketException || c instanceof MongoTimeoutException
+                    || c instanceof MongoNotPrimaryException || c instanceof MongoNodeIsRecoveringException) {
+                return true;
+            }
+            if (c instanceof MongoException m && m.hasErrorLabel("RetryableWriteError")) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,26 @@
+package com.rehabiapp.data.application.service;
+
+import com.rehabiapp.data.domain.model.GameSession;
+import java.util.List;
+import org.springframework.core.Ordered;
+
+/**
+ * Recibe las sesiones recien persistidas por cualquier via de ingesta (unitaria, lote o
+ * cola diferida). Solo se notifican las insertadas: duplicados e invalidos no llegan.
+ *
+ * Las implementaciones no deben lanzar: la sesion ya esta escrita y un fallo aqui no
+ * puede convertirse en un error de ingesta.
+ *
+ * Se notifican en el orden de @Order: primero las vistas derivadas (acumuladores, rollups),
+ * despues la cache local y al final la version de datos. Si la version subiera antes, una
+ * lectura concurrente podria calcular con rollups antiguos y cachear el cuerpo bajo la ETag
+ * nueva.
+ */
+public interface IngestedSessionsListener {
+
+    int DERIVED_VIEWS = 100;
+    int CACHE = 200;
+    int DATA_VERSION = Ordered.LOWEST_PRECEDENCE;
+
+    void onSessionsInserted(List<GameSession> sessions);
+}
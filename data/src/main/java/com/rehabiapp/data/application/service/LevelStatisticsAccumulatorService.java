@@ -0,0 +1,426 @@
+package com.rehabiapp.data.application.service;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+
+import com.mongodb.bulk.BulkWriteError;
+import com.rehabiapp.data.application.sketch.HyperLogLog;
+import com.rehabiapp.data.domain.model.AnalyticsRefreshState;
+import com.rehabiapp.data.domain.model.GameSession;
+import com.rehabiapp.data.domain.model.LevelStatistics;
+import com.rehabiapp.data.domain.model.LevelStatisticsAccumulator;
+import com.rehabiapp.data.domain.repository.AnalyticsRefreshStateRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.Pair;
+import org.springframework.stereotype.Service;
+
+/**
+ * Mantiene level_statistics_acc a partir de las sesiones ingeridas cuando
+ * rehabiapp.analytics.level-stats-mode=incremental.
+ *
+ * Cada lote insertado se traduce en un upsert por nivel con $inc sobre sumas y contadores
+ * y $max sobre los registros HyperLogLog del DNI, de modo que el refresco horario deriva
+ * level_statistics leyendo cuatro documentos en lugar de agrupar toda game_sessions.
+ *
+ * La primera vez se siembra el estado con las sesiones anteriores a trackingSince, que la
+ * ingesta nunca ha visto; a partir de ahi la siembra no vuelve a ejecutarse salvo reseed.
+ */
+@Service
+@Order(IngestedSessionsListener.DERIVED_VIEWS)
+public class LevelStatisticsAccumulatorService implements IngestedSessionsListener {
+
+    private static final Logger log = LoggerFactory.getLogger(LevelStatisticsAccumulatorService.class);
+
+    /** Valores de lastMode del documento de estado LEVEL_STATISTICS. */
+    static final String SEEDING = "SEEDING";
+    static final String SEED_DONE = "SEED";
+    /** Una reclamacion de siembra mas antigua se considera abandonada. */
+    static final Duration SEED_STALE_AFTER = Duration.ofHours(1);
+
+    private final MongoTemplate mongoTemplate;
+    private final AnalyticsRefreshStateRepository stateRepo;
+    private final boolean enabled;
+    private final Counter applyFailures;
+
+    public LevelStatisticsAccumulatorService(MongoTemplate mongoTemplate,
+                                             AnalyticsRefreshStateRepository stateRepo,
+                                             MeterRegistry meterRegistry,
+                                             @Value("${rehabiapp.analytics.level-stats-mode:full}") LevelStatsMode mode) {
+        this.mongoTemplate = mongoTemplate;
+        this.stateRepo = stateRepo;
+        this.enabled = mode == LevelStatsMode.INCREMENTAL;
+        this.applyFailures = Counter.builder("rehabiapp.analytics.level_stats.apply.failed")
+                .description("Sesiones ingeridas no reflejadas en level_statistics_acc")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    @Override
+    public void onSessionsInserted(List<GameSession> sessions) {
+        if (!enabled || sessions.isEmpty()) return;
+
+        Map<Integer, List<GameSession>> byLevel = new TreeMap<>();
+        for (GameSession g : sessions) {
+            if (g.getProgressionLevel() == null) continue;
+            byLevel.computeIfAbsent(g.getProgressionLevel(), k -> new ArrayList<>()).add(g);
+        }
+        try {
+            Set<Integer> late = apply(deltas(byLevel), true);
+            if (!late.isEmpty()) applyLate(byLevel, late);
+        } catch (DataAccessException e) {
+            // La sesion ya esta escrita: se cuenta la deriva y se corrige con un reseed.
+            applyFailures.increment(sessions.size());
+            log.error("No se pudieron acumular {} sesiones en level_statistics_acc", sessions.size(), e);
+        }
+    }
+
+    /**
+     * Niveles cuyo trackingSince es posterior a alguna sesion del lote: la siembra lo fijo antes
+     * de agregar, o otro lote mas reciente creo el acumulador. Lo anterior a trackingSince lo
+     * cuenta la siembra, salvo lo posterior a su watermark si ya termino; solo se acumula el resto.
+     */
+    private void applyLate(Map<Integer, List<GameSession>> byLevel, Set<Integer> late) {
+        Instant seeded = stateRepo.findById(AnalyticsRefreshState.LEVEL_STATISTICS)
+                .filter(s -> SEED_DONE.equals(s.getLastMode()))
+                .map(AnalyticsRefreshState::getWatermark)
+                .orElse(null);
+        Map<Integer, List<GameSession>> rest = new TreeMap<>();
+        for (int level : late) {
+            LevelStatisticsAccumulator acc = mongoTemplate.findOne(
+                    Query.query(Criteria.where("progressionLevel").is(level)), LevelStatisticsAccumulator.class);
+            Instant since = acc == null ? null : acc.getTrackingSince();
+            List<GameSession> kept = byLevel.get(level).stream()
+                    .filter(g -> since == null || notBefore(g.getReceivedAt(), since) || notBefore(g.getReceivedAt(), seeded))
+                    .toList();
+            if (!kept.isEmpty()) rest.put(level, kept);
+            log.debug("Nivel {}: {} sesiones anteriores a trackingSince={} quedan para la siembra",
+                    level, byLevel.get(level).size() - kept.size(), since);
+        }
+        apply(deltas(rest), false);
+    }
+
+    private static boolean notBefore(Instant receivedAt, Instant bound) {
+        return receivedAt != null && bound != null && !receivedAt.isBefore(bound);
+    }
+
+    private static Map<Integer, Delta> deltas(Map<Integer, List<GameSession>> byLevel) {
+        Map<Integer, Delta> deltas = new TreeMap<>();
+        byLevel.forEach((level, sessions) -> {
+            Delta d = new Delta();
+            sessions.forEach(d::add);
+            deltas.put(level, d);
+        });
+        return deltas;
+    }
+
+    /**
+     * Siembra el estado si nunca se ha hecho. Idempotente entre ejecuciones del job y entre
+     * replicas: la siembra se reclama insertando el documento de estado en modo SEEDING, y la
+     * replica que recibe DuplicateKeyException la deja en manos de quien la reclamo. Mientras
+     * tanto snapshot() puede leer acumuladores sin sembrar; el refresco siguiente lo corrige.
+     *
+     * Puede ejecutarse con la ingesta activa: la siembra fija trackingSince de cada nivel antes
+     * de agregar y la ingesta no acumula nada anterior, asi que ninguna sesion se cuenta dos
+     * veces. Una sesion recibida antes de la siembra pero escrita cuando la agregacion ya la
+     * habia dejado atras puede quedar fuera; si se necesita exactitud, pararla o lanzar reseed.
+     */
+    public void seedIfNeeded() {
+        Optional<AnalyticsRefreshState> state = stateRepo.findById(AnalyticsRefreshState.LEVEL_STATISTICS);
+        if (state.isPresent()) {
+            warnIfStale(state.get());
+            return;
+        }
+        AnalyticsRefreshState claim = new AnalyticsRefreshState();
+        claim.setId(AnalyticsRefreshState.LEVEL_STATISTICS);
+        claim.setLastRunAt(Instant.now());
+        claim.setLastMode(SEEDING);
+        try {
+            stateRepo.insert(claim);
+        } catch (DuplicateKeyException e) {
+            log.info("Otra replica esta sembrando level_statistics_acc");
+            return;
+        }
+        seedClaimed();
+    }
+
+    /**
+     * Descarta el estado acumulado y lo vuelve a sembrar desde game_sessions. Devuelve false
+     * sin tocar nada si otra siembra esta en curso (una reclamacion SEEDING de menos de
+     * SEED_STALE_AFTER; una mas antigua se considera de una replica caida y se retoma).
+     * Como en seedIfNeeded(), sesiones ingeridas mientras se ejecuta pueden quedar fuera;
+     * lanzarlo con la ingesta parada si se necesita exactitud.
+     */
+    public boolean reseed() {
+        Instant now = Instant.now();
+        Query claimable = Query.query(Criteria.where("_id").is(AnalyticsRefreshState.LEVEL_STATISTICS)
+                .orOperator(Criteria.where("lastMode").ne(SEEDING),
+                            Criteria.where("lastRunAt").lt(now.minus(SEED_STALE_AFTER))));
+        try {
+            // Sin documento que cumpla el filtro el upsert intenta insertar el _id: si ya existe
+            // (siembra en curso) falla con clave duplicada.
+            mongoTemplate.upsert(claimable, new Update()
+                    .set("lastMode", SEEDING).set("lastRunAt", now).unset("watermark"),
+                    AnalyticsRefreshState.class);
+        } catch (DuplicateKeyException e) {
+            log.warn("Reseed de level_statistics_acc rechazado: hay otra siembra en curso");
+            return false;
+        }
+        mongoTemplate.remove(new Query(), LevelStatisticsAccumulator.class);
+        seedClaimed();
+        return true;
+    }
+
+    /** Siembra con la reclamacion ya tomada; si falla la libera para que se reintente. */
+    private void seedClaimed() {
+        try {
+            seed();
+        } catch (RuntimeException e) {
+            mongoTemplate.remove(Query.query(Criteria.where("_id").is(AnalyticsRefreshState.LEVEL_STATISTICS)
+                    .and("lastMode").is(SEEDING)), AnalyticsRefreshState.class);
+            throw e;
+        }
+    }
+
+    private void seed() {
+        Instant seedStart = Instant.now();
+        // Antes de agregar, cada nivel conocido pasa a tener trackingSince (el que ya tuviera o
+        // seedStart): desde aqui la ingesta no acumula lo anterior y la siembra no cuenta lo posterior.
+        Set<Integer> known = new TreeSet<>();
+        for (Integer level : mongoTemplate.findDistinct(new Query(), "progressionLevel", GameSession.class, Integer.class)) {
+            if (level != null) known.add(level);
+        }
+        startTracking(known, seedStart);
+
+        Map<Integer, Instant> tracked = new HashMap<>();
+        for (LevelStatisticsAccumulator a : mongoTemplate.findAll(LevelStatisticsAccumulator.class)) {
+            if (a.getTrackingSince() != null) tracked.put(a.getProgressionLevel(), a.getTrackingSince());
+        }
+
+        // Por nivel, solo lo que la ingesta no acumula (receivedAt < trackingSince).
+        // $not/$gte incluye sesiones antiguas sin receivedAt. Un nivel sin acumulador aparecio
+        // despues de seedStart y todas sus sesiones son de la ingesta.
+        List<Criteria> parts = new ArrayList<>();
+        tracked.forEach((level, since) -> parts.add(Criteria.where("progressionLevel").is(level)
+                .and("receivedAt").not().gte(since)));
+        if (parts.isEmpty()) {
+            saveSeedDone(seedStart);
+            log.info("level_statistics_acc sembrado hasta {} sin sesiones previas", seedStart);
+            return;
+        }
+
+        Aggregation agg = newAggregation(
+            match(new Criteria().orOperator(parts)),
+            group("progressionLevel", "patientDni")
+                .count().as("sessions")
+                .sum("score").as("scoreSum")
+                .sum(present("$score")).as("scoreCount")
+                .sum("durationSeconds").as("durationSum")
+                .sum(present("$durationSeconds")).as("durationCount")
+                .sum(ConditionalOperators.when(Criteria.where("completed").is(true))
+                        .then(1).otherwise(0)).as("completedCount")
+                .sum("movementMetrics.rangeOfMotionDegrees").as("romSum")
+                .sum(present("$movementMetrics.rangeOfMotionDegrees")).as("romCount")
+        ).withOptions(Aggregation.newAggregationOptions().allowDiskUse(true).build());
+
+        Map<Integer, Delta> byLevel = new TreeMap<>();
+        long patients = 0;
+        try (Stream<Document> rows = mongoTemplate.aggregateStream(agg, GameSession.class, Document.class)) {
+            for (Document d : (Iterable<Document>) rows::iterator) {
+                Document id = d.get("_id", Document.class);
+                Object level = id.get("progressionLevel");
+                if (level == null) continue;
+                byLevel.computeIfAbsent(((Number) level).intValue(), k -> new Delta()).add(d, id.getString("patientDni"));
+                patients++;
+            }
+        }
+        apply(byLevel, false);
+
+        saveSeedDone(seedStart);
+        log.info("level_statistics_acc sembrado hasta {} niveles={} pares paciente-nivel={}",
+                seedStart, byLevel.size(), patients);
+    }
+
+    private void startTracking(Set<Integer> levels, Instant seedStart) {
+        if (levels.isEmpty()) return;
+        List<Pair<Query, Update>> upserts = new ArrayList<>(levels.size());
+        for (int level : levels) {
+            upserts.add(Pair.of(Query.query(Criteria.where("progressionLevel").is(level)),
+                    new Update().setOnInsert("trackingSince", seedStart)));
+        }
+        mongoTemplate.bulkOps(BulkMode.UNORDERED, LevelStatisticsAccumulator.class)
+                .upsert(upserts)
+                .execute();
+    }
+
+    private void saveSeedDone(Instant seedStart) {
+        AnalyticsRefreshState s = new AnalyticsRefreshState();
+        s.setId(AnalyticsRefreshState.LEVEL_STATISTICS);
+        s.setWatermark(seedStart);
+        s.setLastRunAt(Instant.now());
+        s.setLastMode(SEED_DONE);
+        stateRepo.save(s);
+    }
+
+    private static void warnIfStale(AnalyticsRefreshState state) {
+        if (SEEDING.equals(state.getLastMode()) && state.getLastRunAt() != null
+                && state.getLastRunAt().isBefore(Instant.now().minus(SEED_STALE_AFTER))) {
+            // Una replica murio a mitad de siembra: los acumuladores pueden estar incompletos.
+            log.warn("Siembra de level_statistics_acc sin terminar desde {}; lanzar reseed", state.getLastRunAt());
+        }
+    }
+
+    /** Deriva level_statistics del estado acumulado. */
+    public List<LevelStatistics> snapshot() {
+        Instant now = Instant.now();
+        return mongoTemplate.findAll(LevelStatisticsAccumulator.class).stream()
+                .map(a -> toStatistics(a, now))
+                .toList();
+    }
+
+    static LevelStatistics toStatistics(LevelStatisticsAccumulator a, Instant now) {
+        HyperLogLog hll = new HyperLogLog();
+        if (a.getHll() != null) {
+            a.getHll().forEach((i, rank) -> hll.update(Integer.parseInt(i), rank));
+        }
+        LevelStatistics s = new LevelStatistics();
+        s.setProgressionLevel(a.getProgressionLevel());
+        s.setTotalSessions(a.getSessions());
+        s.setTotalPatients(hll.estimate());
+        s.setAverageScore(ratio(a.getScoreSum(), a.getScoreCount()));
+        s.setAverageDuration(ratio(a.getDurationSum(), a.getDurationCount()));
+        s.setGlobalCompletionRate(ratio(a.getCompletedCount(), a.getSessions()));
+        s.setAverageRangeOfMotion(ratio(a.getRomSum(), a.getRomCount()));
+        s.setLastUpdated(now);
+        return s;
+    }
+
+    /**
+     * Un upsert por nivel. Desde la ingesta (conditional) el filtro exige trackingSince no
+     * posterior a la sesion mas antigua del delta: si lo es, el upsert no casa, intenta insertar
+     * y choca con uk_acc_progression_level. Devuelve esos niveles, que no se han tocado.
+     */
+    private Set<Integer> apply(Map<Integer, Delta> byLevel, boolean conditional) {
+        if (byLevel.isEmpty()) return Set.of();
+        List<Integer> levels = new ArrayList<>(byLevel.keySet());
+        List<Pair<Query, Update>> upserts = new ArrayList<>(byLevel.size());
+        Instant now = Instant.now();
+        byLevel.forEach((level, d) -> {
+            Criteria c = Criteria.where("progressionLevel").is(level);
+            if (conditional && d.trackingSince != null) c = c.and("trackingSince").not().gt(d.trackingSince);
+            upserts.add(Pair.of(Query.query(c), d.toUpdate(now)));
+        });
+        try {
+            mongoTemplate.bulkOps(BulkMode.UNORDERED, LevelStatisticsAccumulator.class)
+                    .upsert(upserts)
+                    .execute();
+            return Set.of();
+        } catch (BulkOperationException e) {
+            Set<Integer> late = new TreeSet<>();
+            for (BulkWriteError error : e.getErrors()) {
+                if (!conditional || error.getCode() != GameSessionBulkWriter.DUPLICATE_KEY_CODE) throw e;
+                late.add(levels.get(error.getIndex()));
+            }
+            return late;
+        }
+    }
+
+    private static Double ratio(double sum, long count) {
+        return count == 0 ? null : sum / count;
+    }
+
+    /** 1 si la expresion tiene valor (ni nulo ni ausente), 0 en otro caso. */
+    private static AggregationExpression present(String field) {
+        return ctx -> new Document("$cond", Arrays.asList(
+                new Document("$gt", Arrays.asList(field, null)), 1, 0));
+    }
+
+    /** Incremento de un nivel acumulado en memoria antes de escribirlo. */
+    private static final class Delta {
+        long sessions, scoreSum, scoreCount, durationSum, durationCount, completedCount, romCount;
+        double romSum;
+        final Map<Integer, Integer> registers = new HashMap<>();
+        Instant trackingSince;
+
+        void add(GameSession g) {
+            sessions++;
+            if (g.getScore() != null) { scoreSum += g.getScore(); scoreCount++; }
+            if (g.getDurationSeconds() != null) { durationSum += g.getDurationSeconds(); durationCount++; }
+            if (Boolean.TRUE.equals(g.getCompleted())) completedCount++;
+            if (g.getMovementMetrics() != null && g.getMovementMetrics().rangeOfMotionDegrees() != null) {
+                romSum += g.getMovementMetrics().rangeOfMotionDegrees();
+                romCount++;
+            }
+            addPatient(g.getPatientDni());
+            if (g.getReceivedAt() != null
+                    && (trackingSince == null || g.getReceivedAt().isBefore(trackingSince))) {
+                trackingSince = g.getReceivedAt();
+            }
+        }
+
+        /** Fila de la siembra: ya agregada por (nivel, paciente). */
+        void add(Document d, String patientDni) {
+            sessions += longVal(d.get("sessions"));
+            scoreSum += longVal(d.get("scoreSum"));
+            scoreCount += longVal(d.get("scoreCount"));
+            durationSum += longVal(d.get("durationSum"));
+            durationCount += longVal(d.get("durationCount"));
+            completedCount += longVal(d.get("completedCount"));
+            romSum += d.get("romSum") == null ? 0 : ((Number) d.get("romSum")).doubleValue();
+            romCount += longVal(d.get("romCount"));
+            addPatient(patientDni);
+        }
+
+        private void addPatient(String dni) {
+            if (dni == null) return;
+            long h = HyperLogLog.hash(dni);
+            registers.merge(HyperLogLog.index(h), HyperLogLog.rank(h), Math::max);
+        }
+
+        Update toUpdate(Instant now) {
+            Update u = new Update()
+                    .inc("sessions", sessions)
+                    .inc("scoreSum", scoreSum)
+                    .inc("scoreCount", scoreCount)
+                    .inc("durationSum", durationSum)
+                    .inc("durationCount", durationCount)
+                    .inc("completedCount", completedCount)
+                    .inc("romSum", romSum)
+                    .inc("romCount", romCount)
+                    .set("lastUpdated", now);
+            registers.forEach((i, rank) -> u.max("hll." + i, rank));
+            if (trackingSince != null) u.min("trackingSince", trackingSince);
+            return u;
+        }
+
+        private static long longVal(Object o) { return o == null ? 0L : ((Number) o).longValue(); }
+    }
+}
@@ -0,0 +1,11 @@
+package com.rehabiapp.data.application.service;
+
+/**
+ * Origen de level_statistics (rehabiapp.analytics.level-stats-mode).
+ * FULL: LevelStatisticsPipeline reagrega toda la coleccion en cada refresco.
+ * INCREMENTAL: acumuladores mantenidos en la ingesta; el refresco solo los finaliza.
+ */
+public enum LevelStatsMode {
+    FULL,
+    INCREMENTAL
+}
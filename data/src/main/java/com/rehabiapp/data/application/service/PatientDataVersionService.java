@@ -0,0 +1,92 @@
+package com.rehabiapp.data.application.service;
+
+import com.rehabiapp.data.domain.model.AnalyticsRefreshState;
+import com.rehabiapp.data.domain.model.GameSession;
+import com.rehabiapp.data.domain.repository.AnalyticsRefreshStateRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.Pair;
+import org.springframework.stereotype.Service;
+
+/**
+ * Version de los datos de analiticas para las ETag de los endpoints de lectura.
+ *
+ * Las respuestas de un paciente cambian cuando se ingiere una sesion suya (series leidas de
+ * game_sessions o rom_daily_rollups) o cuando termina un refresco (patient_progress,
+ * level_statistics). La ingesta incrementa un contador por DNI en patient_data_versions
+ * (_id = DNI, compartido entre instancias) y el refresco deja su lastRunAt en
+ * analytics_refresh_state; la ETag es "version-lastRunAt". Cuesta dos lecturas por _id.
+ */
+@Service
+@Order(IngestedSessionsListener.DATA_VERSION)
+public class PatientDataVersionService implements IngestedSessionsListener {
+
+    private static final Logger log = LoggerFactory.getLogger(PatientDataVersionService.class);
+    static final String COLLECTION = "patient_data_versions";
+
+    private final MongoTemplate mongoTemplate;
+    private final AnalyticsRefreshStateRepository stateRepo;
+    private final Counter applyFailures;
+
+    public PatientDataVersionService(MongoTemplate mongoTemplate,
+                                     AnalyticsRefreshStateRepository stateRepo,
+                                     MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.stateRepo = stateRepo;
+        this.applyFailures = Counter.builder("rehabiapp.analytics.data_version.apply.failed")
+                .description("Sesiones ingeridas sin incrementar la version de datos del paciente")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void onSessionsInserted(List<GameSession> sessions) {
+        if (sessions.isEmpty()) return;
+        Map<String, Integer> byDni = new LinkedHashMap<>();
+        for (GameSession g : sessions) {
+            if (g.getPatientDni() != null) byDni.merge(g.getPatientDni(), 1, Integer::sum);
+        }
+        if (byDni.isEmpty()) return;
+
+        Instant now = Instant.now();
+        List<Pair<Query, Update>> upserts = new ArrayList<>(byDni.size());
+        byDni.forEach((dni, n) -> upserts.add(Pair.of(
+                Query.query(Criteria.where("_id").is(dni)),
+                new Update().inc("version", n).set("updatedAt", now))));
+        try {
+            mongoTemplate.bulkOps(BulkMode.UNORDERED, COLLECTION).upsert(upserts).execute();
+        } catch (DataAccessException e) {
+            // Las ETag del paciente no cambian hasta el proximo refresco.
+            applyFailures.increment(sessions.size());
+            log.error("No se pudo incrementar la version de datos de {} pacientes", byDni.size(), e);
+        }
+    }
+
+    /** ETag fuerte de los recursos de un paciente (dni null para recursos globales). */
+    public String etag(String dni) {
+        long version = 0;
+        if (dni != null) {
+            Document d = mongoTemplate.findById(dni, Document.class, COLLECTION);
+            Object v = d != null ? d.get("version") : null;
+            if (v != null) version = ((Number) v).longValue();
+        }
+        Instant refreshedAt = stateRepo.findById(AnalyticsRefreshState.PATIENT_PROGRESS)
+                .map(AnalyticsRefreshState::getLastRunAt)
+                .orElse(Instant.EPOCH);
+        return "\"" + version + "-" + refreshedAt.toEpochMilli() + "\"";
+    }
+}
@@ -0,0 +1,89 @@
+package com.rehabiapp.data.application.service;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+
+/**
+ * Filas CSV leidas directamente de documentos RawBsonDocument de game_sessions.
+ *
+ * Recorre el BSON una vez con un BsonBinaryReader y deja cada campo en su columna de
+ * ExportService.CSV_HEADERS, sin pasar por el conversor de Spring Data ni crear GameSession,
+ * MovementMetrics y los Integer intermedios. El texto resultante es el mismo que el de
+ * ExportService.csvRecord: fechas como Instant (ISO-8601), numeros y booleanos con toString.
+ */
+final class RawSessionCsv {
+
+    private static final String METRICS = "movementMetrics";
+    private static final Map<String, Integer> TOP_LEVEL = new HashMap<>();
+    private static final Map<String, Integer> METRIC_FIELDS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < ExportService.CSV_HEADERS.length; i++) {
+            String h = ExportService.CSV_HEADERS[i];
+            switch (h) {
+                case "rangeOfMotionDegrees", "averageSpeed", "maxSpeed" -> METRIC_FIELDS.put(h, i);
+                default -> TOP_LEVEL.put(h, i);
+            }
+        }
+    }
+
+    /** Proyeccion con solo los campos que se imprimen. */
+    static final Document PROJECTION = projection();
+
+    private RawSessionCsv() { }
+
+    /** Rellena row (longitud CSV_HEADERS) con los valores del documento; los ausentes quedan null. */
+    static Object[] record(RawBsonDocument doc, Object[] row) {
+        Arrays.fill(row, null);
+        try (BsonBinaryReader r = new BsonBinaryReader(doc.getByteBuffer().asNIO())) {
+            r.readStartDocument();
+            while (r.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                String name = r.readName();
+                if (METRICS.equals(name) && r.getCurrentBsonType() == BsonType.DOCUMENT) {
+                    r.readStartDocument();
+                    while (r.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                        read(r, METRIC_FIELDS.get(r.readName()), row);
+                    }
+                    r.readEndDocument();
+                } else {
+                    read(r, TOP_LEVEL.get(name), row);
+                }
+            }
+            r.readEndDocument();
+        }
+        return row;
+    }
+
+    private static void read(BsonReader r, Integer column, Object[] row) {
+        if (column == null) {
+            r.skipValue();
+            return;
+        }
+        row[column] = switch (r.getCurrentBsonType()) {
+            case STRING -> r.readString();
+            case INT32 -> r.readInt32();
+            case INT64 -> r.readInt64();
+            case DOUBLE -> r.readDouble();
+            case BOOLEAN -> r.readBoolean();
+            case DATE_TIME -> Instant.ofEpochMilli(r.readDateTime());
+            default -> {
+                r.skipValue();
+                yield null;
+            }
+        };
+    }
+
+    private static Document projection() {
+        Document p = new Document("_id", 0);
+        TOP_LEVEL.keySet().forEach(f -> p.append(f, 1));
+        METRIC_FIELDS.keySet().forEach(f -> p.append(METRICS + "." + f, 1));
+        return p;
+    }
+}
@@ -0,0 +1,13 @@
+package com.rehabiapp.data.application.service;
+
+/**
+ * Modo del refresco de patient_progress. Configurable via rehabiapp.analytics.refresh-mode.
+ */
+public enum RefreshMode {
+
+    /** Reagrega toda la ventana de 90 dias y hace upsert de todas las filas. */
+    FULL,
+
+    /** Recalcula solo los cubos con sesiones recibidas desde la ultima marca de agua. */
+    INCREMENTAL
+}
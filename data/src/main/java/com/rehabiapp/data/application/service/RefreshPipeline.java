@@ -0,0 +1,11 @@
+package com.rehabiapp.data.application.service;
+
+/**
+ * Forma de las aggregations del refresco completo (rehabiapp.analytics.refresh-pipeline).
+ * SEPARATE: tres pipelines, cada uno con su propio recorrido de game_sessions.
+ * FACET: una sola lectura de la ventana con $facet (RefreshFacetPipeline).
+ */
+public enum RefreshPipeline {
+    SEPARATE,
+    FACET
+}
@@ -0,0 +1,180 @@
+package com.rehabiapp.data.application.service;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+
+import com.rehabiapp.data.domain.model.GameSession;
+import com.rehabiapp.data.domain.model.RomDailyRollup;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.MergeOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.Pair;
+import org.springframework.stereotype.Service;
+
+/**
+ * Mantiene rom_daily_rollups cuando rehabiapp.analytics.rom-rollups.enabled = true.
+ *
+ * En la ingesta cada lote se traduce en un upsert por (paciente, juego, dia) con $inc sobre
+ * sesiones y sumas y $min/$max sobre el ROM. {@link #rebuild()} recalcula la coleccion entera
+ * desde game_sessions (y game_sessions_archive con el archivo activo) con $merge; necesario al
+ * activar la opcion sobre datos existentes.
+ */
+@Service
+@Order(IngestedSessionsListener.DERIVED_VIEWS)
+public class RomDailyRollupService implements IngestedSessionsListener {
+
+    private static final Logger log = LoggerFactory.getLogger(RomDailyRollupService.class);
+    private static final String COLLECTION = "rom_daily_rollups";
+
+    private final MongoTemplate mongoTemplate;
+    private final SessionStorage storage;
+    private final boolean enabled;
+    private final Counter applyFailures;
+
+    public RomDailyRollupService(MongoTemplate mongoTemplate,
+                                 SessionStorage storage,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${rehabiapp.analytics.rom-rollups.enabled:false}") boolean enabled) {
+        this.mongoTemplate = mongoTemplate;
+        this.storage = storage;
+        this.enabled = enabled;
+        this.applyFailures = Counter.builder("rehabiapp.analytics.rom_rollups.apply.failed")
+                .description("Sesiones ingeridas no reflejadas en rom_daily_rollups")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() { return enabled; }
+
+    @Override
+    public void onSessionsInserted(List<GameSession> sessions) {
+        if (!enabled || sessions.isEmpty()) return;
+
+        Map<List<String>, Delta> byDay = new LinkedHashMap<>();
+        for (GameSession g : sessions) {
+            if (g.getSessionStart() == null) continue;
+            String day = g.getSessionStart().atZone(ZoneOffset.UTC).toLocalDate().toString();
+            byDay.computeIfAbsent(List.of(g.getPatientDni(), g.getGameId(), day), k -> new Delta()).add(g);
+        }
+        if (byDay.isEmpty()) return;
+
+        Instant now = Instant.now();
+        List<Pair<Query, Update>> upserts = new ArrayList<>(byDay.size());
+        byDay.forEach((key, d) -> upserts.add(Pair.of(
+                Query.query(Criteria.where("patientDni").is(key.get(0))
+                        .and("gameId").is(key.get(1))
+                        .and("day").is(key.get(2))),
+                d.toUpdate(now))));
+        try {
+            mongoTemplate.bulkOps(BulkMode.UNORDERED, RomDailyRollup.class).upsert(upserts).execute();
+        } catch (DataAccessException e) {
+            // La sesion ya esta escrita: se cuenta la deriva y se corrige con rebuild.
+            applyFailures.increment(sessions.size());
+            log.error("No se pudieron acumular {} sesiones en rom_daily_rollups", sessions.size(), e);
+        }
+    }
+
+    /**
+     * Recalcula todos los rollups desde game_sessions en el servidor ($group + $merge).
+     * Cada (paciente, juego, dia) se reemplaza entero, asi que con el archivo activo se anaden
+     * las sesiones de game_sessions_archive ($unionWith) y se agrupan antes por _id: una sesion
+     * copiada al archivo pero aun no borrada del nivel caliente cuenta una vez.
+     * Sesiones ingeridas durante la reconstruccion pueden perderse en el dia que se
+     * reemplaza; lanzarlo con la ingesta parada o repetirlo despues.
+     */
+    public void rebuild() {
+        long t0 = System.currentTimeMillis();
+        Criteria started = Criteria.where("sessionStart").ne(null);
+        List<AggregationOperation> ops = new ArrayList<>();
+        ops.add(match(started));
+        AggregationOperation archived = storage.archiveUnion(started, null);
+        if (archived != null) ops.add(archived);
+        ops.add(project("patientDni", "gameId")
+                .and("movementMetrics.rangeOfMotionDegrees").as("rom")
+                .and(ctx -> new Document("$dateToString",
+                        new Document("format", "%Y-%m-%d").append("date", "$sessionStart"))).as("day"));
+        if (archived != null) {
+            ops.add(ctx -> new Document("$group", new Document("_id", "$_id")
+                    .append("patientDni", new Document("$first", "$patientDni"))
+                    .append("gameId", new Document("$first", "$gameId"))
+                    .append("rom", new Document("$first", "$rom"))
+                    .append("day", new Document("$first", "$day"))));
+        }
+        ops.addAll(List.of(
+            group("patientDni", "gameId", "day")
+                .count().as("sessions")
+                .sum(present("$rom")).as("romCount")
+                .sum("rom").as("romSum")
+                .min("rom").as("romMin")
+                .max("rom").as("romMax"),
+            project("sessions", "romCount", "romSum", "romMin", "romMax")
+                .and("_id.patientDni").as("patientDni")
+                .and("_id.gameId").as("gameId")
+                .and("_id.day").as("day")
+                .and(ctx -> new Document("$toDate", "$$NOW")).as("lastUpdated")
+                .andExclude("_id"),
+            MergeOperation.builder()
+                .intoCollection(COLLECTION)
+                .on("patientDni", "gameId", "day")
+                .whenMatched(MergeOperation.WhenDocumentsMatch.replaceDocument())
+                .whenNotMatched(MergeOperation.WhenDocumentsDontMatch.insertNewDocument())
+                .build()));
+        Aggregation agg = newAggregation(ops)
+                .withOptions(Aggregation.newAggregationOptions().allowDiskUse(true).build());
+
+        mongoTemplate.aggregate(agg, GameSession.class, Document.class);
+        log.info("rom_daily_rollups reconstruido en {} ms", System.currentTimeMillis() - t0);
+    }
+
+    /** 1 si la expresion tiene valor (ni nulo ni ausente), 0 en otro caso. */
+    private static AggregationExpression present(String field) {
+        return ctx -> new Document("$cond", Arrays.asList(
+                new Document("$gt", Arrays.asList(field, null)), 1, 0));
+    }
+
+    /** Incremento de un (paciente, juego, dia) acumulado en memoria antes de escribirlo. */
+    private static final class Delta {
+        long sessions, romCount;
+        double romSum;
+        Double romMin, romMax;
+
+        void add(GameSession g) {
+            sessions++;
+            Double rom = g.getMovementMetrics() != null ? g.getMovementMetrics().rangeOfMotionDegrees() : null;
+            if (rom == null) return;
+            romCount++;
+            romSum += rom;
+            romMin = romMin == null ? rom : Math.min(romMin, rom);
+            romMax = romMax == null ? rom : Math.max(romMax, rom);
+        }
+
+        Update toUpdate(Instant now) {
+            Update u = new Update()
+                    .inc("sessions", sessions)
+                    .inc("romCount", romCount)
+                    .inc("romSum", romSum)
+                    .set("lastUpdated", now);
+            if (romMin != null) u.min("romMin", romMin).max("romMax", romMax);
+            return u;
+        }
+    }
+}
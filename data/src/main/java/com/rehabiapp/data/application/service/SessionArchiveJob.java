@@ -0,0 +1,134 @@
+package com.rehabiapp.data.application.service;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+
+import com.mongodb.client.result.DeleteResult;
+import com.rehabiapp.data.domain.model.AnalyticsRefreshState;
+import com.rehabiapp.data.domain.model.GameSession;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.MergeOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Mueve a game_sessions_archive las sesiones con sessionStart anterior al corte
+ * (rehabiapp.sessions.archive.after-days).
+ *
+ * Copia con $merge en el servidor (las ya copiadas se conservan, asi que repetir es seguro) y
+ * despues borra de game_sessions con el mismo filtro. El filtro solo toma sesiones recibidas
+ * antes de startedAt - settle-seconds: receivedAt se fija antes de escribir, y una sesion que
+ * aun estaba en la cola de escritura diferida o en reintentos cuando corrio el $merge no puede
+ * borrarse sin haberse copiado; queda para la siguiente pasada. Entre la copia y el borrado
+ * una sesion esta en ambos niveles y los lectores la emiten una sola vez (SessionStorage).
+ *
+ * El job programado corre en todas las replicas: cada pasada toma un lease en
+ * analytics_refresh_state (id session_archive) y las demas replicas la saltan. Un lease de
+ * mas de lease-seconds se considera de una replica caida y se retoma.
+ *
+ * rom_daily_rollups y los acumuladores de level_statistics no se tocan. Los procesos que
+ * reagregan game_sessions entero (level-stats-mode full, reconstruccion de cohort_sketches)
+ * dejan de ver lo archivado.
+ */
+@Service
+public class SessionArchiveJob {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionArchiveJob.class);
+
+    static final String ARCHIVING = "ARCHIVING";
+    static final String ARCHIVED = "ARCHIVED";
+
+    private final MongoTemplate mongoTemplate;
+    private final SessionStorage storage;
+    private final Duration settle;
+    private final Duration lease;
+    private final Counter archived;
+
+    public SessionArchiveJob(MongoTemplate mongoTemplate, SessionStorage storage, MeterRegistry meterRegistry,
+                             @Value("${rehabiapp.sessions.archive.settle-seconds:600}") long settleSeconds,
+                             @Value("${rehabiapp.sessions.archive.lease-seconds:21600}") long leaseSeconds) {
+        this.mongoTemplate = mongoTemplate;
+        this.storage = storage;
+        this.settle = Duration.ofSeconds(settleSeconds);
+        this.lease = Duration.ofSeconds(leaseSeconds);
+        this.archived = Counter.builder("rehabiapp.sessions.archived")
+                .description("Sesiones movidas de game_sessions a game_sessions_archive")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "${rehabiapp.sessions.archive.initial-delay-ms:300000}",
+               fixedDelayString = "${rehabiapp.sessions.archive.interval-ms:86400000}")
+    public void scheduled() {
+        if (!storage.isArchiveEnabled()) return;
+        if (!claimLease()) {
+            log.info("Otra replica esta archivando sesiones");
+            return;
+        }
+        try {
+            archive();
+        } finally {
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(AnalyticsRefreshState.SESSION_ARCHIVE)),
+                    new Update().set("lastMode", ARCHIVED).set("lastRunAt", Instant.now()),
+                    AnalyticsRefreshState.class);
+        }
+    }
+
+    /**
+     * Toma el lease si no hay pasada en curso (o la que hay es de hace mas de lease-seconds).
+     * Sin documento que cumpla el filtro el upsert intenta insertar el _id y falla con clave
+     * duplicada: otra replica tiene el lease.
+     */
+    boolean claimLease() {
+        Instant now = Instant.now();
+        Query claimable = Query.query(Criteria.where("_id").is(AnalyticsRefreshState.SESSION_ARCHIVE)
+                .orOperator(Criteria.where("lastMode").ne(ARCHIVING),
+                            Criteria.where("lastRunAt").lt(now.minus(lease))));
+        try {
+            mongoTemplate.upsert(claimable, new Update().set("lastMode", ARCHIVING).set("lastRunAt", now),
+                    AnalyticsRefreshState.class);
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    /** Una pasada completa; devuelve las sesiones borradas de game_sessions. */
+    public long archive() {
+        long t0 = System.currentTimeMillis();
+        Instant startedAt = Instant.now();
+        // $not/$gte incluye sesiones antiguas sin receivedAt.
+        Criteria old = Criteria.where("sessionStart").lt(storage.archiveCutoff(startedAt))
+                .and("receivedAt").not().gte(startedAt.minus(settle));
+
+        Aggregation copy = newAggregation(
+            match(old),
+            // meta solo existe en la coleccion time-series.
+            ctx -> new Document("$unset", "meta"),
+            MergeOperation.builder()
+                .intoCollection(SessionStorage.ARCHIVE)
+                .on("_id")
+                .whenMatched(MergeOperation.WhenDocumentsMatch.keepExistingDocument())
+                .whenNotMatched(MergeOperation.WhenDocumentsDontMatch.insertNewDocument())
+                .build()
+        ).withOptions(Aggregation.newAggregationOptions().allowDiskUse(true).build());
+        mongoTemplate.aggregate(copy, GameSession.class, Document.class);
+
+        DeleteResult deleted = mongoTemplate.remove(Query.query(old), GameSession.class);
+        archived.increment(deleted.getDeletedCount());
+        log.info("Sesiones archivadas={} corte={} en {} ms", deleted.getDeletedCount(),
+                storage.archiveCutoff(startedAt), System.currentTimeMillis() - t0);
+        return deleted.getDeletedCount();
+    }
+}
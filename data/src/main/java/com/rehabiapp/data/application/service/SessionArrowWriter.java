@@ -0,0 +1,227 @@
+package com.rehabiapp.data.application.service;
+
+import com.rehabiapp.data.domain.model.GameSession;
+import com.rehabiapp.data.domain.model.MovementMetrics;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.complex.StructVector;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryProvider;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+/**
+ * Escritor Arrow IPC (stream) de sesiones de juego para ExportService.
+ *
+ * Mismas columnas que el CSV pero tipadas: gameId y disabilityCode van codificados con
+ * diccionario (indice int32 por fila, valores una sola vez al inicio del stream), los
+ * instantes como timestamp[ms, UTC] y las metricas de movimiento como struct de float64.
+ * Las filas se escriben en lotes de BATCH_ROWS, asi que la memoria no depende del numero de
+ * sesiones del paciente.
+ */
+final class SessionArrowWriter {
+
+    static final String MEDIA_TYPE = "application/vnd.apache.arrow.stream";
+    static final int BATCH_ROWS = 4096;
+
+    static final long GAME_DICTIONARY_ID = 1L;
+    static final long DISABILITY_DICTIONARY_ID = 2L;
+
+    private static final ArrowType UTF8 = ArrowType.Utf8.INSTANCE;
+    private static final ArrowType INT32 = new ArrowType.Int(32, true);
+    private static final ArrowType FLOAT64 = new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+    private static final ArrowType TIMESTAMP = new ArrowType.Timestamp(TimeUnit.MILLISECOND, "UTC");
+
+    private SessionArrowWriter() { }
+
+    static Schema schema() {
+        return new Schema(List.of(
+                field("sessionId", UTF8),
+                field("patientDni", UTF8),
+                dictionaryField("gameId", GAME_DICTIONARY_ID),
+                dictionaryField("disabilityCode", DISABILITY_DICTIONARY_ID),
+                field("progressionLevel", INT32),
+                field("sessionStart", TIMESTAMP),
+                field("sessionEnd", TIMESTAMP),
+                field("durationSeconds", INT32),
+                field("score", INT32),
+                field("repetitionsCompleted", INT32),
+                field("repetitionsTarget", INT32),
+                new Field("movementMetrics", FieldType.nullable(ArrowType.Struct.INSTANCE), List.of(
+                        field("rangeOfMotionDegrees", FLOAT64),
+                        field("averageSpeed", FLOAT64),
+                        field("maxSpeed", FLOAT64))),
+                field("completed", ArrowType.Bool.INSTANCE),
+                field("receivedAt", TIMESTAMP)));
+    }
+
+    /**
+     * Escribe el stream completo: esquema, diccionarios (gameIds y disabilityCodes, que deben
+     * cubrir las sesiones; IllegalStateException si no) y los lotes. Devuelve el numero de filas.
+     */
+    static long write(Iterator<GameSession> sessions, List<String> gameIds, List<String> disabilityCodes,
+                      BufferAllocator allocator, OutputStream out) throws IOException {
+        DictionaryProvider.MapDictionaryProvider provider = new DictionaryProvider.MapDictionaryProvider();
+        try (VarCharVector games = dictionaryValues("gameId", gameIds, allocator);
+             VarCharVector disabilities = dictionaryValues("disabilityCode", disabilityCodes, allocator);
+             VectorSchemaRoot root = VectorSchemaRoot.create(schema(), allocator)) {
+            provider.put(new Dictionary(games, encoding(GAME_DICTIONARY_ID)));
+            provider.put(new Dictionary(disabilities, encoding(DISABILITY_DICTIONARY_ID)));
+            Batch batch = new Batch(root, indexOf(gameIds), indexOf(disabilityCodes));
+
+            long rows = 0;
+            try (ArrowStreamWriter writer = new ArrowStreamWriter(root, provider, Channels.newChannel(out))) {
+                writer.start();
+                while (sessions.hasNext()) {
+                    root.allocateNew();
+                    int n = 0;
+                    while (n < BATCH_ROWS && sessions.hasNext()) batch.set(n++, sessions.next());
+                    root.setRowCount(n);
+                    writer.writeBatch();
+                    rows += n;
+                }
+                writer.end();
+            }
+            return rows;
+        }
+    }
+
+    /** Vectores de un lote; se reutilizan entre lotes tras allocateNew. */
+    private static final class Batch {
+        final VarCharVector sessionId, patientDni;
+        final IntVector gameId, disabilityCode, progressionLevel, durationSeconds, score, repsDone, repsTarget;
+        final TimeStampMilliTZVector sessionStart, sessionEnd, receivedAt;
+        final StructVector metrics;
+        final Float8Vector rom, avgSpeed, maxSpeed;
+        final BitVector completed;
+        final Map<String, Integer> games, disabilities;
+
+        Batch(VectorSchemaRoot root, Map<String, Integer> games, Map<String, Integer> disabilities) {
+            this.sessionId = (VarCharVector) root.getVector("sessionId");
+            this.patientDni = (VarCharVector) root.getVector("patientDni");
+            this.gameId = (IntVector) root.getVector("gameId");
+            this.disabilityCode = (IntVector) root.getVector("disabilityCode");
+            this.progressionLevel = (IntVector) root.getVector("progressionLevel");
+            this.sessionStart = (TimeStampMilliTZVector) root.getVector("sessionStart");
+            this.sessionEnd = (TimeStampMilliTZVector) root.getVector("sessionEnd");
+            this.durationSeconds = (IntVector) root.getVector("durationSeconds");
+            this.score = (IntVector) root.getVector("score");
+            this.repsDone = (IntVector) root.getVector("repetitionsCompleted");
+            this.repsTarget = (IntVector) root.getVector("repetitionsTarget");
+            this.metrics = (StructVector) root.getVector("movementMetrics");
+            this.rom = metrics.getChild("rangeOfMotionDegrees", Float8Vector.class);
+            this.avgSpeed = metrics.getChild("averageSpeed", Float8Vector.class);
+            this.maxSpeed = metrics.getChild("maxSpeed", Float8Vector.class);
+            this.completed = (BitVector) root.getVector("completed");
+            this.receivedAt = (TimeStampMilliTZVector) root.getVector("receivedAt");
+            this.games = games;
+            this.disabilities = disabilities;
+        }
+
+        void set(int i, GameSession g) {
+            setString(sessionId, i, g.getSessionId());
+            setString(patientDni, i, g.getPatientDni());
+            setInt(gameId, i, code(games, "gameId", g.getGameId()));
+            setInt(disabilityCode, i, code(disabilities, "disabilityCode", g.getDisabilityCode()));
+            setInt(progressionLevel, i, g.getProgressionLevel());
+            setInstant(sessionStart, i, g.getSessionStart());
+            setInstant(sessionEnd, i, g.getSessionEnd());
+            setInt(durationSeconds, i, g.getDurationSeconds());
+            setInt(score, i, g.getScore());
+            setInt(repsDone, i, g.getRepetitionsCompleted());
+            setInt(repsTarget, i, g.getRepetitionsTarget());
+            MovementMetrics m = g.getMovementMetrics();
+            if (m == null) {
+                metrics.setNull(i);
+                rom.setNull(i);
+                avgSpeed.setNull(i);
+                maxSpeed.setNull(i);
+            } else {
+                metrics.setIndexDefined(i);
+                setDouble(rom, i, m.rangeOfMotionDegrees());
+                setDouble(avgSpeed, i, m.averageSpeed());
+                setDouble(maxSpeed, i, m.maxSpeed());
+            }
+            if (g.getCompleted() == null) completed.setNull(i);
+            else completed.setSafe(i, g.getCompleted() ? 1 : 0);
+            setInstant(receivedAt, i, g.getReceivedAt());
+        }
+    }
+
+    /** Indice de value en el diccionario; un valor que no esta aborta la exportacion. */
+    private static Integer code(Map<String, Integer> dictionary, String column, String value) {
+        if (value == null) return null;
+        Integer code = dictionary.get(value);
+        if (code == null) {
+            throw new IllegalStateException(column + " fuera del diccionario de la exportacion: " + value);
+        }
+        return code;
+    }
+
+    private static Field field(String name, ArrowType type) {
+        return new Field(name, FieldType.nullable(type), null);
+    }
+
+    /** Columna de indices int32 cuyo tipo logico es el utf8 del diccionario. */
+    private static Field dictionaryField(String name, long id) {
+        return new Field(name, new FieldType(true, INT32, encoding(id)), null);
+    }
+
+    private static DictionaryEncoding encoding(long id) {
+        return new DictionaryEncoding(id, false, (ArrowType.Int) INT32);
+    }
+
+    private static VarCharVector dictionaryValues(String name, List<String> values, BufferAllocator allocator) {
+        VarCharVector v = new VarCharVector(name + "_dictionary", allocator);
+        v.allocateNew(values.size());
+        for (int i = 0; i < values.size(); i++) v.setSafe(i, values.get(i).getBytes(StandardCharsets.UTF_8));
+        v.setValueCount(values.size());
+        return v;
+    }
+
+    private static Map<String, Integer> indexOf(List<String> values) {
+        Map<String, Integer> index = new HashMap<>(values.size() * 2);
+        for (int i = 0; i < values.size(); i++) index.put(values.get(i), i);
+        return index;
+    }
+
+    private static void setString(VarCharVector v, int i, String s) {
+        if (s == null) v.setNull(i);
+        else v.setSafe(i, s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void setInt(IntVector v, int i, Integer value) {
+        if (value == null) v.setNull(i);
+        else v.setSafe(i, value);
+    }
+
+    private static void setDouble(Float8Vector v, int i, Double value) {
+        if (value == null) v.setNull(i);
+        else v.setSafe(i, value);
+    }
+
+    private static void setInstant(TimeStampMilliTZVector v, int i, Instant t) {
+        if (t == null) v.setNull(i);
+        else v.setSafe(i, t.toEpochMilli());
+    }
+}
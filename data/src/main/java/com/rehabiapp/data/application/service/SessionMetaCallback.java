@@ -0,0 +1,34 @@
+package com.rehabiapp.data.application.service;
+
+import com.rehabiapp.data.domain.model.GameSession;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveCallback;
+import org.springframework.stereotype.Component;
+
+/**
+ * En modo time-series anade meta (paciente, juego, discapacidad) al documento que se guarda en
+ * game_sessions; es el metaField de la coleccion (ver SessionStorage).
+ *
+ * Bean aparte de SessionStorage: MappingMongoConverter resuelve los callbacks al crearse, asi
+ * que un callback no puede depender de MongoTemplate sin formar un ciclo.
+ */
+@Component
+public class SessionMetaCallback implements BeforeSaveCallback<GameSession> {
+
+    private final SessionStorageMode mode;
+
+    public SessionMetaCallback(@Value("${rehabiapp.sessions.storage:standard}") SessionStorageMode mode) {
+        this.mode = mode;
+    }
+
+    @Override
+    public GameSession onBeforeSave(GameSession entity, Document document, String collection) {
+        if (mode == SessionStorageMode.TIMESERIES && SessionStorage.HOT.equals(collection)) {
+            document.put("meta", new Document("patientDni", entity.getPatientDni())
+                    .append("gameId", entity.getGameId())
+                    .append("disabilityCode", entity.getDisabilityCode()));
+        }
+        return entity;
+    }
+}
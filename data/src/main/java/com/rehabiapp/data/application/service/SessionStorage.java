@@ -0,0 +1,312 @@
+package com.rehabiapp.data.application.service;
+
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.rehabiapp.data.domain.model.GameSession;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.UnionWithOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+/**
+ * Niveles de almacenamiento de las sesiones de juego.
+ *
+ * Caliente: game_sessions, normal o time-series segun rehabiapp.sessions.storage. En
+ * time-series no puede haber indice unico, asi que la idempotencia se apoya en
+ * game_session_ids (_id = sessionId): la ingesta reclama el sessionId (state pending, con
+ * claimedAt y owner) antes de insertar la sesion y lo marca committed al escribirla. Solo se
+ * libera cuando el error garantiza que la sesion no se escribio; ante un error ambiguo la
+ * reserva queda pending y, pasados claim-stale-seconds (o en el reintento del mismo owner),
+ * puede volver a tomarse tras comprobar que la sesion no llego a game_sessions. Al guardar en game_sessions SessionMetaCallback
+ * anade meta (paciente, juego, discapacidad) como metaField; los campos planos se mantienen
+ * para que los pipelines existentes no cambien y se comprimen casi a cero dentro de cada bucket.
+ *
+ * Frio: con rehabiapp.sessions.archive.enabled, SessionArchiveJob mueve a
+ * game_sessions_archive (zstd, un solo indice) las sesiones con mas de after-days dias. La
+ * serie de ROM y las exportaciones leen ambos niveles cuando el rango empieza antes del
+ * corte; el resto de lecturas (refresco de 90 dias, cohortes) solo ven el nivel caliente.
+ */
+@Component
+public class SessionStorage {
+
+    public static final String HOT = "game_sessions";
+    public static final String ARCHIVE = "game_sessions_archive";
+    public static final String SESSION_IDS = "game_session_ids";
+
+    static final String PENDING = "pending";
+    static final String COMMITTED = "committed";
+
+    private static final Comparator<GameSession> BY_START =
+            Comparator.comparing(GameSession::getSessionStart, Comparator.nullsFirst(Comparator.naturalOrder()));
+    private static final Comparator<RawBsonDocument> RAW_BY_START = Comparator.comparingLong(
+            d -> d.isDateTime("sessionStart") ? d.getDateTime("sessionStart").getValue() : Long.MIN_VALUE);
+
+    private final MongoTemplate mongoTemplate;
+    private final SessionStorageMode mode;
+    private final boolean archiveEnabled;
+    private final int archiveAfterDays;
+    private final Duration claimStaleAfter;
+
+    public SessionStorage(MongoTemplate mongoTemplate,
+                          @Value("${rehabiapp.sessions.storage:standard}") SessionStorageMode mode,
+                          @Value("${rehabiapp.sessions.archive.enabled:false}") boolean archiveEnabled,
+                          @Value("${rehabiapp.sessions.archive.after-days:365}") int archiveAfterDays,
+                          @Value("${rehabiapp.sessions.claim-stale-seconds:300}") long claimStaleSeconds) {
+        this.mongoTemplate = mongoTemplate;
+        this.mode = mode;
+        this.archiveEnabled = archiveEnabled;
+        this.archiveAfterDays = archiveAfterDays;
+        this.claimStaleAfter = Duration.ofSeconds(claimStaleSeconds);
+    }
+
+    public SessionStorageMode mode() { return mode; }
+
+    public boolean isArchiveEnabled() { return archiveEnabled; }
+
+    /** Sesiones con sessionStart anterior a este instante son archivables. */
+    public Instant archiveCutoff(Instant now) {
+        return now.minus(archiveAfterDays, ChronoUnit.DAYS);
+    }
+
+    /** true si un rango que empieza en from puede tener sesiones ya archivadas. */
+    public boolean readsArchive(Instant from) {
+        return archiveEnabled && (from == null || from.isBefore(archiveCutoff(Instant.now())));
+    }
+
+    // --- Idempotencia en modo time-series ---
+
+    /**
+     * Resultado de {@link #claimAll}: posiciones ya reservadas por otro (duplicados) y
+     * posiciones que un intento anterior del mismo owner ya escribio sin llegar a confirmarlas.
+     */
+    public record Claims(Set<Integer> duplicates, Set<Integer> ownWrites) {
+        static final Claims NONE = new Claims(Set.of(), Set.of());
+    }
+
+    /** Reserva el sessionId de la sesion; DuplicateKeyException si ya estaba. No hace nada en STANDARD. */
+    public void claim(GameSession session, String owner) {
+        if (!claimAll(List.of(session), owner).duplicates().isEmpty()) {
+            throw new DuplicateKeyException("sessionId ya reservado: " + session.getSessionId());
+        }
+    }
+
+    /**
+     * Reserva los sessionId de un lote en una operacion desordenada. Una reserva pending del
+     * mismo owner o con claimedAt mas antiguo que claim-stale-seconds se retoma si la sesion no
+     * esta escrita; si lo esta y la reserva era del mismo owner es una escritura propia de un
+     * intento anterior. En STANDARD no reserva nada: decide el indice unico.
+     */
+    public Claims claimAll(List<GameSession> sessions, String owner) {
+        if (mode != SessionStorageMode.TIMESERIES || sessions.isEmpty()) return Claims.NONE;
+        Instant now = Instant.now();
+        List<Document> ids = new ArrayList<>(sessions.size());
+        for (GameSession g : sessions) {
+            ids.add(new Document("_id", g.getSessionId())
+                    .append("state", PENDING)
+                    .append("owner", owner)
+                    .append("claimedAt", now));
+        }
+        try {
+            mongoTemplate.bulkOps(BulkMode.UNORDERED, SESSION_IDS).insert(ids).execute();
+            return Claims.NONE;
+        } catch (BulkOperationException e) {
+            Set<Integer> duplicates = new HashSet<>();
+            Set<Integer> ownWrites = new HashSet<>();
+            for (BulkWriteError error : e.getErrors()) {
+                if (error.getCode() != GameSessionBulkWriter.DUPLICATE_KEY_CODE) throw e;
+                switch (retake(sessions.get(error.getIndex()), owner, now)) {
+                    case CLAIMED -> { }
+                    case OWN_WRITE -> ownWrites.add(error.getIndex());
+                    case DUPLICATE -> duplicates.add(error.getIndex());
+                }
+            }
+            return new Claims(duplicates, ownWrites);
+        }
+    }
+
+    private enum Retake { CLAIMED, OWN_WRITE, DUPLICATE }
+
+    /** Toma una reserva pending abandonada o propia; DUPLICATE si la reserva es ajena o su sesion ya existe. */
+    private Retake retake(GameSession g, String owner, Instant now) {
+        Query takeable = Query.query(Criteria.where("_id").is(g.getSessionId()).and("state").is(PENDING)
+                .orOperator(Criteria.where("owner").is(owner),
+                        Criteria.where("claimedAt").lt(now.minus(claimStaleAfter))));
+        Document previous = mongoTemplate.findAndModify(takeable,
+                new Update().set("owner", owner).set("claimedAt", now), Document.class, SESSION_IDS);
+        if (previous == null) return Retake.DUPLICATE;
+        if (written(g)) {
+            commit(List.of(g.getSessionId()));
+            return owner.equals(previous.getString("owner")) ? Retake.OWN_WRITE : Retake.DUPLICATE;
+        }
+        return Retake.CLAIMED;
+    }
+
+    /** true si la sesion ya esta en game_sessions (o en el archivo si su sessionStart lo alcanza). */
+    private boolean written(GameSession g) {
+        Query q = Query.query(Criteria.where("patientDni").is(g.getPatientDni())
+                .and("sessionStart").is(g.getSessionStart())
+                .and("sessionId").is(g.getSessionId()));
+        return mongoTemplate.exists(q, GameSession.class)
+                || (readsArchive(g.getSessionStart()) && mongoTemplate.exists(q, GameSession.class, ARCHIVE));
+    }
+
+    /** Marca como committed las reservas de sesiones ya insertadas. */
+    public void commit(Collection<String> sessionIds) {
+        if (mode != SessionStorageMode.TIMESERIES || sessionIds.isEmpty()) return;
+        mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(sessionIds)),
+                new Update().set("state", COMMITTED).unset("owner"), SESSION_IDS);
+    }
+
+    /** Libera reservas pending de owner cuya sesion seguro que no se inserto. */
+    public void release(Collection<String> sessionIds, String owner) {
+        if (mode != SessionStorageMode.TIMESERIES || sessionIds.isEmpty()) return;
+        mongoTemplate.remove(Query.query(Criteria.where("_id").in(sessionIds)
+                .and("state").is(PENDING).and("owner").is(owner)), SESSION_IDS);
+    }
+
+    /**
+     * true si el error garantiza que el documento no se escribio: un error de escritura
+     * devuelto por el servidor (MongoWriteException) o un fallo en cliente antes de enviar la
+     * peticion (sin MongoException en la cadena). Timeouts, red o write concern son ambiguos.
+     */
+    public static boolean notWritten(Throwable e) {
+        for (Throwable c = e; c != null; c = c.getCause()) {
+            if (c instanceof MongoWriteException) return true;
+            if (c instanceof MongoException) return false;
+        }
+        return true;
+    }
+
+    // --- Lecturas sobre ambos niveles ---
+
+    /**
+     * Sesiones de q (ordenada por sessionStart ascendente) desde game_sessions y, si el rango
+     * llega al archivo, desde game_sessions_archive, fusionadas sin reordenar en memoria.
+     */
+    public Stream<GameSession> stream(Query q, Instant from) {
+        Stream<GameSession> hot = mongoTemplate.stream(q, GameSession.class);
+        if (!readsArchive(from)) return hot;
+        Stream<GameSession> cold = mongoTemplate.stream(q, GameSession.class, ARCHIVE);
+        Iterator<GameSession> merged = new SortedMerge<>(cold.iterator(), hot.iterator(), BY_START,
+                (a, b) -> a.getSessionId() != null && a.getSessionId().equals(b.getSessionId()));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED), false)
+                .onClose(hot::close)
+                .onClose(cold::close);
+    }
+
+    /**
+     * Igual que {@link #stream} pero con cursores del driver sobre RawBsonDocument proyectados
+     * (la proyeccion debe incluir sessionStart y sessionId). Los cursores se cierran al volver.
+     */
+    public <R> R raw(Query q, Instant from, Document projection, Function<Iterator<RawBsonDocument>, R> body) {
+        boolean archive = readsArchive(from);
+        return mongoTemplate.execute(db -> {
+            try (MongoCursor<RawBsonDocument> hot = find(db, HOT, q, projection);
+                 MongoCursor<RawBsonDocument> cold = archive ? find(db, ARCHIVE, q, projection) : null) {
+                return body.apply(cold == null ? hot : new SortedMerge<>(cold, hot, RAW_BY_START,
+                        (a, b) -> Objects.equals(a.get("sessionId"), b.get("sessionId"))));
+            }
+        });
+    }
+
+    private static MongoCursor<RawBsonDocument> find(MongoDatabase db, String collection, Query q, Document projection) {
+        return db.getCollection(collection, RawBsonDocument.class)
+                .find(q.getQueryObject())
+                .projection(projection)
+                .sort(q.getSortObject())
+                .iterator();
+    }
+
+    /** Valores distintos de field en ambos niveles, ordenados y sin null. */
+    public List<String> distinct(Query q, String field, Instant from) {
+        Set<String> values = new TreeSet<>();
+        mongoTemplate.findDistinct(q, field, GameSession.class, String.class).forEach(v -> {
+            if (v != null) values.add(v);
+        });
+        if (readsArchive(from)) {
+            mongoTemplate.findDistinct(q, field, ARCHIVE, GameSession.class, String.class).forEach(v -> {
+                if (v != null) values.add(v);
+            });
+        }
+        return List.copyOf(values);
+    }
+
+    /** $unionWith del archivo con el mismo filtro, o null si el rango no lo alcanza. */
+    public AggregationOperation archiveUnion(Criteria match, Instant from) {
+        if (!readsArchive(from)) return null;
+        return UnionWithOperation.unionWith(ARCHIVE)
+                .pipeline(Aggregation.match(match));
+    }
+
+    /**
+     * Fusion de dos iteradores ordenados por el mismo comparador. Una sesion presente en
+     * ambos (copiada al archivo pero aun no borrada de game_sessions) se emite una vez.
+     */
+    static final class SortedMerge<T> implements Iterator<T> {
+        private final Iterator<T> a, b;
+        private final Comparator<T> order;
+        private final BiPredicate<T, T> same;
+        private T headA, headB;
+
+        SortedMerge(Iterator<T> a, Iterator<T> b, Comparator<T> order, BiPredicate<T, T> same) {
+            this.a = a;
+            this.b = b;
+            this.order = order;
+            this.same = same;
+            this.headA = a.hasNext() ? a.next() : null;
+            this.headB = b.hasNext() ? b.next() : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return headA != null || headB != null;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            T out;
+            if (headB == null || (headA != null && order.compare(headA, headB) <= 0)) {
+                out = headA;
+                headA = a.hasNext() ? a.next() : null;
+                if (headB != null && same.test(out, headB)) headB = b.hasNext() ? b.next() : null;
+            } else {
+                out = headB;
+                headB = b.hasNext() ? b.next() : null;
+            }
+            return out;
+        }
+    }
+}
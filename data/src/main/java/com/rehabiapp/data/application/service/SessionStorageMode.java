@@ -0,0 +1,16 @@
+package com.rehabiapp.data.application.service;
+
+/**
+ * Disposicion fisica de game_sessions. Configurable via rehabiapp.sessions.storage.
+ */
+public enum SessionStorageMode {
+
+    /** Coleccion normal con los indices declarados en GameSession (uk_session_id incluido). */
+    STANDARD,
+
+    /**
+     * Coleccion time-series (timeField sessionStart, metaField meta con paciente, juego y
+     * discapacidad) con tres indices secundarios. La idempotencia pasa a game_session_ids.
+     */
+    TIMESERIES
+}
@@ -0,0 +1,15 @@
+package com.rehabiapp.data.application.service.dto;
+
+import java.util.List;
+
+/**
+ * Resultado de un elemento de POST /ingest/game-sessions:batch.
+ * status: CREATED | DUPLICATE | INVALID. errors solo se rellena para INVALID.
+ */
+public record BatchIngestItemResult(
+        int index,
+        String sessionId,
+        String id,
+        String status,
+        List<String> errors
+) {}
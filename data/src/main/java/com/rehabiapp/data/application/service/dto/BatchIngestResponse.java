@@ -0,0 +1,11 @@
+package com.rehabiapp.data.application.service.dto;
+
+import java.util.List;
+
+public record BatchIngestResponse(
+        int received,
+        int created,
+        int duplicates,
+        int invalid,
+        List<BatchIngestItemResult> items
+) {}
@@ -0,0 +1,9 @@
+package com.rehabiapp.data.application.service.dto.chart;
+
+public record ChartDashboard(
+        String patientDni,
+        ChartPayload romProgress,
+        ChartPayload scoreByGame,
+        ChartPayload completionTrend,
+        ChartPayload levelComparison
+) {}
@@ -0,0 +1,70 @@
+package com.rehabiapp.data.application.sketch;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HyperLogLog con 2^12 registros (error estandar ~1,6 %) para contar valores distintos
+ * sin guardarlos. Dos sketches se fusionan con el maximo registro a registro, por lo que
+ * el estado puede mantenerse en MongoDB con $max sobre cada registro.
+ */
+public final class HyperLogLog {
+
+    public static final int PRECISION = 12;
+    public static final int REGISTERS = 1 << PRECISION;
+
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    public void add(String value) {
+        long h = hash(value);
+        update(index(h), rank(h));
+    }
+
+    /** Fusiona un registro (indice, rango) tomando el maximo. */
+    public void update(int index, int rank) {
+        if (rank > registers[index]) registers[index] = (byte) rank;
+    }
+
+    public int register(int index) { return registers[index]; }
+
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += Math.scalb(1.0, -r);
+            if (r == 0) zeros++;
+        }
+        double e = ALPHA * REGISTERS * REGISTERS / sum;
+        // Correccion de rango bajo (linear counting); con hash de 64 bits no hace falta la de rango alto.
+        if (e <= 2.5 * REGISTERS && zeros > 0) {
+            e = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return Math.round(e);
+    }
+
+    /** FNV-1a de 64 bits seguido del finalizador de MurmurHash3 para dispersar bien los bits altos. */
+    public static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Registro destino: los PRECISION bits altos del hash. */
+    public static int index(long hash) {
+        return (int) (hash >>> (64 - PRECISION));
+    }
+
+    /** Posicion del primer 1 en los bits restantes (1..64-PRECISION+1). */
+    public static int rank(long hash) {
+        return Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+    }
+}
@@ -0,0 +1,149 @@
+package com.rehabiapp.data.application.sketch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Sketch de cuantiles KLL: guarda O(k) valores en niveles de peso 2^h y, al llenarse un
+ * nivel, lo ordena y promociona uno de cada dos elementos al siguiente. El error de rango
+ * es del orden de 1,7/k (k=200: ~1 %) y dos sketches se fusionan concatenando niveles y
+ * compactando, por lo que pueden guardarse por mes y combinarse sobre cualquier rango.
+ *
+ * La compactacion usa una semilla fija: el mismo flujo de valores da siempre el mismo sketch.
+ */
+public final class KllSketch {
+
+    public static final int DEFAULT_K = 200;
+
+    private static final double DECAY = 2.0 / 3.0;
+    private static final int MIN_CAPACITY = 2;
+
+    private final int k;
+    private final List<double[]> items = new ArrayList<>();
+    private final List<Integer> sizes = new ArrayList<>();
+    private final SplittableRandom random = new SplittableRandom(0x6b6c6cL);
+    private long count;
+
+    public KllSketch() { this(DEFAULT_K); }
+
+    public KllSketch(int k) {
+        if (k < MIN_CAPACITY) throw new IllegalArgumentException("k must be >= " + MIN_CAPACITY);
+        this.k = k;
+        addLevel();
+    }
+
+    public int k() { return k; }
+
+    /** Numero de valores resumidos (no los retenidos). */
+    public long count() { return count; }
+
+    public boolean isEmpty() { return count == 0; }
+
+    public void update(double value) {
+        append(0, value);
+        count++;
+        if (retained() > totalCapacity()) compact();
+    }
+
+    /** Fusiona otro sketch en este; el otro no se modifica. */
+    public void merge(KllSketch other) {
+        for (int h = 0; h < other.items.size(); h++) {
+            double[] src = other.items.get(h);
+            for (int i = 0, n = other.sizes.get(h); i < n; i++) append(h, src[i]);
+        }
+        count += other.count;
+        while (retained() > totalCapacity()) compact();
+    }
+
+    /** Fraccion estimada de valores estrictamente menores que value (0 si esta vacio). */
+    public double rank(double value) {
+        long below = 0, weight = 0;
+        for (int h = 0; h < items.size(); h++) {
+            double[] level = items.get(h);
+            long w = 1L << h;
+            for (int i = 0, n = sizes.get(h); i < n; i++) {
+                if (level[i] < value) below += w;
+                weight += w;
+            }
+        }
+        return weight == 0 ? 0.0 : (double) below / weight;
+    }
+
+    /** Niveles retenidos, del de menor peso al de mayor, para persistir el sketch. */
+    public List<List<Double>> levels() {
+        List<List<Double>> out = new ArrayList<>(items.size());
+        for (int h = 0; h < items.size(); h++) {
+            double[] level = items.get(h);
+            List<Double> values = new ArrayList<>(sizes.get(h));
+            for (int i = 0, n = sizes.get(h); i < n; i++) values.add(level[i]);
+            out.add(values);
+        }
+        return out;
+    }
+
+    /** Reconstruye un sketch persistido con {@link #levels()} y {@link #count()}. */
+    public static KllSketch of(int k, List<List<Double>> levels, long count) {
+        KllSketch s = new KllSketch(k);
+        if (levels != null) {
+            for (int h = 0; h < levels.size(); h++) {
+                for (Double v : levels.get(h)) if (v != null) s.append(h, v);
+            }
+        }
+        s.count = count;
+        return s;
+    }
+
+    /** Compacta el nivel mas bajo que supera su capacidad. */
+    private void compact() {
+        int levelsNow = items.size();
+        for (int h = 0; h < levelsNow; h++) {
+            int size = sizes.get(h);
+            if (size < capacity(h, levelsNow)) continue;
+
+            if (h + 1 == items.size()) addLevel();
+            double[] level = items.get(h);
+            Arrays.sort(level, 0, size);
+            // Con tamano impar el menor valor se queda en el nivel para no perder peso.
+            int keep = size & 1;
+            for (int i = keep + random.nextInt(2); i < size; i += 2) append(h + 1, level[i]);
+            sizes.set(h, keep);
+            return;
+        }
+    }
+
+    private int capacity(int h, int levelsNow) {
+        int depth = levelsNow - h - 1;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(DECAY, depth)));
+    }
+
+    private int totalCapacity() {
+        int total = 0;
+        for (int h = 0, n = items.size(); h < n; h++) total += capacity(h, n);
+        return total;
+    }
+
+    private int retained() {
+        int total = 0;
+        for (int s : sizes) total += s;
+        return total;
+    }
+
+    private void append(int h, double value) {
+        while (h >= items.size()) addLevel();
+        double[] level = items.get(h);
+        int size = sizes.get(h);
+        if (size == level.length) {
+            level = Arrays.copyOf(level, Math.max(8, level.length * 2));
+            items.set(h, level);
+        }
+        level[size] = value;
+        sizes.set(h, size + 1);
+    }
+
+    private void addLevel() {
+        items.add(new double[8]);
+        sizes.add(0);
+    }
+}
@@ -0,0 +1,42 @@
+package com.rehabiapp.data.domain.model;
+
+import java.time.Instant;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Estado persistido del job de refresco de analiticas.
+ * Coleccion: analytics_refresh_state. Un documento por tarea (id = nombre de la tarea).
+ */
+@Document(collection = "analytics_refresh_state")
+public class AnalyticsRefreshState {
+
+    /** Id del documento de patient_progress. */
+    public static final String PATIENT_PROGRESS = "patient_progress";
+
+    /** Id del documento de la siembra de level_statistics_acc (modo incremental). */
+    public static final String LEVEL_STATISTICS = "level_statistics";
+
+    /** Id del documento que hace de lease de SessionArchiveJob entre replicas. */
+    public static final String SESSION_ARCHIVE = "session_archive";
+
+    @Id
+    private String id;
+
+    /** Sesiones con receivedAt <= watermark ya estan reflejadas en la coleccion de la tarea. */
+    private Instant watermark;
+
+    private Instant lastRunAt;
+    private String lastMode;
+
+    public AnalyticsRefreshState() {}
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    public Instant getWatermark() { return watermark; }
+    public void setWatermark(Instant v) { this.watermark = v; }
+    public Instant getLastRunAt() { return lastRunAt; }
+    public void setLastRunAt(Instant v) { this.lastRunAt = v; }
+    public String getLastMode() { return lastMode; }
+    public void setLastMode(String v) { this.lastMode = v; }
+}
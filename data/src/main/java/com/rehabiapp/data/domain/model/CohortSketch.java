@@ -0,0 +1,90 @@
+package com.rehabiapp.data.domain.model;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Resumen mensual de una cohorte (discapacidad, nivel, mes UTC de sessionStart) para el modo
+ * aproximado de /analytics/cohort-compare. Coleccion: cohort_sketches.
+ *
+ * Cada fila de entrada es la media de un paciente en el mes. Se guardan sumas de esas medias,
+ * registros HyperLogLog de los DNI y un sketch KLL por metrica (niveles de
+ * {@link com.rehabiapp.data.application.sketch.KllSketch}); todo ello se fusiona entre meses.
+ */
+@Document(collection = "cohort_sketches")
+@CompoundIndexes({
+    @CompoundIndex(
+        name = "uk_sketch_disability_level_month",
+        def = "{'disabilityCode': 1, 'progressionLevel': 1, 'month': 1}",
+        unique = true
+    )
+})
+public class CohortSketch {
+
+    @Id
+    private String id;
+
+    private String disabilityCode;
+    private Integer progressionLevel;
+
+    /** Mes UTC "YYYY-MM"; el orden lexicografico coincide con el cronologico. */
+    private String month;
+
+    /** Filas paciente-mes resumidas. */
+    private long patientMonths;
+    private long totalSessions;
+    private double scoreSum;
+    private double durationSum;
+    private double completionSum;
+    private double romSum;
+
+    /** Registros HyperLogLog no nulos de los DNI del mes, indice -> rango. */
+    private Map<String, Integer> hll;
+
+    private int k;
+    private List<List<Double>> scoreSketch;
+    private List<List<Double>> completionSketch;
+    private List<List<Double>> romSketch;
+
+    private Instant builtAt;
+
+    public CohortSketch() {}
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    public String getDisabilityCode() { return disabilityCode; }
+    public void setDisabilityCode(String v) { this.disabilityCode = v; }
+    public Integer getProgressionLevel() { return progressionLevel; }
+    public void setProgressionLevel(Integer v) { this.progressionLevel = v; }
+    public String getMonth() { return month; }
+    public void setMonth(String v) { this.month = v; }
+    public long getPatientMonths() { return patientMonths; }
+    public void setPatientMonths(long v) { this.patientMonths = v; }
+    public long getTotalSessions() { return totalSessions; }
+    public void setTotalSessions(long v) { this.totalSessions = v; }
+    public double getScoreSum() { return scoreSum; }
+    public void setScoreSum(double v) { this.scoreSum = v; }
+    public double getDurationSum() { return durationSum; }
+    public void setDurationSum(double v) { this.durationSum = v; }
+    public double getCompletionSum() { return completionSum; }
+    public void setCompletionSum(double v) { this.completionSum = v; }
+    public double getRomSum() { return romSum; }
+    public void setRomSum(double v) { this.romSum = v; }
+    public Map<String, Integer> getHll() { return hll; }
+    public void setHll(Map<String, Integer> v) { this.hll = v; }
+    public int getK() { return k; }
+    public void setK(int v) { this.k = v; }
+    public List<List<Double>> getScoreSketch() { return scoreSketch; }
+    public void setScoreSketch(List<List<Double>> v) { this.scoreSketch = v; }
+    public List<List<Double>> getCompletionSketch() { return completionSketch; }
+    public void setCompletionSketch(List<List<Double>> v) { this.completionSketch = v; }
+    public List<List<Double>> getRomSketch() { return romSketch; }
+    public void setRomSketch(List<List<Double>> v) { this.romSketch = v; }
+    public Instant getBuiltAt() { return builtAt; }
+    public void setBuiltAt(Instant v) { this.builtAt = v; }
+}
@@ -15,6 +15,7 @@ import org.springframework.data.mongodb.core.mapping.Document;
  *  - sessionId unico (idempotencia de ingesta).
  *  - patientDni + sessionStart (consultas por paciente ordenadas en el tiempo).
  *  - gameId + progressionLevel (agregaciones por juego/nivel).
+ *  - receivedAt (deteccion de sesiones nuevas en el refresco incremental).
  */
 @Document(collection = "game_sessions")
 @CompoundIndexes({
@@ -40,10 +41,10 @@ public class GameSession {
     @Indexed(unique = true, name = "uk_session_id")
     private String sessionId;
 
-    @Indexed(name = "idx_patient_dni")
+    /** Sin indice propio: es prefijo de idx_patient_sessionstart. */
     private String patientDni;
 
-    @Indexed(name = "idx_game_id")
+    /** Sin indice propio: es prefijo de idx_game_level. */
     private String gameId;
 
     @Indexed(name = "idx_progression_level")
@@ -62,7 +63,8 @@ public class GameSession {
     @Indexed(name = "idx_disability_code")
     private String disabilityCode;
 
-    /** Timestamp de llegada al servicio. Lo fija el servidor, NO el cliente. */
+    /** Timestamp de llegada al servicio. Lo fija el servidor, NO el cliente. Marca de agua del refresco incremental. */
+    @Indexed(name = "idx_received_at")
     private Instant receivedAt;
 
     public GameSession() { }
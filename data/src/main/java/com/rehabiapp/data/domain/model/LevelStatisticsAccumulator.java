@@ -0,0 +1,70 @@
+package com.rehabiapp.data.domain.model;
+
+import java.time.Instant;
+import java.util.Map;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Estado fusionable de level_statistics por nivel de progresion.
+ * Coleccion: level_statistics_acc. Se actualiza en la ingesta con $inc/$max/$min y el job
+ * de refresco deriva las medias y el numero de pacientes sin recorrer game_sessions.
+ *
+ * Los contadores *Count acompanan a cada suma porque los campos pueden faltar en sesiones
+ * antiguas, igual que $avg ignora los nulos en LevelStatisticsPipeline.
+ */
+@Document(collection = "level_statistics_acc")
+public class LevelStatisticsAccumulator {
+
+    @Id
+    private String id;
+
+    @Indexed(unique = true, name = "uk_acc_progression_level")
+    private Integer progressionLevel;
+
+    private long sessions;
+    private long scoreSum;
+    private long scoreCount;
+    private long durationSum;
+    private long durationCount;
+    private long completedCount;
+    private double romSum;
+    private long romCount;
+
+    /** Registros no nulos del HyperLogLog de patientDni: indice (como texto) -> rango. */
+    private Map<String, Integer> hll;
+
+    /** Desde aqui acumula la ingesta; lo anterior lo cubre la siembra, que lo fija antes de agregar. */
+    private Instant trackingSince;
+    private Instant lastUpdated;
+
+    public LevelStatisticsAccumulator() {}
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    public Integer getProgressionLevel() { return progressionLevel; }
+    public void setProgressionLevel(Integer v) { this.progressionLevel = v; }
+    public long getSessions() { return sessions; }
+    public void setSessions(long v) { this.sessions = v; }
+    public long getScoreSum() { return scoreSum; }
+    public void setScoreSum(long v) { this.scoreSum = v; }
+    public long getScoreCount() { return scoreCount; }
+    public void setScoreCount(long v) { this.scoreCount = v; }
+    public long getDurationSum() { return durationSum; }
+    public void setDurationSum(long v) { this.durationSum = v; }
+    public long getDurationCount() { return durationCount; }
+    public void setDurationCount(long v) { this.durationCount = v; }
+    public long getCompletedCount() { return completedCount; }
+    public void setCompletedCount(long v) { this.completedCount = v; }
+    public double getRomSum() { return romSum; }
+    public void setRomSum(double v) { this.romSum = v; }
+    public long getRomCount() { return romCount; }
+    public void setRomCount(long v) { this.romCount = v; }
+    public Map<String, Integer> getHll() { return hll; }
+    public void setHll(Map<String, Integer> v) { this.hll = v; }
+    public Instant getTrackingSince() { return trackingSince; }
+    public void setTrackingSince(Instant v) { this.trackingSince = v; }
+    public Instant getLastUpdated() { return lastUpdated; }
+    public void setLastUpdated(Instant v) { this.lastUpdated = v; }
+}
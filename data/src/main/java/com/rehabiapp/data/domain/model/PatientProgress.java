@@ -26,7 +26,7 @@ public class PatientProgress {
     @Id
     private String id;
 
-    @Indexed(name = "idx_pp_patient_dni")
+    /** Sin indice propio: es prefijo de uk_patient_game_period. */
     private String patientDni;
 
     private String gameId;
@@ -44,6 +44,9 @@ public class PatientProgress {
     private Double averageDuration;
     private Double completionRate;
     private List<Double> rangeOfMotionTrend;
+
+    /** Alternativa acotada a rangeOfMotionTrend; solo una de las dos esta presente. */
+    private RomSummary romSummary;
     private Instant lastUpdated;
 
     public PatientProgress() { }
@@ -70,6 +73,8 @@ public class PatientProgress {
     public void setCompletionRate(Double completionRate) { this.completionRate = completionRate; }
     public List<Double> getRangeOfMotionTrend() { return rangeOfMotionTrend; }
     public void setRangeOfMotionTrend(List<Double> rangeOfMotionTrend) { this.rangeOfMotionTrend = rangeOfMotionTrend; }
+    public RomSummary getRomSummary() { return romSummary; }
+    public void setRomSummary(RomSummary romSummary) { this.romSummary = romSummary; }
     public Instant getLastUpdated() { return lastUpdated; }
     public void setLastUpdated(Instant lastUpdated) { this.lastUpdated = lastUpdated; }
 }
@@ -0,0 +1,69 @@
+package com.rehabiapp.data.domain.model;
+
+import java.time.Instant;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Rollup diario de rangeOfMotionDegrees por paciente y juego (dia UTC de sessionStart).
+ * Coleccion: rom_daily_rollups. Mantenido en la ingesta con $inc/$min/$max cuando
+ * rehabiapp.analytics.rom-rollups.enabled = true; las series semanales y mensuales se
+ * componen a partir de estos documentos.
+ *
+ * sessions cuenta todas las sesiones (sampleSize de la serie); romCount solo las que traen ROM.
+ */
+@Document(collection = "rom_daily_rollups")
+@CompoundIndexes({
+    @CompoundIndex(
+        name = "uk_rollup_patient_game_day",
+        def = "{'patientDni': 1, 'gameId': 1, 'day': 1}",
+        unique = true
+    ),
+    @CompoundIndex(
+        name = "idx_rollup_patient_day",
+        def = "{'patientDni': 1, 'day': 1}"
+    )
+})
+public class RomDailyRollup {
+
+    @Id
+    private String id;
+
+    private String patientDni;
+    private String gameId;
+
+    /** Dia UTC "YYYY-MM-DD"; el orden lexicografico coincide con el cronologico. */
+    private String day;
+
+    private long sessions;
+    private long romCount;
+    private double romSum;
+    private Double romMin;
+    private Double romMax;
+    private Instant lastUpdated;
+
+    public RomDailyRollup() {}
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    public String getPatientDni() { return patientDni; }
+    public void setPatientDni(String v) { this.patientDni = v; }
+    public String getGameId() { return gameId; }
+    public void setGameId(String v) { this.gameId = v; }
+    public String getDay() { return day; }
+    public void setDay(String v) { this.day = v; }
+    public long getSessions() { return sessions; }
+    public void setSessions(long v) { this.sessions = v; }
+    public long getRomCount() { return romCount; }
+    public void setRomCount(long v) { this.romCount = v; }
+    public double getRomSum() { return romSum; }
+    public void setRomSum(double v) { this.romSum = v; }
+    public Double getRomMin() { return romMin; }
+    public void setRomMin(Double v) { this.romMin = v; }
+    public Double getRomMax() { return romMax; }
+    public void setRomMax(Double v) { this.romMax = v; }
+    public Instant getLastUpdated() { return lastUpdated; }
+    public void setLastUpdated(Instant v) { this.lastUpdated = v; }
+}
@@ -0,0 +1,20 @@
+package com.rehabiapp.data.domain.model;
+
+import java.util.List;
+
+/**
+ * Resumen de tamano fijo de las muestras de rangeOfMotionDegrees de un cubo de patient_progress.
+ * Sustituye a rangeOfMotionTrend cuando rehabiapp.analytics.rom-representation=summary.
+ *
+ * series: medias de tramos consecutivos de las muestras en orden cronologico, como mucho
+ * rehabiapp.analytics.rom-summary.points valores; si hay menos muestras son las propias muestras.
+ * variance es poblacional. Embebido en PatientProgress. Inmutable por ser record.
+ */
+public record RomSummary(
+        Integer count,
+        Double min,
+        Double max,
+        Double mean,
+        Double variance,
+        List<Double> series
+) {}
@@ -0,0 +1,60 @@
+package com.rehabiapp.data.domain.model;
+
+import java.time.Instant;
+import java.util.List;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Aggregation de application.pipeline que supero rehabiapp.analytics.slow-query.threshold-ms,
+ * con el plan que eligio MongoDB (explain queryPlanner). Coleccion: slow_query_log, con
+ * caducidad de 30 dias.
+ *
+ * Solo se guarda la forma del plan (etapas de acceso e indices), nunca los valores del filtro:
+ * los limites de los indices contienen DNI de pacientes.
+ */
+@Document(collection = "slow_query_log")
+public class SlowQueryLog {
+
+    @Id
+    private String id;
+
+    /** Nombre de la aggregation (tag pipeline de rehabiapp.analytics.pipeline). */
+    private String pipeline;
+    private String collection;
+    private long durationMs;
+    private long thresholdMs;
+    private int rows;
+
+    /** Etapas de acceso del plan ganador, p. ej. "IXSCAN idx_patient_session_start" o "COLLSCAN". */
+    private List<String> planSummary;
+    private boolean collectionScan;
+    private int rejectedPlans;
+
+    @Indexed(name = "ttl_occurred_at", expireAfter = "30d")
+    private Instant occurredAt;
+
+    public SlowQueryLog() {}
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    public String getPipeline() { return pipeline; }
+    public void setPipeline(String v) { this.pipeline = v; }
+    public String getCollection() { return collection; }
+    public void setCollection(String v) { this.collection = v; }
+    public long getDurationMs() { return durationMs; }
+    public void setDurationMs(long v) { this.durationMs = v; }
+    public long getThresholdMs() { return thresholdMs; }
+    public void setThresholdMs(long v) { this.thresholdMs = v; }
+    public int getRows() { return rows; }
+    public void setRows(int v) { this.rows = v; }
+    public List<String> getPlanSummary() { return planSummary; }
+    public void setPlanSummary(List<String> v) { this.planSummary = v; }
+    public boolean isCollectionScan() { return collectionScan; }
+    public void setCollectionScan(boolean v) { this.collectionScan = v; }
+    public int getRejectedPlans() { return rejectedPlans; }
+    public void setRejectedPlans(int v) { this.rejectedPlans = v; }
+    public Instant getOccurredAt() { return occurredAt; }
+    public void setOccurredAt(Instant v) { this.occurredAt = v; }
+}
@@ -0,0 +1,7 @@
+package com.rehabiapp.data.domain.repository;
+
+import com.rehabiapp.data.domain.model.AnalyticsRefreshState;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface AnalyticsRefreshStateRepository extends MongoRepository<AnalyticsRefreshState, String> {
+}
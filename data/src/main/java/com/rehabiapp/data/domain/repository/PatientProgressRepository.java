@@ -13,4 +13,10 @@ public interface PatientProgressRepository extends MongoRepository<PatientProgre
     List<PatientProgress> findByPatientDniOrderByPeriodAsc(String patientDni);
 
     List<PatientProgress> findByPatientDni(String patientDni);
+
+    /**
+     * Filas de un paciente excepto las de gameId dado, por periodo ascendente, proyectadas
+     * a type (ver PatientProgressViews). Con gameId "*" devuelve solo las filas semanales.
+     */
+    <T> List<T> findByPatientDniAndGameIdNotOrderByPeriodAsc(String patientDni, String gameId, Class<T> type);
 }
@@ -0,0 +1,34 @@
+package com.rehabiapp.data.domain.repository;
+
+import com.rehabiapp.data.domain.model.RomSummary;
+
+/**
+ * Proyecciones cerradas de patient_progress para las graficas: Spring Data solo pide a MongoDB
+ * los campos de los getters, de modo que rangeOfMotionTrend y el resto del documento no se
+ * transfieren ni se decodifican.
+ */
+public final class PatientProgressViews {
+
+    private PatientProgressViews() {}
+
+    /** score-by-game. */
+    public interface GameScore {
+        String getGameId();
+        Double getAverageScore();
+    }
+
+    /** completion-trend. */
+    public interface Completion {
+        String getPeriod();
+        Double getCompletionRate();
+    }
+
+    /** rom-progress con rehabiapp.analytics.rom-representation=summary. */
+    public interface WeeklyRom {
+        String getPeriod();
+        RomSummary getRomSummary();
+    }
+
+    /** Panel del paciente: union de las anteriores en una sola lectura. */
+    public interface Dashboard extends GameScore, Completion, WeeklyRom {}
+}
@@ -0,0 +1,107 @@
+package com.rehabiapp.data.infrastructure.config;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.bson.Document;
+
+/**
+ * Analisis de los indices existentes de una coleccion (listIndexes + $indexStats).
+ *
+ * Redundante: sus claves son prefijo de las de otro indice de la misma coleccion (con las
+ * mismas direcciones o todas invertidas), el otro indice cubre todos los documentos y el
+ * propio no aporta nada mas (ni unique, sparse, parcial, TTL, collation ni tipo especial).
+ * Sin uso: cero accesos desde que el servidor empezo a contar, si eso fue hace al menos
+ * minUnusedAge. _id y los indices unicos nunca se consideran sin uso.
+ */
+final class MongoIndexAdvisor {
+
+    record Finding(String collection, String index, Kind kind, String detail, boolean declared) {}
+
+    enum Kind { REDUNDANT, UNUSED }
+
+    record Access(long ops, Instant since) {}
+
+    /** Opciones que hacen que un indice no sea sustituible por otro con mas claves. */
+    private static final Set<String> SPECIAL_OPTIONS =
+            Set.of("unique", "sparse", "partialFilterExpression", "expireAfterSeconds", "collation", "hidden");
+
+    private MongoIndexAdvisor() { }
+
+    /**
+     * @param indexes  documentos de listIndexes (name, key y opciones)
+     * @param accesses accesos por nombre de indice y desde cuando ($indexStats), vacio si no hay
+     * @param declared nombres declarados por la aplicacion en esta coleccion
+     */
+    static List<Finding> analyze(String collection, List<Document> indexes, Map<String, Access> accesses,
+                                 Set<String> declared, Duration minUnusedAge, Instant now) {
+        List<Finding> findings = new ArrayList<>();
+        for (Document a : indexes) {
+            String name = a.getString("name");
+            if ("_id_".equals(name)) continue;
+            Document key = a.get("key", Document.class);
+
+            if (plain(a)) {
+                for (Document b : indexes) {
+                    if (b == a || !coversAll(b)) continue;
+                    if (isPrefix(key, b.get("key", Document.class))) {
+                        findings.add(new Finding(collection, name, Kind.REDUNDANT,
+                                "prefijo de " + b.getString("name"), declared.contains(name)));
+                        break;
+                    }
+                }
+            }
+
+            Access access = accesses.get(name);
+            if (access != null && access.ops() == 0 && !Boolean.TRUE.equals(a.getBoolean("unique"))
+                    && !access.since().isAfter(now.minus(minUnusedAge))) {
+                findings.add(new Finding(collection, name, Kind.UNUSED,
+                        "0 accesos desde " + access.since(), declared.contains(name)));
+            }
+        }
+        return findings;
+    }
+
+    /** a es prefijo estricto de b, con las mismas direcciones o todas invertidas. */
+    static boolean isPrefix(Document a, Document b) {
+        if (a.size() >= b.size()) return false;
+        List<Map.Entry<String, Object>> ea = new ArrayList<>(a.entrySet());
+        List<Map.Entry<String, Object>> eb = new ArrayList<>(b.entrySet());
+        boolean same = true, inverted = true;
+        for (int i = 0; i < ea.size(); i++) {
+            if (!ea.get(i).getKey().equals(eb.get(i).getKey())) return false;
+            Integer da = direction(ea.get(i).getValue());
+            Integer db = direction(eb.get(i).getValue());
+            if (da == null || db == null) return false;
+            same &= da.equals(db);
+            inverted &= da.equals(-db);
+        }
+        return same || inverted;
+    }
+
+    /** Indice btree ordinario, sin opciones que lo distingan de uno mas largo. */
+    private static boolean plain(Document index) {
+        for (String option : SPECIAL_OPTIONS) {
+            Object v = index.get(option);
+            if (v != null && !Boolean.FALSE.equals(v)) return false;
+        }
+        return index.get("key", Document.class).values().stream().allMatch(v -> direction(v) != null);
+    }
+
+    /** Indice utilizable que contiene todos los documentos: ni sparse, ni parcial, ni oculto. */
+    private static boolean coversAll(Document index) {
+        return !Boolean.TRUE.equals(index.getBoolean("sparse"))
+                && !Boolean.TRUE.equals(index.getBoolean("hidden"))
+                && index.get("partialFilterExpression") == null;
+    }
+
+    /** 1 o -1 para claves ascendentes/descendentes; null para text, hashed, 2dsphere... */
+    private static Integer direction(Object v) {
+        if (!(v instanceof Number n)) return null;
+        double d = n.doubleValue();
+        return d > 0 ? 1 : d < 0 ? -1 : null;
+    }
+}
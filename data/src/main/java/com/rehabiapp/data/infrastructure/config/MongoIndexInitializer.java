@@ -1,23 +1,62 @@
 package com.rehabiapp.data.infrastructure.config;
 
+import com.mongodb.MongoServerException;
+import com.mongodb.client.model.CreateCollectionOptions;
+import com.rehabiapp.data.application.service.SessionStorage;
+import com.rehabiapp.data.application.service.SessionStorageMode;
+import com.rehabiapp.data.domain.model.CohortSketch;
 import com.rehabiapp.data.domain.model.GameSession;
 import com.rehabiapp.data.domain.model.LevelStatistics;
+import com.rehabiapp.data.domain.model.LevelStatisticsAccumulator;
 import com.rehabiapp.data.domain.model.PatientProgress;
+import com.rehabiapp.data.domain.model.RomDailyRollup;
+import com.rehabiapp.data.domain.model.SlowQueryLog;
+import com.rehabiapp.data.infrastructure.config.MongoIndexAdvisor.Access;
+import com.rehabiapp.data.infrastructure.config.MongoIndexAdvisor.Finding;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.CollectionOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
 import org.springframework.data.mongodb.core.index.IndexOperations;
 import org.springframework.data.mongodb.core.index.IndexResolver;
 import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.timeseries.Granularity;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
 /**
  * Crea todos los indices declarados por anotacion al arrancar la aplicacion.
  * Necesario cuando spring.data.mongodb.auto-index-creation = false (perfil aws).
+ * Con rehabiapp.sessions.storage = timeseries crea game_sessions como time-series con sus
+ * propios indices, y con el archivo activo crea game_sessions_archive comprimida con zstd.
  * Excluido en perfil "test" para evitar conexion a MongoDB en tests unitarios.
+ *
+ * Las colecciones especiales se crean al recibir ApplicationReadyEvent (una insercion previa
+ * crearia una coleccion normal); la construccion de indices y la revision con
+ * MongoIndexAdvisor van en un hilo propio para no retrasar la readiness. La revision informa
+ * de indices redundantes y sin uso y, con rehabiapp.mongo.indexes.drop-redundant, borra los
+ * redundantes que la aplicacion ya no declara. Los indices sin uso solo se informan.
  */
 @Component
 @Profile("!test")
@@ -25,25 +64,200 @@ public class MongoIndexInitializer {
 
     private static final Logger log = LoggerFactory.getLogger(MongoIndexInitializer.class);
 
+    /** Codigo de error de MongoDB IndexNotFound. */
+    static final int INDEX_NOT_FOUND_CODE = 27;
+
+    private static final List<Class<?>> ENTITIES = List.of(
+            PatientProgress.class, LevelStatistics.class, LevelStatisticsAccumulator.class,
+            RomDailyRollup.class, CohortSketch.class, SlowQueryLog.class);
+
     private final MongoTemplate mongoTemplate;
+    private final SessionStorage storage;
+    private final boolean dropRedundant;
+    private final Duration unusedAfter;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("mongo-index-init").daemon(true).factory());
 
-    public MongoIndexInitializer(MongoTemplate mongoTemplate) {
+    public MongoIndexInitializer(MongoTemplate mongoTemplate,
+                                 SessionStorage storage,
+                                 @Value("${rehabiapp.mongo.indexes.drop-redundant:false}") boolean dropRedundant,
+                                 @Value("${rehabiapp.mongo.indexes.unused-after-hours:168}") long unusedAfterHours) {
         this.mongoTemplate = mongoTemplate;
+        this.storage = storage;
+        this.dropRedundant = dropRedundant;
+        this.unusedAfter = Duration.ofHours(unusedAfterHours);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
     }
 
     @EventListener(ApplicationReadyEvent.class)
     public void createIndexes() {
-        ensureIndexes(GameSession.class);
-        ensureIndexes(PatientProgress.class);
-        ensureIndexes(LevelStatistics.class);
+        if (storage.mode() == SessionStorageMode.TIMESERIES) createTimeSeriesSessions();
+        if (storage.isArchiveEnabled()) createArchive();
+        executor.submit(this::buildAndReview);
+    }
+
+    private void buildAndReview() {
+        long t0 = System.currentTimeMillis();
+        try {
+            Map<String, Set<String>> declared = new LinkedHashMap<>();
+            if (storage.mode() == SessionStorageMode.TIMESERIES) {
+                declared.put(SessionStorage.HOT, ensureTimeSeriesIndexes());
+            } else {
+                declared.put(SessionStorage.HOT, ensureIndexes(GameSession.class));
+            }
+            if (storage.isArchiveEnabled()) declared.put(SessionStorage.ARCHIVE, ensureArchiveIndexes());
+            for (Class<?> entity : ENTITIES) {
+                declared.put(mongoTemplate.getCollectionName(entity), ensureIndexes(entity));
+            }
+            review(declared);
+            log.info("Indices asegurados y revisados en {} ms", System.currentTimeMillis() - t0);
+        } catch (RuntimeException e) {
+            log.error("Fallo asegurando o revisando los indices de MongoDB", e);
+        }
+    }
+
+    /**
+     * game_sessions time-series: buckets por meta (paciente, juego, discapacidad).
+     * Una coleccion normal existente no se convierte: hay que migrarla antes.
+     */
+    private void createTimeSeriesSessions() {
+        if (!mongoTemplate.collectionExists(SessionStorage.HOT)) {
+            createIfAbsent(SessionStorage.HOT, () -> mongoTemplate.createCollection(SessionStorage.HOT,
+                    CollectionOptions.timeSeries("sessionStart",
+                            ts -> ts.metaField("meta").granularity(Granularity.HOURS))));
+            log.info("Coleccion time-series creada coleccion={}", SessionStorage.HOT);
+        } else if (!"timeseries".equals(collectionType(SessionStorage.HOT))) {
+            log.warn("game_sessions existe como coleccion normal: el modo timeseries requiere migrarla");
+        }
+    }
+
+    /** Solo los indices que usan las lecturas por paciente, el pre-check y el refresco incremental. */
+    private Set<String> ensureTimeSeriesIndexes() {
+        return ensure(SessionStorage.HOT, List.of(
+                new Index().on("patientDni", Direction.ASC).on("sessionStart", Direction.DESC)
+                        .named("idx_patient_sessionstart"),
+                new Index().on("sessionId", Direction.ASC).named("idx_session_id"),
+                new Index().on("receivedAt", Direction.ASC).named("idx_received_at")));
+    }
+
+    /** Nivel frio: bloques zstd. */
+    private void createArchive() {
+        if (mongoTemplate.collectionExists(SessionStorage.ARCHIVE)) return;
+        CreateCollectionOptions options = new CreateCollectionOptions().storageEngineOptions(
+                new Document("wiredTiger", new Document("configString", "block_compressor=zstd")));
+        createIfAbsent(SessionStorage.ARCHIVE, () -> mongoTemplate.execute(db -> {
+            db.createCollection(SessionStorage.ARCHIVE, options);
+            return null;
+        }));
+        log.info("Coleccion de archivo creada coleccion={}", SessionStorage.ARCHIVE);
+    }
+
+    /** Un unico indice para las lecturas por paciente y rango. */
+    private Set<String> ensureArchiveIndexes() {
+        return ensure(SessionStorage.ARCHIVE, List.of(new Index()
+                .on("patientDni", Direction.ASC).on("sessionStart", Direction.ASC)
+                .named("idx_patient_sessionstart")));
     }
 
-    private void ensureIndexes(Class<?> entity) {
+    /** Otra instancia puede crear la coleccion a la vez; solo falla si sigue sin existir. */
+    private void createIfAbsent(String collection, Runnable create) {
+        try {
+            create.run();
+        } catch (DataAccessException e) {
+            if (!mongoTemplate.collectionExists(collection)) throw e;
+        }
+    }
+
+    private String collectionType(String collection) {
+        Document info = mongoTemplate.execute(db ->
+                db.listCollections().filter(new Document("name", collection)).first());
+        return info != null ? info.getString("type") : null;
+    }
+
+    private Set<String> ensureIndexes(Class<?> entity) {
         IndexResolver resolver = new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext());
-        IndexOperations ops = mongoTemplate.indexOps(entity);
-        resolver.resolveIndexFor(entity).forEach(index -> {
-            ops.ensureIndex(index);
-            log.info("Indice asegurado coleccion={} indice={}", entity.getSimpleName(), index);
+        List<IndexDefinition> indexes = new ArrayList<>();
+        resolver.resolveIndexFor(entity).forEach(indexes::add);
+        return ensure(mongoTemplate.getCollectionName(entity), indexes);
+    }
+
+    /** Asegura los indices y devuelve sus nombres (mas _id_). */
+    private Set<String> ensure(String collection, List<? extends IndexDefinition> indexes) {
+        IndexOperations ops = mongoTemplate.indexOps(collection);
+        Set<String> names = new LinkedHashSet<>();
+        names.add("_id_");
+        for (IndexDefinition index : indexes) {
+            names.add(ops.ensureIndex(index));
+            log.info("Indice asegurado coleccion={} indice={}", collection, index);
+        }
+        return names;
+    }
+
+    private void review(Map<String, Set<String>> declared) {
+        Instant now = Instant.now();
+        declared.forEach((collection, names) -> {
+            List<Document> indexes = mongoTemplate.execute(collection,
+                    c -> c.listIndexes().into(new ArrayList<>()));
+            for (Finding f : MongoIndexAdvisor.analyze(collection, indexes, indexStats(collection),
+                    names, unusedAfter, now)) {
+                report(f);
+            }
         });
     }
+
+    private void report(Finding f) {
+        if (f.kind() == MongoIndexAdvisor.Kind.UNUSED) {
+            log.warn("Indice sin uso coleccion={} indice={} ({})", f.collection(), f.index(), f.detail());
+        } else if (f.declared()) {
+            log.warn("Indice redundante declarado por la aplicacion coleccion={} indice={} ({}): revisar la entidad",
+                    f.collection(), f.index(), f.detail());
+        } else if (dropRedundant) {
+            try {
+                mongoTemplate.indexOps(f.collection()).dropIndex(f.index());
+                log.warn("Indice redundante borrado coleccion={} indice={} ({})", f.collection(), f.index(), f.detail());
+            } catch (DataAccessException e) {
+                // Todas las replicas revisan al arrancar: otra puede haberlo borrado entre listIndexes y el drop.
+                if (!indexNotFound(e)) throw e;
+                log.info("Indice redundante ya borrado coleccion={} indice={}", f.collection(), f.index());
+            }
+        } else {
+            log.warn("Indice redundante coleccion={} indice={} ({}); se borra con rehabiapp.mongo.indexes.drop-redundant",
+                    f.collection(), f.index(), f.detail());
+        }
+    }
+
+    static boolean indexNotFound(Throwable e) {
+        for (Throwable c = e; c != null; c = c.getCause()) {
+            if (c instanceof MongoServerException m && m.getCode() == INDEX_NOT_FOUND_CODE) return true;
+        }
+        return false;
+    }
+
+    /** Accesos por indice segun $indexStats; vacio si el servidor no lo soporta. */
+    private Map<String, Access> indexStats(String collection) {
+        Map<String, Access> out = new HashMap<>();
+        try {
+            List<Document> stats = mongoTemplate.execute(collection, c -> c.aggregate(
+                    List.of(new Document("$indexStats", new Document()))).into(new ArrayList<>()));
+            for (Document s : stats) {
+                Document accesses = s.get("accesses", Document.class);
+                if (accesses == null) continue;
+                Number ops = (Number) accesses.get("ops");
+                Date since = accesses.getDate("since");
+                if (ops != null && since != null) {
+                    // Con sharding hay una fila por shard: se suman accesos y vale el contador mas reciente.
+                    out.merge(s.getString("name"), new Access(ops.longValue(), since.toInstant()),
+                            (a, b) -> new Access(a.ops() + b.ops(),
+                                    a.since().isAfter(b.since()) ? a.since() : b.since()));
+                }
+            }
+        } catch (DataAccessException e) {
+            log.warn("$indexStats no disponible coleccion={}: sin informe de indices sin uso", collection);
+        }
+        return out;
+    }
 }
@@ -1,9 +1,17 @@
 package com.rehabiapp.data.presentation;
 
 import com.rehabiapp.data.application.service.AnalyticsRefreshJob;
+import com.rehabiapp.data.application.service.CohortSketchService;
+import com.rehabiapp.data.application.service.LevelStatisticsAccumulatorService;
+import com.rehabiapp.data.application.service.RefreshMode;
+import com.rehabiapp.data.application.service.RomDailyRollupService;
+import com.rehabiapp.data.application.service.SessionArchiveJob;
+import com.rehabiapp.data.application.service.SessionStorage;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 /**
@@ -15,12 +23,73 @@ import org.springframework.web.bind.annotation.RestController;
 public class AnalyticsAdminController {
 
     private final AnalyticsRefreshJob job;
+    private final LevelStatisticsAccumulatorService levelAccumulator;
+    private final RomDailyRollupService romRollups;
+    private final CohortSketchService cohortSketches;
+    private final SessionStorage sessionStorage;
+    private final SessionArchiveJob sessionArchive;
 
-    public AnalyticsAdminController(AnalyticsRefreshJob job) { this.job = job; }
+    public AnalyticsAdminController(AnalyticsRefreshJob job,
+                                    LevelStatisticsAccumulatorService levelAccumulator,
+                                    RomDailyRollupService romRollups,
+                                    CohortSketchService cohortSketches,
+                                    SessionStorage sessionStorage,
+                                    SessionArchiveJob sessionArchive) {
+        this.job = job;
+        this.levelAccumulator = levelAccumulator;
+        this.romRollups = romRollups;
+        this.cohortSketches = cohortSketches;
+        this.sessionStorage = sessionStorage;
+        this.sessionArchive = sessionArchive;
+    }
 
+    /** full=true fuerza un refresco completo aunque el modo configurado sea incremental. */
     @PostMapping("/refresh")
-    public ResponseEntity<String> refresh() {
-        job.refresh();
+    public ResponseEntity<String> refresh(@RequestParam(defaultValue = "false") boolean full) {
+        if (full) job.refresh(RefreshMode.FULL);
+        else job.refresh();
         return ResponseEntity.accepted().body("refresh triggered");
     }
+
+    /** Reconstruye level_statistics_acc desde game_sessions (modo level-stats incremental). */
+    @PostMapping("/level-stats/reseed")
+    public ResponseEntity<String> reseedLevelStats() {
+        if (!levelAccumulator.isEnabled()) {
+            return ResponseEntity.badRequest().body("level-stats-mode is not incremental");
+        }
+        if (!levelAccumulator.reseed()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("level stats seed already running");
+        }
+        return ResponseEntity.accepted().body("level stats reseeded");
+    }
+
+    /** Recalcula rom_daily_rollups desde game_sessions (necesario al activar los rollups). */
+    @PostMapping("/rom-rollups/rebuild")
+    public ResponseEntity<String> rebuildRomRollups() {
+        if (!romRollups.isEnabled()) {
+            return ResponseEntity.badRequest().body("rom-rollups are not enabled");
+        }
+        romRollups.rebuild();
+        return ResponseEntity.accepted().body("rom rollups rebuilt");
+    }
+
+    /** Recalcula todos los meses de cohort_sketches (necesario al activar accuracy=approx). */
+    @PostMapping("/cohort-sketches/rebuild")
+    public ResponseEntity<String> rebuildCohortSketches() {
+        if (!cohortSketches.isEnabled()) {
+            return ResponseEntity.badRequest().body("cohort-sketches are not enabled");
+        }
+        cohortSketches.rebuild();
+        return ResponseEntity.accepted().body("cohort sketches rebuilt");
+    }
+
+    /** Mueve ya a game_sessions_archive las sesiones anteriores al corte. */
+    @PostMapping("/sessions/archive")
+    public ResponseEntity<String> archiveSessions() {
+        if (!sessionStorage.isArchiveEnabled()) {
+            return ResponseEntity.badRequest().body("session archive is not enabled");
+        }
+        long moved = sessionArchive.archive();
+        return ResponseEntity.accepted().body("archived " + moved + " sessions");
+    }
 }
@@ -1,6 +1,9 @@
 package com.rehabiapp.data.presentation;
 
+import com.rehabiapp.data.application.service.AnalyticsResponseCache;
+import com.rehabiapp.data.application.service.CohortAccuracy;
 import com.rehabiapp.data.application.service.CohortComparisonService;
+import com.rehabiapp.data.application.service.PatientDataVersionService;
 import com.rehabiapp.data.application.service.RomTimeSeriesService;
 import com.rehabiapp.data.application.service.dto.CohortComparisonResponse;
 import com.rehabiapp.data.application.service.dto.PatientAnalyticsResponse;
@@ -14,6 +17,8 @@ import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Pattern;
 import java.util.List;
+import java.util.Locale;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -21,10 +26,14 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 /**
  * Endpoints de analiticas por paciente. Consumido por /api internamente.
- * Protegido por InternalAuthFilter (X-Internal-Key).
+ * Protegido por InternalAuthFilter (X-Internal-Key). Perfil y serie de ROM pasan por
+ * AnalyticsResponseCache validada con la version de datos del paciente; cohort-compare no,
+ * porque depende de sesiones de otros pacientes.
+ * El perfil lleva ETag (PatientDataVersionService) y responde 304 a If-None-Match vigente.
  */
 @RestController
 @RequestMapping("/analytics")
@@ -34,28 +43,42 @@ public class AnalyticsController {
     private final PatientProgressRepository repo;
     private final RomTimeSeriesService romService;
     private final CohortComparisonService cohortService;
+    private final AnalyticsResponseCache cache;
+    private final PatientDataVersionService versions;
 
     public AnalyticsController(PatientProgressRepository repo,
                                 RomTimeSeriesService romService,
-                                CohortComparisonService cohortService) {
+                                CohortComparisonService cohortService,
+                                AnalyticsResponseCache cache,
+                                PatientDataVersionService versions) {
         this.repo = repo;
         this.romService = romService;
         this.cohortService = cohortService;
+        this.cache = cache;
+        this.versions = versions;
     }
 
     @GetMapping("/patient/{dni}")
     public ResponseEntity<PatientAnalyticsResponse> patient(
             @PathVariable
             @Pattern(regexp = ValidationPatterns.DNI_REGEX, message = "DNI invalido")
-            String dni) {
-
-        List<PatientProgress> all = repo.findByPatientDni(dni);
-        if (all.isEmpty()) return ResponseEntity.notFound().build();
+            String dni,
+            WebRequest request) {
 
-        List<PatientProgress> weekly  = all.stream().filter(p -> !"*".equals(p.getGameId())).toList();
-        List<PatientProgress> monthly = all.stream().filter(p ->  "*".equals(p.getGameId())).toList();
+        String etag = versions.etag(dni);
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        PatientAnalyticsResponse body = cache.get(dni, etag, "patient", () -> {
+            List<PatientProgress> all = repo.findByPatientDni(dni);
+            if (all.isEmpty()) return null;
 
-        return ResponseEntity.ok(new PatientAnalyticsResponse(dni, weekly, monthly));
+            List<PatientProgress> weekly  = all.stream().filter(p -> !"*".equals(p.getGameId())).toList();
+            List<PatientProgress> monthly = all.stream().filter(p ->  "*".equals(p.getGameId())).toList();
+            return new PatientAnalyticsResponse(dni, weekly, monthly);
+        });
+        if (body == null) return ResponseEntity.notFound().build();
+        return ResponseEntity.ok().eTag(etag).body(body);
     }
 
     @GetMapping("/patient/{dni}/rom-timeseries")
@@ -69,7 +92,9 @@ public class AnalyticsController {
             @RequestParam(required = false) String from,
             @RequestParam(required = false) String to,
             @RequestParam(required = false) String gameId) {
-        return ResponseEntity.ok(romService.compute(dni, bucket, from, to, gameId));
+        String query = String.join("|", "rom-timeseries", bucket,
+                String.valueOf(from), String.valueOf(to), String.valueOf(gameId));
+        return ResponseEntity.ok(cache.get(dni, versions.etag(dni), query, () -> romService.compute(dni, bucket, from, to, gameId)));
     }
 
     @GetMapping("/cohort-compare/patient/{dni}")
@@ -80,7 +105,11 @@ public class AnalyticsController {
             @RequestParam @NotBlank String disability,
             @RequestParam @NotNull @Min(1) @Max(4) Integer level,
             @RequestParam(required = false) String from,
-            @RequestParam(required = false) String to) {
-        return ResponseEntity.ok(cohortService.compute(dni, disability, level, from, to));
+            @RequestParam(required = false) String to,
+            @RequestParam(defaultValue = "exact")
+            @Pattern(regexp = "exact|approx", message = "accuracy must be exact or approx")
+            String accuracy) {
+        return ResponseEntity.ok(cohortService.compute(dni, disability, level, from, to,
+                CohortAccuracy.valueOf(accuracy.toUpperCase(Locale.ROOT))));
     }
 }
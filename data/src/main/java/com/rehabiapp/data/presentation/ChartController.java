@@ -1,6 +1,9 @@
 package com.rehabiapp.data.presentation;
 
+import com.rehabiapp.data.application.service.AnalyticsResponseCache;
 import com.rehabiapp.data.application.service.ChartService;
+import com.rehabiapp.data.application.service.PatientDataVersionService;
+import com.rehabiapp.data.application.service.dto.chart.ChartDashboard;
 import com.rehabiapp.data.application.service.dto.chart.ChartPayload;
 import com.rehabiapp.data.infrastructure.util.ValidationPatterns;
 import jakarta.validation.constraints.Pattern;
@@ -9,9 +12,13 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 /**
  * Endpoints de graficas listas para consumo directo por el ERP de escritorio y el frontend movil.
+ * Las respuestas pasan por AnalyticsResponseCache y llevan ETag (PatientDataVersionService):
+ * con If-None-Match vigente se responde 304 sin calcular ni serializar la grafica. La cache
+ * solo devuelve cuerpos guardados con esa misma ETag.
  */
 @RestController
 @RequestMapping("/analytics/charts")
@@ -19,32 +26,60 @@ import org.springframework.web.bind.annotation.RestController;
 public class ChartController {
 
     private final ChartService svc;
+    private final AnalyticsResponseCache cache;
+    private final PatientDataVersionService versions;
 
-    public ChartController(ChartService svc) { this.svc = svc; }
+    public ChartController(ChartService svc, AnalyticsResponseCache cache, PatientDataVersionService versions) {
+        this.svc = svc;
+        this.cache = cache;
+        this.versions = versions;
+    }
 
     @GetMapping("/patient/{dni}/rom-progress")
     public ChartPayload romProgress(
             @PathVariable @Pattern(regexp = ValidationPatterns.DNI_REGEX, message = "DNI invalido")
-            String dni) {
-        return svc.romProgress(dni);
+            String dni,
+            WebRequest request) {
+        String etag = versions.etag(dni);
+        if (request.checkNotModified(etag)) return null;
+        return cache.get(dni, etag, "chart:rom-progress", () -> svc.romProgress(dni));
     }
 
     @GetMapping("/patient/{dni}/score-by-game")
     public ChartPayload scoreByGame(
             @PathVariable @Pattern(regexp = ValidationPatterns.DNI_REGEX, message = "DNI invalido")
-            String dni) {
-        return svc.scoreByGame(dni);
+            String dni,
+            WebRequest request) {
+        String etag = versions.etag(dni);
+        if (request.checkNotModified(etag)) return null;
+        return cache.get(dni, etag, "chart:score-by-game", () -> svc.scoreByGame(dni));
     }
 
     @GetMapping("/patient/{dni}/completion-trend")
     public ChartPayload completionTrend(
             @PathVariable @Pattern(regexp = ValidationPatterns.DNI_REGEX, message = "DNI invalido")
-            String dni) {
-        return svc.completionTrend(dni);
+            String dni,
+            WebRequest request) {
+        String etag = versions.etag(dni);
+        if (request.checkNotModified(etag)) return null;
+        return cache.get(dni, etag, "chart:completion-trend", () -> svc.completionTrend(dni));
+    }
+
+    /** Las cuatro graficas del panel en una respuesta, con una sola lectura de patient_progress. */
+    @GetMapping("/patient/{dni}/dashboard")
+    public ChartDashboard dashboard(
+            @PathVariable @Pattern(regexp = ValidationPatterns.DNI_REGEX, message = "DNI invalido")
+            String dni,
+            WebRequest request) {
+        String etag = versions.etag(dni);
+        if (request.checkNotModified(etag)) return null;
+        return cache.get(dni, etag, "chart:dashboard", () -> svc.dashboard(dni));
     }
 
     @GetMapping("/global/level-comparison")
-    public ChartPayload levelComparison() {
-        return svc.levelComparison();
+    public ChartPayload levelComparison(WebRequest request) {
+        String etag = versions.etag(null);
+        if (request.checkNotModified(etag)) return null;
+        return cache.get(null, etag, "chart:level-comparison", svc::levelComparison);
     }
 }
@@ -1,30 +1,45 @@
 package com.rehabiapp.data.presentation;
 
+import com.rehabiapp.data.application.service.CohortExportService;
+import com.rehabiapp.data.application.service.ExportEncoding;
 import com.rehabiapp.data.application.service.ExportService;
+import com.rehabiapp.data.application.service.NotFoundException;
+import com.rehabiapp.data.infrastructure.util.ValidationPatterns;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Size;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 /**
- * Endpoint de exportacion de sesiones de un paciente en CSV o JSON.
- * Usa streaming — no carga el resultado completo en memoria.
+ * Endpoints de exportacion de sesiones: un paciente en CSV, JSON o Arrow, o una cohorte comprimida.
+ * Usan streaming — no cargan el resultado completo en memoria.
  */
 @RestController
 @RequestMapping("/analytics/export")
 @Validated
 public class ExportController {
 
+    private static final int MAX_DNIS = 1000;
+
     private final ExportService service;
+    private final CohortExportService cohortService;
 
-    public ExportController(ExportService service) { this.service = service; }
+    public ExportController(ExportService service, CohortExportService cohortService) {
+        this.service = service;
+        this.cohortService = cohortService;
+    }
 
     @GetMapping("/patient/{dni}")
     public void export(
@@ -32,7 +47,7 @@ public class ExportController {
             @Pattern(regexp = "^[0-9]{8}[A-HJ-NP-TV-Z]$", message = "DNI invalido")
             String dni,
             @RequestParam
-            @Pattern(regexp = "csv|json", message = "format must be csv or json")
+            @Pattern(regexp = "csv|json|arrow", message = "format must be csv, json or arrow")
             String format,
             @RequestParam(required = false) String from,
             @RequestParam(required = false) String to,
@@ -45,9 +60,54 @@ public class ExportController {
         if ("csv".equals(format)) {
             response.setContentType("text/csv; charset=utf-8");
             service.streamCsv(dni, from, to, response.getWriter());
+        } else if ("arrow".equals(format)) {
+            response.setContentType(ExportService.ARROW_MEDIA_TYPE);
+            service.streamArrow(dni, from, to, response.getOutputStream());
         } else {
             response.setContentType(MediaType.APPLICATION_JSON_VALUE);
             service.streamJson(dni, from, to, response.getWriter());
         }
     }
+
+    /**
+     * Sesiones de varios pacientes (dni repetido o disability) en CSV o NDJSON, comprimidas
+     * segun Accept-Encoding (zstd, gzip o sin comprimir). Pacientes en orden ascendente de DNI;
+     * resumeFrom reanuda desde ese DNI incluido.
+     */
+    @GetMapping("/cohort")
+    public void exportCohort(
+            @RequestParam(required = false)
+            @Size(max = MAX_DNIS, message = "too many dni values")
+            List<@Pattern(regexp = ValidationPatterns.DNI_REGEX, message = "DNI invalido") String> dni,
+            @RequestParam(required = false) String disability,
+            @RequestParam
+            @Pattern(regexp = "csv|ndjson", message = "format must be csv or ndjson")
+            String format,
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to,
+            @RequestParam(required = false)
+            @Pattern(regexp = ValidationPatterns.DNI_REGEX, message = "DNI invalido")
+            String resumeFrom,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            HttpServletResponse response) throws Exception {
+
+        if ((dni == null || dni.isEmpty()) == (disability == null)) {
+            throw new IllegalArgumentException("exactly one of dni or disability is required");
+        }
+        List<String> patients = cohortService.patients(dni, disability, from, to, resumeFrom);
+        if (patients.isEmpty()) throw new NotFoundException("no patients to export");
+
+        CohortExportService.Format fmt = CohortExportService.Format.valueOf(format.toUpperCase(Locale.ROOT));
+        ExportEncoding encoding = ExportEncoding.negotiate(acceptEncoding);
+        String stamp = LocalDate.now().format(DateTimeFormatter.BASIC_ISO_DATE);
+        String filename = "cohort_" + (disability != null ? disability : "patients") + "_" + stamp + "." + format;
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + filename + "\"");
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (encoding.contentEncoding() != null) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, encoding.contentEncoding());
+        }
+        response.setContentType(fmt == CohortExportService.Format.CSV
+                ? "text/csv; charset=utf-8" : "application/x-ndjson");
+        cohortService.export(patients, disability, from, to, fmt, encoding, response.getOutputStream());
+    }
 }
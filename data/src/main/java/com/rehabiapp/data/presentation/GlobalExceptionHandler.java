@@ -1,11 +1,13 @@
 package com.rehabiapp.data.presentation;
 
 import com.rehabiapp.data.application.service.DuplicateSessionException;
+import com.rehabiapp.data.application.service.IngestBackpressureException;
 import com.rehabiapp.data.application.service.NotFoundException;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -38,6 +40,18 @@ public class GlobalExceptionHandler {
         ));
     }
 
+    @ExceptionHandler(IngestBackpressureException.class)
+    public ResponseEntity<Map<String, Object>> handleBackpressure(IngestBackpressureException ex) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .body(Map.of(
+                        "timestamp", Instant.now().toString(),
+                        "status", 429,
+                        "error", "ingest_queue_full",
+                        "retryAfterSeconds", ex.getRetryAfterSeconds()
+                ));
+    }
+
     @ExceptionHandler(NotFoundException.class)
     public ResponseEntity<Map<String, Object>> handleNotFound(NotFoundException ex) {
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of(
@@ -1,9 +1,11 @@
 package com.rehabiapp.data.presentation;
 
 import com.rehabiapp.data.application.service.GameSessionIngestService;
+import com.rehabiapp.data.application.service.dto.BatchIngestResponse;
 import com.rehabiapp.data.application.service.dto.GameSessionIngestRequest;
 import com.rehabiapp.data.application.service.dto.GameSessionIngestResponse;
 import jakarta.validation.Valid;
+import java.util.List;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -29,6 +31,19 @@ public class IngestController {
     public ResponseEntity<GameSessionIngestResponse> ingestGameSession(
             @Valid @RequestBody GameSessionIngestRequest request) {
         GameSessionIngestResponse body = service.ingest(request);
-        return ResponseEntity.status(HttpStatus.CREATED).body(body);
+        // QUEUED = aceptada por la cola de escritura diferida, aun no persistida.
+        HttpStatus status = "QUEUED".equals(body.status()) ? HttpStatus.ACCEPTED : HttpStatus.CREATED;
+        return ResponseEntity.status(status).body(body);
+    }
+
+    /**
+     * Ingesta por lotes para sincronizaciones de backlog desde las clinicas.
+     * Sin @Valid: cada elemento se valida en el servicio y se informa como INVALID
+     * en lugar de rechazar el lote completo.
+     */
+    @PostMapping("/game-sessions:batch")
+    public ResponseEntity<BatchIngestResponse> ingestGameSessionBatch(
+            @RequestBody List<GameSessionIngestRequest> requests) {
+        return ResponseEntity.ok(service.ingestBatch(requests));
     }
 }
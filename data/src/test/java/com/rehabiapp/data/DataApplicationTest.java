@@ -1,14 +1,25 @@
 package com.rehabiapp.data;
 
+import com.rehabiapp.data.application.service.AnalyticsResponseCache;
+import com.rehabiapp.data.application.service.IngestedSessionsListener;
+import com.rehabiapp.data.application.service.LevelStatisticsAccumulatorService;
+import com.rehabiapp.data.application.service.PatientDataVersionService;
+import com.rehabiapp.data.application.service.RomDailyRollupService;
+import com.rehabiapp.data.domain.repository.AnalyticsRefreshStateRepository;
 import com.rehabiapp.data.domain.repository.GameSessionRepository;
 import com.rehabiapp.data.domain.repository.LevelStatisticsRepository;
 import com.rehabiapp.data.domain.repository.PatientProgressRepository;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import java.util.List;
 import org.junit.jupiter.api.Test;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 /**
  * Test de arranque del contexto de Spring Boot.
  * MongoDB excluido via perfil "test"; repositorios mockeados para que
@@ -27,12 +38,29 @@ class DataApplicationTest {
     @MockitoBean
     LevelStatisticsRepository levelStatisticsRepository;
 
+    @MockitoBean
+    AnalyticsRefreshStateRepository analyticsRefreshStateRepository;
+
     @MockitoBean
     MongoTemplate mongoTemplate;
 
 
+    @Autowired
+    List<IngestedSessionsListener> listeners;
+
     @Test
     void contextLoads() {
         // Verifica que el contexto de Spring arranca sin errores
     }
+
+    @Test
+    void dataVersionIsBumpedAfterEveryOtherIngestListener() {
+        List<Class<?>> order = listeners.stream().<Class<?>>map(AopUtils::getTargetClass).toList();
+
+        assertThat(order).last().isEqualTo(PatientDataVersionService.class);
+        assertThat(order.indexOf(RomDailyRollupService.class))
+                .isLessThan(order.indexOf(AnalyticsResponseCache.class));
+        assertThat(order.indexOf(LevelStatisticsAccumulatorService.class))
+                .isLessThan(order.indexOf(AnalyticsResponseCache.class));
+    }
 }
@@ -0,0 +1,105 @@
+package com.rehabiapp.data.application.pipeline;
+
+import com.rehabiapp.data.domain.model.GameSession;
+import com.rehabiapp.data.domain.model.SlowQueryLog;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests unitarios de la instrumentacion de aggregations y del registro de consultas lentas (sin MongoDB).
+ */
+class PipelineAggregationsTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final Aggregation agg = Aggregation.newAggregation(
+            Aggregation.match(Criteria.where("patientDni").is("12345678Z")));
+
+    @Test
+    void recordsLatencyAndRowsPerPipeline() {
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(GameSession.class), eq(Document.class)))
+                .thenReturn(results(List.of(new Document(), new Document(), new Document())));
+        PipelineAggregations aggregations = new PipelineAggregations(mongoTemplate, registry, 2000, 600);
+
+        aggregations.aggregate("weekly", agg, GameSession.class, Document.class);
+        aggregations.aggregate("weekly", agg, GameSession.class, Document.class);
+
+        assertThat(registry.get("rehabiapp.analytics.pipeline")
+                .tag("pipeline", "weekly").tag("outcome", "success").timer().count()).isEqualTo(2);
+        assertThat(registry.get("rehabiapp.analytics.pipeline.rows")
+                .tag("pipeline", "weekly").summary().totalAmount()).isEqualTo(6);
+        // Rapidas: ni explain ni slow_query_log
+        verify(mongoTemplate, never()).insert(any(SlowQueryLog.class));
+    }
+
+    @Test
+    void slowAggregationStoresExplainedPlanOncePerInterval() {
+        when(mongoTemplate.aggregate(argThat(a -> a != null && !a.getOptions().isExplain()),
+                eq(GameSession.class), eq(Document.class)))
+                .thenAnswer(inv -> {
+                    Thread.sleep(5);
+                    return results(List.of(new Document()));
+                });
+        Document explain = new Document("stages", List.of(
+                new Document("$cursor", new Document("queryPlanner", new Document()
+                        .append("winningPlan", new Document("stage", "FETCH")
+                                .append("inputStage", new Document("stage", "COLLSCAN")))
+                        .append("rejectedPlans", List.of())))));
+        when(mongoTemplate.aggregate(argThat(a -> a != null && a.getOptions().isExplain()),
+                eq(GameSession.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(), explain));
+        when(mongoTemplate.getCollectionName(GameSession.class)).thenReturn("game_sessions");
+        PipelineAggregations aggregations = new PipelineAggregations(mongoTemplate, registry, 1, 600);
+
+        aggregations.aggregate("weekly", agg, GameSession.class, Document.class);
+        aggregations.aggregate("weekly", agg, GameSession.class, Document.class);
+
+        ArgumentCaptor<SlowQueryLog> captor = ArgumentCaptor.forClass(SlowQueryLog.class);
+        verify(mongoTemplate, times(1)).insert(captor.capture());
+        SlowQueryLog entry = captor.getValue();
+        assertThat(entry.getPipeline()).isEqualTo("weekly");
+        assertThat(entry.getCollection()).isEqualTo("game_sessions");
+        assertThat(entry.getRows()).isEqualTo(1);
+        assertThat(entry.getPlanSummary()).containsExactly("COLLSCAN");
+        assertThat(entry.isCollectionScan()).isTrue();
+    }
+
+    @Test
+    void planOfReadsClassicAndSbeExplainWithoutFilterValues() {
+        Document sbe = new Document("explainVersion", "2").append("queryPlanner", new Document()
+                .append("winningPlan", new Document("queryPlan", new Document("stage", "GROUP")
+                        .append("inputStage", new Document("stage", "FETCH")
+                                .append("inputStage", new Document("stage", "IXSCAN")
+                                        .append("indexName", "idx_patient_session_start")
+                                        .append("indexBounds", new Document("patientDni",
+                                                List.of("[\"12345678Z\", \"12345678Z\"]")))))))
+                .append("rejectedPlans", List.of(new Document("stage", "COLLSCAN"))));
+
+        PipelineAggregations.Plan plan = PipelineAggregations.planOf(sbe);
+
+        assertThat(plan.summary()).containsExactly("IXSCAN idx_patient_session_start");
+        assertThat(plan.collectionScan()).isFalse();
+        assertThat(plan.rejectedPlans()).isEqualTo(1);
+    }
+
+    private static AggregationResults<Document> results(List<Document> rows) {
+        return new AggregationResults<>(rows, new Document());
+    }
+}
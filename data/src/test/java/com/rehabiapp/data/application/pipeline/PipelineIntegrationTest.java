@@ -1,10 +1,17 @@
 package com.rehabiapp.data.application.pipeline;
 
+import com.rehabiapp.data.application.service.RomDailyRollupService;
+import com.rehabiapp.data.application.service.SessionArchiveJob;
+import com.rehabiapp.data.application.service.SessionStorage;
+import com.rehabiapp.data.application.service.SessionStorageMode;
 import com.rehabiapp.data.domain.model.GameSession;
 import com.rehabiapp.data.domain.model.LevelStatistics;
 import com.rehabiapp.data.domain.model.MovementMetrics;
 import com.rehabiapp.data.domain.model.PatientProgress;
+import com.rehabiapp.data.domain.model.RomDailyRollup;
+import com.rehabiapp.data.domain.model.RomSummary;
 import com.rehabiapp.data.domain.repository.GameSessionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.net.Socket;
 import java.time.Instant;
 import java.util.List;
@@ -13,9 +20,11 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.test.context.ActiveProfiles;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 /**
@@ -38,6 +47,9 @@ class PipelineIntegrationTest {
     @Autowired WeeklyGamePipeline weeklyPipeline;
     @Autowired MonthlyDisabilityPipeline monthlyPipeline;
     @Autowired LevelStatisticsPipeline levelsPipeline;
+    @Autowired RefreshFacetPipeline facetPipeline;
+    @Autowired MongoTemplate mongoTemplate;
+    @Autowired PipelineAggregations aggregations;
 
     @AfterEach
     void clean() { gameSessionRepo.deleteAll(); }
@@ -96,6 +108,108 @@ class PipelineIntegrationTest {
                 .containsExactlyInAnyOrder(1, 2, 3);
     }
 
+    @Test
+    void facetPipeline_matchesSeparatePipelinesInsideWindow() {
+        Instant since = Instant.parse("2026-01-01T00:00:00Z");
+        gameSessionRepo.saveAll(List.of(
+            session("f1", "12345678Z", "game1", 1, "M25.5",
+                    Instant.parse("2026-04-13T10:00:00Z"), 700, true),
+            session("f2", "12345678Z", "game2", 1, "M25.5",
+                    Instant.parse("2026-04-20T10:00:00Z"), 500, false),
+            session("f3", "87654321X", "game1", 2, null,
+                    Instant.parse("2026-04-21T10:00:00Z"), 900, true)
+        ));
+
+        RefreshFacetPipeline.Result r = facetPipeline.run(since);
+
+        assertThat(r.weekly()).usingRecursiveFieldByFieldElementComparatorIgnoringFields("lastUpdated")
+                .containsExactlyInAnyOrderElementsOf(weeklyPipeline.run(since));
+        assertThat(r.monthly()).usingRecursiveFieldByFieldElementComparatorIgnoringFields("lastUpdated")
+                .containsExactlyInAnyOrderElementsOf(monthlyPipeline.run(since));
+        // Todas las sesiones caen en la ventana: mismas cifras que el pipeline sin filtro
+        assertThat(r.levels()).usingRecursiveFieldByFieldElementComparatorIgnoringFields("lastUpdated")
+                .containsExactlyInAnyOrderElementsOf(levelsPipeline.run());
+    }
+
+    @Test
+    void weeklyPipeline_summaryReplacesRawTrend() {
+        double[] roms = {80, 84, 88, 92, 96};
+        for (int i = 0; i < roms.length; i++) {
+            GameSession g = session("r" + i, "12345678Z", "game1", 2, "M25.5",
+                    Instant.parse("2026-04-13T10:00:00Z").plusSeconds(3600L * i), 700, true);
+            g.setMovementMetrics(new MovementMetrics(roms[i], 0.4, 0.8));
+            gameSessionRepo.save(g);
+        }
+        WeeklyGamePipeline summary = new WeeklyGamePipeline(aggregations, RomRepresentation.SUMMARY, 2);
+
+        List<PatientProgress> rows = summary.run(Instant.parse("2026-01-01T00:00:00Z"));
+
+        assertThat(rows).hasSize(1);
+        assertThat(rows.get(0).getRangeOfMotionTrend()).isNull();
+        RomSummary r = rows.get(0).getRomSummary();
+        assertThat(r.count()).isEqualTo(5);
+        assertThat(r.min()).isEqualTo(80.0);
+        assertThat(r.max()).isEqualTo(96.0);
+        assertThat(r.mean()).isEqualTo(88.0);
+        assertThat(r.variance()).isCloseTo(32.0, within(1e-9));
+        // 5 muestras en 2 tramos: [80, 84] y [88, 92, 96]
+        assertThat(r.series()).containsExactly(82.0, 92.0);
+    }
+
+    @Test
+    void romTimeSeries_rollupsMatchRawSessions() {
+        gameSessionRepo.saveAll(List.of(
+            session("t1", "12345678Z", "game1", 1, "M25.5",
+                    Instant.parse("2026-04-13T10:00:00Z"), 700, true),
+            session("t2", "12345678Z", "game2", 1, "M25.5",
+                    Instant.parse("2026-04-13T18:00:00Z"), 600, true),
+            session("t3", "12345678Z", "game1", 1, "M25.5",
+                    Instant.parse("2026-04-21T10:00:00Z"), 800, false)
+        ));
+        new RomDailyRollupService(mongoTemplate, hotOnly(), new SimpleMeterRegistry(), true).rebuild();
+        Instant from = Instant.parse("2026-04-01T00:00:00Z");
+        Instant to = Instant.parse("2026-04-30T23:59:59Z");
+
+        try {
+            for (String bucket : List.of("day", "week", "month")) {
+                assertThat(new RomTimeSeriesPipeline(aggregations, hotOnly(), true).run("12345678Z", bucket, from, to, null))
+                        .isEqualTo(new RomTimeSeriesPipeline(aggregations, hotOnly(), false).run("12345678Z", bucket, from, to, null));
+            }
+        } finally {
+            mongoTemplate.dropCollection(RomDailyRollup.class);
+        }
+    }
+
+    @Test
+    void romTimeSeries_readsArchivedSessionsAcrossTiers() {
+        gameSessionRepo.saveAll(List.of(
+            session("a1", "12345678Z", "game1", 1, "M25.5",
+                    Instant.parse("2026-04-13T10:00:00Z"), 700, true),
+            session("a2", "12345678Z", "game1", 1, "M25.5",
+                    Instant.parse("2026-04-21T10:00:00Z"), 800, false)
+        ));
+        Instant from = Instant.parse("2026-04-01T00:00:00Z");
+        Instant to = Instant.parse("2026-04-30T23:59:59Z");
+        // Corte de 1 dia: ambas sesiones son archivables.
+        SessionStorage tiered = new SessionStorage(mongoTemplate, SessionStorageMode.STANDARD, true, 1, 300);
+        List<?> before = new RomTimeSeriesPipeline(aggregations, hotOnly(), false).run("12345678Z", "week", from, to, null);
+
+        try {
+            assertThat(new SessionArchiveJob(mongoTemplate, tiered, new SimpleMeterRegistry(), 0, 21600).archive()).isEqualTo(2);
+            assertThat(gameSessionRepo.count()).isZero();
+            assertThat(new RomTimeSeriesPipeline(aggregations, hotOnly(), false).run("12345678Z", "week", from, to, null))
+                    .isEmpty();
+            assertThat(new RomTimeSeriesPipeline(aggregations, tiered, false).run("12345678Z", "week", from, to, null))
+                    .isEqualTo(before);
+        } finally {
+            mongoTemplate.dropCollection(SessionStorage.ARCHIVE);
+        }
+    }
+
+    private SessionStorage hotOnly() {
+        return new SessionStorage(mongoTemplate, SessionStorageMode.STANDARD, false, 365, 300);
+    }
+
     private GameSession session(String sessionId, String dni, String gameId,
                                 int level, String disability, Instant start,
                                 int score, boolean completed) {
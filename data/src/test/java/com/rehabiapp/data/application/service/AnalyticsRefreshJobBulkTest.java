@@ -0,0 +1,161 @@
+package com.rehabiapp.data.application.service;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.rehabiapp.data.application.pipeline.LevelStatisticsPipeline;
+import com.rehabiapp.data.application.pipeline.MonthlyDisabilityPipeline;
+import com.rehabiapp.data.application.pipeline.RefreshFacetPipeline;
+import com.rehabiapp.data.application.pipeline.TouchedBucketsPipeline;
+import com.rehabiapp.data.application.pipeline.TouchedBucketsPipeline.TouchedBuckets;
+import com.rehabiapp.data.application.pipeline.TouchedBucketsPipeline.WeeklyBucket;
+import com.rehabiapp.data.application.pipeline.WeeklyGamePipeline;
+import com.rehabiapp.data.domain.model.AnalyticsRefreshState;
+import com.rehabiapp.data.domain.model.PatientProgress;
+import com.rehabiapp.data.domain.repository.AnalyticsRefreshStateRepository;
+import com.rehabiapp.data.domain.repository.LevelStatisticsRepository;
+import com.rehabiapp.data.domain.repository.PatientProgressRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests unitarios de la escritura bulk por trozos del AnalyticsRefreshJob (sin MongoDB).
+ */
+class AnalyticsRefreshJobBulkTest {
+
+    private final WeeklyGamePipeline weekly = mock(WeeklyGamePipeline.class);
+    private final MonthlyDisabilityPipeline monthly = mock(MonthlyDisabilityPipeline.class);
+    private final LevelStatisticsPipeline levels = mock(LevelStatisticsPipeline.class);
+    private final TouchedBucketsPipeline touched = mock(TouchedBucketsPipeline.class);
+    private final RefreshFacetPipeline facet = mock(RefreshFacetPipeline.class);
+    private final LevelStatisticsAccumulatorService levelAccumulator = mock(LevelStatisticsAccumulatorService.class);
+    private final AnalyticsRefreshStateRepository stateRepo = mock(AnalyticsRefreshStateRepository.class);
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final BulkOperations bulk = mock(BulkOperations.class);
+    private final AnalyticsResponseCache cache = mock(AnalyticsResponseCache.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final AnalyticsRefreshJob job = new AnalyticsRefreshJob(
+            weekly, monthly, levels, mock(TouchedBucketsPipeline.class), facet, levelAccumulator, cache,
+            mock(PatientProgressRepository.class), mock(LevelStatisticsRepository.class),
+            stateRepo, mongoTemplate, registry, RefreshMode.FULL, RefreshPipeline.SEPARATE, 120, 2, 3);
+
+    @Test
+    void upsertsAreSplitInChunksAndFailuresCounted() {
+        when(weekly.run(any(Instant.class))).thenReturn(rows(5));
+        when(monthly.run(any(Instant.class))).thenReturn(List.of());
+        when(levels.run()).thenReturn(List.of());
+        when(stateRepo.findById(any())).thenReturn(Optional.empty());
+        when(mongoTemplate.bulkOps(eq(BulkMode.UNORDERED), eq(PatientProgress.class))).thenReturn(bulk);
+        when(bulk.upsert(anyList())).thenReturn(bulk);
+        // Segundo trozo con un error de escritura; el tercero debe ejecutarse igualmente
+        when(bulk.execute())
+                .thenReturn(BulkWriteResult.unacknowledged())
+                .thenThrow(bulkError())
+                .thenReturn(BulkWriteResult.unacknowledged());
+
+        assertThatThrownBy(job::refresh).isInstanceOf(IllegalStateException.class);
+
+        verify(bulk, times(3)).execute();
+        verify(cache).invalidateAll();
+        assertThat(registry.get("rehabiapp.analytics.refresh.stage")
+                .tag("stage", "weekly").tag("phase", "upsert").timer().count()).isEqualTo(1);
+        assertThat(registry.get("rehabiapp.analytics.upsert.chunk")
+                .tag("collection", "patient_progress").timer().count()).isEqualTo(3);
+        assertThat(registry.get("rehabiapp.analytics.upsert.failures")
+                .tag("collection", "patient_progress").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void failedChunkKeepsIncrementalWatermark() {
+        AnalyticsRefreshJob incremental = new AnalyticsRefreshJob(
+                weekly, monthly, levels, touched, facet, levelAccumulator, cache,
+                mock(PatientProgressRepository.class), mock(LevelStatisticsRepository.class),
+                stateRepo, mongoTemplate, registry, RefreshMode.INCREMENTAL, RefreshPipeline.SEPARATE, 120, 2, 3);
+        AnalyticsRefreshState state = new AnalyticsRefreshState();
+        state.setId(AnalyticsRefreshState.PATIENT_PROGRESS);
+        state.setWatermark(Instant.parse("2026-04-20T00:00:00Z"));
+        when(stateRepo.findById(AnalyticsRefreshState.PATIENT_PROGRESS)).thenReturn(Optional.of(state));
+        when(levels.run()).thenReturn(List.of());
+        when(touched.run(any(Instant.class), any(Instant.class), any(Instant.class)))
+                .thenReturn(new TouchedBuckets(
+                        Set.of(new WeeklyBucket("12345678Z", "game1", 1, 2026, 17)), Set.of()));
+        when(weekly.run(any(Criteria.class))).thenReturn(rows(1));
+        when(mongoTemplate.bulkOps(eq(BulkMode.UNORDERED), eq(PatientProgress.class))).thenReturn(bulk);
+        when(bulk.upsert(anyList())).thenReturn(bulk);
+        when(bulk.execute()).thenThrow(bulkError());
+
+        assertThatThrownBy(incremental::refresh).isInstanceOf(IllegalStateException.class);
+
+        // El cubo no escrito debe volver a aparecer como tocado en el siguiente refresco
+        verify(stateRepo, never()).save(any());
+    }
+
+    @Test
+    void facetModeReadsWindowOnceAndUpsertsEveryOutput() {
+        AnalyticsRefreshJob facetJob = new AnalyticsRefreshJob(
+                weekly, monthly, levels, mock(TouchedBucketsPipeline.class), facet, levelAccumulator, cache,
+                mock(PatientProgressRepository.class), mock(LevelStatisticsRepository.class),
+                stateRepo, mongoTemplate, registry, RefreshMode.FULL, RefreshPipeline.FACET, 120, 2, 3);
+        when(facet.run(any(Instant.class)))
+                .thenReturn(new RefreshFacetPipeline.Result(rows(3), rows(1), List.of()));
+        when(stateRepo.findById(any())).thenReturn(Optional.empty());
+        when(mongoTemplate.bulkOps(eq(BulkMode.UNORDERED), eq(PatientProgress.class))).thenReturn(bulk);
+        when(bulk.upsert(anyList())).thenReturn(bulk);
+        when(bulk.execute()).thenReturn(BulkWriteResult.unacknowledged());
+
+        facetJob.refresh();
+
+        verify(facet).run(any(Instant.class));
+        verifyNoInteractions(weekly, monthly, levels);
+        // 3 semanales en trozos de 2 + 1 mensual
+        verify(bulk, times(3)).execute();
+        assertThat(registry.get("rehabiapp.analytics.refresh.stage")
+                .tag("stage", "facet").tag("phase", "aggregate").timer().count()).isEqualTo(1);
+    }
+
+    private static List<PatientProgress> rows(int n) {
+        List<PatientProgress> rows = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            PatientProgress p = new PatientProgress();
+            p.setPatientDni("12345678Z");
+            p.setGameId("game" + i);
+            p.setProgressionLevel(1);
+            p.setPeriod("2026-W16");
+            rows.add(p);
+        }
+        return rows;
+    }
+
+    private static BulkOperationException bulkError() {
+        MongoBulkWriteException cause = new MongoBulkWriteException(
+                BulkWriteResult.unacknowledged(),
+                List.of(new BulkWriteError(2, "write failed", new BsonDocument(), 0)),
+                null, new ServerAddress(), Set.of());
+        return new BulkOperationException("bulk failed", cause);
+    }
+}
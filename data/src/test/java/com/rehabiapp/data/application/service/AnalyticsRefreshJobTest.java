@@ -3,10 +3,13 @@ package com.rehabiapp.data.application.service;
 import com.rehabiapp.data.domain.model.GameSession;
 import com.rehabiapp.data.domain.model.MovementMetrics;
 import com.rehabiapp.data.domain.model.PatientProgress;
+import com.rehabiapp.data.domain.model.AnalyticsRefreshState;
+import com.rehabiapp.data.domain.repository.AnalyticsRefreshStateRepository;
 import com.rehabiapp.data.domain.repository.GameSessionRepository;
 import com.rehabiapp.data.domain.repository.LevelStatisticsRepository;
 import com.rehabiapp.data.domain.repository.PatientProgressRepository;
 import java.net.Socket;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
 import org.junit.jupiter.api.AfterEach;
@@ -39,12 +42,14 @@ class AnalyticsRefreshJobTest {
     @Autowired GameSessionRepository gameRepo;
     @Autowired PatientProgressRepository progressRepo;
     @Autowired LevelStatisticsRepository levelRepo;
+    @Autowired AnalyticsRefreshStateRepository stateRepo;
 
     @AfterEach
     void clean() {
         gameRepo.deleteAll();
         progressRepo.deleteAll();
         levelRepo.deleteAll();
+        stateRepo.deleteAll();
     }
 
     @Test
@@ -78,6 +83,34 @@ class AnalyticsRefreshJobTest {
         assertThat(countAfterSecond).isEqualTo(countAfterFirst);
     }
 
+    @Test
+    void incrementalRefresh_recomputesOnlyTouchedBuckets() {
+        Instant twoWeeksAgo = Instant.now().minus(Duration.ofDays(14));
+        Instant yesterday = Instant.now().minus(Duration.ofDays(1));
+        GameSession old = session("i1", "12345678Z", "game1", 1, "M25.5", twoWeeksAgo, 800, true);
+        old.setReceivedAt(yesterday);
+        gameRepo.save(old);
+
+        job.refresh(RefreshMode.FULL);
+        Instant firstWatermark = stateRepo.findById(AnalyticsRefreshState.PATIENT_PROGRESS)
+                .orElseThrow().getWatermark();
+        List<PatientProgress> before = progressRepo.findByPatientDni("12345678Z");
+
+        // Nueva sesion con receivedAt posterior a la marca de agua (ajustada al margen de asentamiento)
+        GameSession fresh = session("i2", "12345678Z", "game2", 1, "M25.5", yesterday, 600, false);
+        fresh.setReceivedAt(firstWatermark.plusMillis(1));
+        gameRepo.save(fresh);
+
+        job.refresh(RefreshMode.INCREMENTAL);
+
+        List<PatientProgress> after = progressRepo.findByPatientDni("12345678Z");
+        assertThat(after).extracting(PatientProgress::getGameId).contains("game2");
+        // La fila semanal de game1 no se ha reescrito
+        PatientProgress untouched = after.stream().filter(p -> "game1".equals(p.getGameId())).findFirst().orElseThrow();
+        PatientProgress original = before.stream().filter(p -> "game1".equals(p.getGameId())).findFirst().orElseThrow();
+        assertThat(untouched.getLastUpdated()).isEqualTo(original.getLastUpdated());
+    }
+
     private GameSession session(String sessionId, String dni, String gameId,
                                 int level, String disability, Instant start,
                                 int score, boolean completed) {
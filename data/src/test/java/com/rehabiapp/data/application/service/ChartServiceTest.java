@@ -0,0 +1,99 @@
+package com.rehabiapp.data.application.service;
+
+import com.rehabiapp.data.application.pipeline.RomRepresentation;
+import com.rehabiapp.data.application.service.dto.chart.ChartDashboard;
+import com.rehabiapp.data.application.service.dto.chart.ChartPayload;
+import com.rehabiapp.data.domain.model.PatientProgress;
+import com.rehabiapp.data.domain.model.RomSummary;
+import com.rehabiapp.data.domain.repository.LevelStatisticsRepository;
+import com.rehabiapp.data.domain.repository.PatientProgressRepository;
+import com.rehabiapp.data.domain.repository.PatientProgressViews.Dashboard;
+import com.rehabiapp.data.domain.repository.PatientProgressViews.WeeklyRom;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.projection.ProjectionFactory;
+import org.springframework.data.projection.SpelAwareProxyProjectionFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests unitarios de las graficas construidas desde patient_progress (romSummary y panel).
+ */
+class ChartServiceTest {
+
+    private static final ProjectionFactory PROJECTIONS = new SpelAwareProxyProjectionFactory();
+
+    private final RomTimeSeriesService romService = mock(RomTimeSeriesService.class);
+    private final PatientProgressRepository progressRepo = mock(PatientProgressRepository.class);
+    private final LevelStatisticsRepository levelRepo = mock(LevelStatisticsRepository.class);
+    private final ChartService service = new ChartService(
+            romService, progressRepo, levelRepo, RomRepresentation.SUMMARY);
+
+    @Test
+    void romProgressWeightsGameMeansBySampleCount() {
+        when(progressRepo.findByPatientDniAndGameIdNotOrderByPeriodAsc("12345678Z", "*", WeeklyRom.class))
+                .thenReturn(views(WeeklyRom.class,
+                        row("game1", "2026-W16", 3, 80.0),
+                        row("game2", "2026-W16", 1, 100.0),
+                        row("game1", "2026-W17", 2, 90.0)));
+
+        ChartPayload chart = service.romProgress("12345678Z");
+
+        assertThat(chart.series().get(0).x()).containsExactly("2026-W16", "2026-W17");
+        assertThat(chart.series().get(0).y()).containsExactly(85.0, 90.0);
+        verifyNoInteractions(romService);
+    }
+
+    @Test
+    void dashboardBuildsEveryChartFromOneProgressRead() {
+        PatientProgress w17 = row("game1", "2026-W17", 2, 90.0);
+        w17.setAverageScore(700.0);
+        w17.setCompletionRate(1.0);
+        PatientProgress w16 = row("game1", "2026-W16", 3, 80.0);
+        w16.setAverageScore(500.0);
+        w16.setCompletionRate(0.5);
+        when(progressRepo.findByPatientDniAndGameIdNotOrderByPeriodAsc("12345678Z", "*", Dashboard.class))
+                .thenReturn(views(Dashboard.class, w16, w17));
+        when(levelRepo.findAllByOrderByProgressionLevelAsc()).thenReturn(List.of());
+
+        ChartDashboard d = service.dashboard("12345678Z");
+
+        verify(progressRepo, times(1)).findByPatientDniAndGameIdNotOrderByPeriodAsc("12345678Z", "*", Dashboard.class);
+        verifyNoMoreInteractions(progressRepo);
+        assertThat(d.romProgress().series().get(0).y()).containsExactly(80.0, 90.0);
+        assertThat(d.scoreByGame().series().get(0).y()).containsExactly(600.0);
+        assertThat(d.completionTrend().series().get(0).x()).containsExactly("2026-W16", "2026-W17");
+        assertThat(d.completionTrend().series().get(0).y()).containsExactly(0.5, 1.0);
+        assertThat(d.levelComparison().chartId()).isEqualTo("level_comparison");
+    }
+
+    @Test
+    void dashboardWithoutProgressRowsIsNotFound() {
+        when(progressRepo.findByPatientDniAndGameIdNotOrderByPeriodAsc("12345678Z", "*", Dashboard.class))
+                .thenReturn(List.of());
+
+        assertThatThrownBy(() -> service.dashboard("12345678Z")).isInstanceOf(NotFoundException.class);
+        verifyNoInteractions(romService, levelRepo);
+    }
+
+    /** Misma proxy de proyeccion que construye Spring Data sobre el documento leido. */
+    private static <T> List<T> views(Class<T> type, PatientProgress... rows) {
+        return Arrays.stream(rows).map(r -> PROJECTIONS.createProjection(type, r)).toList();
+    }
+
+    private static PatientProgress row(String gameId, String period, int count, double mean) {
+        PatientProgress p = new PatientProgress();
+        p.setGameId(gameId);
+        p.setPeriod(period);
+        p.setRomSummary(new RomSummary(count, mean, mean, mean, 0.0, List.of(mean)));
+        return p;
+    }
+}
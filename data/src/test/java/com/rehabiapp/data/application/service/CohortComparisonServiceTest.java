@@ -0,0 +1,140 @@
+package com.rehabiapp.data.application.service;
+
+import com.rehabiapp.data.application.pipeline.CohortComparisonPipeline;
+import com.rehabiapp.data.application.pipeline.CohortComparisonPipeline.CohortAggregate;
+import com.rehabiapp.data.application.pipeline.CohortComparisonPipeline.Comparison;
+import com.rehabiapp.data.application.pipeline.CohortComparisonPipeline.PatientAggregate;
+import com.rehabiapp.data.application.service.CohortSketchService.Merged;
+import com.rehabiapp.data.application.service.dto.CohortComparisonResponse;
+import com.rehabiapp.data.application.sketch.KllSketch;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Instant;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests unitarios de CohortComparisonService: ruta en vivo, snapshot en memoria y sketches.
+ */
+class CohortComparisonServiceTest {
+
+    private final CohortComparisonPipeline pipeline = mock(CohortComparisonPipeline.class);
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final CohortSketchService sketches = mock(CohortSketchService.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void livePathCountsStrictlyLowerMembersByBinarySearch() {
+        CohortComparisonService service = new CohortComparisonService(pipeline, store(false), sketches, registry);
+        when(pipeline.run(eq("12345678Z"), anyString(), anyInt(), any(), any()))
+                .thenReturn(new Comparison(new PatientAggregate(5, 700, 300, 0.8, 90),
+                        new CohortAggregate(4, 20, 650, 300, 0.5, 85,
+                                new double[] {500, 700, 700, 900},
+                                new double[] {0.2, 0.4, 0.6, 0.8},
+                                new double[] {80, 85, 90, 95})));
+
+        CohortComparisonResponse r = service.compute("12345678Z", "M25.5", 2, null, null);
+
+        verify(pipeline, times(1)).run(anyString(), anyString(), anyInt(), any(), any());
+        assertThat(registry.get("rehabiapp.analytics.cohort.compare").tag("source", "live").timer().count())
+                .isEqualTo(1);
+
+        assertThat(r.percentile().averageScore()).isEqualTo(0.25);
+        assertThat(r.percentile().completionRate()).isEqualTo(0.75);
+        assertThat(r.percentile().averageRangeOfMotion()).isEqualTo(0.5);
+    }
+
+    @Test
+    void snapshotPathExcludesTargetWithoutQueryingPipeline() {
+        CohortSnapshotStore store = store(true);
+        when(mongoTemplate.aggregateStream(any(Aggregation.class), any(Class.class), eq(Document.class)))
+                .thenReturn(Stream.of(
+                        row("12345678Z", 5, 700, 0.8, 90),
+                        row("11111111H", 10, 500, 0.2, 80),
+                        row("22222222J", 10, 900, 1.0, 100)));
+        store.refresh();
+        CohortComparisonService service = new CohortComparisonService(pipeline, store, sketches, registry);
+
+        CohortComparisonResponse r = service.compute("12345678Z", "M25.5", 2, null, null);
+
+        verifyNoInteractions(pipeline);
+        assertThat(registry.get("rehabiapp.analytics.cohort.compare").tag("source", "snapshot").timer().count())
+                .isEqualTo(1);
+        assertThat(r.patient().totalSessions()).isEqualTo(5L);
+        assertThat(r.cohort().cohortSize()).isEqualTo(2L);
+        assertThat(r.cohort().totalSessions()).isEqualTo(20L);
+        assertThat(r.cohort().averageScore()).isCloseTo(700.0, within(1e-9));
+        assertThat(r.percentile().averageScore()).isEqualTo(0.5);
+        assertThat(r.percentile().completionRate()).isEqualTo(0.5);
+        assertThat(r.percentile().averageRangeOfMotion()).isEqualTo(0.5);
+    }
+
+    @Test
+    void explicitRangeBypassesSnapshot() {
+        CohortSnapshotStore store = store(true);
+        CohortComparisonService service = new CohortComparisonService(pipeline, store, sketches, registry);
+        when(pipeline.run(anyString(), anyString(), anyInt(), any(Instant.class), any(Instant.class)))
+                .thenReturn(new Comparison(new PatientAggregate(1, 1, 1, 1, 1), null));
+
+        CohortComparisonResponse r = service.compute("12345678Z", "M25.5", 2, "2026-01-01", "2026-02-01");
+
+        assertThat(r.note()).isEqualTo("empty_cohort");
+    }
+
+    @Test
+    void approximatePathRanksTargetAgainstMergedSketches() {
+        CohortComparisonService service = new CohortComparisonService(pipeline, store(false), sketches, registry);
+        KllSketch scores = new KllSketch(), completions = new KllSketch(), roms = new KllSketch();
+        for (int i = 0; i < 1_000; i++) {
+            scores.update(i);
+            completions.update(i / 1_000.0);
+            roms.update(i / 10.0);
+        }
+        when(sketches.isEnabled()).thenReturn(true);
+        when(sketches.merge(eq("M25.5"), eq(2), any(), any()))
+                .thenReturn(new Merged(120, 4_000, 500, 300, 0.5, 50, scores, completions, roms));
+        when(pipeline.runTarget(eq("12345678Z"), anyString(), anyInt(), any(), any()))
+                .thenReturn(new PatientAggregate(5, 750, 300, 0.25, 90));
+
+        CohortComparisonResponse r = service.compute("12345678Z", "M25.5", 2, null, null, CohortAccuracy.APPROX);
+
+        verify(pipeline, never()).run(anyString(), anyString(), anyInt(), any(), any());
+        assertThat(r.note()).isEqualTo("approximate");
+        assertThat(r.cohort().cohortSize()).isEqualTo(120L);
+        assertThat(r.delta().averageScore()).isCloseTo(250.0, within(1e-9));
+        assertThat(r.percentile().averageScore()).isCloseTo(0.75, within(0.02));
+        assertThat(r.percentile().completionRate()).isCloseTo(0.25, within(0.02));
+        assertThat(r.percentile().averageRangeOfMotion()).isCloseTo(0.9, within(0.02));
+        assertThat(registry.get("rehabiapp.analytics.cohort.compare").tag("source", "sketch").timer().count())
+                .isEqualTo(1);
+    }
+
+    private CohortSnapshotStore store(boolean enabled) {
+        return new CohortSnapshotStore(mongoTemplate, new SimpleMeterRegistry(), enabled, 180);
+    }
+
+    private static Document row(String dni, int sessions, double score, double completion, double rom) {
+        return new Document("_id", new Document("disabilityCode", "M25.5")
+                        .append("progressionLevel", 2).append("patientDni", dni))
+                .append("sessions", sessions)
+                .append("score", score)
+                .append("duration", 300.0)
+                .append("completion", completion)
+                .append("rom", rom);
+    }
+}
@@ -0,0 +1,102 @@
+package com.rehabiapp.data.application.service;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.rehabiapp.data.domain.model.GameSession;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests unitarios de la exportacion de cohortes: miembros comprimidos por paciente en orden,
+ * reanudacion por DNI y negociacion de Accept-Encoding.
+ */
+class CohortExportServiceTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final CohortExportService service = new CohortExportService(
+            new SessionStorage(mongoTemplate, SessionStorageMode.STANDARD, false, 365, 300), 3);
+
+    @BeforeEach
+    void twoSessionsPerPatient() {
+        when(mongoTemplate.stream(any(Query.class), eq(GameSession.class))).thenAnswer(inv -> {
+            String dni = (String) inv.getArgument(0, Query.class).getQueryObject().get("patientDni");
+            return Stream.of(session(dni, 1), session(dni, 2));
+        });
+    }
+
+    @Test
+    void gzipMembersConcatenateInDniOrderWithOneHeader() throws Exception {
+        List<String> dnis = List.of("33333333P", "11111111H", "22222222J", "44444444A", "55555555K");
+
+        List<String> patients = service.patients(dnis, null, null, null, null);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CohortExportService.Summary summary = service.export(patients, null, null, null,
+                CohortExportService.Format.CSV, ExportEncoding.GZIP, out);
+
+        String csv = read(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())));
+        List<String> lines = csv.lines().toList();
+        assertThat(lines.get(0)).startsWith("sessionId,patientDni,");
+        assertThat(lines).hasSize(1 + 2 * dnis.size());
+        assertThat(lines.subList(1, lines.size()).stream().map(l -> l.split(",")[1]).distinct().toList())
+                .containsExactly("11111111H", "22222222J", "33333333P", "44444444A", "55555555K");
+        assertThat(summary.sessions()).isEqualTo(10);
+    }
+
+    @Test
+    void zstdNdjsonResumesFromGivenDni() throws Exception {
+        List<String> dnis = List.of("11111111H", "22222222J", "33333333P");
+
+        List<String> patients = service.patients(dnis, null, null, null, "22222222J");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.export(patients, null, null, null, CohortExportService.Format.NDJSON, ExportEncoding.ZSTD, out);
+
+        List<String> lines = read(new ZstdInputStream(new ByteArrayInputStream(out.toByteArray()))).lines().toList();
+        assertThat(patients).containsExactly("22222222J", "33333333P");
+        assertThat(lines).hasSize(4).allMatch(l -> l.startsWith("{"));
+        assertThat(lines.get(0)).contains("\"patientDni\":\"22222222J\"");
+    }
+
+    @Test
+    void negotiationPrefersZstdAndHonoursQZero() {
+        assertThat(ExportEncoding.negotiate("gzip, deflate, br, zstd")).isEqualTo(ExportEncoding.ZSTD);
+        assertThat(ExportEncoding.negotiate("zstd;q=0, gzip;q=0.8")).isEqualTo(ExportEncoding.GZIP);
+        assertThat(ExportEncoding.negotiate("*")).isEqualTo(ExportEncoding.ZSTD);
+        // "*" no reactiva una codificacion rechazada explicitamente
+        assertThat(ExportEncoding.negotiate("gzip;q=0, *")).isEqualTo(ExportEncoding.ZSTD);
+        assertThat(ExportEncoding.negotiate("zstd;q=0, *")).isEqualTo(ExportEncoding.GZIP);
+        assertThat(ExportEncoding.negotiate("zstd;q=0, gzip;q=0, *")).isEqualTo(ExportEncoding.IDENTITY);
+        assertThat(ExportEncoding.negotiate("*;q=0, gzip")).isEqualTo(ExportEncoding.GZIP);
+        assertThat(ExportEncoding.negotiate("identity")).isEqualTo(ExportEncoding.IDENTITY);
+        assertThat(ExportEncoding.negotiate(null)).isEqualTo(ExportEncoding.IDENTITY);
+    }
+
+    private static GameSession session(String dni, int n) {
+        GameSession g = new GameSession();
+        g.setSessionId(dni + "-" + n);
+        g.setPatientDni(dni);
+        g.setGameId("reach");
+        g.setSessionStart(Instant.parse("2026-03-0" + n + "T10:00:00Z"));
+        return g;
+    }
+
+    private static String read(InputStream in) throws Exception {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.rehabiapp.data.application.service;
+
+import com.rehabiapp.data.domain.model.GameSession;
+import com.rehabiapp.data.domain.model.MovementMetrics;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.complex.StructVector;
+import org.apache.arrow.vector.dictionary.DictionaryEncoder;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests unitarios de la exportacion: el stream Arrow se relee con ArrowStreamReader (lotes,
+ * diccionarios, struct de metricas y nulos) y la fila CSV leida del BSON crudo coincide con
+ * la del mapeo a GameSession.
+ */
+class ExportServiceTest {
+
+    private static final String DNI = "12345678Z";
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final ExportService service = new ExportService(
+            new SessionStorage(mongoTemplate, SessionStorageMode.STANDARD, false, 365, 300), ExportCsvReader.RAW);
+
+    @AfterEach
+    void close() {
+        service.shutdown();
+    }
+
+    @Test
+    void arrowStreamHasDictionaryColumnsAndMetricsStructAcrossBatches() throws Exception {
+        int n = SessionArrowWriter.BATCH_ROWS + 10;
+        List<GameSession> sessions = IntStream.range(0, n).mapToObj(ExportServiceTest::session).toList();
+        when(mongoTemplate.findDistinct(any(Query.class), eq("gameId"), eq(GameSession.class), eq(String.class)))
+                .thenReturn(List.of("reach", "grip"));
+        when(mongoTemplate.findDistinct(any(Query.class), eq("disabilityCode"), eq(GameSession.class), eq(String.class)))
+                .thenReturn(List.of("G81"));
+        when(mongoTemplate.stream(any(Query.class), eq(GameSession.class))).thenReturn(sessions.stream());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.streamArrow(DNI, null, null, out);
+
+        List<String> games = new ArrayList<>();
+        List<Double> roms = new ArrayList<>();
+        int batches = 0;
+        try (RootAllocator allocator = new RootAllocator();
+             ArrowStreamReader reader = new ArrowStreamReader(new ByteArrayInputStream(out.toByteArray()), allocator)) {
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            while (reader.loadNextBatch()) {
+                batches++;
+                IntVector gameIdx = (IntVector) root.getVector("gameId");
+                try (FieldVector decoded = (FieldVector) DictionaryEncoder.decode(gameIdx,
+                        reader.getDictionaryVectors().get(SessionArrowWriter.GAME_DICTIONARY_ID))) {
+                    for (int i = 0; i < root.getRowCount(); i++) {
+                        games.add(new String(((VarCharVector) decoded).get(i)));
+                    }
+                }
+                StructVector metrics = (StructVector) root.getVector("movementMetrics");
+                Float8Vector rom = metrics.getChild("rangeOfMotionDegrees", Float8Vector.class);
+                for (int i = 0; i < root.getRowCount(); i++) {
+                    roms.add(metrics.isNull(i) ? null : rom.getObject(i));
+                }
+                if (batches == 1) {
+                    assertThat(((TimeStampMilliTZVector) root.getVector("sessionStart")).get(1))
+                            .isEqualTo(Instant.parse("2026-01-01T00:00:01Z").toEpochMilli());
+                    assertThat(root.getVector("disabilityCode").isNull(0)).isFalse();
+                }
+            }
+        }
+
+        assertThat(batches).isEqualTo(2);
+        assertThat(games).hasSize(n);
+        assertThat(games.subList(0, 3)).containsExactly("grip", "reach", "grip");
+        assertThat(roms.get(0)).isNull();
+        assertThat(roms.get(1)).isEqualTo(1.0);
+    }
+
+    @Test
+    void arrowReadsDictionariesAndRowsFromTheSameReceivedAtSnapshot() throws Exception {
+        when(mongoTemplate.findDistinct(any(Query.class), eq("gameId"), eq(GameSession.class), eq(String.class)))
+                .thenReturn(List.of("reach", "grip"));
+        when(mongoTemplate.findDistinct(any(Query.class), eq("disabilityCode"), eq(GameSession.class), eq(String.class)))
+                .thenReturn(List.of("G81"));
+        when(mongoTemplate.stream(any(Query.class), eq(GameSession.class))).thenReturn(Stream.of(session(0)));
+
+        service.streamArrow(DNI, null, null, new ByteArrayOutputStream());
+
+        ArgumentCaptor<Query> distinct = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Query> rows = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).findDistinct(distinct.capture(), eq("gameId"), eq(GameSession.class), eq(String.class));
+        verify(mongoTemplate).stream(rows.capture(), eq(GameSession.class));
+        Object bound = rows.getValue().getQueryObject().get("receivedAt");
+        assertThat(bound).isEqualTo(distinct.getValue().getQueryObject().get("receivedAt")).isNotNull();
+    }
+
+    @Test
+    void arrowFailsInsteadOfWritingNullForValueOutsideDictionary() {
+        when(mongoTemplate.findDistinct(any(Query.class), eq("gameId"), eq(GameSession.class), eq(String.class)))
+                .thenReturn(List.of("reach"));
+        when(mongoTemplate.findDistinct(any(Query.class), eq("disabilityCode"), eq(GameSession.class), eq(String.class)))
+                .thenReturn(List.of("G81"));
+        // session(1) es de "grip", que no estaba en el diccionario
+        when(mongoTemplate.stream(any(Query.class), eq(GameSession.class))).thenReturn(Stream.of(session(0), session(1)));
+
+        assertThatThrownBy(() -> service.streamArrow(DNI, null, null, new ByteArrayOutputStream()))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("grip");
+    }
+
+    @Test
+    void arrowWithoutSessionsIsNotFoundBeforeWriting() {
+        when(mongoTemplate.findDistinct(any(Query.class), eq("gameId"), eq(GameSession.class), eq(String.class)))
+                .thenReturn(List.of());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertThatThrownBy(() -> service.streamArrow(DNI, null, null, out))
+                .isInstanceOf(NotFoundException.class);
+        assertThat(out.size()).isZero();
+        verify(mongoTemplate, never()).stream(any(Query.class), eq(GameSession.class));
+    }
+
+    @Test
+    void rawBsonRecordMatchesMappedCsvRecord() {
+        GameSession full = session(3);
+        full.setSessionEnd(full.getSessionStart().plusSeconds(90));
+        full.setDurationSeconds(90);
+        full.setRepetitionsCompleted(8);
+        full.setRepetitionsTarget(10);
+        full.setReceivedAt(Instant.parse("2026-01-02T10:15:30.123Z"));
+        GameSession sparse = session(0);
+
+        for (GameSession g : List.of(full, sparse)) {
+            Object[] raw = RawSessionCsv.record(stored(g), new Object[ExportService.CSV_HEADERS.length]);
+            assertThat(Arrays.stream(raw).map(String::valueOf).toList())
+                    .isEqualTo(Arrays.stream(ExportService.csvRecord(g)).map(String::valueOf).toList());
+        }
+    }
+
+    /** Documento tal como lo guarda Spring Data (Instant como fecha BSON, _id y _class incluidos). */
+    private static RawBsonDocument stored(GameSession g) {
+        Document d = new Document("_id", new ObjectId())
+                .append("sessionId", g.getSessionId())
+                .append("patientDni", g.getPatientDni())
+                .append("gameId", g.getGameId())
+                .append("progressionLevel", g.getProgressionLevel())
+                .append("sessionStart", Date.from(g.getSessionStart()));
+        if (g.getSessionEnd() != null) d.append("sessionEnd", Date.from(g.getSessionEnd()));
+        d.append("durationSeconds", g.getDurationSeconds())
+                .append("score", g.getScore())
+                .append("repetitionsCompleted", g.getRepetitionsCompleted())
+                .append("repetitionsTarget", g.getRepetitionsTarget());
+        MovementMetrics m = g.getMovementMetrics();
+        if (m != null) {
+            d.append("movementMetrics", new Document("rangeOfMotionDegrees", m.rangeOfMotionDegrees())
+                    .append("averageSpeed", m.averageSpeed())
+                    .append("maxSpeed", m.maxSpeed()));
+        }
+        d.append("completed", g.getCompleted()).append("disabilityCode", g.getDisabilityCode());
+        if (g.getReceivedAt() != null) d.append("receivedAt", Date.from(g.getReceivedAt()));
+        d.append("_class", GameSession.class.getName());
+        return new RawBsonDocument(d, new DocumentCodec());
+    }
+
+    /** Sesiones alternando juego; la primera sin metricas de movimiento. */
+    private static GameSession session(int i) {
+        GameSession g = new GameSession();
+        g.setSessionId("s-" + i);
+        g.setPatientDni(DNI);
+        g.setGameId(i % 2 == 0 ? "grip" : "reach");
+        g.setDisabilityCode("G81");
+        g.setProgressionLevel(1 + i % 3);
+        g.setSessionStart(Instant.parse("2026-01-01T00:00:00Z").plusSeconds(i));
+        g.setScore(i);
+        g.setCompleted(i % 2 == 0);
+        if (i > 0) g.setMovementMetrics(new MovementMetrics((double) i, 0.5, 1.5));
+        return g;
+    }
+}
@@ -0,0 +1,114 @@
+package com.rehabiapp.data.application.service;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.rehabiapp.data.domain.model.GameSession;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests unitarios del bulk writer con MongoTemplate mockeado: notificacion de las filas
+ * escritas cuando el lote desordenado termina en error y en el reintento de un lote propio.
+ */
+class GameSessionBulkWriterTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final BulkOperations ops = mock(BulkOperations.class);
+    private final IngestedSessionsListener listener = mock(IngestedSessionsListener.class);
+
+    @Test
+    void rowsWrittenBeforeNonDuplicateErrorAreNotified() {
+        GameSessionBulkWriter writer = writer(SessionStorageMode.STANDARD);
+        when(mongoTemplate.bulkOps(BulkMode.UNORDERED, GameSession.class)).thenReturn(ops);
+        // s1 duplicada, s2 rechazada por validacion, s0 y s3 escritas
+        BulkOperationException failure = bulkFailure(error(1, 11000), error(2, 121));
+        when(ops.execute()).thenThrow(failure);
+        List<GameSession> batch = List.of(session("s0"), session("s1"), session("s2"), session("s3"));
+
+        assertThatThrownBy(() -> writer.insertAll(batch)).isSameAs(failure);
+
+        verify(listener).onSessionsInserted(List.of(batch.get(0), batch.get(3)));
+    }
+
+    @Test
+    void timeSeriesRowsWrittenBeforeErrorAreNotified() {
+        GameSessionBulkWriter writer = writer(SessionStorageMode.TIMESERIES);
+        BulkOperations claims = mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkMode.UNORDERED, SessionStorage.SESSION_IDS)).thenReturn(claims);
+        when(claims.insert(anyList())).thenReturn(claims);
+        when(mongoTemplate.bulkOps(BulkMode.UNORDERED, GameSession.class)).thenReturn(ops);
+        when(ops.insert(anyList())).thenReturn(ops);
+        BulkOperationException failure = bulkFailure(error(0, 121));
+        when(ops.execute()).thenThrow(failure);
+        List<GameSession> batch = List.of(session("s0"), session("s1"));
+
+        assertThatThrownBy(() -> writer.insertAll(batch)).isSameAs(failure);
+
+        verify(listener).onSessionsInserted(List.of(batch.get(1)));
+    }
+
+    @Test
+    void timeSeriesRetryRecognisesRowsWrittenByItsOwnFailedAttempt() {
+        GameSessionBulkWriter writer = writer(SessionStorageMode.TIMESERIES);
+        BulkOperations claims = mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkMode.UNORDERED, SessionStorage.SESSION_IDS)).thenReturn(claims);
+        when(claims.insert(anyList())).thenReturn(claims);
+        // s0 sigue reservada (pending) por el intento anterior del mismo owner y llego a escribirse
+        when(claims.execute()).thenThrow(bulkFailure(error(0, 11000)));
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), eq(Document.class),
+                eq(SessionStorage.SESSION_IDS)))
+                .thenReturn(new Document("state", SessionStorage.PENDING).append("owner", "owner-1"));
+        when(mongoTemplate.exists(any(Query.class), eq(GameSession.class))).thenReturn(true);
+        when(mongoTemplate.bulkOps(BulkMode.UNORDERED, GameSession.class)).thenReturn(ops);
+        when(ops.insert(anyList())).thenReturn(ops);
+        List<GameSession> batch = List.of(session("s0"), session("s1"));
+
+        assertThat(writer.insertAll(batch, "owner-1")).isEmpty();
+
+        verify(listener).onSessionsInserted(List.of(batch.get(0)));
+        verify(listener).onSessionsInserted(List.of(batch.get(1)));
+    }
+
+    private GameSessionBulkWriter writer(SessionStorageMode mode) {
+        return new GameSessionBulkWriter(mongoTemplate,
+                new SessionStorage(mongoTemplate, mode, false, 365, 300), List.of(listener));
+    }
+
+    static BulkOperationException bulkFailure(BulkWriteError... errors) {
+        return new BulkOperationException("bulk", new MongoBulkWriteException(
+                BulkWriteResult.acknowledged(0, 0, 0, 0, List.of(), List.of()),
+                new ArrayList<>(List.of(errors)), null, new ServerAddress(), Set.of()));
+    }
+
+    static BulkWriteError error(int index, int code) {
+        return new BulkWriteError(code, "error " + code, new BsonDocument(), index);
+    }
+
+    static GameSession session(String sessionId) {
+        GameSession g = new GameSession();
+        g.setSessionId(sessionId);
+        g.setPatientDni("12345678Z");
+        return g;
+    }
+}
@@ -0,0 +1,132 @@
+package com.rehabiapp.data.application.service;
+
+import com.rehabiapp.data.application.service.dto.BatchIngestItemResult;
+import com.rehabiapp.data.application.service.dto.BatchIngestResponse;
+import com.rehabiapp.data.application.service.dto.GameSessionIngestRequest;
+import com.rehabiapp.data.application.service.dto.MovementMetricsDto;
+import com.rehabiapp.data.domain.model.GameSession;
+import com.rehabiapp.data.domain.repository.GameSessionRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests unitarios de GameSessionIngestService con repositorio y bulk writer mockeados.
+ */
+class GameSessionIngestServiceTest {
+
+    private static final Validator VALIDATOR = Validation.buildDefaultValidatorFactory().getValidator();
+
+    private final GameSessionRepository repository = mock(GameSessionRepository.class);
+    private final GameSessionBulkWriter bulkWriter = mock(GameSessionBulkWriter.class);
+    private final SessionStorage storage = mock(SessionStorage.class);
+    private final IngestWriteBehindQueue writeBehind = mock(IngestWriteBehindQueue.class);
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final GameSessionIngestService service = new GameSessionIngestService(
+            repository, bulkWriter, storage, writeBehind, VALIDATOR, List.of(), registry, IngestIdempotencyMode.INSERT_ONLY, 3);
+
+    @Test
+    void insertOnlySkipsPrecheckAndMapsUniqueIndexTo409() {
+        when(repository.insert(any(GameSession.class))).thenThrow(new DuplicateKeyException("E11000"));
+
+        assertThatThrownBy(() -> service.ingest(request("sess-0001", 10)))
+                .isInstanceOf(DuplicateSessionException.class);
+        verify(repository, never()).existsBySessionId(any());
+        assertThat(registry.get("rehabiapp.ingest.duplicates")
+                .tag("detected_by", "unique_index").tag("path", "single")
+                .counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void precheckModeRejectsKnownSessionWithoutInsert() {
+        GameSessionIngestService precheck = new GameSessionIngestService(
+                repository, bulkWriter, storage, writeBehind, VALIDATOR, List.of(), registry, IngestIdempotencyMode.PRECHECK, 3);
+        when(repository.existsBySessionId("sess-0001")).thenReturn(true);
+
+        assertThatThrownBy(() -> precheck.ingest(request("sess-0001", 10)))
+                .isInstanceOf(DuplicateSessionException.class);
+        verify(repository, never()).insert(any(GameSession.class));
+        assertThat(registry.get("rehabiapp.ingest.duplicates")
+                .tag("detected_by", "precheck").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void asyncModeEnqueuesWithoutTouchingMongo() {
+        when(writeBehind.isEnabled()).thenReturn(true);
+
+        assertThat(service.ingest(request("sess-0001", 10)).status()).isEqualTo("QUEUED");
+        verify(writeBehind).enqueue(any(GameSession.class));
+        verifyNoInteractions(repository);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void batchMapsDuplicateAndInvalidPerItem() {
+        // Indice 1 dentro de la lista enviada al writer (= elemento 2 del lote) colisiona
+        when(bulkWriter.insertAll(anyList())).thenReturn(Set.of(1));
+
+        BatchIngestResponse r = service.ingestBatch(List.of(
+                request("sess-0001", 10),
+                request("sess-0002", 30),   // invalido: completadas > objetivo
+                request("sess-0003", 10)));
+
+        assertThat(r.received()).isEqualTo(3);
+        assertThat(r.created()).isEqualTo(1);
+        assertThat(r.duplicates()).isEqualTo(1);
+        assertThat(r.invalid()).isEqualTo(1);
+        assertThat(r.items()).extracting(BatchIngestItemResult::status)
+                .containsExactly("CREATED", "INVALID", "DUPLICATE");
+        assertThat(r.items().get(0).id()).isNotBlank();
+        assertThat(r.items().get(1).errors()).isNotEmpty();
+
+        ArgumentCaptor<List<GameSession>> captor = ArgumentCaptor.forClass(List.class);
+        verify(bulkWriter).insertAll(captor.capture());
+        assertThat(captor.getValue()).extracting(GameSession::getSessionId)
+                .containsExactly("sess-0001", "sess-0003");
+        verifyNoInteractions(repository);
+    }
+
+    @Test
+    void batchAboveMaxSizeIsRejected() {
+        List<GameSessionIngestRequest> tooMany = new ArrayList<>(
+                Collections.nCopies(4, request("sess-0001", 10)));
+
+        assertThatThrownBy(() -> service.ingestBatch(tooMany))
+                .isInstanceOf(IllegalArgumentException.class);
+        verifyNoInteractions(bulkWriter);
+    }
+
+    private GameSessionIngestRequest request(String sessionId, int repetitionsCompleted) {
+        return new GameSessionIngestRequest(
+                sessionId,
+                "12345678Z",
+                "reach-and-grab",
+                2,
+                Instant.parse("2026-04-24T10:00:00Z"),
+                Instant.parse("2026-04-24T10:05:00Z"),
+                300, 820, repetitionsCompleted, 20,
+                new MovementMetricsDto(92.5, 0.42, 0.88),
+                true,
+                "M25.5"
+        );
+    }
+}
@@ -0,0 +1,164 @@
+package com.rehabiapp.data.application.service;
+
+import com.rehabiapp.data.domain.model.GameSession;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests unitarios de la cola de escritura diferida con el bulk writer mockeado.
+ */
+class IngestWriteBehindQueueTest {
+
+    private final GameSessionBulkWriter bulkWriter = mock(GameSessionBulkWriter.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void stopFlushesEverythingQueued() {
+        AtomicInteger written = new AtomicInteger();
+        when(bulkWriter.insertAll(anyList(), anyString())).thenAnswer(inv -> {
+            written.addAndGet(((List<GameSession>) inv.getArgument(0)).size());
+            return Set.of();
+        });
+        IngestWriteBehindQueue queue = new IngestWriteBehindQueue(
+                bulkWriter, registry, true, 1000, 2, 50, 1, 5000, 8, 1);
+
+        queue.start();
+        for (int i = 0; i < 500; i++) queue.enqueue(session("s-" + i));
+        queue.stop();
+
+        assertThat(written.get()).isEqualTo(500);
+        assertThat(registry.get("rehabiapp.ingest.queue.depth").gauge().value()).isZero();
+        assertThat(registry.get("rehabiapp.ingest.queue.batch.size").summary().max()).isLessThanOrEqualTo(50);
+    }
+
+    @Test
+    void fullQueueAppliesBackpressure() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(bulkWriter.insertAll(anyList(), anyString())).thenAnswer(inv -> {
+            release.await();
+            return Set.of();
+        });
+        IngestWriteBehindQueue queue = new IngestWriteBehindQueue(
+                bulkWriter, registry, true, 1, 1, 1, 3, 5000, 8, 1);
+        queue.start();
+
+        // s-1 queda bloqueada en el worker, s-2 ocupa el unico hueco de la cola
+        queue.enqueue(session("s-1"));
+        while (registry.get("rehabiapp.ingest.queue.depth").gauge().value() > 0) Thread.sleep(5);
+        queue.enqueue(session("s-2"));
+
+        assertThatThrownBy(() -> queue.enqueue(session("s-3")))
+                .isInstanceOf(IngestBackpressureException.class)
+                .extracting(e -> ((IngestBackpressureException) e).getRetryAfterSeconds())
+                .isEqualTo(3L);
+
+        release.countDown();
+        queue.stop();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void transientFailureIsRetriedUntilWritten() {
+        AtomicInteger calls = new AtomicInteger();
+        AtomicInteger written = new AtomicInteger();
+        when(bulkWriter.insertAll(anyList(), anyString())).thenAnswer(inv -> {
+            if (calls.incrementAndGet() <= 2) {
+                throw new DataAccessResourceFailureException("primario no disponible");
+            }
+            written.addAndGet(((List<GameSession>) inv.getArgument(0)).size());
+            return Set.of();
+        });
+        IngestWriteBehindQueue queue = new IngestWriteBehindQueue(
+                bulkWriter, registry, true, 100, 1, 10, 1, 5000, 8, 1);
+
+        queue.start();
+        for (int i = 0; i < 5; i++) queue.enqueue(session("s-" + i));
+        queue.stop();
+
+        assertThat(written.get()).isEqualTo(5);
+        assertThat(registry.get("rehabiapp.ingest.queue.retries").counter().count()).isEqualTo(2);
+        assertThat(registry.get("rehabiapp.ingest.queue.failed").counter().count()).isZero();
+    }
+
+    @Test
+    void permanentFailureDropsBatchWithoutRetry() {
+        when(bulkWriter.insertAll(anyList(), anyString())).thenThrow(new IllegalArgumentException("documento invalido"));
+        IngestWriteBehindQueue queue = new IngestWriteBehindQueue(
+                bulkWriter, registry, true, 100, 1, 10, 1, 5000, 8, 1);
+
+        queue.start();
+        queue.enqueue(session("s-1"));
+        queue.stop();
+
+        verify(bulkWriter, times(1)).insertAll(anyList(), anyString());
+        assertThat(registry.get("rehabiapp.ingest.queue.failed").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void enqueueAfterStopIsRejected() {
+        IngestWriteBehindQueue queue = new IngestWriteBehindQueue(
+                bulkWriter, registry, true, 100, 1, 10, 1, 5000, 8, 1);
+        queue.start();
+        queue.stop();
+
+        assertThatThrownBy(() -> queue.enqueue(session("s-1")))
+                .isInstanceOf(IngestBackpressureException.class);
+    }
+
+    @Test
+    void retryAfterPartialWriteNotifiesRowsOfTheFailedAttempt() {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        BulkOperations ops = mock(BulkOperations.class);
+        IngestedSessionsListener listener = mock(IngestedSessionsListener.class);
+        GameSessionBulkWriter writer = new GameSessionBulkWriter(mongoTemplate,
+                new SessionStorage(mongoTemplate, SessionStorageMode.STANDARD, false, 365, 300), List.of(listener));
+        when(mongoTemplate.bulkOps(BulkMode.UNORDERED, GameSession.class)).thenReturn(ops);
+        GameSession s0 = session("s-0");
+        s0.setId("64b000000000000000000000");
+        GameSession s1 = session("s-1");
+        s1.setId("64b000000000000000000001");
+        // Primer intento: s-0 se escribe pero la respuesta se pierde. Segundo: s-0 ya existe.
+        when(ops.execute())
+                .thenThrow(new DataAccessResourceFailureException("socket cerrado"))
+                .thenThrow(GameSessionBulkWriterTest.bulkFailure(GameSessionBulkWriterTest.error(0, 11000)));
+        when(mongoTemplate.find(any(Query.class), eq(GameSession.class))).thenReturn(List.of(s0));
+        IngestWriteBehindQueue queue = new IngestWriteBehindQueue(
+                writer, registry, true, 100, 1, 10, 1, 5000, 8, 1);
+
+        queue.start();
+        queue.enqueue(s0);
+        queue.enqueue(s1);
+        queue.stop();
+
+        verify(listener).onSessionsInserted(List.of(s1, s0));
+        assertThat(registry.get("rehabiapp.ingest.duplicates").counter().count()).isZero();
+        assertThat(registry.get("rehabiapp.ingest.queue.failed").counter().count()).isZero();
+    }
+
+    private GameSession session(String sessionId) {
+        GameSession g = new GameSession();
+        g.setSessionId(sessionId);
+        return g;
+    }
+}
@@ -0,0 +1,201 @@
+package com.rehabiapp.data.application.service;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.rehabiapp.data.domain.model.AnalyticsRefreshState;
+import com.rehabiapp.data.domain.model.GameSession;
+import com.rehabiapp.data.domain.model.LevelStatistics;
+import com.rehabiapp.data.domain.model.LevelStatisticsAccumulator;
+import com.rehabiapp.data.domain.model.MovementMetrics;
+import com.rehabiapp.data.domain.repository.AnalyticsRefreshStateRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.Pair;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests unitarios de los acumuladores incrementales de level_statistics (sin MongoDB).
+ */
+class LevelStatisticsAccumulatorServiceTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final BulkOperations bulk = mock(BulkOperations.class);
+    private final AnalyticsRefreshStateRepository stateRepo = mock(AnalyticsRefreshStateRepository.class);
+    private final LevelStatisticsAccumulatorService service = new LevelStatisticsAccumulatorService(
+            mongoTemplate, stateRepo, new SimpleMeterRegistry(), LevelStatsMode.INCREMENTAL);
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void insertedSessionsBecomeOneUpsertPerLevel() {
+        when(mongoTemplate.bulkOps(eq(BulkMode.UNORDERED), eq(LevelStatisticsAccumulator.class))).thenReturn(bulk);
+        when(bulk.upsert(anyList())).thenReturn(bulk);
+        when(bulk.execute()).thenReturn(BulkWriteResult.unacknowledged());
+
+        service.onSessionsInserted(List.of(
+                session("11111111H", 1, 800, true, "2026-04-24T10:00:00Z"),
+                session("22222222J", 1, 600, false, "2026-04-24T09:00:00Z"),
+                session("11111111H", 2, 900, true, "2026-04-24T10:00:00Z")));
+
+        ArgumentCaptor<List<Pair<Query, Update>>> captor = ArgumentCaptor.forClass(List.class);
+        verify(bulk).upsert(captor.capture());
+        assertThat(captor.getValue()).hasSize(2);
+
+        Document level1 = captor.getValue().get(0).getSecond().getUpdateObject();
+        Document inc = level1.get("$inc", Document.class);
+        assertThat(inc.get("sessions")).isEqualTo(2L);
+        assertThat(inc.get("scoreSum")).isEqualTo(1400L);
+        assertThat(inc.get("completedCount")).isEqualTo(1L);
+        assertThat(level1.get("$max", Document.class)).isNotEmpty();
+        assertThat(level1.get("$min", Document.class).get("trackingSince"))
+                .isEqualTo(Instant.parse("2026-04-24T09:00:00Z"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void ingestLeavesSessionsBeforeTrackingSinceToTheSeed() {
+        when(mongoTemplate.bulkOps(eq(BulkMode.UNORDERED), eq(LevelStatisticsAccumulator.class))).thenReturn(bulk);
+        when(bulk.upsert(anyList())).thenReturn(bulk);
+        // La siembra ya fijo trackingSince del nivel 1 despues de la primera sesion del lote
+        when(bulk.execute())
+                .thenThrow(GameSessionBulkWriterTest.bulkFailure(GameSessionBulkWriterTest.error(0, 11000)))
+                .thenReturn(BulkWriteResult.unacknowledged());
+        LevelStatisticsAccumulator acc = new LevelStatisticsAccumulator();
+        acc.setProgressionLevel(1);
+        acc.setTrackingSince(Instant.parse("2026-04-24T09:30:00Z"));
+        when(mongoTemplate.findOne(any(Query.class), eq(LevelStatisticsAccumulator.class))).thenReturn(acc);
+        when(stateRepo.findById(AnalyticsRefreshState.LEVEL_STATISTICS)).thenReturn(Optional.empty());
+
+        service.onSessionsInserted(List.of(
+                session("11111111H", 1, 800, true, "2026-04-24T09:00:00Z"),
+                session("22222222J", 1, 600, false, "2026-04-24T10:00:00Z")));
+
+        ArgumentCaptor<List<Pair<Query, Update>>> captor = ArgumentCaptor.forClass(List.class);
+        verify(bulk, times(2)).upsert(captor.capture());
+        Document filter = captor.getAllValues().get(0).get(0).getFirst().getQueryObject();
+        assertThat(filter.get("trackingSince", Document.class).get("$not", Document.class).get("$gt"))
+                .isEqualTo(Instant.parse("2026-04-24T09:00:00Z"));
+        Document retry = captor.getAllValues().get(1).get(0).getSecond().getUpdateObject();
+        assertThat(retry.get("$inc", Document.class).get("sessions")).isEqualTo(1L);
+        assertThat(retry.get("$inc", Document.class).get("scoreSum")).isEqualTo(600L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void seedStartsTrackingEveryLevelBeforeAggregating() {
+        when(stateRepo.findById(AnalyticsRefreshState.LEVEL_STATISTICS)).thenReturn(Optional.empty());
+        when(mongoTemplate.findDistinct(any(Query.class), eq("progressionLevel"), eq(GameSession.class), eq(Integer.class)))
+                .thenReturn(List.of(1, 2));
+        when(mongoTemplate.bulkOps(eq(BulkMode.UNORDERED), eq(LevelStatisticsAccumulator.class))).thenReturn(bulk);
+        when(bulk.upsert(anyList())).thenReturn(bulk);
+        when(bulk.execute()).thenReturn(BulkWriteResult.unacknowledged());
+        LevelStatisticsAccumulator acc = new LevelStatisticsAccumulator();
+        acc.setProgressionLevel(1);
+        acc.setTrackingSince(Instant.parse("2026-04-24T09:30:00Z"));
+        when(mongoTemplate.findAll(LevelStatisticsAccumulator.class)).thenReturn(List.of(acc));
+        when(mongoTemplate.aggregateStream(any(), eq(GameSession.class), eq(Document.class))).thenReturn(Stream.empty());
+
+        service.seedIfNeeded();
+
+        InOrder order = inOrder(bulk, mongoTemplate);
+        ArgumentCaptor<List<Pair<Query, Update>>> captor = ArgumentCaptor.forClass(List.class);
+        order.verify(bulk).upsert(captor.capture());
+        order.verify(mongoTemplate).findAll(LevelStatisticsAccumulator.class);
+        order.verify(mongoTemplate).aggregateStream(any(), eq(GameSession.class), eq(Document.class));
+        assertThat(captor.getValue()).hasSize(2);
+        assertThat(captor.getValue().get(0).getSecond().getUpdateObject().get("$setOnInsert", Document.class))
+                .containsKey("trackingSince");
+    }
+
+    @Test
+    void fullModeIgnoresIngest() {
+        LevelStatisticsAccumulatorService full = new LevelStatisticsAccumulatorService(
+                mongoTemplate, mock(AnalyticsRefreshStateRepository.class), new SimpleMeterRegistry(),
+                LevelStatsMode.FULL);
+
+        full.onSessionsInserted(List.of(session("11111111H", 1, 800, true, "2026-04-24T10:00:00Z")));
+
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void seedClaimedByAnotherReplicaIsNotRun() {
+        when(stateRepo.findById(AnalyticsRefreshState.LEVEL_STATISTICS)).thenReturn(Optional.empty());
+        when(stateRepo.insert(any(AnalyticsRefreshState.class))).thenThrow(new DuplicateKeyException("seed"));
+
+        service.seedIfNeeded();
+
+        verify(mongoTemplate, never()).aggregateStream(any(), eq(GameSession.class), eq(Document.class));
+        verify(mongoTemplate, never()).bulkOps(any(BulkMode.class), eq(LevelStatisticsAccumulator.class));
+    }
+
+    @Test
+    void reseedDuringAnotherSeedKeepsAccumulators() {
+        when(mongoTemplate.upsert(any(Query.class), any(Update.class), eq(AnalyticsRefreshState.class)))
+                .thenThrow(new DuplicateKeyException("seed"));
+
+        assertThat(service.reseed()).isFalse();
+
+        verify(mongoTemplate, never()).remove(any(Query.class), eq(LevelStatisticsAccumulator.class));
+    }
+
+    @Test
+    void snapshotDerivesAveragesFromSums() {
+        LevelStatisticsAccumulator a = new LevelStatisticsAccumulator();
+        a.setProgressionLevel(3);
+        a.setSessions(4);
+        a.setScoreSum(2000);
+        a.setScoreCount(4);
+        a.setDurationSum(900);
+        a.setDurationCount(3);
+        a.setCompletedCount(1);
+        a.setRomSum(170.0);
+        a.setRomCount(2);
+        a.setHll(Map.of("7", 1, "1500", 2));
+        when(mongoTemplate.findAll(LevelStatisticsAccumulator.class)).thenReturn(List.of(a));
+
+        LevelStatistics s = service.snapshot().get(0);
+
+        assertThat(s.getTotalSessions()).isEqualTo(4L);
+        assertThat(s.getTotalPatients()).isEqualTo(2L);
+        assertThat(s.getAverageScore()).isEqualTo(500.0);
+        assertThat(s.getAverageDuration()).isEqualTo(300.0);
+        assertThat(s.getGlobalCompletionRate()).isEqualTo(0.25);
+        assertThat(s.getAverageRangeOfMotion()).isEqualTo(85.0);
+    }
+
+    private GameSession session(String dni, int level, int score, boolean completed, String receivedAt) {
+        GameSession g = new GameSession();
+        g.setPatientDni(dni);
+        g.setProgressionLevel(level);
+        g.setScore(score);
+        g.setDurationSeconds(300);
+        g.setCompleted(completed);
+        g.setMovementMetrics(new MovementMetrics(90.0, 0.4, 0.8));
+        g.setReceivedAt(Instant.parse(receivedAt));
+        return g;
+    }
+}
@@ -0,0 +1,111 @@
+package com.rehabiapp.data.application.service;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.rehabiapp.data.domain.model.GameSession;
+import com.rehabiapp.data.domain.model.MovementMetrics;
+import com.rehabiapp.data.domain.model.RomDailyRollup;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Instant;
+import java.util.List;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.Pair;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests unitarios del mantenimiento de rom_daily_rollups en la ingesta y de su reconstruccion
+ * (sin MongoDB).
+ */
+class RomDailyRollupServiceTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final BulkOperations bulk = mock(BulkOperations.class);
+    private final RomDailyRollupService service =
+            new RomDailyRollupService(mongoTemplate, storage(false), new SimpleMeterRegistry(), true);
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void sessionsAreFoldedIntoOneUpsertPerPatientGameAndUtcDay() {
+        when(mongoTemplate.bulkOps(eq(BulkMode.UNORDERED), eq(RomDailyRollup.class))).thenReturn(bulk);
+        when(bulk.upsert(anyList())).thenReturn(bulk);
+        when(bulk.execute()).thenReturn(BulkWriteResult.unacknowledged());
+
+        service.onSessionsInserted(List.of(
+                session("game1", "2026-04-13T08:00:00Z", 80.0),
+                session("game1", "2026-04-13T23:30:00Z", 90.0),
+                session("game1", "2026-04-14T00:10:00Z", null),
+                session("game2", "2026-04-13T10:00:00Z", 70.0)));
+
+        ArgumentCaptor<List<Pair<Query, Update>>> captor = ArgumentCaptor.forClass(List.class);
+        verify(bulk).upsert(captor.capture());
+        assertThat(captor.getValue()).hasSize(3);
+
+        Pair<Query, Update> first = captor.getValue().get(0);
+        assertThat(first.getFirst().getQueryObject().getString("day")).isEqualTo("2026-04-13");
+        Document u = first.getSecond().getUpdateObject();
+        assertThat(u.get("$inc", Document.class).get("sessions")).isEqualTo(2L);
+        assertThat(u.get("$inc", Document.class).get("romSum")).isEqualTo(170.0);
+        assertThat(u.get("$min", Document.class).get("romMin")).isEqualTo(80.0);
+        assertThat(u.get("$max", Document.class).get("romMax")).isEqualTo(90.0);
+
+        // Dia sin ROM: cuenta la sesion pero no toca min/max
+        Document noRom = captor.getValue().get(1).getSecond().getUpdateObject();
+        assertThat(noRom.get("$inc", Document.class).get("romCount")).isEqualTo(0L);
+        assertThat(noRom.containsKey("$min")).isFalse();
+    }
+
+    @Test
+    void rebuildWithArchiveReadsBothTiersCountingEachSessionOnce() {
+        RomDailyRollupService tiered =
+                new RomDailyRollupService(mongoTemplate, storage(true), new SimpleMeterRegistry(), true);
+
+        tiered.rebuild();
+
+        List<Document> pipeline = rebuildPipeline();
+        assertThat(pipeline.get(1).get("$unionWith", Document.class).getString("coll"))
+                .isEqualTo(SessionStorage.ARCHIVE);
+        // Primero un $group por _id (sesion en ambos niveles), despues el diario por (paciente, juego, dia)
+        assertThat(pipeline.get(3).get("$group", Document.class).get("_id")).isEqualTo("$_id");
+        assertThat(pipeline.get(4).get("$group", Document.class).get("_id", Document.class))
+                .containsKeys("patientDni", "gameId", "day");
+    }
+
+    @Test
+    void rebuildWithoutArchiveReadsOnlyHotTier() {
+        service.rebuild();
+
+        assertThat(rebuildPipeline()).noneMatch(stage -> stage.containsKey("$unionWith"));
+    }
+
+    private List<Document> rebuildPipeline() {
+        ArgumentCaptor<Aggregation> captor = ArgumentCaptor.forClass(Aggregation.class);
+        verify(mongoTemplate).aggregate(captor.capture(), eq(GameSession.class), eq(Document.class));
+        return captor.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT);
+    }
+
+    private SessionStorage storage(boolean archive) {
+        return new SessionStorage(mongoTemplate, SessionStorageMode.STANDARD, archive, 365, 300);
+    }
+
+    private GameSession session(String gameId, String start, Double rom) {
+        GameSession g = new GameSession();
+        g.setPatientDni("12345678Z");
+        g.setGameId(gameId);
+        g.setSessionStart(Instant.parse(start));
+        g.setMovementMetrics(new MovementMetrics(rom, 0.4, 0.8));
+        return g;
+    }
+}
@@ -0,0 +1,65 @@
+package com.rehabiapp.data.application.service;
+
+import com.mongodb.client.result.DeleteResult;
+import com.rehabiapp.data.domain.model.AnalyticsRefreshState;
+import com.rehabiapp.data.domain.model.GameSession;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests unitarios de SessionArchiveJob: margen de asentamiento en el borrado y lease entre replicas.
+ */
+class SessionArchiveJobTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final SessionStorage storage = new SessionStorage(mongoTemplate, SessionStorageMode.STANDARD, true, 30, 300);
+
+    @Test
+    void deleteSkipsSessionsReceivedWithinSettleWindow() {
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(GameSession.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(), new Document()));
+        when(mongoTemplate.remove(any(Query.class), eq(GameSession.class))).thenReturn(DeleteResult.acknowledged(3));
+        SessionArchiveJob job = new SessionArchiveJob(mongoTemplate, storage, new SimpleMeterRegistry(), 600, 21600);
+
+        Instant before = Instant.now();
+        assertThat(job.archive()).isEqualTo(3);
+
+        ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).remove(captor.capture(), eq(GameSession.class));
+        Document receivedAt = captor.getValue().getQueryObject().get("receivedAt", Document.class);
+        Instant bound = receivedAt.get("$not", Document.class).get("$gte", Instant.class);
+        assertThat(bound).isBeforeOrEqualTo(Instant.now().minus(Duration.ofSeconds(600)))
+                .isAfterOrEqualTo(before.minus(Duration.ofSeconds(600)));
+    }
+
+    @Test
+    void scheduledRunIsSkippedWhileAnotherReplicaHoldsTheLease() {
+        when(mongoTemplate.upsert(any(Query.class), any(UpdateDefinition.class), eq(AnalyticsRefreshState.class)))
+                .thenThrow(new DuplicateKeyException("lease tomado"));
+        SessionArchiveJob job = new SessionArchiveJob(mongoTemplate, storage, new SimpleMeterRegistry(), 600, 21600);
+
+        job.scheduled();
+
+        verify(mongoTemplate, never()).aggregate(any(Aggregation.class), eq(GameSession.class), eq(Document.class));
+        verify(mongoTemplate, never()).remove(any(Query.class), eq(GameSession.class));
+    }
+}
@@ -0,0 +1,144 @@
+package com.rehabiapp.data.application.service;
+
+import com.rehabiapp.data.domain.model.GameSession;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoSocketReadTimeoutException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteError;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests unitarios de SessionStorage: fusion ordenada de los niveles caliente y frio,
+ * lectura solo del caliente cuando el rango no llega al corte, metaField en time-series
+ * (SessionMetaCallback) y reservas de game_session_ids.
+ */
+class SessionStorageTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+
+    @Test
+    void mergesArchiveAndHotBySessionStartEmittingCopiedSessionOnce() {
+        SessionStorage storage = new SessionStorage(mongoTemplate, SessionStorageMode.STANDARD, true, 30, 300);
+        when(mongoTemplate.stream(any(Query.class), eq(GameSession.class)))
+                .thenReturn(Stream.of(session("h1", 2), session("c3", 3), session("h2", 5)));
+        when(mongoTemplate.stream(any(Query.class), eq(GameSession.class), eq(SessionStorage.ARCHIVE)))
+                .thenReturn(Stream.of(session("c1", 1), session("c3", 3), session("c2", 4)));
+
+        try (Stream<GameSession> rows = storage.stream(new Query(), Instant.EPOCH)) {
+            assertThat(rows.map(GameSession::getSessionId))
+                    .containsExactly("c1", "h1", "c3", "c2", "h2");
+        }
+    }
+
+    @Test
+    void recentRangeSkipsArchive() {
+        SessionStorage storage = new SessionStorage(mongoTemplate, SessionStorageMode.STANDARD, true, 30, 300);
+        when(mongoTemplate.stream(any(Query.class), eq(GameSession.class))).thenReturn(Stream.of(session("h1", 1)));
+
+        try (Stream<GameSession> rows = storage.stream(new Query(), Instant.now().minusSeconds(3600))) {
+            assertThat(rows).hasSize(1);
+        }
+        verify(mongoTemplate, never()).stream(any(Query.class), eq(GameSession.class), eq(SessionStorage.ARCHIVE));
+        assertThat(storage.archiveUnion(new Criteria(),
+                Instant.now())).isNull();
+    }
+
+    @Test
+    void timeSeriesAddsMetaOnlyToHotCollection() {
+        SessionMetaCallback callback = new SessionMetaCallback(SessionStorageMode.TIMESERIES);
+        GameSession g = session("s1", 1);
+        Document hot = new Document();
+        Document other = new Document();
+
+        callback.onBeforeSave(g, hot, SessionStorage.HOT);
+        callback.onBeforeSave(g, other, SessionStorage.ARCHIVE);
+
+        assertThat(hot.get("meta", Document.class))
+                .containsEntry("patientDni", "12345678Z")
+                .containsEntry("gameId", "game1")
+                .containsEntry("disabilityCode", "M25.5");
+        assertThat(other).doesNotContainKey("meta");
+    }
+
+    @Test
+    void staleClaimIsRetakenOnlyWhenSessionWasNotWritten() {
+        SessionStorage storage = new SessionStorage(mongoTemplate, SessionStorageMode.TIMESERIES, false, 365, 300);
+        BulkOperations ops = mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkMode.UNORDERED, SessionStorage.SESSION_IDS)).thenReturn(ops);
+        when(ops.insert(anyList())).thenReturn(ops);
+        // Los dos sessionId ya tienen reserva: s1 pending abandonada sin sesion, s2 pending con sesion escrita
+        when(ops.execute()).thenThrow(duplicates(0, 1));
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), eq(Document.class),
+                eq(SessionStorage.SESSION_IDS))).thenReturn(new Document("state", SessionStorage.PENDING));
+        when(mongoTemplate.exists(argThat(q -> q != null && "s1".equals(q.getQueryObject().get("sessionId"))),
+                eq(GameSession.class))).thenReturn(false);
+        when(mongoTemplate.exists(argThat(q -> q != null && "s2".equals(q.getQueryObject().get("sessionId"))),
+                eq(GameSession.class))).thenReturn(true);
+
+        Set<Integer> dup = storage.claimAll(List.of(session("s1", 1), session("s2", 2)), "owner-1").duplicates();
+
+        assertThat(dup).containsExactly(1);
+        verify(mongoTemplate).updateMulti(argThat(q -> q != null
+                        && q.getQueryObject().toJson().contains("s2") && !q.getQueryObject().toJson().contains("s1")),
+                any(Update.class), eq(SessionStorage.SESSION_IDS));
+    }
+
+    @Test
+    void onlyServerRejectedWritesCountAsNotWritten() {
+        MongoWriteException rejected = new MongoWriteException(
+                new WriteError(121, "Document failed validation", new BsonDocument()), new ServerAddress(), Set.of());
+
+        assertThat(SessionStorage.notWritten(new DataIntegrityViolationException("validacion", rejected))).isTrue();
+        assertThat(SessionStorage.notWritten(new IllegalArgumentException("mapeo"))).isTrue();
+        assertThat(SessionStorage.notWritten(new DataAccessResourceFailureException("red",
+                new MongoSocketReadTimeoutException("timeout", new ServerAddress(), new IOException())))).isFalse();
+    }
+
+    private static BulkOperationException duplicates(int... indexes) {
+        List<BulkWriteError> errors = new ArrayList<>();
+        for (int i : indexes) errors.add(new BulkWriteError(11000, "duplicate key", new BsonDocument(), i));
+        return new BulkOperationException("duplicados", new MongoBulkWriteException(
+                BulkWriteResult.acknowledged(0, 0, 0, 0, List.of(), List.of()),
+                errors, null, new ServerAddress(), Set.of()));
+    }
+
+    private static GameSession session(String id, long minute) {
+        GameSession g = new GameSession();
+        g.setSessionId(id);
+        g.setPatientDni("12345678Z");
+        g.setGameId("game1");
+        g.setDisabilityCode("M25.5");
+        g.setSessionStart(Instant.parse("2025-01-01T00:00:00Z").plusSeconds(60 * minute));
+        return g;
+    }
+}
@@ -0,0 +1,45 @@
+package com.rehabiapp.data.application.sketch;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Tests unitarios del HyperLogLog usado para contar pacientes distintos por nivel.
+ */
+class HyperLogLogTest {
+
+    @Test
+    void estimateStaysWithinFivePercentAndIgnoresRepeats() {
+        HyperLogLog hll = new HyperLogLog();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 100_000; i++) hll.add(String.format("%08dZ", i));
+        }
+
+        assertThat((double) hll.estimate()).isCloseTo(100_000, within(5_000.0));
+    }
+
+    @Test
+    void smallCardinalitiesAreNearlyExact() {
+        HyperLogLog hll = new HyperLogLog();
+        for (int i = 0; i < 40; i++) hll.add("DNI-" + i);
+
+        assertThat(hll.estimate()).isBetween(39L, 41L);
+    }
+
+    @Test
+    void mergingRegistersEqualsAddingToOneSketch() {
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        HyperLogLog both = new HyperLogLog();
+        for (int i = 0; i < 5_000; i++) {
+            String dni = "P" + i;
+            (i % 2 == 0 ? a : b).add(dni);
+            both.add(dni);
+        }
+        for (int j = 0; j < HyperLogLog.REGISTERS; j++) a.update(j, b.register(j));
+
+        assertThat(a.estimate()).isEqualTo(both.estimate());
+    }
+}
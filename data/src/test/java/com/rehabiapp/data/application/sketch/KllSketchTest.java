@@ -0,0 +1,50 @@
+package com.rehabiapp.data.application.sketch;
+
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Tests unitarios del sketch KLL usado para percentiles aproximados de cohorte.
+ */
+class KllSketchTest {
+
+    @Test
+    void rankErrorStaysWithinTwoPercentAndRetainsLittle() {
+        KllSketch kll = new KllSketch();
+        SplittableRandom rnd = new SplittableRandom(7);
+        for (int i = 0; i < 200_000; i++) kll.update(rnd.nextDouble());
+
+        assertThat(kll.count()).isEqualTo(200_000);
+        for (double q = 0.1; q < 1.0; q += 0.1) {
+            assertThat(kll.rank(q)).isCloseTo(q, within(0.02));
+        }
+        int retained = kll.levels().stream().mapToInt(l -> l.size()).sum();
+        assertThat(retained).isLessThan(1_000);
+    }
+
+    @Test
+    void smallInputsAreExact() {
+        KllSketch kll = new KllSketch();
+        for (int i = 0; i < 100; i++) kll.update(i);
+
+        assertThat(kll.rank(0)).isEqualTo(0.0);
+        assertThat(kll.rank(25)).isEqualTo(0.25);
+        assertThat(kll.rank(1_000)).isEqualTo(1.0);
+    }
+
+    @Test
+    void mergedPersistedSketchesMatchOneSketch() {
+        KllSketch a = new KllSketch(), b = new KllSketch();
+        for (int i = 0; i < 50_000; i++) (i % 3 == 0 ? a : b).update(i);
+
+        KllSketch merged = KllSketch.of(a.k(), a.levels(), a.count());
+        merged.merge(KllSketch.of(b.k(), b.levels(), b.count()));
+
+        assertThat(merged.count()).isEqualTo(50_000);
+        assertThat(merged.rank(12_500)).isCloseTo(0.25, within(0.02));
+        assertThat(merged.rank(40_000)).isCloseTo(0.8, within(0.02));
+    }
+}
@@ -0,0 +1,84 @@
+package com.rehabiapp.data.infrastructure.config;
+
+import com.rehabiapp.data.infrastructure.config.MongoIndexAdvisor.Access;
+import com.rehabiapp.data.infrastructure.config.MongoIndexAdvisor.Finding;
+import com.rehabiapp.data.infrastructure.config.MongoIndexAdvisor.Kind;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+/**
+ * Tests unitarios del analisis de indices con la forma de listIndexes / $indexStats.
+ */
+class MongoIndexAdvisorTest {
+
+    private static final Instant NOW = Instant.parse("2026-10-01T00:00:00Z");
+
+    @Test
+    void legacyPatientIndexIsRedundantWithPatientSessionStart() {
+        List<Document> indexes = List.of(
+                index("_id_", new Document("_id", 1)),
+                index("uk_session_id", new Document("sessionId", 1)).append("unique", true),
+                index("idx_patient_dni", new Document("patientDni", 1)),
+                index("idx_patient_sessionstart", new Document("patientDni", 1).append("sessionStart", -1)),
+                index("idx_received_at", new Document("receivedAt", 1)));
+
+        List<Finding> findings = MongoIndexAdvisor.analyze("game_sessions", indexes, Map.of(),
+                Set.of("_id_", "uk_session_id", "idx_patient_sessionstart", "idx_received_at"),
+                Duration.ofDays(7), NOW);
+
+        assertThat(findings).containsExactly(new Finding("game_sessions", "idx_patient_dni", Kind.REDUNDANT,
+                "prefijo de idx_patient_sessionstart", false));
+    }
+
+    @Test
+    void prefixRequiresSameOrFullyInvertedDirectionsAndPlainIndex() {
+        Document ab = new Document("a", 1).append("b", 1);
+        assertThat(MongoIndexAdvisor.isPrefix(new Document("a", -1), ab)).isTrue();
+        assertThat(MongoIndexAdvisor.isPrefix(new Document("a", 1).append("b", -1),
+                new Document("a", 1).append("b", 1).append("c", 1))).isFalse();
+        assertThat(MongoIndexAdvisor.isPrefix(new Document("a", -1).append("b", -1),
+                new Document("a", 1).append("b", 1).append("c", 1))).isTrue();
+        assertThat(MongoIndexAdvisor.isPrefix(new Document("b", 1), ab)).isFalse();
+
+        // Un indice unico, o un "mayor" parcial, no se pueden sustituir.
+        List<Document> indexes = List.of(
+                index("uk_a", new Document("a", 1)).append("unique", true),
+                index("idx_c", new Document("c", 1)),
+                index("idx_c_d_partial", new Document("c", 1).append("d", 1))
+                        .append("partialFilterExpression", new Document("d", new Document("$exists", true))),
+                index("idx_a_b", ab));
+        assertThat(MongoIndexAdvisor.analyze("x", indexes, Map.of(), Set.of(), Duration.ofDays(7), NOW)).isEmpty();
+    }
+
+    @Test
+    void unusedOnlyAfterMinimumObservationWindowAndNeverForUniqueIndexes() {
+        List<Document> indexes = List.of(
+                index("idx_old", new Document("x", 1)),
+                index("idx_new", new Document("y", 1)),
+                index("uk_z", new Document("z", 1)).append("unique", true),
+                index("idx_used", new Document("w", 1)));
+        Map<String, Access> accesses = Map.of(
+                "idx_old", new Access(0, NOW.minus(Duration.ofDays(10))),
+                "idx_new", new Access(0, NOW.minus(Duration.ofDays(1))),
+                "uk_z", new Access(0, NOW.minus(Duration.ofDays(10))),
+                "idx_used", new Access(42, NOW.minus(Duration.ofDays(10))));
+
+        List<Finding> findings = MongoIndexAdvisor.analyze("x", indexes, accesses, Set.of("idx_old"),
+                Duration.ofDays(7), NOW);
+
+        assertThat(findings).extracting(Finding::index, Finding::kind, Finding::declared)
+                .containsExactly(tuple("idx_old", Kind.UNUSED, true));
+    }
+
+    private static Document index(String name, Document key) {
+        return new Document("v", 2).append("key", key).append("name", name);
+    }
+}
@@ -0,0 +1,32 @@
+package com.rehabiapp.data.infrastructure.config;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.ServerAddress;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.UncategorizedMongoDbException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests unitarios del tratamiento de errores al borrar indices redundantes (sin MongoDB).
+ */
+class MongoIndexInitializerTest {
+
+    @Test
+    void indexDroppedByAnotherReplicaIsRecognised() {
+        assertThat(MongoIndexInitializer.indexNotFound(translated(27, "IndexNotFound"))).isTrue();
+        assertThat(MongoIndexInitializer.indexNotFound(translated(13, "Unauthorized"))).isFalse();
+    }
+
+    private static UncategorizedMongoDbException translated(int code, String codeName) {
+        BsonDocument response = new BsonDocument("ok", new BsonInt32(0))
+                .append("code", new BsonInt32(code))
+                .append("codeName", new BsonString(codeName))
+                .append("errmsg", new BsonString(codeName));
+        return new UncategorizedMongoDbException(codeName,
+                new MongoCommandException(response, new ServerAddress()));
+    }
+}
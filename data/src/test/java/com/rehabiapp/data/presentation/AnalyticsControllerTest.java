@@ -1,11 +1,16 @@
 package com.rehabiapp.data.presentation;
 
+import com.rehabiapp.data.application.service.AnalyticsResponseCache;
 import com.rehabiapp.data.application.service.CohortComparisonService;
+import com.rehabiapp.data.application.service.PatientDataVersionService;
 import com.rehabiapp.data.application.service.RomTimeSeriesService;
 import com.rehabiapp.data.application.service.dto.PatientAnalyticsResponse;
+import com.rehabiapp.data.application.service.dto.RomTimeSeriesResponse;
+import com.rehabiapp.data.domain.model.GameSession;
 import com.rehabiapp.data.domain.model.PatientProgress;
 import com.rehabiapp.data.domain.repository.PatientProgressRepository;
 import com.rehabiapp.data.infrastructure.config.InternalAuthFilter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.servlet.FilterChain;
 import java.util.List;
 import org.junit.jupiter.api.Test;
@@ -14,9 +19,12 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -27,7 +35,10 @@ class AnalyticsControllerTest {
     private final PatientProgressRepository repo = mock(PatientProgressRepository.class);
     private final RomTimeSeriesService romService = mock(RomTimeSeriesService.class);
     private final CohortComparisonService cohortService = mock(CohortComparisonService.class);
-    private final AnalyticsController controller = new AnalyticsController(repo, romService, cohortService);
+    private final AnalyticsResponseCache cache = new AnalyticsResponseCache(new SimpleMeterRegistry(), true, 100, 60);
+    private final PatientDataVersionService versions = mock(PatientDataVersionService.class);
+    private final AnalyticsController controller =
+            new AnalyticsController(repo, romService, cohortService, cache, versions);
     private final InternalAuthFilter filter = new InternalAuthFilter("test-key");
 
     @Test
@@ -38,7 +49,7 @@ class AnalyticsControllerTest {
         monthly.setGameId("*");
         when(repo.findByPatientDni("12345678Z")).thenReturn(List.of(weekly, monthly));
 
-        ResponseEntity<PatientAnalyticsResponse> r = controller.patient("12345678Z");
+        ResponseEntity<PatientAnalyticsResponse> r = controller.patient("12345678Z", get());
 
         assertThat(r.getStatusCode()).isEqualTo(HttpStatus.OK);
         assertThat(r.getBody()).isNotNull();
@@ -47,11 +58,78 @@ class AnalyticsControllerTest {
         assertThat(r.getBody().patientDni()).isEqualTo("12345678Z");
     }
 
+    @Test
+    void repeatedReadIsCachedUntilIngestForThatDni() {
+        PatientProgress weekly = new PatientProgress();
+        weekly.setGameId("reach");
+        when(repo.findByPatientDni("12345678Z")).thenReturn(List.of(weekly));
+
+        controller.patient("12345678Z", get());
+        controller.patient("12345678Z", get());
+        verify(repo, times(1)).findByPatientDni("12345678Z");
+
+        GameSession other = new GameSession();
+        other.setPatientDni("11111111H");
+        cache.onSessionsInserted(List.of(other));
+        controller.patient("12345678Z", get());
+        verify(repo, times(1)).findByPatientDni("12345678Z");
+
+        GameSession same = new GameSession();
+        same.setPatientDni("12345678Z");
+        cache.onSessionsInserted(List.of(same));
+        controller.patient("12345678Z", get());
+        verify(repo, times(2)).findByPatientDni("12345678Z");
+    }
+
+    @Test
+    void cachedBodyIsNotServedUnderNewerEtag() {
+        PatientProgress weekly = new PatientProgress();
+        weekly.setGameId("reach");
+        when(repo.findByPatientDni("12345678Z")).thenReturn(List.of(weekly));
+        when(versions.etag("12345678Z")).thenReturn("\"3-1700000000000\"");
+        controller.patient("12345678Z", get());
+
+        // Ingesta atendida por otra replica: aqui no hay invalidacion local, solo cambia la version
+        when(versions.etag("12345678Z")).thenReturn("\"4-1700000000000\"");
+        ResponseEntity<PatientAnalyticsResponse> r = controller.patient("12345678Z", get());
+
+        assertThat(r.getHeaders().getETag()).isEqualTo("\"4-1700000000000\"");
+        verify(repo, times(2)).findByPatientDni("12345678Z");
+    }
+
+    @Test
+    void romTimeSeriesIsRecomputedWhenDataVersionChanges() {
+        when(romService.compute("12345678Z", "week", null, null, null)).thenReturn(
+                new RomTimeSeriesResponse("12345678Z", "week", null, null, List.of(), null));
+        when(versions.etag("12345678Z")).thenReturn("\"3-1700000000000\"");
+        controller.romTimeSeries("12345678Z", "week", null, null, null);
+        controller.romTimeSeries("12345678Z", "week", null, null, null);
+        verify(romService, times(1)).compute("12345678Z", "week", null, null, null);
+
+        when(versions.etag("12345678Z")).thenReturn("\"4-1700000000000\"");
+        controller.romTimeSeries("12345678Z", "week", null, null, null);
+        verify(romService, times(2)).compute("12345678Z", "week", null, null, null);
+    }
+
+    @Test
+    void matchingIfNoneMatch_returns304WithoutReading() {
+        when(versions.etag("12345678Z")).thenReturn("\"3-1700000000000\"");
+        MockHttpServletRequest req = new MockHttpServletRequest("GET", "/analytics/patient/12345678Z");
+        req.addHeader("If-None-Match", "\"3-1700000000000\"");
+
+        ResponseEntity<PatientAnalyticsResponse> r =
+                controller.patient("12345678Z", new ServletWebRequest(req, new MockHttpServletResponse()));
+
+        assertThat(r.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(r.getHeaders().getETag()).isEqualTo("\"3-1700000000000\"");
+        verify(repo, times(0)).findByPatientDni("12345678Z");
+    }
+
     @Test
     void validDniNoRows_returns404() {
         when(repo.findByPatientDni("99999999X")).thenReturn(List.of());
 
-        ResponseEntity<PatientAnalyticsResponse> r = controller.patient("99999999X");
+        ResponseEntity<PatientAnalyticsResponse> r = controller.patient("99999999X", get());
 
         assertThat(r.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
     }
@@ -80,4 +158,9 @@ class AnalyticsControllerTest {
         assertThat(res.getStatus()).isEqualTo(200);
         Mockito.verify(chain).doFilter(req, res);
     }
+
+    private static ServletWebRequest get() {
+        return new ServletWebRequest(new MockHttpServletRequest("GET", "/analytics/patient"),
+                new MockHttpServletResponse());
+    }
 }
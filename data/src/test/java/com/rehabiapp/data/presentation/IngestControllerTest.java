@@ -2,6 +2,9 @@ package com.rehabiapp.data.presentation;
 
 import com.rehabiapp.data.application.service.DuplicateSessionException;
 import com.rehabiapp.data.application.service.GameSessionIngestService;
+import com.rehabiapp.data.application.service.IngestBackpressureException;
+import com.rehabiapp.data.application.service.dto.BatchIngestItemResult;
+import com.rehabiapp.data.application.service.dto.BatchIngestResponse;
 import com.rehabiapp.data.application.service.dto.GameSessionIngestRequest;
 import com.rehabiapp.data.application.service.dto.GameSessionIngestResponse;
 import com.rehabiapp.data.application.service.dto.MovementMetricsDto;
@@ -9,6 +12,7 @@ import com.rehabiapp.data.infrastructure.config.InternalAuthFilter;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.http.HttpServletResponse;
 import java.time.Instant;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.http.HttpStatus;
@@ -48,6 +52,26 @@ class IngestControllerTest {
         assertThat(result.getBody().status()).isEqualTo("CREATED");
     }
 
+    @Test
+    void queuedRequestReturns202() {
+        when(service.ingest(any())).thenReturn(new GameSessionIngestResponse(
+                "id1", "sess-001", Instant.now(), "QUEUED"));
+
+        ResponseEntity<GameSessionIngestResponse> result =
+                controller.ingestGameSession(buildValidRequest("sess-001"));
+
+        assertThat(result.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+    }
+
+    @Test
+    void fullQueueReturns429WithRetryAfter() {
+        ResponseEntity<?> result = new GlobalExceptionHandler()
+                .handleBackpressure(new IngestBackpressureException(2));
+
+        assertThat(result.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        assertThat(result.getHeaders().getFirst("Retry-After")).isEqualTo("2");
+    }
+
     @Test
     void duplicateSessionReturns409ViaHandler() {
         when(service.ingest(any())).thenThrow(new DuplicateSessionException("sess-dup"));
@@ -60,6 +84,22 @@ class IngestControllerTest {
         assertThat(result.getBody().toString()).contains("duplicate_session");
     }
 
+    @Test
+    void batchRequestReturns200WithPerItemStatus() {
+        BatchIngestResponse resp = new BatchIngestResponse(2, 1, 1, 0, List.of(
+                new BatchIngestItemResult(0, "sess-001", "id1", "CREATED", List.of()),
+                new BatchIngestItemResult(1, "sess-002", null, "DUPLICATE", List.of())));
+        when(service.ingestBatch(any())).thenReturn(resp);
+
+        ResponseEntity<BatchIngestResponse> result = controller.ingestGameSessionBatch(
+                List.of(buildValidRequest("sess-001"), buildValidRequest("sess-002")));
+
+        assertThat(result.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(result.getBody()).isNotNull();
+        assertThat(result.getBody().items()).extracting(BatchIngestItemResult::status)
+                .containsExactly("CREATED", "DUPLICATE");
+    }
+
     // --- Filter tests ---
 
     @Test